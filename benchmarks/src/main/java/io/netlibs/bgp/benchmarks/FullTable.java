@@ -0,0 +1,218 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.benchmarks.FullTable.java
+ */
+package io.netlibs.bgp.benchmarks;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import io.netlibs.bgp.netty.protocol.update.UpdatePacket;
+import io.netlibs.bgp.protocol.ASType;
+import io.netlibs.bgp.protocol.InetAddressNextHop;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.Origin;
+import io.netlibs.bgp.protocol.PathSegment;
+import io.netlibs.bgp.protocol.PathSegmentType;
+import io.netlibs.bgp.protocol.attributes.ASPathAttribute;
+import io.netlibs.bgp.protocol.attributes.MultiExitDiscPathAttribute;
+import io.netlibs.bgp.protocol.attributes.NextHopPathAttribute;
+import io.netlibs.bgp.protocol.attributes.OriginPathAttribute;
+import io.netlibs.bgp.protocol.attributes.PathAttribute;
+
+/**
+ * Synthetic IPv4 unicast full table used as input by the benchmarks.
+ *
+ * The table is generated from a fixed seed, so every run sees the same prefixes. The prefix length distribution and the number of
+ * prefixes sharing one set of path attributes roughly follow what a default-free zone feed looks like: most prefixes are /24s and
+ * about ten prefixes share an AS path.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+public final class FullTable
+{
+
+  /**
+   * number of prefixes in a table resembling today's IPv4 default-free zone
+   */
+  public static final int FULL_TABLE_SIZE = 800000;
+
+  private static final int PREFIXES_PER_PATH = 10;
+  private static final long SEED = 4271L;
+
+  // cumulative distribution of the prefix lengths /16 .. /24
+  private static final int[] LENGTHS = { 16, 17, 18, 19, 20, 21, 22, 23, 24 };
+  private static final int[] CUMULATIVE_PERCENT = { 2, 3, 5, 8, 13, 21, 31, 41, 100 };
+
+  private final List<List<NetworkLayerReachabilityInformation>> prefixGroups;
+  private final List<Collection<PathAttribute>> pathAttributes;
+  private final InetAddressNextHop<Inet4Address> nextHop;
+
+  /**
+   * Generate a table
+   *
+   * @param size
+   *          the number of distinct prefixes in the table
+   */
+  public FullTable(final int size)
+  {
+    final Random random = new Random(SEED);
+    final Set<Long> seen = new HashSet<Long>();
+
+    this.nextHop = new InetAddressNextHop<Inet4Address>(address(192, 0, 2, 1));
+    this.prefixGroups = new ArrayList<List<NetworkLayerReachabilityInformation>>((size / PREFIXES_PER_PATH) + 1);
+    this.pathAttributes = new ArrayList<Collection<PathAttribute>>((size / PREFIXES_PER_PATH) + 1);
+
+    List<NetworkLayerReachabilityInformation> group = null;
+
+    while (seen.size() < size)
+    {
+      final int prefixLength = prefixLength(random.nextInt(100));
+      final int address = random.nextInt() & (int) (0xffffffff00000000L >>> prefixLength);
+
+      if (!seen.add(((long) prefixLength << 32) | (address & 0xffffffffL)))
+      {
+        continue;
+      }
+
+      if ((group == null) || (group.size() == PREFIXES_PER_PATH))
+      {
+        group = new ArrayList<NetworkLayerReachabilityInformation>(PREFIXES_PER_PATH);
+        this.prefixGroups.add(group);
+        this.pathAttributes.add(this.pathAttributes(random));
+      }
+
+      group.add(nlri(prefixLength, address));
+    }
+  }
+
+  /**
+   * @return the prefixes of the table, grouped by the path attributes they share
+   */
+  public List<List<NetworkLayerReachabilityInformation>> getPrefixGroups()
+  {
+    return this.prefixGroups;
+  }
+
+  /**
+   * @return the path attributes of each prefix group. The next hop is not part of the attributes.
+   */
+  public List<Collection<PathAttribute>> getPathAttributes()
+  {
+    return this.pathAttributes;
+  }
+
+  /**
+   * @return the next hop all prefixes are reachable through
+   */
+  public InetAddressNextHop<Inet4Address> getNextHop()
+  {
+    return this.nextHop;
+  }
+
+  /**
+   * @return one UPDATE packet per prefix group, carrying the path attributes and the next hop of the group
+   */
+  public List<UpdatePacket> toUpdatePackets()
+  {
+    final List<UpdatePacket> packets = new ArrayList<UpdatePacket>(this.prefixGroups.size());
+
+    for (int i = 0; i < this.prefixGroups.size(); i++)
+    {
+      final UpdatePacket packet = new UpdatePacket();
+
+      packet.getPathAttributes().addAll(this.pathAttributes.get(i));
+      packet.getPathAttributes().add(new NextHopPathAttribute(this.nextHop));
+      packet.getNlris().addAll(this.prefixGroups.get(i));
+
+      packets.add(packet);
+    }
+
+    return packets;
+  }
+
+  private Collection<PathAttribute> pathAttributes(final Random random)
+  {
+    final List<PathAttribute> attributes = new LinkedList<PathAttribute>();
+    final int[] ases = new int[2 + random.nextInt(5)];
+
+    for (int i = 0; i < ases.length; i++)
+    {
+      ases[i] = 1 + random.nextInt(64000);
+    }
+
+    attributes.add(new OriginPathAttribute(Origin.IGP));
+    attributes.add(new ASPathAttribute(ASType.AS_NUMBER_4OCTETS,
+        new PathSegment[] { new PathSegment(ASType.AS_NUMBER_4OCTETS, PathSegmentType.AS_SEQUENCE, ases) }));
+    attributes.add(new MultiExitDiscPathAttribute(random.nextInt(100)));
+
+    return attributes;
+  }
+
+  private static int prefixLength(final int percentile)
+  {
+    int i = 0;
+
+    while (percentile >= CUMULATIVE_PERCENT[i])
+    {
+      i++;
+    }
+
+    return LENGTHS[i];
+  }
+
+  private static NetworkLayerReachabilityInformation nlri(final int prefixLength, final int address)
+  {
+    final byte[] prefix = new byte[(prefixLength + 7) / 8];
+
+    for (int i = 0; i < prefix.length; i++)
+    {
+      prefix[i] = (byte) (address >>> (24 - (8 * i)));
+    }
+
+    return new NetworkLayerReachabilityInformation(prefixLength, prefix);
+  }
+
+  private static Inet4Address address(final int... octets)
+  {
+    final byte[] raw = new byte[octets.length];
+
+    for (int i = 0; i < octets.length; i++)
+    {
+      raw[i] = (byte) octets[i];
+    }
+
+    try
+    {
+      return (Inet4Address) InetAddress.getByAddress(raw);
+    }
+    catch (final UnknownHostException e)
+    {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+}
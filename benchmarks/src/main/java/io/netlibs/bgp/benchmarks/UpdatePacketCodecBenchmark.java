@@ -0,0 +1,117 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.benchmarks.UpdatePacketCodecBenchmark.java
+ */
+package io.netlibs.bgp.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netlibs.bgp.netty.codec.UpdatePacketDecoder;
+import io.netlibs.bgp.netty.protocol.BGPv4Packet;
+import io.netlibs.bgp.netty.protocol.update.UpdatePacket;
+import io.netlibs.bgp.protocol.BGPv4Constants;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+/**
+ * Measures decoding and encoding of the UPDATE packets making up a full table. Every operation handles the next UPDATE of the table, so
+ * the reported time and allocation figures are per UPDATE packet.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UpdatePacketCodecBenchmark
+{
+
+  @Param({ "800000" })
+  private int tableSize;
+
+  private final UpdatePacketDecoder decoder = new UpdatePacketDecoder();
+
+  private List<UpdatePacket> packets;
+  private ByteBuf[] wirePackets;
+  private ByteBuf outbound;
+  private int decodeIndex;
+  private int encodeIndex;
+
+  @Setup
+  public void setup()
+  {
+    this.packets = new FullTable(this.tableSize).toUpdatePackets();
+    this.wirePackets = new ByteBuf[this.packets.size()];
+    this.outbound = PooledByteBufAllocator.DEFAULT.buffer(BGPv4Constants.BGP_PACKET_MAX_LENGTH);
+
+    for (int i = 0; i < this.wirePackets.length; i++)
+    {
+      final ByteBuf encoded = this.packets.get(i).encodePacket();
+
+      // the decoder expects the buffer to point to the first octet after the type octet
+      encoded.skipBytes(BGPv4Constants.BGP_PACKET_HEADER_LENGTH);
+      this.wirePackets[i] = encoded.slice();
+    }
+  }
+
+  @TearDown
+  public void tearDown()
+  {
+    this.outbound.release();
+  }
+
+  @Benchmark
+  public BGPv4Packet decodeUpdatePacket()
+  {
+    final ByteBuf buffer = this.wirePackets[this.decodeIndex];
+
+    this.decodeIndex = (this.decodeIndex + 1) % this.wirePackets.length;
+    buffer.readerIndex(0);
+
+    return this.decoder.decodeUpdatePacket(buffer);
+  }
+
+  @Benchmark
+  public ByteBuf encodePacket()
+  {
+    final UpdatePacket packet = this.packets.get(this.encodeIndex);
+
+    this.encodeIndex = (this.encodeIndex + 1) % this.wirePackets.length;
+    this.outbound.clear();
+    packet.encodePacket(this.outbound);
+
+    return this.outbound;
+  }
+
+}
@@ -0,0 +1,128 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.netty.fsm.OutboundRoutingUpdateQueueBenchmark.java
+ */
+package io.netlibs.bgp.netty.fsm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netlibs.bgp.benchmarks.FullTable;
+import io.netlibs.bgp.netty.protocol.update.UpdatePacket;
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.RIBSide;
+import io.netlibs.bgp.rib.Route;
+import io.netlibs.bgp.rib.RoutingInformationBaseVisitor;
+
+/**
+ * Measures the outbound routing update queue with a full table of pending announcements, as it happens when a peer session comes up.
+ *
+ * <ul>
+ * <li>queueFullTable queues the announcements of all routes of the table</li>
+ * <li>buildUpdates packs the queued announcements into UPDATE packets</li>
+ * </ul>
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OutboundRoutingUpdateQueueBenchmark
+{
+
+  private static final String PEER_NAME = "benchmark";
+
+  @Param({ "800000" })
+  private int tableSize;
+
+  private List<Route> routes;
+
+  /**
+   * queue filled with the full table before each invocation of the benchmark, so only the packing is measured
+   */
+  @State(Scope.Thread)
+  public static class QueuedTable
+  {
+    private OutboundRoutingUpdateQueue queue;
+
+    @Setup(Level.Invocation)
+    public void setup(final OutboundRoutingUpdateQueueBenchmark benchmark)
+    {
+      this.queue = benchmark.queueFullTable();
+    }
+  }
+
+  @Setup
+  public void setup()
+  {
+    final FullTable table = new FullTable(this.tableSize);
+
+    this.routes = new ArrayList<Route>(this.tableSize);
+
+    for (int i = 0; i < table.getPrefixGroups().size(); i++)
+    {
+      for (final NetworkLayerReachabilityInformation nlri : table.getPrefixGroups().get(i))
+      {
+        this.routes.add(new Route(AddressFamilyKey.IPV4_UNICAST_FORWARDING, nlri, table.getPathAttributes().get(i), table.getNextHop()));
+      }
+    }
+  }
+
+  @Benchmark
+  public OutboundRoutingUpdateQueue queueFullTable()
+  {
+    final OutboundRoutingUpdateQueue queue = new OutboundRoutingUpdateQueue();
+    final RoutingInformationBaseVisitor visitor = queue.getImportVisitor();
+
+    queue.setPeerName(PEER_NAME);
+    queue.setUpdateMask(Collections.singleton(AddressFamilyKey.IPV4_UNICAST_FORWARDING));
+
+    for (final Route route : this.routes)
+    {
+      visitor.visitRouteNode(PEER_NAME, RIBSide.Local, route);
+    }
+
+    return queue;
+  }
+
+  @Benchmark
+  public List<UpdatePacket> buildUpdates(final QueuedTable queued)
+  {
+    return queued.queue.buildUpdates();
+  }
+
+}
@@ -0,0 +1,182 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.RoutingInformationBaseBenchmark.java
+ */
+package io.netlibs.bgp.rib;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netlibs.bgp.benchmarks.FullTable;
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.RIBSide;
+import io.netlibs.bgp.protocol.attributes.PathAttribute;
+
+/**
+ * Measures the routing information base operations against a RIB holding a full table.
+ *
+ * <ul>
+ * <li>addRoutes re-announces the prefixes of one UPDATE, which replaces routes already present</li>
+ * <li>withdrawAndReannounce withdraws the prefixes of one UPDATE and announces them again, so the RIB stays at full table size</li>
+ * <li>lookupRoute performs a longest prefix match of a host address</li>
+ * <li>lookupPrefixKey performs the same match with the host address given as IPv4 prefix key</li>
+ * <li>loadFullTable fills an empty RIB with the whole table, one UPDATE at a time</li>
+ * </ul>
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingInformationBaseBenchmark
+{
+
+  private static final int LOOKUP_ADDRESSES = 1 << 16;
+
+  @Param({ "800000" })
+  private int tableSize;
+
+  private FullTable table;
+  private List<List<NetworkLayerReachabilityInformation>> prefixGroups;
+  private List<Collection<PathAttribute>> pathAttributes;
+  private RoutingInformationBase rib;
+  private NetworkLayerReachabilityInformation[] lookupAddresses;
+  private IPv4PrefixKey[] lookupKeys;
+  private int groupIndex;
+  private int lookupIndex;
+
+  @Setup
+  public void setup()
+  {
+    this.table = new FullTable(this.tableSize);
+    this.prefixGroups = this.table.getPrefixGroups();
+    this.pathAttributes = this.table.getPathAttributes();
+    this.rib = this.loadFullTable();
+
+    // host addresses inside the announced prefixes, so every lookup walks down to a route
+    final Random random = new Random(LOOKUP_ADDRESSES);
+    final List<NetworkLayerReachabilityInformation> addresses = new ArrayList<NetworkLayerReachabilityInformation>(LOOKUP_ADDRESSES);
+
+    for (int i = 0; i < LOOKUP_ADDRESSES; i++)
+    {
+      final List<NetworkLayerReachabilityInformation> group = this.prefixGroups.get(random.nextInt(this.prefixGroups.size()));
+      final byte[] prefix = group.get(random.nextInt(group.size())).getPrefix();
+      final byte[] host = new byte[4];
+
+      System.arraycopy(prefix, 0, host, 0, prefix.length);
+      host[3] |= (byte) random.nextInt(256);
+
+      addresses.add(new NetworkLayerReachabilityInformation(32, host));
+    }
+
+    this.lookupAddresses = addresses.toArray(new NetworkLayerReachabilityInformation[LOOKUP_ADDRESSES]);
+    this.lookupKeys = new IPv4PrefixKey[LOOKUP_ADDRESSES];
+
+    for (int i = 0; i < LOOKUP_ADDRESSES; i++)
+    {
+      this.lookupKeys[i] = IPv4PrefixKey.of(this.lookupAddresses[i]);
+    }
+  }
+
+  @Benchmark
+  public RoutingInformationBase addRoutes()
+  {
+    final int index = this.nextGroup();
+
+    this.rib.addRoutes(this.prefixGroups.get(index), this.pathAttributes.get(index), this.table.getNextHop());
+
+    return this.rib;
+  }
+
+  @Benchmark
+  public RoutingInformationBase withdrawAndReannounce()
+  {
+    final int index = this.nextGroup();
+
+    this.rib.withdrawRoutes(this.prefixGroups.get(index));
+    this.rib.addRoutes(this.prefixGroups.get(index), this.pathAttributes.get(index), this.table.getNextHop());
+
+    return this.rib;
+  }
+
+  @Benchmark
+  public LookupResult lookupRoute()
+  {
+    this.lookupIndex = (this.lookupIndex + 1) & (LOOKUP_ADDRESSES - 1);
+
+    return this.rib.lookupRoute(this.lookupAddresses[this.lookupIndex]);
+  }
+
+  @Benchmark
+  public LookupResult lookupPrefixKey()
+  {
+    this.lookupIndex = (this.lookupIndex + 1) & (LOOKUP_ADDRESSES - 1);
+
+    return this.rib.lookupRoute(this.lookupKeys[this.lookupIndex]);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 3)
+  @Measurement(iterations = 5)
+  public RoutingInformationBase loadFullTable()
+  {
+    final RoutingInformationBase loaded = new RoutingInformationBase();
+
+    loaded.setPeerName("benchmark");
+    loaded.setSide(RIBSide.Remote);
+    loaded.setAddressFamilyKey(AddressFamilyKey.IPV4_UNICAST_FORWARDING);
+
+    for (int i = 0; i < this.prefixGroups.size(); i++)
+    {
+      loaded.addRoutes(this.prefixGroups.get(i), this.pathAttributes.get(i), this.table.getNextHop());
+    }
+
+    return loaded;
+  }
+
+  private int nextGroup()
+  {
+    final int index = this.groupIndex;
+
+    this.groupIndex = (this.groupIndex + 1) % this.prefixGroups.size();
+
+    return index;
+  }
+
+}
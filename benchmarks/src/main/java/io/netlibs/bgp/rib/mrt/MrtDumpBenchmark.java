@@ -0,0 +1,181 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.mrt.MrtDumpBenchmark.java
+ */
+package io.netlibs.bgp.rib.mrt;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netlibs.bgp.benchmarks.FullTable;
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.RIBSide;
+import io.netlibs.bgp.rib.PeerRoutingInformationBaseManager;
+import io.netlibs.bgp.rib.RoutingInformationBase;
+
+/**
+ * Measures MRT dumps.
+ *
+ * <ul>
+ * <li>load reads a TABLE_DUMP_V2 file into empty RIBs</li>
+ * <li>dump writes the RIB loaded from the file back into a TABLE_DUMP_V2 file</li>
+ * </ul>
+ *
+ * Without the file parameter, the benchmark dumps a synthetic full table of a single peer. Pass a table dump of a route collector to
+ * measure against real-world tables instead:
+ *
+ * <pre>
+ *   gradle :benchmarks:jmh -Pjmh.include=MrtDump -Pjmh.args="-p file=/var/tmp/rib.20161001.0000"
+ * </pre>
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MrtDumpBenchmark
+{
+
+  @Param({ "" })
+  private String file;
+
+  @Param({ "800000" })
+  private int tableSize;
+
+  private Path input;
+  private Path output;
+  private boolean generated;
+  private Map<RoutingInformationBase, MrtPeer> loaded;
+  private Inet4Address collectorId;
+
+  @Setup
+  public void setup() throws IOException
+  {
+    this.collectorId = (Inet4Address) InetAddress.getByAddress(new byte[] { (byte) 192, 0, 2, 1 });
+    this.output = Files.createTempFile("mrt-dump", ".mrt");
+
+    if (!this.file.isEmpty())
+    {
+      this.input = Paths.get(this.file);
+    }
+    else
+    {
+      this.input = Files.createTempFile("mrt-table", ".mrt");
+      this.generated = true;
+      this.writeSyntheticTable();
+    }
+
+    // the RIBs to dump, loaded once
+    final PeerRoutingInformationBaseManager pribm = new PeerRoutingInformationBaseManager();
+    final MrtDumpReader reader = new MrtDumpReader(this.input);
+
+    reader.load(pribm, RIBSide.Remote);
+
+    this.loaded = new LinkedHashMap<RoutingInformationBase, MrtPeer>();
+
+    for (final MrtPeer peer : reader.getPeers())
+    {
+      for (final AddressFamilyKey afk : new AddressFamilyKey[] { AddressFamilyKey.IPV4_UNICAST_FORWARDING,
+          AddressFamilyKey.IPV6_UNICAST_FORWARDING })
+      {
+        final RoutingInformationBase rib = pribm.peerRoutingInformationBase(peer.getAddress().getHostAddress()).routingBase(RIBSide.Remote,
+            afk);
+
+        if (rib != null)
+        {
+          this.loaded.put(rib, peer);
+        }
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException
+  {
+    Files.deleteIfExists(this.output);
+
+    if (this.generated)
+    {
+      Files.delete(this.input);
+    }
+  }
+
+  @Benchmark
+  public long load() throws IOException
+  {
+    return new MrtDumpReader(this.input).load(new PeerRoutingInformationBaseManager(), RIBSide.Remote);
+  }
+
+  @Benchmark
+  public long dump() throws IOException
+  {
+    try (MrtDumpWriter writer = new MrtDumpWriter(this.output, this.collectorId, "benchmark"))
+    {
+      return writer.dump(this.loaded);
+    }
+  }
+
+  private void writeSyntheticTable() throws IOException
+  {
+    final FullTable table = new FullTable(this.tableSize);
+    final PeerRoutingInformationBaseManager pribm = new PeerRoutingInformationBaseManager();
+    final List<List<NetworkLayerReachabilityInformation>> groups = table.getPrefixGroups();
+
+    pribm.peerRoutingInformationBase("benchmark").allocateRoutingInformationBase(RIBSide.Remote, AddressFamilyKey.IPV4_UNICAST_FORWARDING);
+
+    final RoutingInformationBase rib = pribm.peerRoutingInformationBase("benchmark").routingBase(RIBSide.Remote,
+        AddressFamilyKey.IPV4_UNICAST_FORWARDING);
+
+    for (int i = 0; i < groups.size(); i++)
+    {
+      rib.addRoutes(groups.get(i), table.getPathAttributes().get(i), table.getNextHop());
+    }
+
+    try (MrtDumpWriter writer = new MrtDumpWriter(this.input, this.collectorId, "benchmark"))
+    {
+      writer.dump(Collections.singletonMap(rib, new MrtPeer(table.getNextHop().getAddress(), table.getNextHop().getAddress(), 64500)));
+    }
+  }
+
+}
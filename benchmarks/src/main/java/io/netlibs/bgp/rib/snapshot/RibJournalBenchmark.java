@@ -0,0 +1,179 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.snapshot.RibJournalBenchmark.java
+ */
+package io.netlibs.bgp.rib.snapshot;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netlibs.bgp.benchmarks.FullTable;
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.RIBSide;
+import io.netlibs.bgp.rib.PeerRoutingInformationBaseManager;
+import io.netlibs.bgp.rib.RoutingInformationBase;
+
+/**
+ * Measures the RIB journal.
+ *
+ * <ul>
+ * <li>replay applies the whole journal to empty RIBs, as it happens after a crash</li>
+ * <li>readEntries decodes the entries without applying them, the cost of auditing a journal</li>
+ * </ul>
+ *
+ * Without the journal parameter, the benchmark records a synthetic journal: a full table load followed by the given number of rounds of
+ * withdrawing and re-announcing every prefix group. Pass the directory of a journal recorded in production to reproduce its convergence
+ * behaviour instead:
+ *
+ * <pre>
+ *   gradle :benchmarks:jmh -Pjmh.include=RibJournal -Pjmh.args="-p journal=/var/lib/bgp/journal"
+ * </pre>
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RibJournalBenchmark
+{
+
+  @Param({ "" })
+  private String journal;
+
+  @Param({ "800000" })
+  private int tableSize;
+
+  @Param({ "1" })
+  private int churnRounds;
+
+  private Path directory;
+  private boolean generated;
+
+  @Setup
+  public void setup() throws IOException
+  {
+    if (!this.journal.isEmpty())
+    {
+      this.directory = Paths.get(this.journal);
+
+      return;
+    }
+
+    final FullTable table = new FullTable(this.tableSize);
+
+    this.directory = Files.createTempDirectory("rib-journal");
+    this.generated = true;
+
+    try (RibJournal recorder = new RibJournal(this.directory, Runnable::run, 64L << 20, false))
+    {
+      final RoutingInformationBase recorded = this.recordedRib(recorder);
+      final List<List<NetworkLayerReachabilityInformation>> groups = table.getPrefixGroups();
+
+      for (int round = 0; round <= this.churnRounds; round++)
+      {
+        for (int i = 0; i < groups.size(); i++)
+        {
+          if (round > 0)
+          {
+            recorded.withdrawRoutes(groups.get(i));
+          }
+
+          recorded.addRoutes(groups.get(i), table.getPathAttributes().get(i), table.getNextHop());
+        }
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException
+  {
+    if (this.generated)
+    {
+      try (Stream<Path> files = Files.walk(this.directory))
+      {
+        final List<Path> paths = new ArrayList<Path>();
+
+        files.sorted(Comparator.reverseOrder()).forEach(paths::add);
+
+        for (final Path path : paths)
+        {
+          Files.delete(path);
+        }
+      }
+    }
+  }
+
+  @Benchmark
+  public PeerRoutingInformationBaseManager replay() throws IOException
+  {
+    final PeerRoutingInformationBaseManager pribm = new PeerRoutingInformationBaseManager();
+
+    new RibJournalReader(this.directory).replay(pribm, 0);
+
+    return pribm;
+  }
+
+  @Benchmark
+  public long readEntries() throws IOException
+  {
+    final long[] changes = new long[1];
+
+    new RibJournalReader(this.directory).read(0, entry -> changes[0] += entry.getChanges().size());
+
+    return changes[0];
+  }
+
+  private RoutingInformationBase recordedRib(final RibJournal recorder)
+  {
+    final PeerRoutingInformationBaseManager pribm = new PeerRoutingInformationBaseManager();
+
+    pribm.peerRoutingInformationBase("benchmark").allocateRoutingInformationBase(RIBSide.Remote, AddressFamilyKey.IPV4_UNICAST_FORWARDING);
+
+    final RoutingInformationBase recorded = pribm.peerRoutingInformationBase("benchmark").routingBase(RIBSide.Remote,
+        AddressFamilyKey.IPV4_UNICAST_FORWARDING);
+
+    recorded.addPerRibListener(recorder);
+
+    return recorded;
+  }
+
+}
@@ -19,7 +19,6 @@ package io.netlibs.bgp.handlers;
 import java.util.List;
 
 import io.netlibs.bgp.netty.codec.BGPv4PacketDecoder;
-import io.netlibs.bgp.netty.codec.BGPv4PacketEncoder;
 import io.netlibs.bgp.netty.protocol.BGPv4Packet;
 import io.netlibs.bgp.netty.protocol.ProtocolPacketException;
 import io.netty.buffer.ByteBuf;
@@ -106,14 +105,18 @@ public class BGPv4Codec extends ByteToMessageCodec<BGPv4Packet>
   @Override
   protected void encode(final ChannelHandlerContext ctx, final BGPv4Packet msg, final ByteBuf out) throws Exception
   {
+    final int packetStart = out.writerIndex();
+
     try
     {
-      final ByteBuf buffer = msg.apply(new BGPv4PacketEncoder());
+      // the packet is written straight into the pooled outbound buffer
+      msg.encodePacket(out);
       log.debug("Sending: {}", msg);
-      out.writeBytes(buffer);
     }
     catch (Exception ex)
     {
+      // drop any partially written packet
+      out.writerIndex(packetStart);
       log.warn("Error encoding packet: {}", msg, ex);
     }
   }
@@ -43,6 +43,9 @@ public class BGPv4Reframer extends ByteToMessageDecoder
    * 
    * Any packets that are added start on the type byte. The buffer will contain the full message payload.
    * 
+   * The emitted buffer is a retained slice of the cumulation buffer, so the message octets are not copied. The next handler in the pipeline
+   * takes ownership of the slice and must release it once the message has been decoded.
+   * 
    */
 
   @Override
@@ -97,7 +100,7 @@ public class BGPv4Reframer extends ByteToMessageDecoder
       return;
     }
 
-    out.add(buffer.readBytes(mustRead));
+    out.add(buffer.readSlice(mustRead).retain());
 
   }
 
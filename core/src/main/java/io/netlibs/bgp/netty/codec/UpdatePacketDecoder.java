@@ -98,6 +98,9 @@ public class UpdatePacketDecoder
   /**
    * decode the UPDATE network packet. The passed channel buffer MUST point to the first packet octet AFTER the type octet.
    *
+   * The withdrawn routes and path attributes are decoded from slices of the passed buffer, thus no octets are copied until they end up in
+   * the decoded protocol objects. The buffer only needs to stay valid while this method runs.
+   *
    * @param buffer
    *          the buffer containing the data.
    * @return
@@ -128,9 +131,7 @@ public class UpdatePacketDecoder
 
     if (withdrawnOctets > 0)
     {
-      withdrawnBuffer = Unpooled.buffer(withdrawnOctets);
-
-      buffer.readBytes(withdrawnBuffer);
+      withdrawnBuffer = buffer.readSlice(withdrawnOctets);
     }
 
     // sanity checking
@@ -152,9 +153,7 @@ public class UpdatePacketDecoder
 
     if (pathAttributeOctets > 0)
     {
-      pathAttributesBuffer = Unpooled.buffer(pathAttributeOctets);
-
-      buffer.readBytes(pathAttributesBuffer);
+      pathAttributesBuffer = buffer.readSlice(pathAttributeOctets);
     }
 
     if (withdrawnBuffer != null)
@@ -490,7 +489,7 @@ public class UpdatePacketDecoder
                 break;
               default:
                 // all non-RT types are currently unimplemented
-                extcomm = new UnknownTransitiveTwoByteASNSpecificExtendedCommunity(transCommType, twoOctASNLowerType, buffer.readBytes(6).array());
+                extcomm = new UnknownTransitiveTwoByteASNSpecificExtendedCommunity(transCommType, twoOctASNLowerType, readOctets(buffer, 6));
             }
             break;
             
@@ -503,7 +502,7 @@ public class UpdatePacketDecoder
               case ROUTE_TARGET:
                 try
                 {
-                  extcomm = new TransitiveIPv4AddressTwoByteAdministratorRT((Inet4Address) InetAddresses.fromLittleEndianByteArray(buffer.readBytes(4).array()),
+                  extcomm = new TransitiveIPv4AddressTwoByteAdministratorRT((Inet4Address) InetAddresses.fromLittleEndianByteArray(readOctets(buffer, 4)),
                       (int) buffer.readShort());
                 }
                 catch (UnknownHostException e)
@@ -518,7 +517,7 @@ public class UpdatePacketDecoder
               default:
                 
                 // all non-RT types are currently unimplemented
-                extcomm = new UnknownTransitiveIPv4AddressSpecificExtendedCommunity(transCommType, ipv4LowerType, buffer.readBytes(6).array());
+                extcomm = new UnknownTransitiveIPv4AddressSpecificExtendedCommunity(transCommType, ipv4LowerType, readOctets(buffer, 6));
                 break;
                 
             }
@@ -527,7 +526,7 @@ public class UpdatePacketDecoder
           default:
             // by default, just create an unknown type, reading the subsequent
             // 7 bytes (we have already read byte 1)
-            extcomm = new UnknownTransitiveExtendedCommunity(transCommType, buffer.readBytes(7).array());
+            extcomm = new UnknownTransitiveExtendedCommunity(transCommType, readOctets(buffer, 7));
         }
       }
       else
@@ -535,7 +534,7 @@ public class UpdatePacketDecoder
         // bit 7 is set, these are non-transitive
         NonTransitiveExtendedCommunityType nonTransCommType = NonTransitiveExtendedCommunityType.fromCode((byte) (higherType & (~(3 << 6))));
         // all non-transitive types are currently unimplemented
-        extcomm = new UnknownNonTransitiveExtendedCommunity(nonTransCommType, buffer.readBytes(7).array());
+        extcomm = new UnknownNonTransitiveExtendedCommunity(nonTransCommType, readOctets(buffer, 7));
       }
       attr.getMembers().add(extcomm);
     }
@@ -632,7 +631,15 @@ public class UpdatePacketDecoder
     return attr;
   }
 
-  private List<PathAttribute> decodePathAttributes(final ByteBuf buffer)
+  /**
+   * decode a sequence of path attributes as found in the path attributes field of an UPDATE packet. The passed buffer is read up to its
+   * writer index.
+   *
+   * @param buffer
+   *          the buffer containing the encoded path attributes
+   * @return the decoded path attributes
+   */
+  public List<PathAttribute> decodePathAttributes(final ByteBuf buffer)
   {
 
     final List<PathAttribute> attributes = new LinkedList<PathAttribute>();
@@ -663,10 +670,7 @@ public class UpdatePacketDecoder
           valueLength = buffer.readUnsignedByte();
         }
 
-        // final ByteBuf valueBuffer = Unpooled.buffer(valueLength);
-        // buffer.readBytes(valueBuffer);
-        
-        final ByteBuf valueBuffer = buffer.readBytes(valueLength);
+        final ByteBuf valueBuffer = buffer.readSlice(valueLength);
 
         PathAttribute attr = null;
 
@@ -783,4 +787,13 @@ public class UpdatePacketDecoder
     return routes;
   }
 
+  private static byte[] readOctets(final ByteBuf buffer, final int length)
+  {
+    final byte[] octets = new byte[length];
+
+    buffer.readBytes(octets);
+
+    return octets;
+  }
+
 }
@@ -48,57 +48,69 @@ public abstract class BGPv4Packet
 
   public ByteBuf encodePacket()
   {
-    ByteBuf encodedPayload = this.encodePayload();
-    return this.wrapBufferHeader(this.encodePayload(), this.getType());
+    final ByteBuf buffer = Unpooled.buffer(BGPv4Constants.BGP_PACKET_HEADER_LENGTH);
+
+    this.encodePacket(buffer);
+
+    return buffer;
   }
 
   /**
-   * encode the specific packet-type payload
+   * write the binary representation of the protocol packet into the given buffer. The packet length in the header is filled in after the
+   * payload has been written, so the payload is encoded in a single pass.
    *
-   * @return the encoded packet payload
+   * @param buffer
+   *          the buffer to write the packet into
    */
-  protected abstract ByteBuf encodePayload();
+
+  public void encodePacket(final ByteBuf buffer)
+  {
+    final int packetStart = buffer.writerIndex();
+
+    for (int i = 0; i < BGPv4Constants.BGP_PACKET_MARKER_LENGTH; i++)
+    {
+      buffer.writeByte(0xff);
+    }
+
+    buffer.writeShort(0); // packet length, updated when the payload is written
+    buffer.writeByte(this.getType());
+
+    this.encodePayload(buffer);
+
+    buffer.setShort(packetStart + BGPv4Constants.BGP_PACKET_MARKER_LENGTH, buffer.writerIndex() - packetStart);
+  }
 
   /**
-   * obtain the BGP packet type code.
+   * encode the specific packet-type payload
    *
-   * @return
+   * @return the encoded packet payload
    */
-  public abstract int getType();
+  protected abstract ByteBuf encodePayload();
 
   /**
-   * wrap the BGP payload in a BGPv4 header field
+   * write the specific packet-type payload into the given buffer. Packet types which can encode their payload directly should override this
+   * method, the default implementation copies the result of {@link #encodePayload()}.
    *
-   * @param wrapped
-   *          the packet payload
-   * @param type
-   *          the packet type code
-   * @return the completely assembled BGPv4 packet
+   * @param buffer
+   *          the buffer to write the payload into
    */
-
-  private ByteBuf wrapBufferHeader(final ByteBuf wrapped, final int type)
+  protected void encodePayload(final ByteBuf buffer)
   {
-      
-    final int wrappedSize = (wrapped != null) ? wrapped.readableBytes() : 0;
-
-    final ByteBuf buffer = Unpooled.buffer(wrappedSize + BGPv4Constants.BGP_PACKET_HEADER_LENGTH);
-
-    for (int i = 0; i < BGPv4Constants.BGP_PACKET_MARKER_LENGTH; i++)
-    {
-      buffer.writeByte(0xff);
-    }
-    
-    buffer.writeShort(wrappedSize + BGPv4Constants.BGP_PACKET_HEADER_LENGTH);
-    buffer.writeByte(type);
+    final ByteBuf payload = this.encodePayload();
 
-    if (wrapped != null)
+    if (payload != null)
     {
-      buffer.writeBytes(wrapped);
+      buffer.writeBytes(payload);
     }
-
-    return buffer;
   }
 
+  /**
+   * obtain the BGP packet type code.
+   *
+   * @return
+   */
+  public abstract int getType();
+
   @Override
   public String toString()
   {
@@ -22,7 +22,6 @@ import io.netlibs.bgp.protocol.BGPv4Constants;
 import io.netlibs.bgp.protocol.PathSegment;
 import io.netlibs.bgp.protocol.attributes.ASPathAttribute;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 
 /**
  * @author Rainer Bieniek (Rainer.Bieniek@web.de)
@@ -45,10 +44,8 @@ public class ASPathAttributeCodecHandler extends PathAttributeCodecHandler<ASPat
       return size;
     }
 
-    static ByteBuf encodeValue(final PathSegment segment)
+    static void encodeValue(final PathSegment segment, final ByteBuf buffer)
     {
-      final ByteBuf buffer = Unpooled.buffer(getValueLength(segment));
-
       buffer.writeByte(PathSegmentTypeCodec.toCode(segment.getPathSegmentType()));
       if ((segment.getAses() != null) && (segment.getAses().size() > 0))
       {
@@ -71,7 +68,6 @@ public class ASPathAttributeCodecHandler extends PathAttributeCodecHandler<ASPat
       {
         buffer.writeByte(0);
       }
-      return buffer;
     }
 
   }
@@ -116,19 +112,15 @@ public class ASPathAttributeCodecHandler extends PathAttributeCodecHandler<ASPat
    * @see org.bgp4j.netty.protocol.update.PathAttributeCodecHandler#encodeValue(org.bgp4j.netty.protocol.update.PathAttribute)
    */
   @Override
-  public ByteBuf encodeValue(final ASPathAttribute attr)
+  public void encodeValue(final ASPathAttribute attr, final ByteBuf buffer)
   {
-    final ByteBuf buffer = Unpooled.buffer(this.valueLength(attr));
-
     if ((attr.getPathSegments() != null) && (attr.getPathSegments().size() > 0))
     {
       for (final PathSegment seg : attr.getPathSegments())
       {
-        buffer.writeBytes(PathSegmentCodec.encodeValue(seg));
+        PathSegmentCodec.encodeValue(seg, buffer);
       }
     }
-
-    return buffer;
   }
 
 }
@@ -20,7 +20,6 @@ package io.netlibs.bgp.netty.protocol.update;
 import io.netlibs.bgp.protocol.BGPv4Constants;
 import io.netlibs.bgp.protocol.attributes.AggregatorPathAttribute;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 
 /**
  * @author Rainer Bieniek (Rainer.Bieniek@web.de)
@@ -49,10 +48,8 @@ public class AggregatorPathAttributeCodecHandler extends PathAttributeCodecHandl
   }
 
   @Override
-  public ByteBuf encodeValue(final AggregatorPathAttribute attr)
+  public void encodeValue(final AggregatorPathAttribute attr, final ByteBuf buffer)
   {
-    final ByteBuf buffer = Unpooled.buffer(this.valueLength(attr));
-
     if (attr.isFourByteASNumber())
     {
       buffer.writeInt(attr.getAsNumber());
@@ -63,8 +60,6 @@ public class AggregatorPathAttributeCodecHandler extends PathAttributeCodecHandl
     }
 
     buffer.writeBytes(attr.getAggregator().getAddress());
-
-    return buffer;
   }
 
 }
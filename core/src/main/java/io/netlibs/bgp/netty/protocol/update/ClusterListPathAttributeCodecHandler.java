@@ -20,7 +20,6 @@ package io.netlibs.bgp.netty.protocol.update;
 import io.netlibs.bgp.protocol.BGPv4Constants;
 import io.netlibs.bgp.protocol.attributes.ClusterListPathAttribute;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 
 /**
  * @author Rainer Bieniek (Rainer.Bieniek@web.de)
@@ -65,16 +64,12 @@ PathAttributeCodecHandler<ClusterListPathAttribute>
    * @see org.bgp4j.netty.protocol.update.PathAttributeCodecHandler#encodeValue(org.bgp4j.netty.protocol.update.PathAttribute)
    */
   @Override
-  public ByteBuf encodeValue(final ClusterListPathAttribute attr)
+  public void encodeValue(final ClusterListPathAttribute attr, final ByteBuf buffer)
   {
-    final ByteBuf buffer = Unpooled.buffer(this.valueLength(attr));
-
     for (final int clusterId : attr.getClusterIds())
     {
       buffer.writeInt(clusterId);
     }
-
-    return buffer;
   }
 
 }
@@ -4,7 +4,6 @@ import io.netlibs.bgp.protocol.BGPv4Constants;
 import io.netlibs.bgp.protocol.attributes.AbstractExtendedCommunityInterface;
 import io.netlibs.bgp.protocol.attributes.ExtendedCommunityPathAttribute;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 
 public class ExtendedCommunityPathAttributeCodecHandler extends PathAttributeCodecHandler<ExtendedCommunityPathAttribute>
 {
@@ -27,15 +26,13 @@ public class ExtendedCommunityPathAttributeCodecHandler extends PathAttributeCod
   }
 
   @Override
-  public ByteBuf encodeValue(ExtendedCommunityPathAttribute attr)
+  public void encodeValue(ExtendedCommunityPathAttribute attr, ByteBuf buffer)
   {
-    ByteBuf buffer = Unpooled.buffer(this.valueLength(attr));
     if (attr.getMembers() != null){
       for(AbstractExtendedCommunityInterface extcomm: attr.getMembers()){
         buffer.writeBytes(extcomm.getExtCommunityBytes());
       }
     }
-    return buffer;
   }
 
 }
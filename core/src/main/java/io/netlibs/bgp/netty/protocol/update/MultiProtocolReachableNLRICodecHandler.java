@@ -22,7 +22,6 @@ import io.netlibs.bgp.protocol.NLRICodec;
 import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
 import io.netlibs.bgp.protocol.attributes.MultiProtocolReachableNLRI;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 
 /**
  * @author Rainer Bieniek (Rainer.Bieniek@web.de)
@@ -70,11 +69,8 @@ public class MultiProtocolReachableNLRICodecHandler extends PathAttributeCodecHa
   }
 
   @Override
-  public ByteBuf encodeValue(final MultiProtocolReachableNLRI attr)
+  public void encodeValue(final MultiProtocolReachableNLRI attr, final ByteBuf buffer)
   {
-
-    final ByteBuf buffer = Unpooled.buffer(this.valueLength(attr));
-
     buffer.writeShort(attr.getAddressFamily().toCode());
     buffer.writeByte(attr.getSubsequentAddressFamily().toCode());
     
@@ -102,11 +98,10 @@ public class MultiProtocolReachableNLRICodecHandler extends PathAttributeCodecHa
         }
         else
         {
-          buffer.writeBytes(NLRICodec.encodeNLRI(nlri));
+          NLRICodec.encodeNLRI(nlri, buffer);
         }
       }
     }
-    return buffer;
   }
 
 }
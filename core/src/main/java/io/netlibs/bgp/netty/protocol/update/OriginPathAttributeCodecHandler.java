@@ -20,7 +20,6 @@ package io.netlibs.bgp.netty.protocol.update;
 import io.netlibs.bgp.protocol.BGPv4Constants;
 import io.netlibs.bgp.protocol.attributes.OriginPathAttribute;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 
 /**
  * @author Rainer Bieniek (Rainer.Bieniek@web.de)
@@ -58,11 +57,9 @@ PathAttributeCodecHandler<OriginPathAttribute>
    * @see org.bgp4j.netty.protocol.update.PathAttributeCodecHandler#encodeValue(org.bgp4j.netty.protocol.update.PathAttribute)
    */
   @Override
-  public ByteBuf encodeValue(final OriginPathAttribute attr)
+  public void encodeValue(final OriginPathAttribute attr, final ByteBuf buffer)
   {
-    final ByteBuf buffer = Unpooled.buffer(1);
     buffer.writeByte(OriginCodec.toCode(attr.getOrigin()));
-    return buffer;
   }
 
 }
@@ -75,8 +75,25 @@ public class PathAttributeCodec
    */
   public static ByteBuf encodePathAttribute(final PathAttribute attr)
   {
-    final ByteBuf buffer = Unpooled.buffer(BGPv4Constants.BGP_PACKET_MAX_LENGTH);
-    final int valueLength = valueLength(attr);
+    final ByteBuf buffer = Unpooled.buffer(calculateEncodedPathAttributeLength(attr));
+
+    encodePathAttribute(attr, buffer);
+
+    return buffer;
+  }
+
+  /**
+   * write the path attribute formatted for network transmission into the given buffer
+   *
+   * @param attr
+   *          the path attribute to encode
+   * @param buffer
+   *          the buffer to write the encoded attribute into
+   */
+  public static void encodePathAttribute(final PathAttribute attr, final ByteBuf buffer)
+  {
+    final PathAttributeCodecHandler<PathAttribute> codec = codec(attr);
+    final int valueLength = codec.valueLength(attr);
     int attrFlagsCode = 0;
 
     if (attr.isOptional())
@@ -99,7 +116,7 @@ public class PathAttributeCodec
       attrFlagsCode |= BGPv4Constants.BGP_PATH_ATTRIBUTE_EXTENDED_LENGTH_BIT;
     }
 
-    attrFlagsCode |= (typeCode(attr) & BGPv4Constants.BGP_PATH_ATTRIBUTE_TYPE_MASK);
+    attrFlagsCode |= (codec.typeCode(attr) & BGPv4Constants.BGP_PATH_ATTRIBUTE_TYPE_MASK);
 
     buffer.writeShort(attrFlagsCode);
 
@@ -114,10 +131,8 @@ public class PathAttributeCodec
 
     if (valueLength > 0)
     {
-      buffer.writeBytes(encodeValue(attr));
+      codec.encodeValue(attr, buffer);
     }
-
-    return buffer;
   }
 
   public static int calculateEncodedPathAttributeLength(final PathAttribute attr)
@@ -132,21 +147,29 @@ public class PathAttributeCodec
   }
 
   /**
-   * get the attribute value length
-   *
-   * @return
+   * look up the codec handler for the given path attribute
    */
   @SuppressWarnings("unchecked")
-  public static int valueLength(final PathAttribute attr)
+  private static PathAttributeCodecHandler<PathAttribute> codec(final PathAttribute attr)
   {
-    if (codecs.containsKey(attr.getClass()))
-    {
-      return ((PathAttributeCodecHandler<PathAttribute>) codecs.get(attr.getClass())).valueLength(attr);
-    }
-    else
+    final PathAttributeCodecHandler<PathAttribute> codec = (PathAttributeCodecHandler<PathAttribute>) codecs.get(attr.getClass());
+
+    if (codec == null)
     {
       throw new IllegalArgumentException("cannot handle path attribute of type: " + attr.getClass().getName());
     }
+
+    return codec;
+  }
+
+  /**
+   * get the attribute value length
+   *
+   * @return
+   */
+  public static int valueLength(final PathAttribute attr)
+  {
+    return codec(attr).valueLength(attr);
   }
 
   /**
@@ -154,33 +177,17 @@ public class PathAttributeCodec
    *
    * @return
    */
-  @SuppressWarnings("unchecked")
   public static int typeCode(final PathAttribute attr)
   {
-    if (codecs.containsKey(attr.getClass()))
-    {
-      return ((PathAttributeCodecHandler<PathAttribute>) codecs.get(attr.getClass())).typeCode(attr);
-    }
-    else
-    {
-      throw new IllegalArgumentException("cannot handle path attribute of type: " + attr.getClass().getName());
-    }
+    return codec(attr).typeCode(attr);
   }
 
   /**
    * get the encoded attribute value
    */
-  @SuppressWarnings("unchecked")
   public static ByteBuf encodeValue(final PathAttribute attr)
   {
-    if (codecs.containsKey(attr.getClass()))
-    {
-      return ((PathAttributeCodecHandler<PathAttribute>) codecs.get(attr.getClass())).encodeValue(attr);
-    }
-    else
-    {
-      throw new IllegalArgumentException("cannot handle path attribute of type: " + attr.getClass().getName());
-    }
+    return codec(attr).encodeValue(attr);
   }
 
 }
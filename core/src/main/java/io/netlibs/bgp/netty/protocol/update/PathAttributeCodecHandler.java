@@ -19,6 +19,7 @@ package io.netlibs.bgp.netty.protocol.update;
 
 import io.netlibs.bgp.protocol.attributes.PathAttribute;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 
 /**
  * @author Rainer Bieniek (Rainer.Bieniek@web.de)
@@ -30,5 +31,19 @@ public abstract class PathAttributeCodecHandler<T extends PathAttribute> {
 
   public abstract int valueLength(T attr);
 
-  public abstract ByteBuf encodeValue(T attr);
+  /**
+   * write the encoded attribute value into the given buffer
+   */
+  public abstract void encodeValue(T attr, ByteBuf buffer);
+
+  /**
+   * get the encoded attribute value
+   */
+  public ByteBuf encodeValue(T attr) {
+    final ByteBuf buffer = Unpooled.buffer(this.valueLength(attr));
+
+    this.encodeValue(attr, buffer);
+
+    return buffer;
+  }
 }
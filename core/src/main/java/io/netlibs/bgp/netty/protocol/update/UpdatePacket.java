@@ -46,23 +46,43 @@ public class UpdatePacket extends BGPv4Packet
   private List<NetworkLayerReachabilityInformation> withdrawnRoutes = new LinkedList<NetworkLayerReachabilityInformation>();
   private List<NetworkLayerReachabilityInformation> nlris = new LinkedList<NetworkLayerReachabilityInformation>();
   private List<PathAttribute> pathAttributes = new LinkedList<PathAttribute>();
+  private ByteBuf encodedPathAttributes;
 
   @Override
   protected ByteBuf encodePayload()
   {
+    final ByteBuf buffer = Unpooled.buffer(this.calculatePacketSize() - BGPv4Constants.BGP_PACKET_HEADER_LENGTH);
 
-    final ByteBuf buffer = Unpooled.buffer(BGPv4Constants.BGP_PACKET_MAX_LENGTH);
-    final ByteBuf withdrawnBuffer = this.encodeWithdrawnRoutes();
-    final ByteBuf pathAttributesBuffer = this.encodePathAttributes();
+    this.encodePayload(buffer);
 
-    buffer.writeShort(withdrawnBuffer.readableBytes());
-    buffer.writeBytes(withdrawnBuffer);
-    buffer.writeShort(pathAttributesBuffer.readableBytes());
-    buffer.writeBytes(pathAttributesBuffer);
-    buffer.writeBytes(this.encodeNlris());
     return buffer;
   }
 
+  /**
+   * write the payload in a single pass into the given buffer. The withdrawn routes and path attributes length fields are filled in after
+   * the respective section has been written.
+   */
+
+  @Override
+  protected void encodePayload(final ByteBuf buffer)
+  {
+    buffer.ensureWritable(this.calculatePacketSize() - BGPv4Constants.BGP_PACKET_HEADER_LENGTH);
+
+    final int withdrawnStart = buffer.writerIndex();
+
+    buffer.writeShort(0);
+    this.encodeWithdrawnRoutes(buffer);
+    buffer.setShort(withdrawnStart, buffer.writerIndex() - withdrawnStart - 2);
+
+    final int pathAttributesStart = buffer.writerIndex();
+
+    buffer.writeShort(0);
+    this.encodePathAttributes(buffer);
+    buffer.setShort(pathAttributesStart, buffer.writerIndex() - pathAttributesStart - 2);
+
+    this.encodeNlris(buffer);
+  }
+
   public int calculatePacketSize()
   {
 
@@ -76,27 +96,22 @@ public class UpdatePacket extends BGPv4Packet
 
   }
 
-  private ByteBuf encodeWithdrawnRoutes()
+  private void encodeWithdrawnRoutes(final ByteBuf buffer)
   {
 
-    final ByteBuf buffer = Unpooled.buffer(BGPv4Constants.BGP_PACKET_MAX_LENGTH);
-
     if (this.withdrawnRoutes != null)
     {
       for (final NetworkLayerReachabilityInformation route : this.withdrawnRoutes)
       {
-        buffer.writeBytes(NLRICodec.encodeNLRI(route));
+        NLRICodec.encodeNLRI(route, buffer);
       }
     }
 
-    return buffer;
   }
 
-  private ByteBuf encodePathAttributes()
+  private void encodePathAttributes(final ByteBuf buffer)
   {
 
-    final ByteBuf buffer = Unpooled.buffer(BGPv4Constants.BGP_PACKET_MAX_LENGTH);
-
     // RJS: Need to encode MP_REACH_NLRI first in the message according to the
     // recommendations in RFC 7606.
     
@@ -106,36 +121,39 @@ public class UpdatePacket extends BGPv4Packet
       {
 
         if (pathAttr instanceof MultiProtocolReachableNLRI || pathAttr instanceof MultiProtocolUnreachableNLRI){
-          buffer.writeBytes(PathAttributeCodec.encodePathAttribute(pathAttr));
+          PathAttributeCodec.encodePathAttribute(pathAttr, buffer);
         }
       }
 
-      for (PathAttribute pathAttribute : this.pathAttributes)
+      if (this.encodedPathAttributes != null)
+      {
+        buffer.writeBytes(this.encodedPathAttributes, this.encodedPathAttributes.readerIndex(), this.encodedPathAttributes.readableBytes());
+      }
+      else
       {
-        if (!(pathAttribute instanceof MultiProtocolReachableNLRI) && !(pathAttribute instanceof MultiProtocolUnreachableNLRI))
+        for (PathAttribute pathAttribute : this.pathAttributes)
         {
-          buffer.writeBytes(PathAttributeCodec.encodePathAttribute(pathAttribute));
+          if (!(pathAttribute instanceof MultiProtocolReachableNLRI) && !(pathAttribute instanceof MultiProtocolUnreachableNLRI))
+          {
+            PathAttributeCodec.encodePathAttribute(pathAttribute, buffer);
+          }
         }
       }
     }
     
-    return buffer;
   }
 
-  private ByteBuf encodeNlris()
+  private void encodeNlris(final ByteBuf buffer)
   {
 
-    final ByteBuf buffer = Unpooled.buffer(BGPv4Constants.BGP_PACKET_MAX_LENGTH);
-
     if (this.nlris != null)
     {
       for (final NetworkLayerReachabilityInformation nlri : this.nlris)
       {
-        buffer.writeBytes(NLRICodec.encodeNLRI(nlri));
+        NLRICodec.encodeNLRI(nlri, buffer);
       }
     }
 
-    return buffer;
   }
 
   private int calculateSizeWithdrawnRoutes()
@@ -176,7 +194,15 @@ public class UpdatePacket extends BGPv4Packet
     {
       for (final PathAttribute attr : this.pathAttributes)
       {
-        size += PathAttributeCodec.calculateEncodedPathAttributeLength(attr);
+        if ((this.encodedPathAttributes == null) || (attr instanceof MultiProtocolReachableNLRI) || (attr instanceof MultiProtocolUnreachableNLRI))
+        {
+          size += PathAttributeCodec.calculateEncodedPathAttributeLength(attr);
+        }
+      }
+
+      if (this.encodedPathAttributes != null)
+      {
+        size += this.encodedPathAttributes.readableBytes();
       }
     }
 
@@ -245,6 +271,28 @@ public class UpdatePacket extends BGPv4Packet
     this.pathAttributes = pathAttributes;
   }
 
+  /**
+   * @return the path attributes other than MP_REACH_NLRI and MP_UNREACH_NLRI in encoded form or <code>null</code> if they are encoded
+   *         from the path attribute list
+   */
+  public ByteBuf getEncodedPathAttributes()
+  {
+    return this.encodedPathAttributes;
+  }
+
+  /**
+   * Attach the path attributes other than MP_REACH_NLRI and MP_UNREACH_NLRI in encoded form. The encoded attributes are written instead of
+   * encoding the path attribute list, thus they must match the list. The buffer is never modified and can be shared between packets
+   * carrying the same path attributes.
+   *
+   * @param encodedPathAttributes
+   *          the encoded path attributes
+   */
+  public void setEncodedPathAttributes(final ByteBuf encodedPathAttributes)
+  {
+    this.encodedPathAttributes = encodedPathAttributes;
+  }
+
   /**
    * look up path attributes of a given type passed in this update packet
    */
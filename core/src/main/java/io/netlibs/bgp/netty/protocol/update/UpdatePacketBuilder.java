@@ -0,0 +1,229 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.netty.protocol.update.UpdatePacketBuilder.java
+ */
+package io.netlibs.bgp.netty.protocol.update;
+
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.BGPv4Constants;
+import io.netlibs.bgp.protocol.NLRICodec;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.attributes.MultiProtocolReachableNLRI;
+import io.netlibs.bgp.protocol.attributes.MultiProtocolUnreachableNLRI;
+import io.netlibs.bgp.protocol.attributes.PathAttribute;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Packs withdrawn and announced NLRIs into as few UPDATE packets as possible.
+ *
+ * The encoded size of the packet being filled is tracked while NLRIs are appended, so packing n NLRIs costs O(n) instead of re-calculating
+ * the packet size for every appended NLRI. The path attributes shared by a group of announced NLRIs are encoded once and the encoded block
+ * is shared by all packets built for the group.
+ *
+ * IPv4 unicast NLRIs are carried in the withdrawn routes and NLRI fields of the packet, NLRIs of any other address family in a
+ * MP_UNREACH_NLRI or MP_REACH_NLRI path attribute.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+public class UpdatePacketBuilder
+{
+
+  private final List<UpdatePacket> packets = new LinkedList<UpdatePacket>();
+
+  /**
+   * Pack withdrawn NLRIs of one address family
+   *
+   * @param afk
+   *          the address family of the NLRIs
+   * @param nlris
+   *          the NLRIs to withdraw
+   */
+
+  public void addWithdrawnRoutes(final AddressFamilyKey afk, final Collection<NetworkLayerReachabilityInformation> nlris)
+  {
+    final boolean multiProtocol = !afk.equals(AddressFamilyKey.IPV4_UNICAST_FORWARDING);
+    UpdatePacket current = null;
+    MultiProtocolUnreachableNLRI mpUnreachable = null;
+    int valueLength = 0;
+
+    for (final NetworkLayerReachabilityInformation nlri : nlris)
+    {
+      final int nlriLength = NLRICodec.calculateEncodedNLRILength(nlri);
+
+      if ((current == null)
+          || ((BGPv4Constants.BGP_PACKET_MIN_SIZE_UPDATE + sectionLength(multiProtocol, valueLength + nlriLength)) > BGPv4Constants.BGP_PACKET_MAX_LENGTH))
+      {
+        current = new UpdatePacket();
+
+        if (multiProtocol)
+        {
+          mpUnreachable = new MultiProtocolUnreachableNLRI(afk.getAddressFamily(), afk.getSubsequentAddressFamily());
+          current.getPathAttributes().add(mpUnreachable);
+          valueLength = 3; // 2 octets AFI + 1 octet SAFI
+        }
+        else
+        {
+          valueLength = 0;
+        }
+
+        this.packets.add(current);
+      }
+
+      if (multiProtocol)
+      {
+        mpUnreachable.getNlris().add(nlri);
+      }
+      else
+      {
+        current.getWithdrawnRoutes().add(nlri);
+      }
+
+      valueLength += nlriLength;
+    }
+  }
+
+  /**
+   * Pack announced NLRIs sharing a set of path attributes.
+   *
+   * For IPv4 unicast the path attributes must contain the NEXT_HOP attribute. For any other address family they must contain a
+   * MP_REACH_NLRI attribute carrying the address family and next hop. This attribute is only used as template and is not modified.
+   *
+   * @param afk
+   *          the address family of the NLRIs
+   * @param pathAttributes
+   *          the path attributes shared by the NLRIs
+   * @param nlris
+   *          the NLRIs to announce
+   */
+
+  public void addRoutes(final AddressFamilyKey afk, final Collection<PathAttribute> pathAttributes,
+      final Collection<NetworkLayerReachabilityInformation> nlris)
+  {
+    final boolean multiProtocol = !afk.equals(AddressFamilyKey.IPV4_UNICAST_FORWARDING);
+    final List<PathAttribute> sharedAttributes = new LinkedList<PathAttribute>();
+    MultiProtocolReachableNLRI mpTemplate = null;
+
+    for (final PathAttribute pathAttribute : pathAttributes)
+    {
+      if (pathAttribute instanceof MultiProtocolReachableNLRI)
+      {
+        mpTemplate = (MultiProtocolReachableNLRI) pathAttribute;
+      }
+      else
+      {
+        sharedAttributes.add(pathAttribute);
+      }
+    }
+
+    if (multiProtocol && (mpTemplate == null))
+    {
+      throw new IllegalArgumentException("no MP_REACH_NLRI path attribute for address family " + afk);
+    }
+
+    final ByteBuf encodedAttributes = encodePathAttributes(sharedAttributes);
+    final int fixedSize = BGPv4Constants.BGP_PACKET_MIN_SIZE_UPDATE + encodedAttributes.readableBytes();
+    final int mpFixedLength = multiProtocol ? (5 + ((mpTemplate.getNextHop() != null) ? mpTemplate.getNextHop().getAddress().length : 0)) : 0;
+
+    UpdatePacket current = null;
+    MultiProtocolReachableNLRI mpReachable = null;
+    int nlriLength = 0;
+
+    for (final NetworkLayerReachabilityInformation nlri : nlris)
+    {
+      final int length = NLRICodec.calculateEncodedNLRILength(nlri);
+
+      if ((current == null) || ((fixedSize + sectionLength(multiProtocol, mpFixedLength + nlriLength + length)) > BGPv4Constants.BGP_PACKET_MAX_LENGTH))
+      {
+        current = new UpdatePacket();
+
+        if (multiProtocol)
+        {
+          mpReachable = new MultiProtocolReachableNLRI(mpTemplate.getAddressFamily(), mpTemplate.getSubsequentAddressFamily(),
+              mpTemplate.getNextHop());
+          current.getPathAttributes().add(mpReachable);
+        }
+
+        current.getPathAttributes().addAll(sharedAttributes);
+        current.setEncodedPathAttributes(encodedAttributes);
+
+        nlriLength = 0;
+        this.packets.add(current);
+      }
+
+      if (multiProtocol)
+      {
+        mpReachable.getNlris().add(nlri);
+      }
+      else
+      {
+        current.getNlris().add(nlri);
+      }
+
+      nlriLength += length;
+    }
+  }
+
+  /**
+   * @return the packets built so far
+   */
+  public List<UpdatePacket> getPackets()
+  {
+    return this.packets;
+  }
+
+  /**
+   * calculate the encoded length of the NLRIs, either as plain NLRI field or wrapped into a multi protocol path attribute
+   */
+  private static int sectionLength(final boolean multiProtocol, final int length)
+  {
+    return multiProtocol ? attributeLength(length) : length;
+  }
+
+  /**
+   * calculate the encoded length of a path attribute, including the attribute header, from the attribute value length
+   */
+  private static int attributeLength(final int valueLength)
+  {
+    return 2 + ((valueLength > 255) ? 2 : 1) + valueLength;
+  }
+
+  private static ByteBuf encodePathAttributes(final List<PathAttribute> pathAttributes)
+  {
+    int size = 0;
+
+    for (final PathAttribute pathAttribute : pathAttributes)
+    {
+      size += PathAttributeCodec.calculateEncodedPathAttributeLength(pathAttribute);
+    }
+
+    final ByteBuf buffer = Unpooled.buffer(size);
+
+    for (final PathAttribute pathAttribute : pathAttributes)
+    {
+      PathAttributeCodec.encodePathAttribute(pathAttribute, buffer);
+    }
+
+    return buffer;
+  }
+
+}
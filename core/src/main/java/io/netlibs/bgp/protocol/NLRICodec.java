@@ -70,6 +70,22 @@ public class NLRICodec
 
     final ByteBuf buffer = Unpooled.buffer(calculateEncodedNLRILength(nlri));
 
+    encodeNLRI(nlri, buffer);
+
+    return buffer;
+
+  }
+
+  /**
+   * write the encoded NLRI into the given buffer
+   *
+   * @param nlri
+   * @param buffer
+   */
+
+  public static void encodeNLRI(final NetworkLayerReachabilityInformation nlri, final ByteBuf buffer)
+  {
+
     buffer.writeByte(nlri.getPrefixLength());
 
     if (nlri.getPrefixLength() > 0)
@@ -77,8 +93,6 @@ public class NLRICodec
       buffer.writeBytes(nlri.getPrefix());
     }
 
-    return buffer;
-
   }
 
 }
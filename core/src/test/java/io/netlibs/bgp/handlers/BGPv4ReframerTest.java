@@ -0,0 +1,141 @@
+package io.netlibs.bgp.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import io.netlibs.bgp.netty.protocol.BGPv4Packet;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+/**
+ * The reframer hands retained slices of its cumulation buffer to the codec. Whatever way the octets arrive, every received buffer must be
+ * released once the packets have been decoded, and the packets must decode as if each had been copied out of the stream.
+ */
+public class BGPv4ReframerTest
+{
+
+  private static final String KEEPALIVE = "ffffffffffffffffffffffffffffffff001304";
+
+  private static final String UPDATE = "ffffffffffffffffffffffffffffffff0086020004100a0900005f"
+      + "800e1a0002011020010db8000000000000000000000001002020010db8"
+      + "800f0a0002013020010db80009"
+      + "40010102"
+      + "40020e0202fde9fdea0103000700080009"
+      + "400304c0000201"
+      + "80040400000014"
+      + "400504000000c8"
+      + "c00808fde90064fdea00c8"
+      + "180a0102090a80200a010203";
+
+  private final List<ByteBuf> received = new ArrayList<ByteBuf>();
+
+  private static byte[] octets(final String hex)
+  {
+    final byte[] octets = new byte[hex.length() / 2];
+
+    for (int i = 0; i < octets.length; i++)
+    {
+      octets[i] = (byte) Integer.parseInt(hex.substring(2 * i, (2 * i) + 2), 16);
+    }
+
+    return octets;
+  }
+
+  /**
+   * feed the stream to a reframer and codec pipeline in chunks ending at the given offsets
+   *
+   * @return the hex dumps of the decoded packets, encoded again
+   */
+  private List<String> receive(final String stream, final int... chunkEnds)
+  {
+    final EmbeddedChannel channel = new EmbeddedChannel(new BGPv4Reframer(), new BGPv4Codec());
+    final byte[] octets = octets(stream);
+    int start = 0;
+
+    for (final int end : chunkEnds)
+    {
+      final ByteBuf chunk = Unpooled.copiedBuffer(octets, start, end - start);
+
+      this.received.add(chunk);
+      channel.writeInbound(chunk);
+      start = end;
+    }
+
+    final List<String> packets = new ArrayList<String>();
+    BGPv4Packet packet;
+
+    while ((packet = channel.readInbound()) != null)
+    {
+      final ByteBuf encoded = packet.encodePacket();
+
+      try
+      {
+        packets.add(ByteBufUtil.hexDump(encoded));
+      }
+      finally
+      {
+        encoded.release();
+      }
+    }
+
+    assertFalse(channel.finish());
+    assertNull(channel.readOutbound());
+
+    for (final ByteBuf chunk : this.received)
+    {
+      assertEquals(0, chunk.refCnt());
+    }
+
+    return packets;
+  }
+
+  @Test
+  public void testSinglePacket()
+  {
+    assertEquals(Arrays.asList(UPDATE), this.receive(UPDATE, UPDATE.length() / 2));
+  }
+
+  @Test
+  public void testCoalescedPackets()
+  {
+    final String stream = KEEPALIVE + UPDATE + KEEPALIVE + UPDATE;
+
+    assertEquals(Arrays.asList(KEEPALIVE, UPDATE, KEEPALIVE, UPDATE), this.receive(stream, stream.length() / 2));
+  }
+
+  @Test
+  public void testSplitPackets()
+  {
+    final String stream = UPDATE + KEEPALIVE + UPDATE;
+    final int update = UPDATE.length() / 2;
+    final int keepalive = KEEPALIVE.length() / 2;
+
+    // split within the marker, the length, the attributes and across packet boundaries
+    assertEquals(Arrays.asList(UPDATE, KEEPALIVE, UPDATE),
+        this.receive(stream, 5, 17, 40, update + 3, update + keepalive + 100, (2 * update) + keepalive));
+  }
+
+  @Test
+  public void testSingleOctets()
+  {
+    final String stream = KEEPALIVE + UPDATE;
+    final int[] chunkEnds = new int[stream.length() / 2];
+
+    for (int i = 0; i < chunkEnds.length; i++)
+    {
+      chunkEnds[i] = i + 1;
+    }
+
+    assertEquals(Arrays.asList(KEEPALIVE, UPDATE), this.receive(stream, chunkEnds));
+  }
+
+}
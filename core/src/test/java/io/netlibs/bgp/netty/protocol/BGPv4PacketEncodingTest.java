@@ -0,0 +1,159 @@
+package io.netlibs.bgp.netty.protocol;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import io.netlibs.bgp.netty.protocol.open.OpenPacket;
+import io.netlibs.bgp.netty.protocol.refresh.RouteRefreshPacket;
+import io.netlibs.bgp.netty.protocol.update.UpdatePacket;
+import io.netlibs.bgp.protocol.ASType;
+import io.netlibs.bgp.protocol.AddressFamily;
+import io.netlibs.bgp.protocol.BinaryNextHop;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.Origin;
+import io.netlibs.bgp.protocol.PathSegment;
+import io.netlibs.bgp.protocol.PathSegmentType;
+import io.netlibs.bgp.protocol.SubsequentAddressFamily;
+import io.netlibs.bgp.protocol.attributes.ASPathAttribute;
+import io.netlibs.bgp.protocol.attributes.CommunityMember;
+import io.netlibs.bgp.protocol.attributes.CommunityPathAttribute;
+import io.netlibs.bgp.protocol.attributes.LocalPrefPathAttribute;
+import io.netlibs.bgp.protocol.attributes.MultiExitDiscPathAttribute;
+import io.netlibs.bgp.protocol.attributes.MultiProtocolReachableNLRI;
+import io.netlibs.bgp.protocol.attributes.MultiProtocolUnreachableNLRI;
+import io.netlibs.bgp.protocol.attributes.NextHopPathAttribute;
+import io.netlibs.bgp.protocol.attributes.OriginPathAttribute;
+import io.netlibs.bgp.protocol.attributes.PathAttribute;
+import io.netlibs.bgp.protocol.capabilities.AutonomousSystem4Capability;
+import io.netlibs.bgp.protocol.capabilities.Capability;
+import io.netlibs.bgp.protocol.capabilities.MultiProtocolCapability;
+import io.netlibs.bgp.protocol.capabilities.RouteRefreshCapability;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+
+/**
+ * The packets encoded in a single pass into the outbound buffer must be the octets the packets were encoded to by wrapping the BGP header
+ * around a separately encoded payload. The expected octets have been recorded with that encoder.
+ */
+public class BGPv4PacketEncodingTest
+{
+
+  private static final String MARKER = "ffffffffffffffffffffffffffffffff";
+
+  private static void assertEncoding(final String expected, final BGPv4Packet packet)
+  {
+    final ByteBuf encoded = packet.encodePacket();
+
+    try
+    {
+      assertEquals(expected, ByteBufUtil.hexDump(encoded));
+    }
+    finally
+    {
+      encoded.release();
+    }
+
+    // encoded behind other packets, the length is backfilled at the offset of the packet
+    final ByteBuf buffer = Unpooled.buffer();
+
+    try
+    {
+      buffer.writeBytes(new byte[] { 1, 2, 3 });
+      packet.encodePacket(buffer);
+
+      assertEquals("010203" + expected, ByteBufUtil.hexDump(buffer));
+    }
+    finally
+    {
+      buffer.release();
+    }
+  }
+
+  private static NetworkLayerReachabilityInformation nlri(final int prefixLength, final int... octets)
+  {
+    final byte[] prefix = new byte[octets.length];
+
+    for (int i = 0; i < octets.length; i++)
+    {
+      prefix[i] = (byte) octets[i];
+    }
+
+    return new NetworkLayerReachabilityInformation(prefixLength, (octets.length > 0) ? prefix : null);
+  }
+
+  @Test
+  public void testKeepalive()
+  {
+    assertEncoding(MARKER + "001304", new KeepalivePacket());
+  }
+
+  @Test
+  public void testOpen()
+  {
+    final OpenPacket open = new OpenPacket(4, 65001, 0xc0000201L, 90, new Capability[] {
+        new MultiProtocolCapability(AddressFamily.IPv4, SubsequentAddressFamily.NLRI_UNICAST_FORWARDING),
+        new RouteRefreshCapability(),
+        new AutonomousSystem4Capability((int) 4200000001L) });
+
+    assertEncoding(MARKER + "002d0104fde9005ac000020110020e01040001000102004104fa56ea01", open);
+  }
+
+  @Test
+  public void testNotification()
+  {
+    assertEncoding(MARKER + "0015030400", new HoldTimerExpiredNotificationPacket());
+    assertEncoding(MARKER + "001c030601000101000003e8",
+        new MaximumNumberOfPrefixesReachedNotificationPacket(AddressFamily.IPv4, SubsequentAddressFamily.NLRI_UNICAST_FORWARDING, 1000));
+  }
+
+  @Test
+  public void testRouteRefresh()
+  {
+    assertEncoding(MARKER + "00170500020001", new RouteRefreshPacket(AddressFamily.IPv6, SubsequentAddressFamily.NLRI_UNICAST_FORWARDING));
+  }
+
+  @Test
+  public void testUpdate() throws Exception
+  {
+    final UpdatePacket update = new UpdatePacket();
+    final List<PathAttribute> attributes = new ArrayList<PathAttribute>();
+
+    attributes.add(new OriginPathAttribute(Origin.INCOMPLETE));
+    attributes.add(new ASPathAttribute(ASType.AS_NUMBER_2OCTETS, new PathSegment[] {
+        new PathSegment(ASType.AS_NUMBER_2OCTETS, PathSegmentType.AS_SEQUENCE, new int[] { 65001, 65002 }),
+        new PathSegment(ASType.AS_NUMBER_2OCTETS, PathSegmentType.AS_SET, new int[] { 7, 8, 9 }) }));
+    attributes.add(new NextHopPathAttribute((Inet4Address) InetAddress.getByAddress(new byte[] { (byte) 192, 0, 2, 1 })));
+    attributes.add(new MultiExitDiscPathAttribute(20));
+    attributes.add(new LocalPrefPathAttribute(200));
+    attributes.add(new CommunityPathAttribute(Arrays.asList(new CommunityMember(65001, 100), new CommunityMember(65002, 200))));
+    attributes.add(new MultiProtocolReachableNLRI(AddressFamily.IPv6, SubsequentAddressFamily.NLRI_UNICAST_FORWARDING,
+        new BinaryNextHop(InetAddress.getByName("2001:db8::1").getAddress()),
+        new NetworkLayerReachabilityInformation[] { nlri(32, 0x20, 0x01, 0x0d, 0xb8) }));
+    attributes.add(new MultiProtocolUnreachableNLRI(AddressFamily.IPv6, SubsequentAddressFamily.NLRI_UNICAST_FORWARDING,
+        new NetworkLayerReachabilityInformation[] { nlri(48, 0x20, 0x01, 0x0d, 0xb8, 0x00, 0x09) }));
+
+    update.setWithdrawnRoutes(new ArrayList<NetworkLayerReachabilityInformation>(Arrays.asList(nlri(16, 10, 9), nlri(0))));
+    update.setPathAttributes(attributes);
+    update.setNlris(new ArrayList<NetworkLayerReachabilityInformation>(Arrays.asList(nlri(24, 10, 1, 2), nlri(9, 10, 0x80), nlri(32, 10, 1, 2, 3))));
+
+    assertEncoding(MARKER + "0086020004100a0900005f"
+        + "800e1a0002011020010db8000000000000000000000001002020010db8"
+        + "800f0a0002013020010db80009"
+        + "40010102"
+        + "40020e0202fde9fdea0103000700080009"
+        + "400304c0000201"
+        + "80040400000014"
+        + "400504000000c8"
+        + "c00808fde90064fdea00c8"
+        + "180a0102090a80200a010203", update);
+  }
+
+}
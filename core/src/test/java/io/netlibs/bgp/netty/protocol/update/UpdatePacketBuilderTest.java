@@ -0,0 +1,143 @@
+package io.netlibs.bgp.netty.protocol.update;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.Inet4Address;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.net.InetAddresses;
+
+import io.netlibs.bgp.protocol.ASType;
+import io.netlibs.bgp.protocol.AddressFamily;
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.BGPv4Constants;
+import io.netlibs.bgp.protocol.BinaryNextHop;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.Origin;
+import io.netlibs.bgp.protocol.PathSegment;
+import io.netlibs.bgp.protocol.PathSegmentType;
+import io.netlibs.bgp.protocol.SubsequentAddressFamily;
+import io.netlibs.bgp.protocol.attributes.ASPathAttribute;
+import io.netlibs.bgp.protocol.attributes.MultiProtocolReachableNLRI;
+import io.netlibs.bgp.protocol.attributes.MultiProtocolUnreachableNLRI;
+import io.netlibs.bgp.protocol.attributes.NextHopPathAttribute;
+import io.netlibs.bgp.protocol.attributes.OriginPathAttribute;
+import io.netlibs.bgp.protocol.attributes.PathAttribute;
+import io.netty.buffer.ByteBuf;
+
+public class UpdatePacketBuilderTest
+{
+
+  private static List<NetworkLayerReachabilityInformation> prefixes(final int count, final int prefixLength, final int octets)
+  {
+    final List<NetworkLayerReachabilityInformation> result = new ArrayList<NetworkLayerReachabilityInformation>(count);
+
+    for (int i = 0; i < count; i++)
+    {
+      final byte[] prefix = new byte[octets];
+
+      prefix[0] = 10;
+      prefix[1] = (byte) (i >>> 8);
+      prefix[2] = (byte) i;
+
+      result.add(new NetworkLayerReachabilityInformation(prefixLength, prefix));
+    }
+
+    return result;
+  }
+
+  private static List<PathAttribute> attributes()
+  {
+    final List<PathAttribute> attributes = new LinkedList<PathAttribute>();
+
+    attributes.add(new OriginPathAttribute(Origin.IGP));
+    attributes.add(new ASPathAttribute(ASType.AS_NUMBER_4OCTETS,
+        new PathSegment[] { new PathSegment(ASType.AS_NUMBER_4OCTETS, PathSegmentType.AS_SEQUENCE, new int[] { 65000, 65001 }) }));
+
+    return attributes;
+  }
+
+  private static void assertEncodesLikeUnshared(final UpdatePacket packet)
+  {
+    final ByteBuf shared = packet.encodePacket();
+
+    packet.setEncodedPathAttributes(null);
+
+    assertEquals(packet.encodePacket(), shared);
+    assertEquals(packet.calculatePacketSize(), shared.readableBytes());
+  }
+
+  @Test
+  public void testPackIPv4Announcements()
+  {
+    final List<PathAttribute> attributes = attributes();
+    final List<NetworkLayerReachabilityInformation> nlris = prefixes(3000, 24, 3);
+
+    attributes.add(new NextHopPathAttribute((Inet4Address) InetAddresses.forString("192.0.2.1")));
+
+    final UpdatePacketBuilder builder = new UpdatePacketBuilder();
+
+    builder.addRoutes(AddressFamilyKey.IPV4_UNICAST_FORWARDING, attributes, nlris);
+
+    final List<NetworkLayerReachabilityInformation> packed = new LinkedList<NetworkLayerReachabilityInformation>();
+
+    for (final UpdatePacket packet : builder.getPackets())
+    {
+      final int size = packet.calculatePacketSize();
+
+      assertTrue(size <= BGPv4Constants.BGP_PACKET_MAX_LENGTH);
+      packed.addAll(packet.getNlris());
+      assertEncodesLikeUnshared(packet);
+    }
+
+    // all but the last packet are filled up to the point where the next /24 would not fit anymore
+    assertTrue(builder.getPackets().get(0).calculatePacketSize() > (BGPv4Constants.BGP_PACKET_MAX_LENGTH - 4));
+    assertEquals(nlris, packed);
+  }
+
+  @Test
+  public void testPackMultiProtocolAnnouncementsAndWithdrawals()
+  {
+    final List<PathAttribute> attributes = attributes();
+    final List<NetworkLayerReachabilityInformation> nlris = prefixes(2000, 64, 8);
+    final MultiProtocolReachableNLRI template = new MultiProtocolReachableNLRI(AddressFamily.IPv6,
+        SubsequentAddressFamily.NLRI_UNICAST_FORWARDING, new BinaryNextHop(new byte[16]));
+
+    attributes.add(template);
+
+    final UpdatePacketBuilder builder = new UpdatePacketBuilder();
+
+    builder.addWithdrawnRoutes(AddressFamilyKey.IPV6_UNICAST_FORWARDING, nlris);
+    builder.addRoutes(AddressFamilyKey.IPV6_UNICAST_FORWARDING, attributes, nlris);
+
+    int withdrawn = 0;
+    int announced = 0;
+
+    for (final UpdatePacket packet : builder.getPackets())
+    {
+      assertTrue(packet.calculatePacketSize() <= BGPv4Constants.BGP_PACKET_MAX_LENGTH);
+      assertEquals(packet.calculatePacketSize(), packet.encodePacket().readableBytes());
+
+      for (final MultiProtocolReachableNLRI mpReach : packet.lookupPathAttributes(MultiProtocolReachableNLRI.class))
+      {
+        announced += mpReach.getNlris().size();
+        assertEncodesLikeUnshared(packet);
+      }
+
+      for (final MultiProtocolUnreachableNLRI mpUnreach : packet.lookupPathAttributes(MultiProtocolUnreachableNLRI.class))
+      {
+        withdrawn += mpUnreach.getNlris().size();
+      }
+    }
+
+    assertEquals(nlris.size(), withdrawn);
+    assertEquals(nlris.size(), announced);
+    assertTrue(template.getNlris().isEmpty());
+  }
+
+}
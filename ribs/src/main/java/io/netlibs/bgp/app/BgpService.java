@@ -8,13 +8,11 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.naming.ConfigurationException;
 
-import org.quartz.Scheduler;
-import org.quartz.SchedulerException;
-import org.quartz.impl.StdSchedulerFactory;
-
 import io.netlibs.bgp.config.global.ApplicationConfiguration;
 import io.netlibs.bgp.config.nodes.impl.CapabilitiesImpl;
 import io.netlibs.bgp.config.nodes.impl.ClientConfigurationImpl;
@@ -41,6 +39,7 @@ import io.netlibs.bgp.protocol.attributes.OriginPathAttribute;
 import io.netlibs.bgp.protocol.attributes.PathAttribute;
 import io.netlibs.bgp.protocol.capabilities.Capability;
 import io.netlibs.bgp.protocol.capabilities.MultiProtocolCapability;
+import io.netlibs.bgp.rib.AsyncRoutingEventListener;
 import io.netlibs.bgp.rib.PeerRoutingInformationBase;
 import io.netlibs.bgp.rib.PeerRoutingInformationBaseManager;
 import io.netlibs.bgp.rib.Route;
@@ -48,6 +47,7 @@ import io.netlibs.bgp.rib.RouteAdded;
 import io.netlibs.bgp.rib.RouteWithdrawn;
 import io.netlibs.bgp.rib.RoutingEventListener;
 import io.netlibs.bgp.rib.RoutingInformationBase;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -64,26 +64,19 @@ public class BgpService
 {
 
   public static AddressFamilyKey AF = AddressFamilyKey.IPV6_UNICAST_MPLS_FORWARDING;
-  private final Scheduler scheduler;
   private final PeerRoutingInformationBaseManager pribm = new PeerRoutingInformationBaseManager();
   private final FSMRegistry fsmRegistry;
   private final BGPv4Server serverInstance;
   private final ApplicationConfiguration app = new ApplicationConfiguration();
+  // route processors are called off the peer event loops, so a slow processor cannot stall a session
+  private final ExecutorService listenerExecutor = Executors.newCachedThreadPool(new DefaultThreadFactory("bgp-rib-listener", true));
+  private static final int LISTENER_QUEUE_CAPACITY = 4096;
 
   public BgpService()
   {
 
-    try
-    {
-      this.scheduler = new StdSchedulerFactory().getScheduler();
-    }
-    catch (final SchedulerException e)
-    {
-      throw new RuntimeException(e);
-    }
-
     this.app.setPeerRoutingInformationBaseManager(this.pribm);
-    this.fsmRegistry = new FSMRegistry(this.app, this.scheduler);
+    this.fsmRegistry = new FSMRegistry(this.app);
     this.serverInstance = new BGPv4Server(this.app, this.fsmRegistry);
 
   }
@@ -91,15 +84,6 @@ public class BgpService
   public void start() throws Exception
   {
 
-    try
-    {
-      this.scheduler.start();
-    }
-    catch (final SchedulerException e)
-    {
-      throw new RuntimeException(e);
-    }
-
     this.fsmRegistry.createRegistry();
 
     if (this.serverInstance != null)
@@ -128,6 +112,8 @@ public class BgpService
 
     this.fsmRegistry.destroyRegistry();
 
+    this.listenerExecutor.shutdownNow();
+
   }
 
 
@@ -171,15 +157,24 @@ public class BgpService
 
     rib.addRoute(route);
 
-    prib.routingBase(RIBSide.Remote, AF).addPerRibListener(new RoutingEventListener() {
+    prib.routingBase(RIBSide.Remote, AF).addPerRibListener(new AsyncRoutingEventListener(new RoutingEventListener() {
 
       private final Map<NetworkLayerReachabilityInformation, RouteHandle> handles = new HashMap<>();
+      private final Map<NetworkLayerReachabilityInformation, Route> routes = new HashMap<>();
 
       @Override
       public void routeAdded(final RouteAdded event)
       {
         final Route r = event.getRoute();
         final IPv4MPLSLabelNLRI nlri = new IPv4MPLSLabelNLRI(r.getNlri().getPrefix());
+        final RouteHandle previous = this.handles.remove(nlri.getAddress());
+
+        // the route replaces one of the prefix, or its withdrawal has been coalesced with this announcement
+        if (previous != null)
+        {
+          previous.withdraw(this.routes.remove(nlri.getAddress()).getPathAttributes());
+        }
+
         final RouteHandle handle = proc.add(nlri, r.getNextHop(), r.getPathAttributes());
 
         log.info("Route ADD[{}]: nh={}: {}", nlri.getAddress(), event.getRoute().getNextHop(), event.getRoute().getPathAttributes());
@@ -187,6 +182,7 @@ public class BgpService
         if (handle != null)
         {
           this.handles.put(nlri.getAddress(), handle);
+          this.routes.put(nlri.getAddress(), r);
         }
 
       }
@@ -197,7 +193,9 @@ public class BgpService
         final Route r = event.getRoute();
         final IPv4MPLSLabelNLRI nlri = new IPv4MPLSLabelNLRI(r.getNlri().getPrefix());
         log.info("Route DEL: {}: {}", nlri.getAddress(), event.getRoute());
-        final RouteHandle handle = this.handles.get(nlri.getAddress());
+        final RouteHandle handle = this.handles.remove(nlri.getAddress());
+
+        this.routes.remove(nlri.getAddress());
 
         if (handle != null)
         {
@@ -209,7 +207,9 @@ public class BgpService
         }
       }
 
-    });
+      // a coalesced announcement withdraws the handle it replaces, so the net change of a prefix is all the processor needs when it falls
+      // behind
+    }, this.listenerExecutor, LISTENER_QUEUE_CAPACITY, AsyncRoutingEventListener.OverflowPolicy.COALESCE, null));
 
     // ----
 
@@ -148,6 +148,27 @@ public interface PeerConfiguration {
 	 */
 	public boolean isHoldTimerDisabled();
 	
+	/**
+	 * get the minimum interval between two UPDATE bursts sent to the peer (MinRouteAdvertisementIntervalTimer)
+	 * 
+	 * @return the interval in milliseconds
+	 */
+	public long getMinRouteAdvertisementInterval();
+	
+	/**
+	 * get the size of the outbound buffer of the peer connection above which no further UPDATE packets are written
+	 * 
+	 * @return the high water mark in bytes
+	 */
+	public int getWriteBufferHighWaterMark();
+	
+	/**
+	 * get the size of the outbound buffer of the peer connection below which writing UPDATE packets is resumed
+	 * 
+	 * @return the low water mark in bytes
+	 */
+	public int getWriteBufferLowWaterMark();
+	
 	/**
 	 * 
 	 * @return
@@ -183,6 +183,9 @@ public class PeerConfigurationDecorator implements PeerConfiguration {
 				.append(isHoldTimerDisabled(), o.isHoldTimerDisabled())
 				.append(isPassiveTcpEstablishment(), o.isPassiveTcpEstablishment())
 				.append(getConnectRetryTime(), o.getConnectRetryTime())
+				.append(getMinRouteAdvertisementInterval(), o.getMinRouteAdvertisementInterval())
+				.append(getWriteBufferHighWaterMark(), o.getWriteBufferHighWaterMark())
+				.append(getWriteBufferLowWaterMark(), o.getWriteBufferLowWaterMark())
 				.isEquals();
 	}
 
@@ -211,6 +214,9 @@ public class PeerConfigurationDecorator implements PeerConfiguration {
 				.append(getPeerName())
 				.append(getRemoteAS())
 				.append(getRemoteBgpIdentifier())
+				.append(getMinRouteAdvertisementInterval())
+				.append(getWriteBufferHighWaterMark())
+				.append(getWriteBufferLowWaterMark())
 				.toHashCode();
 	}
 
@@ -235,6 +241,21 @@ public class PeerConfigurationDecorator implements PeerConfiguration {
 		return decorated.isHoldTimerDisabled();
 	}
 
+	@Override
+	public long getMinRouteAdvertisementInterval() {
+		return decorated.getMinRouteAdvertisementInterval();
+	}
+
+	@Override
+	public int getWriteBufferHighWaterMark() {
+		return decorated.getWriteBufferHighWaterMark();
+	}
+
+	@Override
+	public int getWriteBufferLowWaterMark() {
+		return decorated.getWriteBufferLowWaterMark();
+	}
+
 	@Override
 	public Capabilities getCapabilities() {
 		return decorated.getCapabilities();
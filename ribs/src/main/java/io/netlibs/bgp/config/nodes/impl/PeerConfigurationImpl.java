@@ -52,6 +52,9 @@ public class PeerConfigurationImpl implements PeerConfiguration
   private int delayOpenTime = 5;
   private int connectRetryTime = 5;
   private int automaticStartInterval = 5;
+  private long minRouteAdvertisementInterval = 5000;
+  private int writeBufferHighWaterMark = 64 * 1024;
+  private int writeBufferLowWaterMark = 32 * 1024;
   private Capabilities capabilities = new CapabilitiesImpl();
 
   public PeerConfigurationImpl()
@@ -358,10 +361,13 @@ public class PeerConfigurationImpl implements PeerConfiguration
         .append(this.idleHoldTime)
         .append(this.localAS)
         .append(this.localBgpIdentifier)
+        .append(this.minRouteAdvertisementInterval)
         .append(this.passiveTcpEstablishment)
         .append(this.peerName)
         .append(this.remoteAS)
         .append(this.remoteBgpIdentifier)
+        .append(this.writeBufferHighWaterMark)
+        .append(this.writeBufferLowWaterMark)
         .toHashCode();
 
   }
@@ -410,10 +416,13 @@ public class PeerConfigurationImpl implements PeerConfiguration
         .append(this.idleHoldTime, o.getIdleHoldTime())
         .append(this.localAS, o.getLocalAS())
         .append(this.localBgpIdentifier, o.getLocalBgpIdentifier())
+        .append(this.minRouteAdvertisementInterval, o.getMinRouteAdvertisementInterval())
         .append(this.passiveTcpEstablishment, o.isPassiveTcpEstablishment())
         .append(this.peerName, o.getPeerName())
         .append(this.remoteAS, o.getRemoteAS())
         .append(this.remoteBgpIdentifier, o.getRemoteBgpIdentifier())
+        .append(this.writeBufferHighWaterMark, o.getWriteBufferHighWaterMark())
+        .append(this.writeBufferLowWaterMark, o.getWriteBufferLowWaterMark())
         .isEquals();
   }
 
@@ -614,6 +623,64 @@ public class PeerConfigurationImpl implements PeerConfiguration
     this.holdTimerDisabled = holdTimerDisabled;
   }
 
+  /**
+   * @return the minRouteAdvertisementInterval in milliseconds
+   */
+  @Override
+  public long getMinRouteAdvertisementInterval()
+  {
+    return this.minRouteAdvertisementInterval;
+  }
+
+  /**
+   * @param minRouteAdvertisementInterval
+   *          the minRouteAdvertisementInterval in milliseconds to set
+   */
+  public void setMinRouteAdvertisementInterval(final long minRouteAdvertisementInterval) throws ConfigurationException
+  {
+    if (minRouteAdvertisementInterval < 0)
+    {
+      throw new ConfigurationException("Illegal minimum route advertisement interval given: " + minRouteAdvertisementInterval);
+    }
+
+    this.minRouteAdvertisementInterval = minRouteAdvertisementInterval;
+  }
+
+  /**
+   * @return the writeBufferHighWaterMark in bytes
+   */
+  @Override
+  public int getWriteBufferHighWaterMark()
+  {
+    return this.writeBufferHighWaterMark;
+  }
+
+  /**
+   * @return the writeBufferLowWaterMark in bytes
+   */
+  @Override
+  public int getWriteBufferLowWaterMark()
+  {
+    return this.writeBufferLowWaterMark;
+  }
+
+  /**
+   * @param writeBufferLowWaterMark
+   *          the writeBufferLowWaterMark in bytes to set
+   * @param writeBufferHighWaterMark
+   *          the writeBufferHighWaterMark in bytes to set
+   */
+  public void setWriteBufferWaterMarks(final int writeBufferLowWaterMark, final int writeBufferHighWaterMark) throws ConfigurationException
+  {
+    if ((writeBufferLowWaterMark < 0) || (writeBufferHighWaterMark < writeBufferLowWaterMark))
+    {
+      throw new ConfigurationException("Illegal write buffer water marks given: " + writeBufferLowWaterMark + "/" + writeBufferHighWaterMark);
+    }
+
+    this.writeBufferLowWaterMark = writeBufferLowWaterMark;
+    this.writeBufferHighWaterMark = writeBufferHighWaterMark;
+  }
+
   /**
    * @return the capabilities
    */
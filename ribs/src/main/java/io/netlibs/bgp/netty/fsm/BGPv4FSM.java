@@ -18,13 +18,9 @@ package io.netlibs.bgp.netty.fsm;
 
 import java.net.InetSocketAddress;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
-import org.quartz.Scheduler;
-import org.quartz.SchedulerException;
-
 import io.netlibs.bgp.config.nodes.PeerConfiguration;
 import io.netlibs.bgp.handlers.BgpEvent;
 import io.netlibs.bgp.handlers.NotificationEvent;
@@ -57,9 +53,9 @@ import io.netlibs.bgp.protocol.capabilities.Capability;
 import io.netlibs.bgp.protocol.capabilities.MultiProtocolCapability;
 import io.netlibs.bgp.rib.PeerRoutingInformationBase;
 import io.netlibs.bgp.rib.PeerRoutingInformationBaseManager;
+import io.netlibs.bgp.rib.RibBatch;
 import io.netty.channel.Channel;
-import io.netty.channel.ChannelFuture;
-import io.netty.channel.ChannelFutureListener;
+import io.netty.util.Timer;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -284,14 +280,8 @@ public class BGPv4FSM
       }
       BGPv4FSM.this.prib = null;
 
-      try
-      {
-        BGPv4FSM.this.oruq.shutdown();
-      }
-      catch (final SchedulerException e)
-      {
-        BGPv4FSM.log.error("failed to shutdown UPDATE send trigger", e);
-      }
+      BGPv4FSM.this.oruq.shutdown();
+      BGPv4FSM.this.updateWriter.clear();
 
     }
 
@@ -349,69 +339,37 @@ public class BGPv4FSM
 
       BGPv4FSM.this.prib.visitRoutingBases(RIBSide.Local, BGPv4FSM.this.oruq.getImportVisitor(), BGPv4FSM.this.outboundAddressFamilyMask);
 
-      try
+      if (BGPv4FSM.this.managedChannels.size() != 1)
       {
-        BGPv4FSM.this.oruq.startSendingUpdates(BGPv4FSM.this.internalFsm.getNegotiatedHoldTime() / 3);
+        BGPv4FSM.log.error("cannot start UPDATE sending, expected one established channel but got " + BGPv4FSM.this.managedChannels.size());
+
+        BGPv4FSM.this.internalFsm.flagFSMError();
       }
-      catch (final SchedulerException e)
+      else
       {
-        BGPv4FSM.log.error("failed to start UPDATE send trigger", e);
+        final Channel channel = BGPv4FSM.this.managedChannels.iterator().next().getChannel();
 
-        BGPv4FSM.this.internalFsm.flagFSMError();
+        OutboundUpdateWriter.configureWaterMarks(channel.config(), BGPv4FSM.this.peerConfig.getWriteBufferLowWaterMark(),
+            BGPv4FSM.this.peerConfig.getWriteBufferHighWaterMark());
+        BGPv4FSM.this.oruq.startSendingUpdates(channel.eventLoop(), BGPv4FSM.this.peerConfig.getMinRouteAdvertisementInterval());
       }
     }
 
   }
 
-  private class SendLocalRoutingUpdateCallback implements OutboundRoutingUpdateCallback, ChannelFutureListener
+  private class SendLocalRoutingUpdateCallback implements OutboundRoutingUpdateCallback
   {
 
-    private final List<UpdatePacket> updates = new LinkedList<UpdatePacket>();
-
     @Override
     public void sendUpdates(final List<UpdatePacket> updates)
     {
-
-      UpdatePacket packet = null;
-
-      synchronized (updates)
-      {
-        this.updates.addAll(updates);
-        if (this.updates.size() > 0)
-        {
-          packet = this.updates.remove(0);
-        }
-      }
-
       if (BGPv4FSM.this.managedChannels.size() != 1)
       {
         BGPv4FSM.this.internalFsm.flagFSMError();
       }
-      else if (packet != null)
-      {
-        final Channel channel = BGPv4FSM.this.managedChannels.iterator().next().getChannel();
-        channel.writeAndFlush(packet).addListener(this);
-      }
-
-    }
-
-    @Override
-    public void operationComplete(final ChannelFuture future) throws Exception
-    {
-
-      UpdatePacket packet = null;
-
-      synchronized (this.updates)
-      {
-        if (this.updates.size() > 0)
-        {
-          packet = this.updates.remove(0);
-        }
-      }
-
-      if (packet != null)
+      else if (!updates.isEmpty())
       {
-        future.channel().write(packet).addListener(this);
+        BGPv4FSM.this.updateWriter.write(BGPv4FSM.this.managedChannels.iterator().next().getChannel(), updates);
       }
     }
 
@@ -421,6 +379,7 @@ public class BGPv4FSM
   private final CapabilitesNegotiator capabilitiesNegotiator;
   private final PeerRoutingInformationBaseManager pribManager;
   private final OutboundRoutingUpdateQueue oruq;
+  private final OutboundUpdateWriter updateWriter = new OutboundUpdateWriter();
 
   private final InternalFSM internalFsm;
 
@@ -430,17 +389,17 @@ public class BGPv4FSM
   private PeerRoutingInformationBase prib;
   private final Set<AddressFamilyKey> outboundAddressFamilyMask = new HashSet<AddressFamilyKey>();
 
-  public BGPv4FSM(final Scheduler scheduler, final BGPv4Client clientProvider, final CapabilitesNegotiator capabilitiesNegotiation,
+  public BGPv4FSM(final Timer timer, final BGPv4Client clientProvider, final CapabilitesNegotiator capabilitiesNegotiation,
       final PeerRoutingInformationBaseManager pribManager, final OutboundRoutingUpdateQueue orug)
   {
     this.clientProvider = clientProvider;
     this.capabilitiesNegotiator = capabilitiesNegotiation;
     this.pribManager = pribManager;
     this.oruq = orug;
-    this.internalFsm = new InternalFSM(scheduler);
+    this.internalFsm = new InternalFSM(timer);
   }
 
-  public void configure(final PeerConfiguration peerConfig) throws SchedulerException
+  public void configure(final PeerConfiguration peerConfig)
   {
     this.peerConfig = peerConfig;
     this.internalFsm.setup(peerConfig, new InternalFSMCallbacksImpl());
@@ -605,6 +564,14 @@ public class BGPv4FSM
   {
   }
 
+  public void handleWritabilityChanged(final Channel channel)
+  {
+    if (this.findWrapperForChannel(channel) != null)
+    {
+      this.updateWriter.channelWritabilityChanged(channel);
+    }
+  }
+
   public boolean isCanAcceptConnection()
   {
     return this.internalFsm.isCanAcceptConnection();
@@ -615,6 +582,22 @@ public class BGPv4FSM
     return this.internalFsm.getState();
   }
 
+  /**
+   * @return the number of route changes queued for the peer and not yet sent
+   */
+  public int getPendingUpdateQueueDepth()
+  {
+    return this.oruq.getPendingQueueDepth();
+  }
+
+  /**
+   * @return the number of UPDATE packets held back because the peer channel is not writable
+   */
+  public int getUpdateWriteBacklog()
+  {
+    return this.updateWriter.getBacklogSize();
+  }
+
   private FSMChannelImpl findWrapperForChannel(final Channel channel)
   {
     FSMChannelImpl wrapper = null;
@@ -650,24 +633,6 @@ public class BGPv4FSM
         MultiProtocolUnreachableNLRI.class,
         NextHopPathAttribute.class);
 
-    final AddressFamilyKey ipv4Unicast = new AddressFamilyKey(AddressFamily.IPv4, SubsequentAddressFamily.NLRI_UNICAST_FORWARDING);
-
-    if (mpReachables.size() > 0)
-    {
-      this.processRemoteUpdateMultiProtocolReachables(mpReachables, otherAttributes);
-    }
-
-    if (mpUnreachables.size() > 0)
-    {
-      this.processRemoteUp(mpUnreachables, otherAttributes);
-    }
-
-    if (!message.getWithdrawnRoutes().isEmpty())
-    {
-      // withdraw IPv4 prefixes
-      this.prib.routingBase(RIBSide.Remote, ipv4Unicast).withdrawRoutes(message.getWithdrawnRoutes());
-    }
-
     final Set<NextHopPathAttribute> nextHops = message.lookupPathAttributes(NextHopPathAttribute.class);
 
     if (nextHops.size() > 1)
@@ -675,41 +640,30 @@ public class BGPv4FSM
       throw new InvalidNextHopException();
     }
 
-    if (!(message.getNlris() == null) && !(message.getNlris().isEmpty()))
-      this.prib.routingBase(RIBSide.Remote, ipv4Unicast).addRoutes(message.getNlris(), otherAttributes, (nextHops.isEmpty()) ? null : nextHops.iterator().next().getNextHop());
+    final AddressFamilyKey ipv4Unicast = new AddressFamilyKey(AddressFamily.IPv4, SubsequentAddressFamily.NLRI_UNICAST_FORWARDING);
+    final RibBatch batch = new RibBatch();
 
-  }
+    // withdraw IPv4 prefixes
+    batch.withdraw(ipv4Unicast, message.getWithdrawnRoutes());
 
-  private void processRemoteUp(final Set<MultiProtocolUnreachableNLRI> mpUnreachables, final Set<PathAttribute> attrs)
-  {
-    
+    // null NLRI MP_UNREACH is used to indicate VPNvX EOR, the batch ignores it
     for (final MultiProtocolUnreachableNLRI mp : mpUnreachables)
     {
-      // null NLRI MP_UNREACH is used to indicate VPNvX EOR
-      if (!mp.getNlris().isEmpty()){
-        this.prib
-          .routingBase(RIBSide.Remote, new AddressFamilyKey(mp.getAddressFamily(), mp.getSubsequentAddressFamily()))
-          .withdrawRoutes(mp.getNlris());
-      }
+      batch.withdraw(new AddressFamilyKey(mp.getAddressFamily(), mp.getSubsequentAddressFamily()), mp.getNlris());
     }
-  }
-
-  /**
-   * 
-   * @param mpReachables
-   * @param attrs
-   */
 
-  private void processRemoteUpdateMultiProtocolReachables(final Set<MultiProtocolReachableNLRI> mpReachables, final Set<PathAttribute> attrs)
-  {
+    if (message.getNlris() != null)
+    {
+      batch.announce(ipv4Unicast, message.getNlris(), otherAttributes, (nextHops.isEmpty()) ? null : nextHops.iterator().next().getNextHop());
+    }
 
     for (final MultiProtocolReachableNLRI mp : mpReachables)
     {
-      this.prib
-          .routingBase(RIBSide.Remote, new AddressFamilyKey(mp.getAddressFamily(), mp.getSubsequentAddressFamily()))
-          .addRoutes(mp.getNlris(), attrs, mp.getNextHop());
+      batch.announce(new AddressFamilyKey(mp.getAddressFamily(), mp.getSubsequentAddressFamily()), mp.getNlris(), otherAttributes, mp.getNextHop());
     }
 
+    this.prib.apply(RIBSide.Remote, batch);
+
   }
 
 }
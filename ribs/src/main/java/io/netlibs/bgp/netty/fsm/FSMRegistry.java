@@ -25,13 +25,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
-import org.quartz.Scheduler;
-
 import io.netlibs.bgp.config.global.ApplicationConfiguration;
 import io.netlibs.bgp.config.global.PeerConfigurationEvent;
 import io.netlibs.bgp.config.nodes.PeerConfiguration;
 import io.netlibs.bgp.netty.service.BGPv4Client;
 import io.netlibs.bgp.rib.PeerRoutingInformationBaseManager;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -45,12 +46,12 @@ public class FSMRegistry
 
   private final ApplicationConfiguration applicationConfiguration;
 
-  private Scheduler scheduler;
+  // drives the FSM timers of all peers managed by this registry
+  private final Timer fsmTimer = new HashedWheelTimer(new DefaultThreadFactory("bgp-fsm-timer", true));
 
-  public FSMRegistry(ApplicationConfiguration config, Scheduler scheduler)
+  public FSMRegistry(ApplicationConfiguration config)
   {
     this.applicationConfiguration = config;
-    this.scheduler = scheduler;
   }
 
   private final Map<InetSocketAddress, BGPv4FSM> fsmMap = new HashMap<InetSocketAddress, BGPv4FSM>();
@@ -77,7 +78,7 @@ public class FSMRegistry
 
   private BGPv4FSM createFsm()
   {
-    return new BGPv4FSM(scheduler, new BGPv4Client(this), new CapabilitesNegotiator(), applicationConfiguration.getPeerRoutingInformationBaseManager(), new OutboundRoutingUpdateQueue(scheduler));
+    return new BGPv4FSM(fsmTimer, new BGPv4Client(this), new CapabilitesNegotiator(), applicationConfiguration.getPeerRoutingInformationBaseManager(), new OutboundRoutingUpdateQueue());
   }
 
   public void registerFSM(final BGPv4FSM fsm)
@@ -132,6 +133,9 @@ public class FSMRegistry
     }
 
     this.fsmMap.clear();
+
+    // the FSMs have cancelled their timers, release the worker thread of the wheel
+    this.fsmTimer.stop();
   }
 
   public void peerChanged(final PeerConfigurationEvent event)
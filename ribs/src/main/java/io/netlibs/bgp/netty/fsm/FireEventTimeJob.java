@@ -1,20 +1,15 @@
 package io.netlibs.bgp.netty.fsm;
 
-import org.quartz.Job;
-import org.quartz.JobExecutionContext;
-import org.quartz.JobExecutionException;
-
-class FireEventTimeJob implements Job {
-	final static String FSM_KEY = "fsm";
-	
-	private FSMEvent event;
+class FireEventTimeJob {
+	private final FSMEvent event;
+	private final InternalFSM fsm;
 	
-	protected FireEventTimeJob(FSMEvent event) {
+	FireEventTimeJob(FSMEvent event, InternalFSM fsm) {
 		this.event = event;
+		this.fsm = fsm;
 	}
 
-	@Override
-	public void execute(JobExecutionContext context) throws JobExecutionException {
-		((InternalFSM)context.getMergedJobDataMap().get(FSM_KEY)).handleEvent(event);
+	void execute() {
+		fsm.handleEvent(event);
 	}
-}
\ No newline at end of file
+}
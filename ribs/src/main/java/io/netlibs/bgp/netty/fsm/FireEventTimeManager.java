@@ -18,143 +18,86 @@
 package io.netlibs.bgp.netty.fsm;
 
 import java.util.Date;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.UUID;
-
-import org.quartz.JobBuilder;
-import org.quartz.JobDataMap;
-import org.quartz.JobDetail;
-import org.quartz.JobExecutionContext;
-import org.quartz.JobKey;
-import org.quartz.Scheduler;
-import org.quartz.SchedulerException;
-import org.quartz.SimpleScheduleBuilder;
-import org.quartz.Trigger;
-import org.quartz.Trigger.CompletedExecutionInstruction;
-import org.quartz.TriggerBuilder;
-import org.quartz.TriggerKey;
-import org.quartz.impl.matchers.EverythingMatcher;
-import org.quartz.listeners.TriggerListenerSupport;
+import java.util.concurrent.TimeUnit;
 
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
 import lombok.RequiredArgsConstructor;
 
 /**
+ * One-shot FSM timer. The timer is backed by a shared hashed wheel timer, so scheduling and cancelling the timer is O(1) independent of
+ * the number of peers.
+ *
  * @author Rainer Bieniek (Rainer.Bieniek@web.de)
  *
  */
 
 @RequiredArgsConstructor
-class FireEventTimeManager<T extends FireEventTimeJob>
+class FireEventTimeManager
 {
 
-  private class ClearTriggerData extends TriggerListenerSupport
-  {
-    private final String name = UUID.randomUUID().toString();
+  private final Timer timer;
+  private FireEventTimeJob job;
+  private Timeout timeout;
+  private Date firedWhen;
 
-    @Override
-    public String getName()
-    {
-      return this.name;
-    }
+  private final TimerTask fireTask = new TimerTask() {
 
-    /*
-     * (non-Javadoc)
-     *
-     * @see org.quartz.listeners.TriggerListenerSupport#triggerComplete(org.quartz.Trigger, org.quartz.JobExecutionContext,
-     * org.quartz.Trigger.CompletedExecutionInstruction)
-     */
     @Override
-    public void triggerComplete(final Trigger trigger,
-        final JobExecutionContext context,
-        final CompletedExecutionInstruction triggerInstructionCode)
+    public void run(final Timeout expired) throws Exception
     {
-      if (trigger.getKey().equals(FireEventTimeManager.this.triggerKey))
+      synchronized (FireEventTimeManager.this)
       {
+        if (expired != FireEventTimeManager.this.timeout)
+        {
+          // the timer has been cancelled or rescheduled in the meantime
+          return;
+        }
+
+        FireEventTimeManager.this.timeout = null;
         FireEventTimeManager.this.firedWhen = null;
-        FireEventTimeManager.this.triggerKey = null;
       }
-    }
-  }
-
-  private final ClearTriggerData clearTriggerData = new ClearTriggerData();
-
-  private final Scheduler scheduler;
-  private JobDetail jobDetail;
-  private TriggerKey triggerKey;
-  private JobKey jobKey;
-  private Date firedWhen;
 
-  void createJobDetail(final Class<T> jobClass, final InternalFSM fsm, final Map<String, Object> additionalJobData) throws SchedulerException
-  {
-    final JobDataMap map = new JobDataMap();
-
-    map.put(FireEventTimeJob.FSM_KEY, fsm);
-
-    if (additionalJobData != null)
-    {
-      for (final Entry<String, Object> entry : additionalJobData.entrySet())
-      {
-        map.put(entry.getKey(), entry.getValue());
-      }
+      FireEventTimeManager.this.job.execute();
     }
+  };
 
-    this.jobKey = new JobKey(UUID.randomUUID().toString());
-    this.jobDetail = JobBuilder.newJob(jobClass).usingJobData(map).withIdentity(this.jobKey).build();
-
-    this.scheduler.getListenerManager().addTriggerListener(this.clearTriggerData, EverythingMatcher.allTriggers());
-  }
-
-  void createJobDetail(final Class<T> jobClass, final InternalFSM fsm) throws SchedulerException
+  void createJobDetail(final FSMEvent event, final InternalFSM fsm)
   {
-    this.createJobDetail(jobClass, fsm, null);
+    this.job = new FireEventTimeJob(event, fsm);
   }
 
-  void shutdown() throws SchedulerException
+  void shutdown()
   {
     this.cancelJob();
-
-    this.scheduler.getListenerManager().removeTriggerListener(this.clearTriggerData.getName());
   };
 
-  synchronized void scheduleJob(final int whenInSeconds) throws SchedulerException
+  /**
+   * (re-)start the timer. A pending expiry is replaced.
+   *
+   * @param whenInSeconds
+   *          the number of seconds until the timer expires
+   */
+  synchronized void scheduleJob(final int whenInSeconds)
   {
-    this.triggerKey = TriggerKey.triggerKey(UUID.randomUUID().toString());
+    this.cancelJob();
 
-    if (this.scheduler.checkExists(this.jobKey))
-    {
-      this.firedWhen = this.scheduler.scheduleJob(TriggerBuilder.newTrigger()
-          .withIdentity(this.triggerKey)
-          .forJob(this.jobKey)
-          .withSchedule(SimpleScheduleBuilder.simpleSchedule())
-          .startAt(new Date(System.currentTimeMillis() + (whenInSeconds * 1000L)))
-          .build());
-    }
-    else
-    {
-      this.firedWhen = this.scheduler.scheduleJob(this.jobDetail, TriggerBuilder.newTrigger()
-          .withIdentity(this.triggerKey)
-          .withSchedule(SimpleScheduleBuilder.simpleSchedule())
-          .startAt(new Date(System.currentTimeMillis() + (whenInSeconds * 1000L)))
-          .build());
-    }
+    this.firedWhen = new Date(System.currentTimeMillis() + (whenInSeconds * 1000L));
+    this.timeout = this.timer.newTimeout(this.fireTask, whenInSeconds, TimeUnit.SECONDS);
   }
 
-  synchronized boolean isJobScheduled() throws SchedulerException
+  synchronized boolean isJobScheduled()
   {
-    if (this.triggerKey == null)
-    {
-      return false;
-    }
-    return this.scheduler.checkExists(this.triggerKey);
+    return (this.timeout != null);
   }
 
-  synchronized void cancelJob() throws SchedulerException
+  synchronized void cancelJob()
   {
-    if (this.triggerKey != null)
+    if (this.timeout != null)
     {
-      this.scheduler.unscheduleJob(this.triggerKey);
-      this.triggerKey = null;
+      this.timeout.cancel();
+      this.timeout = null;
       this.firedWhen = null;
     }
   }
@@ -1,7 +0,0 @@
-package io.netlibs.bgp.netty.fsm;
-
-public class FireHoldTimerExpired extends FireEventTimeJob {
-	public FireHoldTimerExpired() {
-		super(FSMEvent.holdTimerExpires());
-	}
-}
\ No newline at end of file
@@ -1,7 +0,0 @@
-package io.netlibs.bgp.netty.fsm;
-
-public class FireIdleHoldTimerExpired extends FireEventTimeJob {
-	public FireIdleHoldTimerExpired() {
-		super(FSMEvent.idleHoldTimerExpires());
-	}
-}
\ No newline at end of file
@@ -12,115 +12,113 @@
  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
  *  See the License for the specific language governing permissions and
  *  limitations under the License.
- * 
- * File: org.bgp4j.netty.fsm.FireEventTimeManager.java 
+ *
+ * File: org.bgp4j.netty.fsm.FireRepeatedEventTimeManager.java
  */
 package io.netlibs.bgp.netty.fsm;
 
 import java.util.Date;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.UUID;
-
-import org.quartz.JobBuilder;
-import org.quartz.JobDataMap;
-import org.quartz.JobDetail;
-import org.quartz.JobKey;
-import org.quartz.Scheduler;
-import org.quartz.SchedulerException;
-import org.quartz.SimpleScheduleBuilder;
-import org.quartz.TriggerBuilder;
-import org.quartz.TriggerKey;
+import java.util.concurrent.TimeUnit;
 
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
 import lombok.RequiredArgsConstructor;
 
 /**
+ * Repeating FSM timer backed by a shared hashed wheel timer. The timer fires at a fixed rate, each expiry schedules the next one relative
+ * to the planned (not the actual) fire time.
+ *
  * @author Rainer Bieniek (Rainer.Bieniek@web.de)
  *
  */
 
 @RequiredArgsConstructor
-class FireRepeatedEventTimeManager<T extends FireEventTimeJob>
+class FireRepeatedEventTimeManager
 {
 
-  private final Scheduler scheduler;
-  private JobDetail jobDetail;
-  private TriggerKey triggerKey;
-  private JobKey jobKey;
-
-  void createJobDetail(Class<T> jobClass, InternalFSM fsm, Map<String, Object> additionalJobData) throws SchedulerException
-  {
-    JobDataMap map = new JobDataMap();
+  private final Timer timer;
+  private FireEventTimeJob job;
+  private Timeout timeout;
+  private long repeatIntervalMillis;
+  private long nextFireWhen;
 
-    map.put(FireEventTimeJob.FSM_KEY, fsm);
+  private final TimerTask fireTask = new TimerTask() {
 
-    if (additionalJobData != null)
+    @Override
+    public void run(final Timeout expired) throws Exception
     {
-      for (Entry<String, Object> entry : additionalJobData.entrySet())
-        map.put(entry.getKey(), entry.getValue());
+      synchronized (FireRepeatedEventTimeManager.this)
+      {
+        if (expired != FireRepeatedEventTimeManager.this.timeout)
+        {
+          // the timer has been cancelled or restarted in the meantime
+          return;
+        }
+
+        FireRepeatedEventTimeManager.this.scheduleNext();
+      }
+
+      FireRepeatedEventTimeManager.this.job.execute();
     }
+  };
 
-    jobKey = new JobKey(UUID.randomUUID().toString());
-    jobDetail = JobBuilder.newJob(jobClass).usingJobData(map).withIdentity(jobKey).build();
-  }
-
-  void createJobDetail(Class<T> jobClass, InternalFSM fsm) throws SchedulerException
+  void createJobDetail(FSMEvent event, InternalFSM fsm)
   {
-    createJobDetail(jobClass, fsm, null);
+    job = new FireEventTimeJob(event, fsm);
   }
 
-  void shutdown() throws SchedulerException
+  void shutdown()
   {
     cancelJob();
   };
 
-  void startRepeatedJob(int repeatInterval) throws SchedulerException
+  /**
+   * (re-)start the timer. The first expiry is one interval from now.
+   *
+   * @param repeatInterval
+   *          the number of seconds between two expiries
+   * @throws IllegalArgumentException
+   *           if the interval is not positive, the timer would expire over and over again without any delay
+   */
+  synchronized void startRepeatedJob(int repeatInterval)
   {
-    if (isJobScheduled())
-      cancelJob();
+    if (repeatInterval <= 0)
+      throw new IllegalArgumentException("illegal repeat interval " + repeatInterval);
+
+    cancelJob();
 
-    triggerKey = TriggerKey.triggerKey(UUID.randomUUID().toString());
+    repeatIntervalMillis = repeatInterval * 1000L;
+    nextFireWhen = System.currentTimeMillis();
 
-    if (scheduler.checkExists(jobKey))
-    {
-      scheduler.scheduleJob(TriggerBuilder.newTrigger()
-          .withIdentity(triggerKey)
-          .forJob(jobKey)
-          .withSchedule(SimpleScheduleBuilder.repeatSecondlyForever(repeatInterval))
-          .startAt(new Date(System.currentTimeMillis() + repeatInterval * 1000L))
-          .build());
-    }
-    else
-    {
-      scheduler.scheduleJob(jobDetail, TriggerBuilder.newTrigger()
-          .withIdentity(triggerKey)
-          .withSchedule(SimpleScheduleBuilder.repeatSecondlyForever(repeatInterval))
-          .startAt(new Date(System.currentTimeMillis() + repeatInterval * 1000L))
-          .build());
-    }
+    scheduleNext();
   }
 
-  boolean isJobScheduled() throws SchedulerException
+  synchronized boolean isJobScheduled()
   {
-    if (triggerKey == null)
-      return false;
-    return scheduler.checkExists(triggerKey);
+    return (timeout != null);
   }
 
-  public Date getNextFireWhen() throws SchedulerException
+  public synchronized Date getNextFireWhen()
   {
     if (!isJobScheduled())
       return null;
 
-    return scheduler.getTrigger(triggerKey).getFireTimeAfter(new Date(System.currentTimeMillis()));
+    return new Date(nextFireWhen);
   }
 
-  void cancelJob() throws SchedulerException
+  synchronized void cancelJob()
   {
-    if (triggerKey != null)
+    if (timeout != null)
     {
-      scheduler.unscheduleJob(triggerKey);
-      triggerKey = null;
+      timeout.cancel();
+      timeout = null;
     }
   }
+
+  private void scheduleNext()
+  {
+    nextFireWhen += repeatIntervalMillis;
+    timeout = timer.newTimeout(fireTask, Math.max(0, nextFireWhen - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+  }
 }
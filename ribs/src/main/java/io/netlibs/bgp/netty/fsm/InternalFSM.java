@@ -20,11 +20,9 @@ package io.netlibs.bgp.netty.fsm;
 import java.util.Date;
 import java.util.concurrent.TimeUnit;
 
-import org.quartz.Scheduler;
-import org.quartz.SchedulerException;
-
 import io.netlibs.bgp.config.nodes.PeerConfiguration;
 import io.netlibs.bgp.netty.FSMState;
+import io.netty.util.Timer;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -45,12 +43,12 @@ public class InternalFSM
   private int connectRetryCounter = 0;
   private boolean canAcceptConnection = false;
 
-  private final FireEventTimeManager<FireConnectRetryTimerExpired> fireConnectRetryTimeExpired;
-  private FireEventTimeManager<FireIdleHoldTimerExpired> fireIdleHoldTimerExpired;
-  private FireEventTimeManager<FireDelayOpenTimerExpired> fireDelayOpenTimerExpired;
-  private FireEventTimeManager<FireHoldTimerExpired> fireHoldTimerExpired;
-  private FireRepeatedEventTimeManager<FireAutomaticStart> fireRepeatedAutomaticStart;
-  private FireEventTimeManager<FireSendKeepalive> fireKeepaliveTimerExpired;
+  private final FireEventTimeManager fireConnectRetryTimeExpired;
+  private FireEventTimeManager fireIdleHoldTimerExpired;
+  private FireEventTimeManager fireDelayOpenTimerExpired;
+  private FireEventTimeManager fireHoldTimerExpired;
+  private FireRepeatedEventTimeManager fireRepeatedAutomaticStart;
+  private FireEventTimeManager fireKeepaliveTimerExpired;
 
   private int peerProposedHoldTime = 0;
   private boolean haveFSMError = false;
@@ -59,29 +57,29 @@ public class InternalFSM
   private InternalFSMChannelManager connectedChannelManager;
   private InternalFSMChannelManager activeChannelManager;
 
-  InternalFSM(Scheduler scheduler)
+  InternalFSM(Timer timer)
   {
-    this.fireConnectRetryTimeExpired = new FireEventTimeManager<>(scheduler);
-    fireIdleHoldTimerExpired = new FireEventTimeManager<>(scheduler);
-    fireDelayOpenTimerExpired = new FireEventTimeManager<>(scheduler);
-    fireHoldTimerExpired = new FireEventTimeManager<>(scheduler);
-    fireRepeatedAutomaticStart = new FireRepeatedEventTimeManager<>(scheduler);
-    fireKeepaliveTimerExpired = new FireEventTimeManager<>(scheduler);
+    this.fireConnectRetryTimeExpired = new FireEventTimeManager(timer);
+    fireIdleHoldTimerExpired = new FireEventTimeManager(timer);
+    fireDelayOpenTimerExpired = new FireEventTimeManager(timer);
+    fireHoldTimerExpired = new FireEventTimeManager(timer);
+    fireRepeatedAutomaticStart = new FireRepeatedEventTimeManager(timer);
+    fireKeepaliveTimerExpired = new FireEventTimeManager(timer);
 
   }
 
-  void setup(final PeerConfiguration peerConfiguration, final InternalFSMCallbacks callbacks) throws SchedulerException
+  void setup(final PeerConfiguration peerConfiguration, final InternalFSMCallbacks callbacks)
   {
 
     this.peerConfiguration = peerConfiguration;
     this.callbacks = callbacks;
 
-    this.fireConnectRetryTimeExpired.createJobDetail(FireConnectRetryTimerExpired.class, this);
-    this.fireIdleHoldTimerExpired.createJobDetail(FireIdleHoldTimerExpired.class, this);
-    this.fireDelayOpenTimerExpired.createJobDetail(FireDelayOpenTimerExpired.class, this);
-    this.fireHoldTimerExpired.createJobDetail(FireHoldTimerExpired.class, this);
-    this.fireKeepaliveTimerExpired.createJobDetail(FireSendKeepalive.class, this);
-    this.fireRepeatedAutomaticStart.createJobDetail(FireAutomaticStart.class, this);
+    this.fireConnectRetryTimeExpired.createJobDetail(FSMEvent.connectRetryTimerExpires(), this);
+    this.fireIdleHoldTimerExpired.createJobDetail(FSMEvent.idleHoldTimerExpires(), this);
+    this.fireDelayOpenTimerExpired.createJobDetail(FSMEvent.delayOpenTimerExpires(), this);
+    this.fireHoldTimerExpired.createJobDetail(FSMEvent.holdTimerExpires(), this);
+    this.fireKeepaliveTimerExpired.createJobDetail(FSMEvent.keepaliveTimerExpires(), this);
+    this.fireRepeatedAutomaticStart.createJobDetail(FSMEvent.automaticStart(), this);
 
     this.connectedChannelManager = new InternalFSMChannelManager(callbacks);
     this.activeChannelManager = new InternalFSMChannelManager(callbacks);
@@ -89,19 +87,12 @@ public class InternalFSM
 
   void destroyFSM()
   {
-    try
-    {
-      this.fireConnectRetryTimeExpired.shutdown();
-      this.fireIdleHoldTimerExpired.shutdown();
-      this.fireDelayOpenTimerExpired.shutdown();
-      this.fireHoldTimerExpired.shutdown();
-      this.fireRepeatedAutomaticStart.shutdown();
-      this.fireKeepaliveTimerExpired.shutdown();
-    }
-    catch (final SchedulerException e)
-    {
-      this.log.error("Internal error: failed to shutdown internal FSM for peer " + this.peerConfiguration.getPeerName(), e);
-    }
+    this.fireConnectRetryTimeExpired.shutdown();
+    this.fireIdleHoldTimerExpired.shutdown();
+    this.fireDelayOpenTimerExpired.shutdown();
+    this.fireHoldTimerExpired.shutdown();
+    this.fireRepeatedAutomaticStart.shutdown();
+    this.fireKeepaliveTimerExpired.shutdown();
   }
 
   void handleEvent(final FSMEvent event)
@@ -245,7 +236,6 @@ public class InternalFSM
    * </ul>
    *
    * @param fsmEventType
-   * @throws SchedulerException
    */
   private void handleStartEvent(final FSMEventType fsmEventType)
   {
@@ -254,18 +244,9 @@ public class InternalFSM
       this.connectRetryCounter = 0;
       this.canAcceptConnection = true;
 
-      try
+      if (this.peerConfiguration.isDampPeerOscillation() && this.fireIdleHoldTimerExpired.isJobScheduled())
       {
-        if (this.peerConfiguration.isDampPeerOscillation() && this.fireIdleHoldTimerExpired.isJobScheduled())
-        {
-          return;
-        }
-      }
-      catch (final SchedulerException e)
-      {
-        this.log.error("cannot query idel hold timer for peer " + this.peerConfiguration.getPeerName(), e);
-
-        this.haveFSMError = true;
+        return;
       }
 
       boolean temporaryPassive = false;
@@ -284,18 +265,9 @@ public class InternalFSM
         this.moveStateToActive();
       }
 
-      try
+      if ((fsmEventType == FSMEventType.AutomaticStart) && this.peerConfiguration.isAllowAutomaticStart())
       {
-        if ((fsmEventType == FSMEventType.AutomaticStart) && this.peerConfiguration.isAllowAutomaticStart())
-        {
-          this.fireRepeatedAutomaticStart.startRepeatedJob(this.peerConfiguration.getAutomaticStartInterval());
-        }
-      }
-      catch (final SchedulerException e)
-      {
-        this.log.error("failed to start automatic restart timer");
-
-        this.haveFSMError = true;
+        this.fireRepeatedAutomaticStart.startRepeatedJob(this.peerConfiguration.getAutomaticStartInterval());
       }
 
     }
@@ -354,16 +326,7 @@ public class InternalFSM
         {
           this.state = FSMState.Idle;
 
-          try
-          {
-            this.fireIdleHoldTimerExpired.scheduleJob(this.peerConfiguration.getIdleHoldTime() << this.connectRetryCounter);
-          }
-          catch (final SchedulerException e)
-          {
-            this.log.error("Interal Error: cannot schedule idle hold timer for peer " + this.peerConfiguration.getPeerName(), e);
-
-            this.haveFSMError = true;
-          }
+          this.fireIdleHoldTimerExpired.scheduleJob(this.peerConfiguration.getIdleHoldTime() << this.connectRetryCounter);
         }
         else
         {
@@ -485,22 +448,13 @@ public class InternalFSM
     switch (this.state)
     {
       case Connect:
-        try
+        if (this.isDelayOpenTimerRunning())
         {
-          if (this.isDelayOpenTimerRunning())
-          {
-            this.moveStateToActive();
-          }
-          else
-          {
-            this.moveStateToIdle();
-          }
+          this.moveStateToActive();
         }
-        catch (final SchedulerException e)
+        else
         {
-          this.log.error("Internal Error: Failed to query delay open timer for peer " + this.peerConfiguration.getPeerName());
-
-          this.haveFSMError = true;
+          this.moveStateToIdle();
         }
         break;
       case Active:
@@ -605,26 +559,10 @@ public class InternalFSM
         this.connectedChannelManager.connect(channel);
         if (this.peerConfiguration.isDelayOpen())
         {
-          try
-          {
-            this.fireConnectRetryTimeExpired.cancelJob();
-          }
-          catch (final SchedulerException e)
-          {
-            this.log.error("Internal Error: cannot cancel connect retry timer for peer " + this.peerConfiguration.getPeerName(), e);
-          }
+          this.fireConnectRetryTimeExpired.cancelJob();
 
-          try
-          {
-            this.fireDelayOpenTimerExpired.cancelJob();
-            this.fireDelayOpenTimerExpired.scheduleJob(this.peerConfiguration.getDelayOpenTime());
-          }
-          catch (final SchedulerException e)
-          {
-            this.log.error("Internal Error: cannot schedule open delay timer for peer " + this.peerConfiguration.getPeerName(), e);
-
-            this.haveFSMError = true;
-          }
+          this.fireDelayOpenTimerExpired.cancelJob();
+          this.fireDelayOpenTimerExpired.scheduleJob(this.peerConfiguration.getDelayOpenTime());
         }
         else
         {
@@ -675,26 +613,10 @@ public class InternalFSM
 
         if (this.peerConfiguration.isDelayOpen())
         {
-          try
-          {
-            this.fireConnectRetryTimeExpired.cancelJob();
-          }
-          catch (final SchedulerException e)
-          {
-            this.log.error("Internal Error: cannot cancel connect retry timer for peer " + this.peerConfiguration.getPeerName(), e);
-          }
+          this.fireConnectRetryTimeExpired.cancelJob();
 
-          try
-          {
-            this.fireDelayOpenTimerExpired.cancelJob();
-            this.fireDelayOpenTimerExpired.scheduleJob(this.peerConfiguration.getDelayOpenTime());
-          }
-          catch (final SchedulerException e)
-          {
-            this.log.error("Internal Error: cannot schedule open delay timer for peer " + this.peerConfiguration.getPeerName(), e);
-
-            this.haveFSMError = true;
-          }
+          this.fireDelayOpenTimerExpired.cancelJob();
+          this.fireDelayOpenTimerExpired.scheduleJob(this.peerConfiguration.getDelayOpenTime());
         }
         else
         {
@@ -731,23 +653,14 @@ public class InternalFSM
     {
       case Connect:
       case Active:
-        try
+        if (this.fireDelayOpenTimerExpired.isJobScheduled())
         {
-          if (this.fireDelayOpenTimerExpired.isJobScheduled())
-          {
-            this.moveStateToOpenConfirm(true);
-          }
-          else
-          {
-            this.connectRetryCounter++;
-            this.moveStateToIdle();
-          }
+          this.moveStateToOpenConfirm(true);
         }
-        catch (final SchedulerException e)
+        else
         {
-          this.log.error("cannot query delay openn timer for peer " + this.peerConfiguration.getPeerName(), e);
-
-          this.haveFSMError = true;
+          this.connectRetryCounter++;
+          this.moveStateToIdle();
         }
         break;
       case OpenSent:
@@ -833,17 +746,8 @@ public class InternalFSM
         this.moveStateToEstablished();
         break;
       case Established:
-        try
-        {
-          this.fireHoldTimerExpired.cancelJob();
-          this.fireHoldTimerExpired.scheduleJob(this.getNegotiatedHoldTime());
-        }
-        catch (final SchedulerException e)
-        {
-          this.log.error("Interal Error: cannot schedule connect retry timer for peer " + this.peerConfiguration.getPeerName(), e);
-
-          this.haveFSMError = true;
-        }
+        this.fireHoldTimerExpired.cancelJob();
+        this.fireHoldTimerExpired.scheduleJob(this.getNegotiatedHoldTime());
         break;
       case Idle:
         // do nothing
@@ -877,16 +781,7 @@ public class InternalFSM
           this.connectedChannelManager.fireSendKeepaliveMessage();
         }
 
-        try
-        {
-          this.fireKeepaliveTimerExpired.scheduleJob(this.getSendKeepaliveTime());
-        }
-        catch (final SchedulerException e)
-        {
-          this.log.error("cannont start send keepalive timer", e);
-
-          this.haveFSMError = true;
-        }
+        this.fireKeepaliveTimerExpired.scheduleJob(this.getSendKeepaliveTime());
         break;
       case Idle:
         // do nothing
@@ -996,17 +891,8 @@ public class InternalFSM
         this.haveFSMError = true;
         break;
       case Established:
-        try
-        {
-          this.fireHoldTimerExpired.cancelJob();
-          this.fireHoldTimerExpired.scheduleJob(this.getNegotiatedHoldTime());
-        }
-        catch (final SchedulerException e)
-        {
-          this.log.error("Interal Error: cannot schedule connect retry timer for peer " + this.peerConfiguration.getPeerName(), e);
-
-          this.haveFSMError = true;
-        }
+        this.fireHoldTimerExpired.cancelJob();
+        this.fireHoldTimerExpired.scheduleJob(this.getNegotiatedHoldTime());
         break;
       case Idle:
         // do nothing
@@ -1072,9 +958,8 @@ public class InternalFSM
    * check if the connect retry timer is currently running
    *
    * @return true if the timer is running
-   * @throws SchedulerException
    */
-  boolean isConnectRetryTimerRunning() throws SchedulerException
+  boolean isConnectRetryTimerRunning()
   {
     return this.fireConnectRetryTimeExpired.isJobScheduled();
   }
@@ -1083,9 +968,8 @@ public class InternalFSM
    * get the date when the connect retry timer will fire
    *
    * @return the date when the timmer will fire
-   * @throws SchedulerException
    */
-  Date getConnectRetryTimerDueWhen() throws SchedulerException
+  Date getConnectRetryTimerDueWhen()
   {
     return this.fireConnectRetryTimeExpired.getFiredWhen();
   }
@@ -1094,9 +978,8 @@ public class InternalFSM
    * check if the idle hold timer is currently running
    *
    * @return
-   * @throws SchedulerException
    */
-  boolean isIdleHoldTimerRunning() throws SchedulerException
+  boolean isIdleHoldTimerRunning()
   {
     return this.fireIdleHoldTimerExpired.isJobScheduled();
   }
@@ -1105,9 +988,8 @@ public class InternalFSM
    * get the date when then idle hold timer will fire
    *
    * @return
-   * @throws SchedulerException
    */
-  Date getIdleHoldTimerDueWhen() throws SchedulerException
+  Date getIdleHoldTimerDueWhen()
   {
     return this.fireIdleHoldTimerExpired.getFiredWhen();
   }
@@ -1116,9 +998,8 @@ public class InternalFSM
    * check if the delay open timer is currently running
    *
    * @return
-   * @throws SchedulerException
    */
-  boolean isDelayOpenTimerRunning() throws SchedulerException
+  boolean isDelayOpenTimerRunning()
   {
     return this.fireDelayOpenTimerExpired.isJobScheduled();
   }
@@ -1127,9 +1008,8 @@ public class InternalFSM
    * get the date when the delay open timer will fire
    *
    * @return
-   * @throws SchedulerException
    */
-  public Date getDelayOpenTimerDueWhen() throws SchedulerException
+  public Date getDelayOpenTimerDueWhen()
   {
     return this.fireDelayOpenTimerExpired.getFiredWhen();
   }
@@ -1138,9 +1018,8 @@ public class InternalFSM
    * Check if the hold timer is running
    *
    * @return
-   * @throws SchedulerException
    */
-  boolean isHoldTimerRunning() throws SchedulerException
+  boolean isHoldTimerRunning()
   {
     return this.fireHoldTimerExpired.isJobScheduled();
   }
@@ -1149,9 +1028,8 @@ public class InternalFSM
    * get the date when the hold timer will fire.
    *
    * @return
-   * @throws SchedulerException
    */
-  Date getHoldTimerDueWhen() throws SchedulerException
+  Date getHoldTimerDueWhen()
   {
     return this.fireHoldTimerExpired.getFiredWhen();
   }
@@ -1160,9 +1038,8 @@ public class InternalFSM
    * check if the send keeplives timer is running
    *
    * @return
-   * @throws SchedulerException
    */
-  public boolean isKeepaliveTimerRunning() throws SchedulerException
+  public boolean isKeepaliveTimerRunning()
   {
     return this.fireKeepaliveTimerExpired.isJobScheduled();
   }
@@ -1171,9 +1048,8 @@ public class InternalFSM
    * get the date when the next keepalive packket is to be sent
    *
    * @return
-   * @throws SchedulerException
    */
-  public Date getKeepaliveTimerDueWhen() throws SchedulerException
+  public Date getKeepaliveTimerDueWhen()
   {
     return this.fireKeepaliveTimerExpired.getFiredWhen();
   }
@@ -1182,7 +1058,7 @@ public class InternalFSM
    * Check if the automatic start event generator is running
    *
    */
-  boolean isAutomaticStartRunning() throws SchedulerException
+  boolean isAutomaticStartRunning()
   {
     return this.fireRepeatedAutomaticStart.isJobScheduled();
   }
@@ -1191,9 +1067,8 @@ public class InternalFSM
    * get the date the automatic start timer will fire the next time.
    *
    * @return
-   * @throws SchedulerException
    */
-  Date getAutomaticStartDueWhen() throws SchedulerException
+  Date getAutomaticStartDueWhen()
   {
     return this.fireRepeatedAutomaticStart.getNextFireWhen();
   }
@@ -1257,18 +1132,10 @@ public class InternalFSM
   private void moveStateToConnect()
   {
     
-    try
-    {
-      this.fireHoldTimerExpired.cancelJob();
-      this.fireIdleHoldTimerExpired.cancelJob();
-      this.fireConnectRetryTimeExpired.cancelJob();
-      this.fireConnectRetryTimeExpired.scheduleJob(this.peerConfiguration.getConnectRetryTime());
-    }
-    catch (final SchedulerException e)
-    {
-      log.error("Interal Error: cannot schedule connect retry timer for peer " + this.peerConfiguration.getPeerName(), e);
-      this.haveFSMError = true;
-    }
+    this.fireHoldTimerExpired.cancelJob();
+    this.fireIdleHoldTimerExpired.cancelJob();
+    this.fireConnectRetryTimeExpired.cancelJob();
+    this.fireConnectRetryTimeExpired.scheduleJob(this.peerConfiguration.getConnectRetryTime());
 
     this.callbacks.fireConnectRemotePeer();
     this.lastConnectStamp = System.currentTimeMillis();
@@ -1293,21 +1160,12 @@ public class InternalFSM
    */
   private void moveStateToActive()
   {
-    try
-    {
-      this.fireIdleHoldTimerExpired.cancelJob();
-      this.fireConnectRetryTimeExpired.cancelJob();
-      this.fireDelayOpenTimerExpired.cancelJob();
-      this.fireHoldTimerExpired.cancelJob();
+    this.fireIdleHoldTimerExpired.cancelJob();
+    this.fireConnectRetryTimeExpired.cancelJob();
+    this.fireDelayOpenTimerExpired.cancelJob();
+    this.fireHoldTimerExpired.cancelJob();
 
-      this.fireConnectRetryTimeExpired.scheduleJob(this.peerConfiguration.getConnectRetryTime());
-    }
-    catch (final SchedulerException e)
-    {
-      this.log.error("Interal Error: cannot schedule connect retry timer for peer " + this.peerConfiguration.getPeerName(), e);
-
-      this.haveFSMError = true;
-    }
+    this.fireConnectRetryTimeExpired.scheduleJob(this.peerConfiguration.getConnectRetryTime());
 
     this.state = FSMState.Active;
     this.log.info("FSM for peer " + this.peerConfiguration.getPeerName() + " moved to " + this.state);
@@ -1330,20 +1188,11 @@ public class InternalFSM
    */
   private void moveStateToIdle()
   {
-    try
-    {
-      this.fireIdleHoldTimerExpired.cancelJob();
-      this.fireConnectRetryTimeExpired.cancelJob();
-      this.fireDelayOpenTimerExpired.cancelJob();
-      this.fireHoldTimerExpired.cancelJob();
-      this.fireKeepaliveTimerExpired.cancelJob();
-    }
-    catch (final SchedulerException e)
-    {
-      this.log.error("Interal Error: cannot cancel timers for peer " + this.peerConfiguration.getPeerName(), e);
-
-      this.haveFSMError = true;
-    }
+    this.fireIdleHoldTimerExpired.cancelJob();
+    this.fireConnectRetryTimeExpired.cancelJob();
+    this.fireDelayOpenTimerExpired.cancelJob();
+    this.fireHoldTimerExpired.cancelJob();
+    this.fireKeepaliveTimerExpired.cancelJob();
 
     this.callbacks.fireReleaseBGPResources();
     this.activeChannelManager.disconnect();
@@ -1351,16 +1200,7 @@ public class InternalFSM
 
     if (this.peerConfiguration.isDampPeerOscillation())
     {
-      try
-      {
-        this.fireIdleHoldTimerExpired.scheduleJob(this.peerConfiguration.getIdleHoldTime() << this.connectRetryCounter);
-      }
-      catch (final SchedulerException e)
-      {
-        this.log.error("Interal Error: cannot schedule idle hold timer for peer " + this.peerConfiguration.getPeerName(), e);
-
-        this.haveFSMError = true;
-      }
+      this.fireIdleHoldTimerExpired.scheduleJob(this.peerConfiguration.getIdleHoldTime() << this.connectRetryCounter);
     }
     this.state = FSMState.Idle;
     this.log.info("FSM for peer " + this.peerConfiguration.getPeerName() + " moved to " + this.state);
@@ -1378,19 +1218,10 @@ public class InternalFSM
    */
   private void moveStateToOpenSent()
   {
-    try
-    {
-      this.fireIdleHoldTimerExpired.cancelJob();
-      this.fireConnectRetryTimeExpired.cancelJob();
-
-      this.fireHoldTimerExpired.scheduleJob(600);
-    }
-    catch (final SchedulerException e)
-    {
-      this.log.error("Interal Error: cannot schedule connect retry timer for peer " + this.peerConfiguration.getPeerName(), e);
+    this.fireIdleHoldTimerExpired.cancelJob();
+    this.fireConnectRetryTimeExpired.cancelJob();
 
-      this.haveFSMError = true;
-    }
+    this.fireHoldTimerExpired.scheduleJob(600);
 
     this.callbacks.fireCompleteBGPLocalInitialization();
     this.connectedChannelManager.fireSendOpenMessage();
@@ -1412,20 +1243,11 @@ public class InternalFSM
    */
   private void moveStateToEstablished()
   {
-    try
-    {
-      this.fireIdleHoldTimerExpired.cancelJob();
-      this.fireConnectRetryTimeExpired.cancelJob();
-
-      this.fireHoldTimerExpired.cancelJob();
-      this.fireHoldTimerExpired.scheduleJob(this.getNegotiatedHoldTime());
-    }
-    catch (final SchedulerException e)
-    {
-      this.log.error("Interal Error: cannot schedule connect retry timer for peer " + this.peerConfiguration.getPeerName(), e);
+    this.fireIdleHoldTimerExpired.cancelJob();
+    this.fireConnectRetryTimeExpired.cancelJob();
 
-      this.haveFSMError = true;
-    }
+    this.fireHoldTimerExpired.cancelJob();
+    this.fireHoldTimerExpired.scheduleJob(this.getNegotiatedHoldTime());
 
     if (!this.activeChannelManager.hasSeenOutbboundFSMEvent(FSMEventType.KeepAliveMsg))
     {
@@ -1467,49 +1289,15 @@ public class InternalFSM
     this.activeChannelManager.fireSendKeepaliveMessage();
     this.connectedChannelManager.fireSendKeepaliveMessage();
 
-    try
-    {
-      this.fireConnectRetryTimeExpired.cancelJob();
-    }
-    catch (final SchedulerException e)
-    {
-      this.log.error("cannont cancel connect retry timer", e);
-
-      this.haveFSMError = true;
-    }
-    try
-    {
-      this.fireDelayOpenTimerExpired.cancelJob();
-    }
-    catch (final SchedulerException e)
-    {
-      this.log.error("cannont cancel open delay timer", e);
-
-      this.haveFSMError = true;
-    }
+    this.fireConnectRetryTimeExpired.cancelJob();
+    this.fireDelayOpenTimerExpired.cancelJob();
 
     if (!this.peerConfiguration.isHoldTimerDisabled())
     {
-      try
-      {
-        this.fireKeepaliveTimerExpired.scheduleJob(this.getSendKeepaliveTime());
-      }
-      catch (final SchedulerException e)
-      {
-        this.log.error("cannont start send keepalive timer", e);
-
-        this.haveFSMError = true;
-      }
+      this.fireKeepaliveTimerExpired.scheduleJob(this.getSendKeepaliveTime());
 
-      try
-      {
-        this.fireHoldTimerExpired.cancelJob();
-        this.fireHoldTimerExpired.scheduleJob(this.getNegotiatedHoldTime());
-      }
-      catch (final SchedulerException e)
-      {
-
-      }
+      this.fireHoldTimerExpired.cancelJob();
+      this.fireHoldTimerExpired.scheduleJob(this.getNegotiatedHoldTime());
     }
     this.state = FSMState.OpenConfirm;
     this.log.info("FSM for peer " + this.peerConfiguration.getPeerName() + " moved to " + this.state);
@@ -21,51 +21,51 @@ import java.net.Inet4Address;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.StringUtils;
-import org.quartz.Job;
-import org.quartz.JobBuilder;
-import org.quartz.JobDataMap;
-import org.quartz.JobDetail;
-import org.quartz.JobExecutionContext;
-import org.quartz.JobExecutionException;
-import org.quartz.JobKey;
-import org.quartz.Scheduler;
-import org.quartz.SchedulerException;
-import org.quartz.SimpleScheduleBuilder;
-import org.quartz.TriggerBuilder;
-import org.quartz.TriggerKey;
 
 import io.netlibs.bgp.netty.protocol.update.UpdatePacket;
+import io.netlibs.bgp.netty.protocol.update.UpdatePacketBuilder;
 import io.netlibs.bgp.protocol.AddressFamily;
 import io.netlibs.bgp.protocol.AddressFamilyKey;
-import io.netlibs.bgp.protocol.BGPv4Constants;
 import io.netlibs.bgp.protocol.BinaryNextHop;
 import io.netlibs.bgp.protocol.InetAddressNextHop;
-import io.netlibs.bgp.protocol.NLRICodec;
 import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
 import io.netlibs.bgp.protocol.RIBSide;
 import io.netlibs.bgp.protocol.SubsequentAddressFamily;
 import io.netlibs.bgp.protocol.attributes.MultiProtocolReachableNLRI;
-import io.netlibs.bgp.protocol.attributes.MultiProtocolUnreachableNLRI;
 import io.netlibs.bgp.protocol.attributes.NextHopPathAttribute;
 import io.netlibs.bgp.protocol.attributes.PathAttribute;
 import io.netlibs.bgp.rib.Route;
 import io.netlibs.bgp.rib.RouteAdded;
+import io.netlibs.bgp.rib.RouteChange;
 import io.netlibs.bgp.rib.RouteWithdrawn;
 import io.netlibs.bgp.rib.RoutingEventListener;
 import io.netlibs.bgp.rib.RoutingInformationBaseVisitor;
 import io.netlibs.bgp.rib.TopologicalTreeSortingKey;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.ScheduledFuture;
 
 /**
+ * Queues the routing changes to be sent to a peer and packs them into UPDATE packets once per advertisement interval.
+ *
+ * The queue is flushed on the event loop of the peer channel, honouring the MinRouteAdvertisementInterval (MRAI): a change queued after
+ * the queue has been idle for at least one interval is sent right away, changes queued while an interval is running are batched and sent
+ * when the interval expires. A zero interval sends every change as soon as the event loop gets to it.
+ *
+ * Only the net change of each NLRI is kept: a later announcement replaces an earlier announcement or withdrawal of the same NLRI and a
+ * withdrawal cancels a pending announcement. A flapping prefix therefore results in at most one change on the wire per interval. Pending
+ * announcements are indexed by NLRI, so every queued change costs constant time regardless of the number of pending changes.
+ *
  * @author Rainer Bieniek (Rainer.Bieniek@web.de)
  *
  */
@@ -73,21 +73,6 @@ import io.netlibs.bgp.rib.TopologicalTreeSortingKey;
 public class OutboundRoutingUpdateQueue implements RoutingEventListener
 {
 
-  public static class BatchJob implements Job
-  {
-
-    public static final String CALLBACK_KEY = "Callback";
-    public static final String QUEUE_KEY = "Queue";
-
-    @Override
-    public void execute(final JobExecutionContext context) throws JobExecutionException
-    {
-      ((OutboundRoutingUpdateCallback) context.getMergedJobDataMap().get(CALLBACK_KEY))
-      .sendUpdates(((OutboundRoutingUpdateQueue) context.getMergedJobDataMap().get(QUEUE_KEY)).buildUpdates());
-    }
-
-  }
-
   private class QueueingVisitor implements RoutingInformationBaseVisitor
   {
 
@@ -103,17 +88,27 @@ public class OutboundRoutingUpdateQueue implements RoutingEventListener
   private String peerName;
   private Set<AddressFamilyKey> updateMask;
   private boolean active;
-  private final Map<TopologicalTreeSortingKey, List<NetworkLayerReachabilityInformation>> addedRoutes = new TreeMap<TopologicalTreeSortingKey, List<NetworkLayerReachabilityInformation>>();
-  private final Map<AddressFamilyKey, List<NetworkLayerReachabilityInformation>> withdrawnRoutes = new TreeMap<AddressFamilyKey, List<NetworkLayerReachabilityInformation>>();
-  private final Scheduler scheduler;
-  private JobDetail jobDetail;
-  private TriggerKey triggerKey;
-  private JobKey jobKey;
-
-  public OutboundRoutingUpdateQueue(final Scheduler scheduler)
-  {
-    this.scheduler = scheduler;
-  }
+  // net change per NLRI: the attribute group a pending announcement is queued in. A NLRI is either pending for announcement, pending for
+  // withdrawal or not pending at all. All three maps are guarded by the lock on pendingAnnouncements, the added and withdrawn routes are
+  // handed over as a whole when the updates are built
+  private final Map<AddressFamilyKey, Map<NetworkLayerReachabilityInformation, TopologicalTreeSortingKey>> pendingAnnouncements = new HashMap<AddressFamilyKey, Map<NetworkLayerReachabilityInformation, TopologicalTreeSortingKey>>();
+  private Map<TopologicalTreeSortingKey, Set<NetworkLayerReachabilityInformation>> addedRoutes = new TreeMap<TopologicalTreeSortingKey, Set<NetworkLayerReachabilityInformation>>();
+  private Map<AddressFamilyKey, Set<NetworkLayerReachabilityInformation>> withdrawnRoutes = new TreeMap<AddressFamilyKey, Set<NetworkLayerReachabilityInformation>>();
+  // flush state, guarded by the lock on pendingAnnouncements as well
+  private final Runnable flushTask = new Runnable() {
+
+    @Override
+    public void run()
+    {
+      OutboundRoutingUpdateQueue.this.flush();
+    }
+
+  };
+  private EventLoop eventLoop;
+  private long minRouteAdvertisementInterval;
+  private long lastFlush;
+  private ScheduledFuture<?> scheduledFlush;
+  private boolean flushPending;
 
   RoutingInformationBaseVisitor getImportVisitor()
   {
@@ -123,8 +118,7 @@ public class OutboundRoutingUpdateQueue implements RoutingEventListener
   @Override
   public void routeAdded(final RouteAdded event)
   {
-    if (this.active && (event.getSide() == RIBSide.Local) && StringUtils.equals(event.getPeerName(), this.peerName)
-        && this.updateMask.contains(event.getRoute().getAddressFamilyKey()))
+    if (this.accepts(event.getPeerName(), event.getSide(), event.getRoute()))
     {
       this.addRoute(this.peerName, event.getSide(), event.getRoute());
     }
@@ -133,13 +127,74 @@ public class OutboundRoutingUpdateQueue implements RoutingEventListener
   @Override
   public void routeWithdrawn(final RouteWithdrawn event)
   {
-    if (this.active && (event.getSide() == RIBSide.Local) && StringUtils.equals(event.getPeerName(), this.peerName)
-        && this.updateMask.contains(event.getRoute().getAddressFamilyKey()))
+    if (this.accepts(event.getPeerName(), event.getSide(), event.getRoute()))
     {
       this.withdrawRoute(this.peerName, event.getSide(), event.getRoute());
     }
   }
 
+  /**
+   * queue the changes of a batch under a single lock acquisition. The sorting keys of the announced routes are built before the lock is
+   * taken.
+   */
+  @Override
+  public void routesChanged(final List<RouteChange> changes)
+  {
+    final TopologicalTreeSortingKey[] keys = new TopologicalTreeSortingKey[changes.size()];
+    boolean accepted = false;
+    int i = 0;
+
+    for (final RouteChange change : changes)
+    {
+      if (this.accepts(change.getPeerName(), change.getSide(), change.getRoute()))
+      {
+        accepted = true;
+
+        if (change.isAdded())
+        {
+          keys[i] = this.sortingKey(change.getRoute());
+        }
+      }
+
+      i++;
+    }
+
+    if (!accepted)
+    {
+      return;
+    }
+
+    synchronized (this.pendingAnnouncements)
+    {
+      boolean queued = false;
+
+      i = 0;
+
+      for (final RouteChange change : changes)
+      {
+        if (change.isAdded())
+        {
+          if (keys[i] != null)
+          {
+            queued |= this.queueAnnouncement(change.getRoute(), keys[i]);
+          }
+        }
+        else if (this.accepts(change.getPeerName(), change.getSide(), change.getRoute()))
+        {
+          this.queueWithdrawal(change.getRoute());
+          queued = true;
+        }
+
+        i++;
+      }
+
+      if (queued)
+      {
+        this.scheduleFlush();
+      }
+    }
+  }
+
   /**
    * @return the peerName
    */
@@ -182,42 +237,48 @@ public class OutboundRoutingUpdateQueue implements RoutingEventListener
     return this.active;
   }
 
-  void shutdown() throws SchedulerException
+  void shutdown()
   {
-    this.active = false;
-    this.cancelJob();
-    synchronized (this.addedRoutes)
+    synchronized (this.pendingAnnouncements)
     {
+      this.active = false;
+
+      if (this.scheduledFlush != null)
+      {
+        this.scheduledFlush.cancel(false);
+        this.scheduledFlush = null;
+      }
+
+      this.flushPending = false;
+      this.eventLoop = null;
+      this.pendingAnnouncements.clear();
       this.addedRoutes.clear();
+      this.withdrawnRoutes.clear();
     }
   };
 
-  void startSendingUpdates(final int repeatInterval) throws SchedulerException
+  /**
+   * Start sending the queued changes to the peer. Changes already queued, e.g. the initial table dump, are sent right away.
+   *
+   * @param eventLoop
+   *          the event loop of the peer channel the UPDATE packets are sent through
+   * @param minRouteAdvertisementInterval
+   *          the minimum time between two UPDATE bursts in milliseconds
+   */
+  void startSendingUpdates(final EventLoop eventLoop, final long minRouteAdvertisementInterval)
   {
-    if (repeatInterval > 0)
+    synchronized (this.pendingAnnouncements)
     {
+      this.eventLoop = eventLoop;
+      this.minRouteAdvertisementInterval = TimeUnit.MILLISECONDS.toNanos(minRouteAdvertisementInterval);
+      this.lastFlush = System.nanoTime() - this.minRouteAdvertisementInterval;
+      this.active = true;
 
-      if (this.isJobScheduled())
+      if (!this.addedRoutes.isEmpty() || !this.withdrawnRoutes.isEmpty())
       {
-        this.cancelJob();
+        this.scheduleFlush();
       }
-
-      final JobDataMap map = new JobDataMap();
-
-      map.put(BatchJob.CALLBACK_KEY, this.callback);
-      map.put(BatchJob.QUEUE_KEY, this);
-
-      this.jobKey = new JobKey(UUID.randomUUID().toString());
-      this.jobDetail = JobBuilder.newJob(BatchJob.class).usingJobData(map).withIdentity(this.jobKey).build();
-      this.triggerKey = TriggerKey.triggerKey(UUID.randomUUID().toString());
-
-      this.scheduler.scheduleJob(this.jobDetail, TriggerBuilder.newTrigger()
-          .withIdentity(this.triggerKey)
-          .withSchedule(SimpleScheduleBuilder.repeatSecondlyForever(repeatInterval))
-          .startAt(new Date(System.currentTimeMillis() + (repeatInterval * 1000L)))
-          .build());
     }
-    this.active = true;
   }
 
   /**
@@ -229,11 +290,37 @@ public class OutboundRoutingUpdateQueue implements RoutingEventListener
     this.callback = callback;
   }
 
-  @SuppressWarnings("unchecked")
+  private boolean accepts(final String peerName, final RIBSide side, final Route route)
+  {
+    return this.active && (side == RIBSide.Local) && StringUtils.equals(peerName, this.peerName)
+        && this.updateMask.contains(route.getAddressFamilyKey());
+  }
+
   private void addRoute(final String ribName, final RIBSide side, final Route route)
   {
+    final TopologicalTreeSortingKey key = this.sortingKey(route);
 
-    TopologicalTreeSortingKey key;
+    synchronized (this.pendingAnnouncements)
+    {
+      if (this.queueAnnouncement(route, key))
+      {
+        this.scheduleFlush();
+      }
+    }
+  }
+
+  private void withdrawRoute(final String ribName, final RIBSide side, final Route route)
+  {
+    synchronized (this.pendingAnnouncements)
+    {
+      this.queueWithdrawal(route);
+      this.scheduleFlush();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private TopologicalTreeSortingKey sortingKey(final Route route)
+  {
     Collection<PathAttribute> keyAttributes;
 
     if (route.getAddressFamilyKey().matches(AddressFamily.IPv4, SubsequentAddressFamily.NLRI_UNICAST_FORWARDING))
@@ -256,56 +343,104 @@ public class OutboundRoutingUpdateQueue implements RoutingEventListener
 
     }
 
-    key = new TopologicalTreeSortingKey(route.getAddressFamilyKey(), keyAttributes);
+    return new TopologicalTreeSortingKey(route.getAddressFamilyKey(), keyAttributes);
+  }
 
-    synchronized (this.addedRoutes)
-    {
+  /**
+   * queue an announcement. Must be called with the lock on pendingAnnouncements held.
+   *
+   * @return <code>true</code> if the pending changes have been modified
+   */
+  private boolean queueAnnouncement(final Route route, final TopologicalTreeSortingKey key)
+  {
+    final NetworkLayerReachabilityInformation nlri = route.getNlri();
+    final TopologicalTreeSortingKey previousKey = this.pendingAnnouncements(route.getAddressFamilyKey()).put(nlri, key);
 
-      if (!this.addedRoutes.containsKey(key))
+    if (previousKey != null)
+    {
+      if (previousKey.equals(key))
       {
-        this.addedRoutes.put(key, new LinkedList<NetworkLayerReachabilityInformation>());
+        // the very same announcement is already pending
+        return false;
       }
 
-      this.addedRoutes.get(key).add(route.getNlri());
+      // the last announcement wins, drop the one with the outdated path attributes
+      this.removeAddedRoute(previousKey, nlri);
+    }
+    else
+    {
+      // an announcement implicitly replaces a pending withdrawal
+      this.removeWithdrawnRoute(route.getAddressFamilyKey(), nlri);
+    }
+
+    Set<NetworkLayerReachabilityInformation> nlris = this.addedRoutes.get(key);
 
+    if (nlris == null)
+    {
+      nlris = new LinkedHashSet<NetworkLayerReachabilityInformation>();
+      this.addedRoutes.put(key, nlris);
     }
 
+    nlris.add(nlri);
+
+    return true;
   }
 
-  private void withdrawRoute(final String ribName, final RIBSide side, final Route route)
+  /**
+   * queue a withdrawal. Must be called with the lock on pendingAnnouncements held.
+   */
+  private void queueWithdrawal(final Route route)
   {
-    // remove the NLRI from any scheduled route add updates
-    synchronized (this.addedRoutes)
+    final NetworkLayerReachabilityInformation nlri = route.getNlri();
+    final TopologicalTreeSortingKey previousKey = this.pendingAnnouncements(route.getAddressFamilyKey()).remove(nlri);
+
+    // remove the NLRI from a scheduled route add update
+    if (previousKey != null)
     {
-      final Set<TopologicalTreeSortingKey> removeableKeys = new HashSet<TopologicalTreeSortingKey>();
+      this.removeAddedRoute(previousKey, nlri);
+    }
 
-      for (final TopologicalTreeSortingKey key : this.addedRoutes.keySet())
-      {
-        if (key.getAddressFamilyKey().equals(route.getAddressFamilyKey()))
-        {
-          this.addedRoutes.get(key).remove(route.getNlri());
+    Set<NetworkLayerReachabilityInformation> nlris = this.withdrawnRoutes.get(route.getAddressFamilyKey());
 
-          if (this.addedRoutes.get(key).size() == 0)
-          {
-            removeableKeys.add(key);
-          }
-        }
-      }
+    if (nlris == null)
+    {
+      nlris = new LinkedHashSet<NetworkLayerReachabilityInformation>();
+      this.withdrawnRoutes.put(route.getAddressFamilyKey(), nlris);
+    }
 
-      for (final TopologicalTreeSortingKey key : removeableKeys)
-      {
-        this.addedRoutes.remove(key);
-      }
+    nlris.add(nlri);
+  }
+
+  private Map<NetworkLayerReachabilityInformation, TopologicalTreeSortingKey> pendingAnnouncements(final AddressFamilyKey afk)
+  {
+    Map<NetworkLayerReachabilityInformation, TopologicalTreeSortingKey> pending = this.pendingAnnouncements.get(afk);
+
+    if (pending == null)
+    {
+      pending = new HashMap<NetworkLayerReachabilityInformation, TopologicalTreeSortingKey>();
+      this.pendingAnnouncements.put(afk, pending);
     }
 
-    synchronized (this.withdrawnRoutes)
+    return pending;
+  }
+
+  private void removeAddedRoute(final TopologicalTreeSortingKey key, final NetworkLayerReachabilityInformation nlri)
+  {
+    final Set<NetworkLayerReachabilityInformation> nlris = this.addedRoutes.get(key);
+
+    if ((nlris != null) && nlris.remove(nlri) && nlris.isEmpty())
     {
-      if (!this.withdrawnRoutes.containsKey(route.getAddressFamilyKey()))
-      {
-        this.withdrawnRoutes.put(route.getAddressFamilyKey(), new LinkedList<NetworkLayerReachabilityInformation>());
-      }
+      this.addedRoutes.remove(key);
+    }
+  }
+
+  private void removeWithdrawnRoute(final AddressFamilyKey afk, final NetworkLayerReachabilityInformation nlri)
+  {
+    final Set<NetworkLayerReachabilityInformation> nlris = this.withdrawnRoutes.get(afk);
 
-      this.withdrawnRoutes.get(route.getAddressFamilyKey()).add(route.getNlri());
+    if ((nlris != null) && nlris.remove(nlri) && nlris.isEmpty())
+    {
+      this.withdrawnRoutes.remove(afk);
     }
   }
 
@@ -327,145 +462,135 @@ public class OutboundRoutingUpdateQueue implements RoutingEventListener
 
   List<UpdatePacket> buildUpdates()
   {
-    final List<UpdatePacket> updates = new LinkedList<UpdatePacket>();
-    UpdatePacket current = null;
+    final Map<AddressFamilyKey, Set<NetworkLayerReachabilityInformation>> withdrawn;
+    final Map<TopologicalTreeSortingKey, Set<NetworkLayerReachabilityInformation>> added;
 
-    synchronized (this.withdrawnRoutes)
+    // take over the pending changes, the packets are packed and encoded without keeping the RIB listeners queueing changes waiting
+    synchronized (this.pendingAnnouncements)
     {
-      for (final Entry<AddressFamilyKey, List<NetworkLayerReachabilityInformation>> withdrawnRouteEntry : this.withdrawnRoutes.entrySet())
-      {
-        for (final NetworkLayerReachabilityInformation nlri : withdrawnRouteEntry.getValue())
-        {
-          MultiProtocolUnreachableNLRI mpUnreachable = null;
-          final AddressFamilyKey afk = withdrawnRouteEntry.getKey();
+      withdrawn = this.withdrawnRoutes;
+      added = this.addedRoutes;
 
-          if (((current == null)
-              || ((current.calculatePacketSize() + NLRICodec.calculateEncodedNLRILength(nlri)) > (BGPv4Constants.BGP_PACKET_MAX_LENGTH - BGPv4Constants.BGP_PACKET_HEADER_LENGTH))))
-          {
-            current = new UpdatePacket();
-
-            if (!afk.equals(AddressFamilyKey.IPV4_UNICAST_FORWARDING))
-            {
-              mpUnreachable = new MultiProtocolUnreachableNLRI(afk.getAddressFamily(), afk.getSubsequentAddressFamily());
-              current.getPathAttributes().add(mpUnreachable);
-            }
-            updates.add(current);
-          }
+      this.withdrawnRoutes = new TreeMap<AddressFamilyKey, Set<NetworkLayerReachabilityInformation>>();
+      this.addedRoutes = new TreeMap<TopologicalTreeSortingKey, Set<NetworkLayerReachabilityInformation>>();
+      this.pendingAnnouncements.clear();
+    }
 
-          if (afk.matches(AddressFamily.IPv4, SubsequentAddressFamily.NLRI_UNICAST_FORWARDING))
-          {
-            current.getWithdrawnRoutes().add(nlri);
-          }
-          else
-          {
-            mpUnreachable.getNlris().add(nlri);
-          }
-        }
-        current = null;
-      }
+    final UpdatePacketBuilder builder = new UpdatePacketBuilder();
 
-      this.withdrawnRoutes.clear();
+    for (final Entry<AddressFamilyKey, Set<NetworkLayerReachabilityInformation>> withdrawnRouteEntry : withdrawn.entrySet())
+    {
+      builder.addWithdrawnRoutes(withdrawnRouteEntry.getKey(), withdrawnRouteEntry.getValue());
     }
 
-    synchronized (this.addedRoutes)
+    for (final Entry<TopologicalTreeSortingKey, Set<NetworkLayerReachabilityInformation>> addedRouteEntry : added.entrySet())
     {
+      final TopologicalTreeSortingKey key = addedRouteEntry.getKey();
 
-      for (final Entry<TopologicalTreeSortingKey, List<NetworkLayerReachabilityInformation>> addedRouteEntry : this.addedRoutes.entrySet())
-      {
-
-        final TopologicalTreeSortingKey key = addedRouteEntry.getKey();
-        final List<NetworkLayerReachabilityInformation> nlris = addedRouteEntry.getValue();
-        MultiProtocolReachableNLRI mpNLRI = null;
+      builder.addRoutes(key.getAddressFamilyKey(), key.getPathAttributes(), addedRouteEntry.getValue());
+    }
 
-        if (!key.getAddressFamilyKey().matches(AddressFamily.IPv4, SubsequentAddressFamily.NLRI_UNICAST_FORWARDING))
-        {
-          for (final PathAttribute pathAttribute : key.getPathAttributes())
-          {
-            if (pathAttribute instanceof MultiProtocolReachableNLRI)
-            {
-              mpNLRI = (MultiProtocolReachableNLRI) pathAttribute;
-              break;
-            }
-          }
-        }
+    return builder.getPackets();
+  }
 
-        for (final NetworkLayerReachabilityInformation nlri : nlris)
-        {
-          if (((current == null)
-              || ((current.calculatePacketSize() + NLRICodec.calculateEncodedNLRILength(nlri)) > (BGPv4Constants.BGP_PACKET_MAX_LENGTH - BGPv4Constants.BGP_PACKET_HEADER_LENGTH))))
-          {
-            current = new UpdatePacket();
-            current.getPathAttributes().addAll(key.getPathAttributes());
-            updates.add(current);
-          }
+  int getNumberOfPendingUpdates()
+  {
 
+    synchronized (this.pendingAnnouncements)
+    {
+      return this.addedRoutes.size() + this.withdrawnRoutes.size();
+    }
+  }
 
-          if (key.getAddressFamilyKey().matches(AddressFamily.IPv4, SubsequentAddressFamily.NLRI_UNICAST_FORWARDING))
-          {
-            current.getNlris().add(nlri);
-          }
-          else
-          {
-            mpNLRI.getNlris().add(nlri);
-          }
-        }
+  /**
+   * @return the number of NLRIs waiting to be announced or withdrawn
+   */
+  public int getPendingQueueDepth()
+  {
+    int depth = 0;
 
-        current = null;
+    synchronized (this.pendingAnnouncements)
+    {
+      for (final Map<NetworkLayerReachabilityInformation, TopologicalTreeSortingKey> pending : this.pendingAnnouncements.values())
+      {
+        depth += pending.size();
       }
 
-      this.addedRoutes.clear();
+      for (final Set<NetworkLayerReachabilityInformation> withdrawn : this.withdrawnRoutes.values())
+      {
+        depth += withdrawn.size();
+      }
     }
 
-    return updates;
+    return depth;
   }
 
-  int getNumberOfPendingUpdates()
+  /**
+   * @return the time the queued changes are sent at or <code>null</code> if no flush is scheduled
+   */
+  public Date getNextFireWhen()
   {
+    synchronized (this.pendingAnnouncements)
+    {
+      if (!this.flushPending)
+      {
+        return null;
+      }
 
-    int result = 0;
+      final long delay = (this.scheduledFlush != null) ? this.scheduledFlush.getDelay(TimeUnit.MILLISECONDS) : 0;
 
-    synchronized (this.addedRoutes)
-    {
-      result += this.addedRoutes.size();
+      return new Date(System.currentTimeMillis() + Math.max(0, delay));
     }
+  }
 
-    synchronized (this.withdrawnRoutes)
+  /**
+   * arrange for the queue to be flushed on the event loop as soon as the advertisement interval permits. The caller must hold the lock on
+   * pendingAnnouncements.
+   */
+  private void scheduleFlush()
+  {
+    if (!this.active || (this.eventLoop == null) || this.flushPending)
     {
-      result += this.withdrawnRoutes.size();
+      return;
     }
 
-    return result;
-  }
+    final long delay = (this.lastFlush + this.minRouteAdvertisementInterval) - System.nanoTime();
 
-  boolean isJobScheduled() throws SchedulerException
-  {
+    this.flushPending = true;
 
-    if (this.triggerKey == null)
+    if (delay <= 0)
     {
-      return false;
+      this.eventLoop.execute(this.flushTask);
+    }
+    else
+    {
+      this.scheduledFlush = this.eventLoop.schedule(this.flushTask, delay, TimeUnit.NANOSECONDS);
     }
-
-    return this.scheduler.checkExists(this.triggerKey);
-
   }
 
-  public Date getNextFireWhen() throws SchedulerException
+  /**
+   * send all queued changes to the peer. Runs on the event loop of the peer channel.
+   */
+  private void flush()
   {
-    if (!this.isJobScheduled())
+    synchronized (this.pendingAnnouncements)
     {
-      return null;
+      if (!this.active || !this.flushPending)
+      {
+        return;
+      }
+
+      this.flushPending = false;
+      this.scheduledFlush = null;
+      this.lastFlush = System.nanoTime();
     }
 
-    return this.scheduler.getTrigger(this.triggerKey).getFireTimeAfter(new Date(System.currentTimeMillis()));
-  }
+    final List<UpdatePacket> updates = this.buildUpdates();
 
-  void cancelJob() throws SchedulerException
-  {
-    if (this.triggerKey != null)
+    if (!updates.isEmpty())
     {
-      this.scheduler.unscheduleJob(this.triggerKey);
-      this.triggerKey = null;
+      this.callback.sendUpdates(updates);
     }
   }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,195 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.netty.fsm.OutboundUpdateWriter.java
+ */
+package io.netlibs.bgp.netty.fsm;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+import io.netlibs.bgp.netty.protocol.update.UpdatePacket;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelConfig;
+
+/**
+ * Writes UPDATE packets to the peer channel, honouring the write buffer water marks of the channel.
+ *
+ * Packets are written without a flush as long as the channel is writable and the outbound buffer is flushed once per batch or when it
+ * crosses the high water mark. While the channel is not writable the remaining packets are held back unencoded and writing resumes once
+ * the outbound buffer drained below the low water mark. A slow peer therefore neither stalls the table dump nor lets the encoded backlog
+ * grow without bounds.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+class OutboundUpdateWriter
+{
+
+  // packets not yet handed to the channel, guarded by the lock on backlog
+  private final Deque<UpdatePacket> backlog = new ArrayDeque<UpdatePacket>();
+  private Channel channel;
+  // set while the event loop is draining the backlog, so a writability change fired by a flush does not re-enter the drain loop
+  private boolean draining;
+
+  /**
+   * set the write buffer water marks of a channel. The values are applied in an order which never leaves the low water mark above the
+   * high water mark.
+   *
+   * @param config
+   *          the channel configuration
+   * @param lowWaterMark
+   *          the low water mark in bytes
+   * @param highWaterMark
+   *          the high water mark in bytes
+   */
+  static void configureWaterMarks(final ChannelConfig config, final int lowWaterMark, final int highWaterMark)
+  {
+    if (lowWaterMark > config.getWriteBufferHighWaterMark())
+    {
+      config.setWriteBufferHighWaterMark(highWaterMark);
+      config.setWriteBufferLowWaterMark(lowWaterMark);
+    }
+    else
+    {
+      config.setWriteBufferLowWaterMark(lowWaterMark);
+      config.setWriteBufferHighWaterMark(highWaterMark);
+    }
+  }
+
+  /**
+   * queue UPDATE packets for sending and start writing them on the event loop of the channel.
+   *
+   * @param channel
+   *          the peer channel
+   * @param updates
+   *          the packets to send
+   */
+  void write(final Channel channel, final List<UpdatePacket> updates)
+  {
+    synchronized (this.backlog)
+    {
+      if (this.channel != channel)
+      {
+        // packets left over from a previous session must not go out on the new one
+        this.backlog.clear();
+        this.channel = channel;
+      }
+
+      this.backlog.addAll(updates);
+    }
+
+    if (channel.eventLoop().inEventLoop())
+    {
+      this.drain(channel);
+    }
+    else
+    {
+      channel.eventLoop().execute(() -> this.drain(channel));
+    }
+  }
+
+  /**
+   * resume writing when the channel became writable again. Must be called on the event loop of the channel.
+   *
+   * @param channel
+   *          the peer channel
+   */
+  void channelWritabilityChanged(final Channel channel)
+  {
+    if (channel.isWritable())
+    {
+      this.drain(channel);
+    }
+  }
+
+  /**
+   * drop all packets not written yet
+   */
+  void clear()
+  {
+    synchronized (this.backlog)
+    {
+      this.backlog.clear();
+      this.channel = null;
+    }
+  }
+
+  /**
+   * @return the number of packets waiting for the channel to become writable
+   */
+  int getBacklogSize()
+  {
+    synchronized (this.backlog)
+    {
+      return this.backlog.size();
+    }
+  }
+
+  private void drain(final Channel channel)
+  {
+    if (this.draining)
+    {
+      return;
+    }
+
+    this.draining = true;
+
+    try
+    {
+      boolean unflushed = false;
+
+      while (channel.isWritable())
+      {
+        final UpdatePacket packet = this.poll(channel);
+
+        if (packet == null)
+        {
+          break;
+        }
+
+        channel.write(packet, channel.voidPromise());
+        unflushed = true;
+
+        if (!channel.isWritable())
+        {
+          // the high water mark has been crossed. Push out what has been encoded so far, the flush may drain the buffer right away
+          channel.flush();
+          unflushed = false;
+        }
+      }
+
+      if (unflushed)
+      {
+        channel.flush();
+      }
+    }
+    finally
+    {
+      this.draining = false;
+    }
+  }
+
+  private UpdatePacket poll(final Channel channel)
+  {
+    synchronized (this.backlog)
+    {
+      return (this.channel == channel) ? this.backlog.poll() : null;
+    }
+  }
+
+}
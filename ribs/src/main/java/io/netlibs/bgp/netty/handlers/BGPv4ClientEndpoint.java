@@ -162,6 +162,21 @@ public class BGPv4ClientEndpoint extends SimpleChannelInboundHandler<Object>
 
   }
 
+  @Override
+  public void channelWritabilityChanged(final ChannelHandlerContext ctx) throws Exception
+  {
+
+    final BGPv4FSM fsm = this.fsmRegistry.lookupFSM((InetSocketAddress) ctx.channel().remoteAddress());
+
+    if (fsm != null)
+    {
+      fsm.handleWritabilityChanged(ctx.channel());
+    }
+
+    ctx.fireChannelWritabilityChanged();
+
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -129,6 +129,21 @@ public class BGPv4ServerEndpoint extends SimpleChannelInboundHandler<Object>
 
   }
 
+  @Override
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception
+  {
+
+    BGPv4FSM fsm = fsmRegistry.lookupFSM(((InetSocketAddress) ctx.channel().remoteAddress()).getAddress());
+
+    if (fsm != null)
+    {
+      fsm.handleWritabilityChanged(ctx.channel());
+    }
+
+    ctx.fireChannelWritabilityChanged();
+
+  }
+
   /*
    * (non-Javadoc)
    * 
@@ -26,9 +26,6 @@ import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 
-import org.quartz.Scheduler;
-import org.quartz.impl.StdSchedulerFactory;
-
 import com.google.common.net.InetAddresses;
 
 import io.netlibs.bgp.config.global.ApplicationConfiguration;
@@ -89,7 +86,6 @@ public class BGPv4Service
 
   private final FSMRegistry fsmRegistry;
   private final BGPv4Server serverInstance;
-  private final Scheduler scheduler;
 
   /**
    * start the service
@@ -130,13 +126,9 @@ public class BGPv4Service
   public static void main(final String[] args) throws Exception
   {
 
-    final Scheduler scheduler = new StdSchedulerFactory().getScheduler();
-
-    scheduler.start();
-
     final PeerRoutingInformationBaseManager pribm = new PeerRoutingInformationBaseManager();
 
-    final OutboundRoutingUpdateQueue out = new OutboundRoutingUpdateQueue(scheduler);
+    final OutboundRoutingUpdateQueue out = new OutboundRoutingUpdateQueue();
 
     // ----
 
@@ -516,9 +508,9 @@ public class BGPv4Service
     app.addPeer(config);
     app.setPeerRoutingInformationBaseManager(pribm);
 
-    final FSMRegistry reg = new FSMRegistry(app, scheduler);
+    final FSMRegistry reg = new FSMRegistry(app);
 
-    final BGPv4Service service = new BGPv4Service(reg, new BGPv4Server(app, reg), scheduler);
+    final BGPv4Service service = new BGPv4Service(reg, new BGPv4Server(app, reg));
 
     // ----
 
@@ -0,0 +1,575 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.AsyncRoutingEventListener.java
+ */
+package io.netlibs.bgp.rib;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Decouples a routing event listener from the thread applying changes to the RIB.
+ *
+ * The changes reported to this listener are put into a bounded ring buffer and handed to the delegate listener in batches on a thread of
+ * the given executor, one batch at a time and in the order they were reported. The thread applying the changes, usually the event loop of a
+ * peer, therefore only pays for copying the changes into the buffer, no matter how slow the delegate is.
+ *
+ * What happens when the buffer is full is decided by the overflow policy:
+ * <ul>
+ * <li>{@link OverflowPolicy#BLOCK} makes the reporting thread wait for the delegate to catch up, nothing is lost.</li>
+ * <li>{@link OverflowPolicy#COALESCE} keeps only the latest change of each prefix until the delegate caught up. The delegate sees the
+ * net change of a prefix but may miss intermediate states.</li>
+ * <li>{@link OverflowPolicy#DROP_AND_RESYNC} drops all pending changes and lets the {@link Resynchronizer} bring the delegate up to date
+ * once it is ready again. The routes the delegate has been handed are remembered, those the resynchronization does not report again are
+ * withdrawn from the delegate afterwards.</li>
+ * </ul>
+ *
+ * The executor must not run the delivery on the calling thread, a blocked reporting thread would wait forever otherwise.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+@Slf4j
+public class AsyncRoutingEventListener implements BatchRoutingEventListener
+{
+
+  public enum OverflowPolicy
+  {
+    BLOCK,
+    COALESCE,
+    DROP_AND_RESYNC
+  }
+
+  /**
+   * Brings a listener up to date after changes have been dropped
+   */
+  @FunctionalInterface
+  public interface Resynchronizer
+  {
+    /**
+     * report the current state of the RIBs to the listener. Called on the delivery thread, no other change is delivered meanwhile. Every
+     * route still held by the RIBs must be reported, the routes handed to the delegate before and not reported again are withdrawn.
+     *
+     * @param listener
+     *          the listener to resynchronize
+     */
+    void resynchronize(RoutingEventListener listener);
+  }
+
+  private final RoutingEventListener delegate;
+  private final Executor executor;
+  private final OverflowPolicy overflowPolicy;
+  private final Resynchronizer resynchronizer;
+  private final int maxBatchSize;
+
+  // buffer state, guarded by lock
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notFull = this.lock.newCondition();
+  private final RouteChange[] ring;
+  private final long[] enqueueTimes;
+  private final int mask;
+  private long head;
+  private long tail;
+  // the latest change per prefix reported while the buffer was full. Once coalescing started all further changes go here as well until
+  // the delegate picked them up, so the changes of a prefix are never reordered
+  private final Map<RouteKey, RouteChange> coalesced = new LinkedHashMap<RouteKey, RouteChange>();
+  private long coalescingSince;
+  private boolean resyncPending;
+  // the latest added change of each route the delegate holds, kept for the DROP_AND_RESYNC policy only. Used by the delivery thread only
+  private final Map<RouteKey, RouteChange> delivered;
+  private boolean scheduled;
+  private boolean closed;
+
+  // metrics, written under the lock or by the delivery thread
+  private volatile int maxQueueDepth;
+  private volatile long deliveredChanges;
+  private volatile long droppedChanges;
+  private volatile long coalescedChanges;
+  private volatile long resynchronizations;
+  private volatile long deliveryLag;
+  private volatile long maxDeliveryLag;
+
+  private final Runnable deliveryTask = this::deliver;
+
+  /**
+   * Create an asynchronous listener which blocks the reporting thread when the buffer is full
+   *
+   * @param delegate
+   *          the listener to deliver the changes to
+   * @param executor
+   *          the executor running the delivery
+   * @param capacity
+   *          the number of changes the buffer holds, rounded up to the next power of two
+   */
+  public AsyncRoutingEventListener(final RoutingEventListener delegate, final Executor executor, final int capacity)
+  {
+    this(delegate, executor, capacity, OverflowPolicy.BLOCK, null);
+  }
+
+  /**
+   * Create an asynchronous listener
+   *
+   * @param delegate
+   *          the listener to deliver the changes to
+   * @param executor
+   *          the executor running the delivery
+   * @param capacity
+   *          the number of changes the buffer holds, rounded up to the next power of two
+   * @param overflowPolicy
+   *          what to do when the buffer is full
+   * @param resynchronizer
+   *          brings the delegate up to date after changes have been dropped. Required for {@link OverflowPolicy#DROP_AND_RESYNC}
+   */
+  public AsyncRoutingEventListener(final RoutingEventListener delegate, final Executor executor, final int capacity,
+      final OverflowPolicy overflowPolicy, final Resynchronizer resynchronizer)
+  {
+    if (capacity <= 0 || capacity > (1 << 30))
+    {
+      throw new IllegalArgumentException("illegal capacity: " + capacity);
+    }
+
+    if (overflowPolicy == OverflowPolicy.DROP_AND_RESYNC && resynchronizer == null)
+    {
+      throw new IllegalArgumentException("overflow policy " + overflowPolicy + " requires a resynchronizer");
+    }
+
+    final int size = (capacity == 1) ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+
+    this.delegate = delegate;
+    this.executor = executor;
+    this.overflowPolicy = overflowPolicy;
+    this.resynchronizer = resynchronizer;
+    this.ring = new RouteChange[size];
+    this.enqueueTimes = new long[size];
+    this.mask = size - 1;
+    this.maxBatchSize = Math.max(1, size / 4);
+    this.delivered = (overflowPolicy == OverflowPolicy.DROP_AND_RESYNC) ? new HashMap<RouteKey, RouteChange>() : null;
+  }
+
+  /**
+   * Resynchronizer which replays a snapshot of each RIB as added routes. The delegate has to treat an added route for a prefix it knows
+   * already as a replacement. Prefixes withdrawn while changes were dropped are not part of the snapshots, the asynchronous listener
+   * withdraws them from the delegate once the snapshots have been replayed.
+   *
+   * @param ribs
+   *          the RIBs reporting to the listener
+   * @return the resynchronizer
+   */
+  public static Resynchronizer replaying(final RoutingInformationBase... ribs)
+  {
+    return listener -> {
+      for (final RoutingInformationBase rib : ribs)
+      {
+        final RoutingInformationBaseSnapshot snapshot = rib.snapshot();
+        final List<RouteChange> changes = new ArrayList<RouteChange>();
+
+        for (final Route route : snapshot)
+        {
+          changes.add(RouteChange.added(snapshot.getPeerName(), snapshot.getSide(), route));
+        }
+
+        if (!changes.isEmpty())
+        {
+          listener.routesChanged(Collections.unmodifiableList(changes));
+        }
+      }
+    };
+  }
+
+  @Override
+  public void routesChanged(final List<RouteChange> changes)
+  {
+    final long now = System.nanoTime();
+
+    this.lock.lock();
+
+    try
+    {
+      if (this.closed)
+      {
+        return;
+      }
+
+      for (final RouteChange change : changes)
+      {
+        this.offer(change, now);
+      }
+
+      this.scheduleDelivery();
+    }
+    finally
+    {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * stop delivering changes. Pending changes are dropped and threads blocked on a full buffer are released.
+   */
+  public void close()
+  {
+    this.lock.lock();
+
+    try
+    {
+      this.closed = true;
+      this.clearRing();
+      this.coalesced.clear();
+      this.notFull.signalAll();
+    }
+    finally
+    {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * @return the number of changes waiting for delivery
+   */
+  public int getQueueDepth()
+  {
+    this.lock.lock();
+
+    try
+    {
+      return (int) (this.tail - this.head) + this.coalesced.size();
+    }
+    finally
+    {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * @return the highest number of changes which have been waiting in the buffer at the same time
+   */
+  public int getMaxQueueDepth()
+  {
+    return this.maxQueueDepth;
+  }
+
+  /**
+   * @return the number of changes handed to the delegate
+   */
+  public long getDeliveredChanges()
+  {
+    return this.deliveredChanges;
+  }
+
+  /**
+   * @return the number of changes dropped by the {@link OverflowPolicy#DROP_AND_RESYNC} policy
+   */
+  public long getDroppedChanges()
+  {
+    return this.droppedChanges;
+  }
+
+  /**
+   * @return the number of changes superseded by a later change of the same prefix under the {@link OverflowPolicy#COALESCE} policy
+   */
+  public long getCoalescedChanges()
+  {
+    return this.coalescedChanges;
+  }
+
+  /**
+   * @return the number of times the delegate has been resynchronized
+   */
+  public long getResynchronizations()
+  {
+    return this.resynchronizations;
+  }
+
+  /**
+   * @return the time in nanoseconds the oldest change of the last delivered batch waited for delivery
+   */
+  public long getDeliveryLag()
+  {
+    return this.deliveryLag;
+  }
+
+  /**
+   * @return the longest time in nanoseconds a change waited for delivery
+   */
+  public long getMaxDeliveryLag()
+  {
+    return this.maxDeliveryLag;
+  }
+
+  /**
+   * @return the overflowPolicy
+   */
+  public OverflowPolicy getOverflowPolicy()
+  {
+    return this.overflowPolicy;
+  }
+
+  private void offer(final RouteChange change, final long now)
+  {
+    if (this.resyncPending)
+    {
+      // the resynchronization takes care of this change
+      this.droppedChanges++;
+      return;
+    }
+
+    if (!this.coalesced.isEmpty())
+    {
+      this.coalesce(change);
+      return;
+    }
+
+    while ((this.tail - this.head) == this.ring.length)
+    {
+      switch (this.overflowPolicy)
+      {
+        case BLOCK:
+          this.scheduleDelivery();
+          this.notFull.awaitUninterruptibly();
+
+          if (this.closed)
+          {
+            return;
+          }
+          break;
+
+        case COALESCE:
+          this.coalescingSince = now;
+          this.coalesce(change);
+          return;
+
+        case DROP_AND_RESYNC:
+          log.warn("listener {} fell behind by {} changes, dropping them and resynchronizing", this.delegate, this.ring.length);
+
+          this.droppedChanges += this.ring.length + 1;
+          this.clearRing();
+          this.resyncPending = true;
+          return;
+      }
+    }
+
+    final int slot = (int) (this.tail & this.mask);
+
+    this.ring[slot] = change;
+    this.enqueueTimes[slot] = now;
+    this.tail++;
+
+    if ((this.tail - this.head) > this.maxQueueDepth)
+    {
+      this.maxQueueDepth = (int) (this.tail - this.head);
+    }
+  }
+
+  private void coalesce(final RouteChange change)
+  {
+    if (this.coalesced.put(RouteKey.of(change), change) != null)
+    {
+      this.coalescedChanges++;
+    }
+  }
+
+  private void clearRing()
+  {
+    while (this.head != this.tail)
+    {
+      this.ring[(int) (this.head++ & this.mask)] = null;
+    }
+  }
+
+  private void scheduleDelivery()
+  {
+    if (!this.scheduled && (this.resyncPending || this.head != this.tail || !this.coalesced.isEmpty()))
+    {
+      this.scheduled = true;
+      this.executor.execute(this.deliveryTask);
+    }
+  }
+
+  /**
+   * hand the buffered changes to the delegate until the buffer is empty. At most one delivery task is running at any time.
+   */
+  private void deliver()
+  {
+    for (;;)
+    {
+      List<RouteChange> batch = null;
+      boolean resync = false;
+      long enqueued = 0;
+
+      this.lock.lock();
+
+      try
+      {
+        if (this.closed)
+        {
+          this.scheduled = false;
+          return;
+        }
+
+        if (this.resyncPending)
+        {
+          // changes reported from now on are buffered again and delivered after the resynchronization
+          this.resyncPending = false;
+          resync = true;
+        }
+        else if (this.head != this.tail)
+        {
+          final int count = (int) Math.min(this.tail - this.head, this.maxBatchSize);
+
+          batch = new ArrayList<RouteChange>(count);
+          enqueued = this.enqueueTimes[(int) (this.head & this.mask)];
+
+          for (int i = 0; i < count; i++)
+          {
+            final int slot = (int) (this.head++ & this.mask);
+
+            batch.add(this.ring[slot]);
+            this.ring[slot] = null;
+          }
+
+          this.notFull.signalAll();
+        }
+        else if (!this.coalesced.isEmpty())
+        {
+          batch = new ArrayList<RouteChange>(this.coalesced.values());
+          enqueued = this.coalescingSince;
+          this.coalesced.clear();
+        }
+        else
+        {
+          this.scheduled = false;
+          return;
+        }
+      }
+      finally
+      {
+        this.lock.unlock();
+      }
+
+      try
+      {
+        if (resync)
+        {
+          this.resynchronizations++;
+          this.resynchronize();
+        }
+        else
+        {
+          this.deliveryLag = System.nanoTime() - enqueued;
+
+          if (this.deliveryLag > this.maxDeliveryLag)
+          {
+            this.maxDeliveryLag = this.deliveryLag;
+          }
+
+          this.track(batch, null);
+          this.delegate.routesChanged(Collections.unmodifiableList(batch));
+          this.deliveredChanges += batch.size();
+        }
+      }
+      catch (final RuntimeException e)
+      {
+        log.error("listener " + this.delegate + " failed to process routing changes", e);
+      }
+    }
+  }
+
+  /**
+   * let the resynchronizer report the current routes to the delegate, then withdraw the routes the delegate holds which have not been
+   * reported
+   */
+  private void resynchronize()
+  {
+    final Set<RouteKey> reported = new HashSet<RouteKey>();
+
+    this.resynchronizer.resynchronize((BatchRoutingEventListener) changes -> {
+      this.track(changes, reported);
+      this.delegate.routesChanged(changes);
+    });
+
+    final List<RouteChange> stale = new ArrayList<RouteChange>();
+
+    for (final Iterator<Map.Entry<RouteKey, RouteChange>> it = this.delivered.entrySet().iterator(); it.hasNext();)
+    {
+      final Map.Entry<RouteKey, RouteChange> entry = it.next();
+
+      if (!reported.contains(entry.getKey()))
+      {
+        final RouteChange added = entry.getValue();
+
+        stale.add(RouteChange.withdrawn(added.getPeerName(), added.getSide(), added.getRoute()));
+        it.remove();
+      }
+    }
+
+    if (!stale.isEmpty())
+    {
+      log.info("withdrawing {} routes from listener {} which vanished while changes were dropped", stale.size(), this.delegate);
+
+      this.delegate.routesChanged(Collections.unmodifiableList(stale));
+      this.deliveredChanges += stale.size();
+    }
+  }
+
+  /**
+   * remember the routes the delegate holds after the changes
+   *
+   * @param changes
+   *          the changes handed to the delegate
+   * @param keys
+   *          collects the keys of the changed routes, may be <code>null</code>
+   */
+  private void track(final List<RouteChange> changes, final Set<RouteKey> keys)
+  {
+    if (this.delivered == null)
+    {
+      return;
+    }
+
+    for (final RouteChange change : changes)
+    {
+      final RouteKey key = RouteKey.of(change);
+
+      if (change.isAdded())
+      {
+        this.delivered.put(key, change);
+      }
+      else
+      {
+        this.delivered.remove(key);
+      }
+
+      if (keys != null)
+      {
+        keys.add(key);
+      }
+    }
+  }
+
+}
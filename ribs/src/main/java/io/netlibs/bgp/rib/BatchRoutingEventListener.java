@@ -0,0 +1,50 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.BatchRoutingEventListener.java
+ */
+package io.netlibs.bgp.rib;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Routing event listener which only processes batches. A single route reported through {@link #routeAdded(RouteAdded)} or
+ * {@link #routeWithdrawn(RouteWithdrawn)} is passed on as a batch of one change.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+@FunctionalInterface
+public interface BatchRoutingEventListener extends RoutingEventListener
+{
+
+  @Override
+  default void routeAdded(final RouteAdded event)
+  {
+    this.routesChanged(Collections.singletonList(RouteChange.added(event.getPeerName(), event.getSide(), event.getRoute())));
+  }
+
+  @Override
+  default void routeWithdrawn(final RouteWithdrawn event)
+  {
+    this.routesChanged(Collections.singletonList(RouteChange.withdrawn(event.getPeerName(), event.getSide(), event.getRoute())));
+  }
+
+  @Override
+  void routesChanged(List<RouteChange> changes);
+
+}
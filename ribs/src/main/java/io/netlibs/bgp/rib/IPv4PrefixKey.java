@@ -0,0 +1,174 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.IPv4PrefixKey.java
+ */
+package io.netlibs.bgp.rib;
+
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+
+/**
+ * An IPv4 prefix packed into a single long: the address in the upper 32 bits, the prefix length in the lower bits. The host bits of the
+ * address are always zero.
+ *
+ * Keys are ordered like the routes in the routing tree: by their address bits, a prefix before the more specific prefixes it covers. Equality,
+ * ordering and prefix tests are plain word operations.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+public final class IPv4PrefixKey implements Comparable<IPv4PrefixKey>
+{
+
+  private static final long ADDRESS_MASK = 0xffffffff00000000L;
+
+  private final long bits;
+
+  private IPv4PrefixKey(final long bits)
+  {
+    this.bits = bits;
+  }
+
+  /**
+   * @param address
+   *          the address, host bits are cleared
+   * @param prefixLength
+   *          the prefix length, 0 to 32
+   * @return the key
+   */
+  public static IPv4PrefixKey of(final int address, final int prefixLength)
+  {
+    if ((prefixLength < 0) || (prefixLength > 32))
+    {
+      throw new IllegalArgumentException("invalid IPv4 prefix length: " + prefixLength);
+    }
+
+    return new IPv4PrefixKey((((address & 0xffffffffL) << 32) & RoutingTree.mask(prefixLength)) | prefixLength);
+  }
+
+  /**
+   * @param nlri
+   *          an IPv4 unicast or multicast NLRI
+   * @return the key
+   */
+  public static IPv4PrefixKey of(final NetworkLayerReachabilityInformation nlri)
+  {
+    return of((int) (RoutingTree.word(nlri.getPrefix(), 0, 0) >>> 32), nlri.getPrefixLength());
+  }
+
+  /**
+   * @return the address with the host bits cleared
+   */
+  public int getAddress()
+  {
+    return (int) (this.bits >>> 32);
+  }
+
+  /**
+   * @return the prefix length
+   */
+  public int getPrefixLength()
+  {
+    return (int) this.bits;
+  }
+
+  /**
+   * check if this prefix covers the other, more specific prefix. Like {@link NetworkLayerReachabilityInformation#isPrefixOf}, a prefix is
+   * not a prefix of itself.
+   *
+   * @param other
+   * @return <code>true</code> if this prefix is a prefix of the other one
+   */
+  public boolean isPrefixOf(final IPv4PrefixKey other)
+  {
+    return (this.getPrefixLength() < other.getPrefixLength()) && (((this.bits ^ other.bits) & RoutingTree.mask(this.getPrefixLength())) == 0);
+  }
+
+  /**
+   * check if the left IPv4 NLRI covers the right one, in place on the NLRI octets
+   *
+   * @return <code>true</code> if the left prefix is a prefix of the right one
+   */
+  static boolean isPrefixOf(final NetworkLayerReachabilityInformation left, final NetworkLayerReachabilityInformation right)
+  {
+    return (left.getPrefixLength() < right.getPrefixLength()) && matchesUpTo(left, right, left.getPrefixLength());
+  }
+
+  /**
+   * compare two IPv4 NLRIs in place on the NLRI octets. Host bits are ignored, like they are by keys
+   *
+   * @return <code>true</code> if both NLRIs hold the same prefix
+   */
+  static boolean equals(final NetworkLayerReachabilityInformation left, final NetworkLayerReachabilityInformation right)
+  {
+    return (left.getPrefixLength() == right.getPrefixLength()) && matchesUpTo(left, right, left.getPrefixLength());
+  }
+
+  private static boolean matchesUpTo(final NetworkLayerReachabilityInformation left, final NetworkLayerReachabilityInformation right,
+      final int length)
+  {
+    return ((RoutingTree.word(left.getPrefix(), 0, 0) ^ RoutingTree.word(right.getPrefix(), 0, 0)) & RoutingTree.mask(length)) == 0;
+  }
+
+  /**
+   * @return the prefix as NLRI
+   */
+  public NetworkLayerReachabilityInformation toNetworkLayerReachabilityInformation()
+  {
+    final byte[] prefix = new byte[NetworkLayerReachabilityInformation.calculateOctetsForPrefixLength(this.getPrefixLength())];
+
+    for (int i = 0; i < prefix.length; i++)
+    {
+      prefix[i] = (byte) (this.bits >>> (56 - (8 * i)));
+    }
+
+    return new NetworkLayerReachabilityInformation(this.getPrefixLength(), prefix);
+  }
+
+  /**
+   * @return the key of the prefix in the routing tree
+   */
+  RoutingTree.Key toTreeKey()
+  {
+    return new RoutingTree.Key(this.bits & ADDRESS_MASK, 0, this.getPrefixLength());
+  }
+
+  @Override
+  public int compareTo(final IPv4PrefixKey other)
+  {
+    return Long.compareUnsigned(this.bits, other.bits);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return Long.hashCode(this.bits);
+  }
+
+  @Override
+  public boolean equals(final Object obj)
+  {
+    return (obj instanceof IPv4PrefixKey) && (((IPv4PrefixKey) obj).bits == this.bits);
+  }
+
+  @Override
+  public String toString()
+  {
+    return ((this.bits >>> 56) & 0xff) + "." + ((this.bits >>> 48) & 0xff) + "." + ((this.bits >>> 40) & 0xff) + "."
+        + ((this.bits >>> 32) & 0xff) + "/" + this.getPrefixLength();
+  }
+
+}
@@ -0,0 +1,224 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.IPv6PrefixKey.java
+ */
+package io.netlibs.bgp.rib;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+
+/**
+ * An IPv6 prefix held in two longs and the prefix length. The host bits of the address are always zero.
+ *
+ * Keys are ordered like the routes in the routing tree: by their address bits, a prefix before the more specific prefixes it covers. Equality,
+ * ordering and prefix tests are plain word operations.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+public final class IPv6PrefixKey implements Comparable<IPv6PrefixKey>
+{
+
+  private final long high;
+  private final long low;
+  private final int prefixLength;
+
+  private IPv6PrefixKey(final long high, final long low, final int prefixLength)
+  {
+    this.high = high;
+    this.low = low;
+    this.prefixLength = prefixLength;
+  }
+
+  /**
+   * @param high
+   *          the upper 64 bits of the address
+   * @param low
+   *          the lower 64 bits of the address
+   * @param prefixLength
+   *          the prefix length, 0 to 128
+   * @return the key, host bits are cleared
+   */
+  public static IPv6PrefixKey of(final long high, final long low, final int prefixLength)
+  {
+    if ((prefixLength < 0) || (prefixLength > 128))
+    {
+      throw new IllegalArgumentException("invalid IPv6 prefix length: " + prefixLength);
+    }
+
+    return new IPv6PrefixKey(high & RoutingTree.mask(prefixLength), low & RoutingTree.mask(prefixLength - 64), prefixLength);
+  }
+
+  /**
+   * @param nlri
+   *          an IPv6 unicast or multicast NLRI
+   * @return the key
+   */
+  public static IPv6PrefixKey of(final NetworkLayerReachabilityInformation nlri)
+  {
+    final byte[] prefix = nlri.getPrefix();
+
+    return of(RoutingTree.word(prefix, 0, 0), RoutingTree.word(prefix, 0, 1), nlri.getPrefixLength());
+  }
+
+  /**
+   * @return the upper 64 bits of the address
+   */
+  public long getHigh()
+  {
+    return this.high;
+  }
+
+  /**
+   * @return the lower 64 bits of the address
+   */
+  public long getLow()
+  {
+    return this.low;
+  }
+
+  /**
+   * @return the prefix length
+   */
+  public int getPrefixLength()
+  {
+    return this.prefixLength;
+  }
+
+  /**
+   * check if this prefix covers the other, more specific prefix. Like {@link NetworkLayerReachabilityInformation#isPrefixOf}, a prefix is
+   * not a prefix of itself.
+   *
+   * @param other
+   * @return <code>true</code> if this prefix is a prefix of the other one
+   */
+  public boolean isPrefixOf(final IPv6PrefixKey other)
+  {
+    return (this.prefixLength < other.prefixLength)
+        && (((this.high ^ other.high) & RoutingTree.mask(this.prefixLength)) == 0)
+        && (((this.low ^ other.low) & RoutingTree.mask(this.prefixLength - 64)) == 0);
+  }
+
+  /**
+   * check if the left IPv6 NLRI covers the right one, in place on the NLRI octets
+   *
+   * @return <code>true</code> if the left prefix is a prefix of the right one
+   */
+  static boolean isPrefixOf(final NetworkLayerReachabilityInformation left, final NetworkLayerReachabilityInformation right)
+  {
+    return (left.getPrefixLength() < right.getPrefixLength()) && matchesUpTo(left, right, left.getPrefixLength());
+  }
+
+  /**
+   * compare two IPv6 NLRIs in place on the NLRI octets. Host bits are ignored, like they are by keys
+   *
+   * @return <code>true</code> if both NLRIs hold the same prefix
+   */
+  static boolean equals(final NetworkLayerReachabilityInformation left, final NetworkLayerReachabilityInformation right)
+  {
+    return (left.getPrefixLength() == right.getPrefixLength()) && matchesUpTo(left, right, left.getPrefixLength());
+  }
+
+  private static boolean matchesUpTo(final NetworkLayerReachabilityInformation left, final NetworkLayerReachabilityInformation right,
+      final int length)
+  {
+    final byte[] leftOctets = left.getPrefix();
+    final byte[] rightOctets = right.getPrefix();
+
+    return (((RoutingTree.word(leftOctets, 0, 0) ^ RoutingTree.word(rightOctets, 0, 0)) & RoutingTree.mask(length)) == 0)
+        && (((RoutingTree.word(leftOctets, 0, 1) ^ RoutingTree.word(rightOctets, 0, 1)) & RoutingTree.mask(length - 64)) == 0);
+  }
+
+  /**
+   * @return the prefix as NLRI
+   */
+  public NetworkLayerReachabilityInformation toNetworkLayerReachabilityInformation()
+  {
+    final byte[] prefix = new byte[NetworkLayerReachabilityInformation.calculateOctetsForPrefixLength(this.prefixLength)];
+
+    for (int i = 0; i < prefix.length; i++)
+    {
+      prefix[i] = (byte) (((i < 8) ? this.high : this.low) >>> (56 - (8 * (i & 7))));
+    }
+
+    return new NetworkLayerReachabilityInformation(this.prefixLength, prefix);
+  }
+
+  /**
+   * @return the key of the prefix in the routing tree
+   */
+  RoutingTree.Key toTreeKey()
+  {
+    return new RoutingTree.Key(this.high, this.low, this.prefixLength);
+  }
+
+  @Override
+  public int compareTo(final IPv6PrefixKey other)
+  {
+    int result = Long.compareUnsigned(this.high, other.high);
+
+    if (result == 0)
+    {
+      result = Long.compareUnsigned(this.low, other.low);
+    }
+
+    return (result != 0) ? result : Integer.compare(this.prefixLength, other.prefixLength);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return (31 * ((31 * Long.hashCode(this.high)) + Long.hashCode(this.low))) + this.prefixLength;
+  }
+
+  @Override
+  public boolean equals(final Object obj)
+  {
+    if (!(obj instanceof IPv6PrefixKey))
+    {
+      return false;
+    }
+
+    final IPv6PrefixKey o = (IPv6PrefixKey) obj;
+
+    return (this.high == o.high) && (this.low == o.low) && (this.prefixLength == o.prefixLength);
+  }
+
+  @Override
+  public String toString()
+  {
+    final byte[] address = new byte[16];
+
+    for (int i = 0; i < 16; i++)
+    {
+      address[i] = (byte) (((i < 8) ? this.high : this.low) >>> (56 - (8 * (i & 7))));
+    }
+
+    try
+    {
+      return ((Inet6Address) InetAddress.getByAddress(address)).getHostAddress() + "/" + this.prefixLength;
+    }
+    catch (final UnknownHostException e)
+    {
+      throw new IllegalStateException(e);
+    }
+  }
+
+}
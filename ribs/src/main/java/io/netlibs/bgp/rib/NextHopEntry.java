@@ -0,0 +1,96 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.NextHopEntry.java
+ */
+package io.netlibs.bgp.rib;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.netlibs.bgp.protocol.NextHop;
+
+/**
+ * The shared state of one next hop in a {@link NextHopTable}: its reachability and the routes resolving over it.
+ *
+ * There is exactly one entry per next hop and table, so everything forwarding over the next hop can reference the entry instead of a copy
+ * of its state. Flipping the reachability of the entry therefore takes effect for all dependent routes at once.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+public final class NextHopEntry
+{
+
+  private final NextHop nextHop;
+  private final Set<RouteKey> dependents = ConcurrentHashMap.newKeySet();
+  private volatile boolean reachable = true;
+
+  NextHopEntry(final NextHop nextHop)
+  {
+    this.nextHop = nextHop;
+  }
+
+  /**
+   * @return the nextHop
+   */
+  public NextHop getNextHop()
+  {
+    return this.nextHop;
+  }
+
+  /**
+   * @return <code>true</code> if the next hop is reachable
+   */
+  public boolean isReachable()
+  {
+    return this.reachable;
+  }
+
+  void setReachable(final boolean reachable)
+  {
+    this.reachable = reachable;
+  }
+
+  /**
+   * @return a live, read-only view of the routes resolving over the next hop
+   */
+  public Set<RouteKey> getDependents()
+  {
+    return Collections.unmodifiableSet(this.dependents);
+  }
+
+  /**
+   * @return the number of routes resolving over the next hop
+   */
+  public int getDependentCount()
+  {
+    return this.dependents.size();
+  }
+
+  Set<RouteKey> dependents()
+  {
+    return this.dependents;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "NextHopEntry(" + this.nextHop + (this.reachable ? ", reachable, " : ", unreachable, ") + this.dependents.size() + " dependents)";
+  }
+
+}
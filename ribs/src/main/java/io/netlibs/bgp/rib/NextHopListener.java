@@ -0,0 +1,37 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.NextHopListener.java
+ */
+package io.netlibs.bgp.rib;
+
+/**
+ * Listener notified about reachability changes of next hops in a {@link NextHopTable}
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+public interface NextHopListener
+{
+
+  /**
+   * the reachability of a next hop changed. Called once per change, regardless of the number of routes resolving over the next hop.
+   *
+   * @param entry
+   *          the entry of the next hop
+   */
+  public void nextHopChanged(NextHopEntry entry);
+
+}
@@ -0,0 +1,193 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.NextHopTable.java
+ */
+package io.netlibs.bgp.rib;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import io.netlibs.bgp.protocol.NextHop;
+
+/**
+ * Shared next hop table providing one level of indirection between routes and the next hops they resolve over.
+ *
+ * Registered as a routing event listener with the RIBs it covers, the table keeps a reverse index from each next hop to the routes using
+ * it. Each next hop is represented by a single {@link NextHopEntry}; its reachability is changed in constant time and reported once to the
+ * {@link NextHopListener}s, independent of the number of routes behind it. A forwarding plane referencing the entries, or the multipath
+ * groups resolved through the table, fails over without touching the individual prefixes. The dependent routes are still available for
+ * consumers which have to revisit them, for example to re-run the best path selection.
+ *
+ * Next hops are unknown to the table, and reachable, until a route uses them or their reachability is set. An entry is dropped once it is
+ * reachable and no route uses it anymore.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+public class NextHopTable implements BatchRoutingEventListener
+{
+
+  private final Map<NextHop, NextHopEntry> entries = new ConcurrentHashMap<NextHop, NextHopEntry>();
+  // the entry each indexed route resolves over, needed to move a route when it is replaced with a different next hop
+  private final Map<RouteKey, NextHopEntry> routes = new ConcurrentHashMap<RouteKey, NextHopEntry>();
+  private final List<NextHopListener> listeners = new CopyOnWriteArrayList<NextHopListener>();
+
+  /**
+   * @param listener
+   *          the listener to notify about reachability changes
+   */
+  public void addListener(final NextHopListener listener)
+  {
+    this.listeners.add(listener);
+  }
+
+  /**
+   * @param listener
+   *          the listener to remove
+   */
+  public void removeListener(final NextHopListener listener)
+  {
+    this.listeners.remove(listener);
+  }
+
+  /**
+   * @return the entry of a next hop or <code>null</code> if the table does not know the next hop
+   */
+  public NextHopEntry lookup(final NextHop nextHop)
+  {
+    return this.entries.get(nextHop);
+  }
+
+  /**
+   * @return <code>true</code> if the next hop is reachable. Unknown next hops are considered reachable
+   */
+  public boolean isReachable(final NextHop nextHop)
+  {
+    final NextHopEntry entry = this.entries.get(nextHop);
+
+    return (entry == null) || entry.isReachable();
+  }
+
+  /**
+   * @return a live, read-only view of the routes resolving over a next hop
+   */
+  public Set<RouteKey> getDependents(final NextHop nextHop)
+  {
+    final NextHopEntry entry = this.entries.get(nextHop);
+
+    return (entry != null) ? entry.getDependents() : Collections.<RouteKey> emptySet();
+  }
+
+  /**
+   * @return the number of next hops known to the table
+   */
+  public int size()
+  {
+    return this.entries.size();
+  }
+
+  /**
+   * Change the reachability of a next hop. The change is reported to the listeners if the state actually changed.
+   *
+   * @param nextHop
+   *          the next hop
+   * @param reachable
+   *          the new state
+   */
+  public void setReachable(final NextHop nextHop, final boolean reachable)
+  {
+    final NextHopEntry entry;
+
+    synchronized (this.entries)
+    {
+      entry = this.entries.computeIfAbsent(nextHop, NextHopEntry::new);
+
+      if (entry.isReachable() == reachable)
+      {
+        return;
+      }
+
+      entry.setReachable(reachable);
+      this.release(entry);
+    }
+
+    for (final NextHopListener listener : this.listeners)
+    {
+      listener.nextHopChanged(entry);
+    }
+  }
+
+  /**
+   * update the reverse index for a batch of changes under one lock acquisition
+   */
+  @Override
+  public void routesChanged(final List<RouteChange> changes)
+  {
+    synchronized (this.entries)
+    {
+      for (final RouteChange change : changes)
+      {
+        final RouteKey key = RouteKey.of(change);
+        final NextHop nextHop = change.getRoute().getNextHop();
+
+        if (change.isAdded() && nextHop != null)
+        {
+          final NextHopEntry entry = this.entries.computeIfAbsent(nextHop, NextHopEntry::new);
+          final NextHopEntry previous = this.routes.put(key, entry);
+
+          if (previous != entry)
+          {
+            entry.dependents().add(key);
+
+            if (previous != null)
+            {
+              previous.dependents().remove(key);
+              this.release(previous);
+            }
+          }
+        }
+        else
+        {
+          // a withdrawal, or a route replaced by one without next hop
+          final NextHopEntry previous = this.routes.remove(key);
+
+          if (previous != null)
+          {
+            previous.dependents().remove(key);
+            this.release(previous);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * drop an entry nobody needs anymore. Must be called with the lock on entries held
+   */
+  private void release(final NextHopEntry entry)
+  {
+    if (entry.isReachable() && entry.dependents().isEmpty())
+    {
+      this.entries.remove(entry.getNextHop(), entry);
+    }
+  }
+
+}
@@ -1,6 +1,6 @@
 package io.netlibs.bgp.rib;
 
-import java.util.Arrays;
+import java.util.Comparator;
 
 import io.netlibs.bgp.protocol.AddressFamilyKey;
 import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
@@ -8,6 +8,20 @@ import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
 public class NlriComparator
 {
 
+  /**
+   * Obtain a comparator ordering the NLRIs of an address family the way a RIB iterates its routes: less specific prefixes before more
+   * specific ones, siblings in ascending prefix order. Iterators over RIBs of the same address family can thus be merged by prefix.
+   *
+   * @param afk
+   *          the address family of the NLRIs
+   * @return the comparator
+   */
+
+  public static Comparator<NetworkLayerReachabilityInformation> treeOrder(final AddressFamilyKey afk)
+  {
+    return (left, right) -> RoutingTree.compareKeys(afk, left, right);
+  }
+
   public static boolean equals(final Route left, final Route right)
   {
     return equals(left.getAddressFamilyKey(), left.getNlri(), right.getNlri());
@@ -35,43 +49,20 @@ public class NlriComparator
   public static boolean isPrefixOf(final AddressFamilyKey afk, final NetworkLayerReachabilityInformation left, final NetworkLayerReachabilityInformation right)
   {
 
-    if (afk.equals(AddressFamilyKey.IPV4_UNICAST_MPLS_FORWARDING))
+    if (NlriView.headerOctets(afk) > 0)
     {
-      // RFC3107 -  Encoding is:
-      //  3-byte label
-      //  4-byte IPv4 address
-      return isPrefixOf(AddressFamilyKey.IPV4_UNICAST_FORWARDING, left.remove(3), right.remove(3));
+      // RFC3107 - labelled encoding is: label (3-byte) prefix
+      // RFC4364, RFC4659 - VPN encoding is: label (3-byte) RD (type (2-byte), value(6-byte)) prefix
+      // The label is ignored, the RDs must be equal (including the type). Both are compared in place.
+      return NlriView.isPrefixOf(afk, left, right);
     }
-    else if (afk.equals(AddressFamilyKey.IPV6_UNICAST_MPLS_FORWARDING))
+    else if (afk.equals(AddressFamilyKey.IPV4_UNICAST_FORWARDING) && fits(left, right, 32))
     {
-      // RFC3107 Encoding is:
-      //  3-byte label
-      //  16-byte IPv6 address
-      return isPrefixOf(AddressFamilyKey.IPV6_UNICAST_FORWARDING, left.remove(3), right.remove(3));
+      return IPv4PrefixKey.isPrefixOf(left, right);
     }
-    else if (afk.equals(AddressFamilyKey.IPV4_MPLS_VPN_FORWARDING) || afk.equals(AddressFamilyKey.IPV6_MPLS_VPN_FORWARDING))
+    else if (afk.equals(AddressFamilyKey.IPV6_UNICAST_FORWARDING) && fits(left, right, 128))
     {
-      // For IPv4 RFC4364 - Encoding is:    label (3-byte) RD (type (2-byte), value(6-byte)) IPv4 (4-byte)
-      // For IPv6 RFC4659 - Encoding is:    label (3-byte) RD (type (2-byte), value(6-byte)) IPv6 (16-byte)
-         
-      // For both AFs - remove label and then extract the subsequent 8-bytes (RD)
-      // if the RD is not equal (including the same type), then these
-      // are not the same prefix.
-      byte[] leftrd = new byte[8];
-      byte[] rightrd = new byte[8];
-      
-      System.arraycopy(left.getPrefix(), 3, leftrd, 0, 8);
-      System.arraycopy(right.getPrefix(), 3, rightrd, 0, 8);
-      
-      if (!Arrays.equals(leftrd, rightrd))
-        return false;
-  
-      if (afk.equals(AddressFamilyKey.IPV4_MPLS_VPN_FORWARDING))
-        // Remove both the label and the RD and check whether these are the same IPv4 prefix
-        return isPrefixOf(AddressFamilyKey.IPV4_UNICAST_FORWARDING, left.remove(11), right.remove(11));        
-      else
-        // Remaining case is IPv6 comparison
-        return isPrefixOf(AddressFamilyKey.IPV6_UNICAST_FORWARDING, left.remove(11), right.remove(11));
+      return IPv6PrefixKey.isPrefixOf(left, right);
     }
     else
     {
@@ -86,31 +77,17 @@ public class NlriComparator
 
   public static boolean equals(final AddressFamilyKey afk, final NetworkLayerReachabilityInformation left, final NetworkLayerReachabilityInformation right)
   {
-    if (afk.equals(AddressFamilyKey.IPV4_UNICAST_MPLS_FORWARDING))
+    if (NlriView.headerOctets(afk) > 0)
     {
-      return equals(AddressFamilyKey.IPV4_UNICAST_FORWARDING, left.remove(3), right.remove(3));
+      return NlriView.equals(afk, left, right);
     }
-    else if (afk.equals(AddressFamilyKey.IPV6_UNICAST_MPLS_FORWARDING))
+    else if (afk.equals(AddressFamilyKey.IPV4_UNICAST_FORWARDING) && fits(left, right, 32))
     {
-      return equals(AddressFamilyKey.IPV6_UNICAST_FORWARDING, left.remove(3), right.remove(3));
+      return IPv4PrefixKey.equals(left, right);
     }
-    else if (afk.equals(AddressFamilyKey.IPV4_MPLS_VPN_FORWARDING) || afk.equals(AddressFamilyKey.IPV6_MPLS_VPN_FORWARDING))
+    else if (afk.equals(AddressFamilyKey.IPV6_UNICAST_FORWARDING) && fits(left, right, 128))
     {
-      byte[] leftrd = new byte[8];
-      byte[] rightrd = new byte[8];
-      
-      System.arraycopy(left.getPrefix(), 3, leftrd, 0, 8);
-      System.arraycopy(right.getPrefix(), 3, rightrd, 0, 8);
-      
-      if (!Arrays.equals(leftrd, rightrd))
-        return false;
-      
-      // Compare prefix
-      if (afk.equals(AddressFamilyKey.IPV4_MPLS_VPN_FORWARDING))
-        return equals(AddressFamilyKey.IPV4_UNICAST_FORWARDING, left.remove(11), right.remove(11));
-      else
-        return equals(AddressFamilyKey.IPV6_UNICAST_FORWARDING, left.remove(11), right.remove(11));
-      
+      return IPv6PrefixKey.equals(left, right);
     }
     else
     {
@@ -118,4 +95,14 @@ public class NlriComparator
     }
   }
 
+  /**
+   * malformed prefixes longer than an address of the family are left to the generic comparison
+   */
+
+  private static boolean fits(final NetworkLayerReachabilityInformation left, final NetworkLayerReachabilityInformation right,
+      final int addressLength)
+  {
+    return (left.getPrefixLength() <= addressLength) && (right.getPrefixLength() <= addressLength);
+  }
+
 }
@@ -0,0 +1,245 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.NlriView.java
+ */
+package io.netlibs.bgp.rib;
+
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+
+/**
+ * A view on the label, route distinguisher and prefix portions of a NLRI. The portions are read in place at the fixed offsets of the
+ * address family, the NLRI octets are neither copied nor split:
+ *
+ * <ul>
+ * <li>labelled unicast (RFC 3107): label (3 octets), prefix</li>
+ * <li>VPN-IPv4 and VPN-IPv6 (RFC 4364, RFC 4659): label (3 octets), route distinguisher (8 octets), prefix</li>
+ * <li>all other families: prefix</li>
+ * </ul>
+ *
+ * Comparisons ignore the label: two NLRIs are equal if they carry the same route distinguisher and the same prefix. The static comparisons
+ * work on the NLRIs directly and do not allocate at all.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+public final class NlriView
+{
+
+  private static final int LABEL_OCTETS = 3;
+  private static final int ROUTE_DISTINGUISHER_OCTETS = 8;
+
+  private final NetworkLayerReachabilityInformation nlri;
+  private final int labelOctets;
+  private final int headerOctets;
+
+  private NlriView(final NetworkLayerReachabilityInformation nlri, final int labelOctets, final int headerOctets)
+  {
+    this.nlri = nlri;
+    this.labelOctets = labelOctets;
+    this.headerOctets = headerOctets;
+  }
+
+  /**
+   * @param afk
+   *          the address family of the NLRI
+   * @param nlri
+   *          the NLRI
+   * @return a view on the NLRI
+   */
+  public static NlriView of(final AddressFamilyKey afk, final NetworkLayerReachabilityInformation nlri)
+  {
+    return new NlriView(nlri, labelOctets(afk), headerOctets(afk));
+  }
+
+  /**
+   * @return the number of leading label octets of the NLRIs of the address family
+   */
+  static int labelOctets(final AddressFamilyKey afk)
+  {
+    if ((afk != null)
+        && (afk.equals(AddressFamilyKey.IPV4_UNICAST_MPLS_FORWARDING)
+            || afk.equals(AddressFamilyKey.IPV6_UNICAST_MPLS_FORWARDING)
+            || afk.equals(AddressFamilyKey.IPV4_MPLS_VPN_FORWARDING)
+            || afk.equals(AddressFamilyKey.IPV6_MPLS_VPN_FORWARDING)))
+    {
+      return LABEL_OCTETS;
+    }
+
+    return 0;
+  }
+
+  /**
+   * @return the number of label and route distinguisher octets preceding the prefix in the NLRIs of the address family
+   */
+  static int headerOctets(final AddressFamilyKey afk)
+  {
+    if ((afk != null) && (afk.equals(AddressFamilyKey.IPV4_MPLS_VPN_FORWARDING) || afk.equals(AddressFamilyKey.IPV6_MPLS_VPN_FORWARDING)))
+    {
+      return LABEL_OCTETS + ROUTE_DISTINGUISHER_OCTETS;
+    }
+
+    return labelOctets(afk);
+  }
+
+  /**
+   * @return the NLRI viewed
+   */
+  public NetworkLayerReachabilityInformation getNlri()
+  {
+    return this.nlri;
+  }
+
+  /**
+   * @return <code>true</code> if the NLRI carries a route distinguisher
+   */
+  public boolean hasRouteDistinguisher()
+  {
+    return (this.headerOctets > this.labelOctets);
+  }
+
+  /**
+   * @return the 20 bit label value or 0 if the address family is not labelled
+   */
+  public int getLabel()
+  {
+    if (this.labelOctets == 0)
+    {
+      return 0;
+    }
+
+    return (int) (RoutingTree.word(this.nlri.getPrefix(), 0, 0) >>> 44);
+  }
+
+  /**
+   * @return the route distinguisher as 64 bit value or 0 if the address family carries no route distinguisher
+   */
+  public long getRouteDistinguisher()
+  {
+    return this.hasRouteDistinguisher() ? RoutingTree.word(this.nlri.getPrefix(), this.labelOctets, 0) : 0;
+  }
+
+  /**
+   * @return the length of the prefix following the label and the route distinguisher
+   */
+  public int getPrefixLength()
+  {
+    return prefixLength(this.nlri, this.headerOctets);
+  }
+
+  /**
+   * @param other
+   *          a NLRI of the same address family
+   * @return <code>true</code> if both NLRIs have the same route distinguisher and prefix
+   */
+  public boolean matches(final NetworkLayerReachabilityInformation other)
+  {
+    return equals(this.labelOctets, this.headerOctets, this.nlri, other);
+  }
+
+  /**
+   * @param other
+   *          a NLRI of the same address family
+   * @return <code>true</code> if both NLRIs have the same route distinguisher and the prefix of this NLRI is a prefix of the other one
+   */
+  public boolean isPrefixOf(final NetworkLayerReachabilityInformation other)
+  {
+    return isPrefixOf(this.labelOctets, this.headerOctets, this.nlri, other);
+  }
+
+  /**
+   * @param other
+   *          a NLRI of the same address family
+   * @return <code>true</code> if both NLRIs have the same route distinguisher and the prefix of the other NLRI equals or is a prefix of the
+   *         prefix of this NLRI
+   */
+  public boolean isCoveredBy(final NetworkLayerReachabilityInformation other)
+  {
+    final int length = prefixLength(other, this.headerOctets);
+
+    return (length <= this.getPrefixLength()) && matchesUpTo(this.labelOctets, this.headerOctets, other, this.nlri, length);
+  }
+
+  /**
+   * compare two NLRIs of an address family in place
+   *
+   * @return <code>true</code> if both NLRIs have the same route distinguisher and prefix
+   */
+  static boolean equals(final AddressFamilyKey afk, final NetworkLayerReachabilityInformation left,
+      final NetworkLayerReachabilityInformation right)
+  {
+    return equals(labelOctets(afk), headerOctets(afk), left, right);
+  }
+
+  /**
+   * compare two NLRIs of an address family in place
+   *
+   * @return <code>true</code> if both NLRIs have the same route distinguisher and the left prefix is a prefix of the right one
+   */
+  static boolean isPrefixOf(final AddressFamilyKey afk, final NetworkLayerReachabilityInformation left,
+      final NetworkLayerReachabilityInformation right)
+  {
+    return isPrefixOf(labelOctets(afk), headerOctets(afk), left, right);
+  }
+
+  private static boolean equals(final int labelOctets, final int headerOctets, final NetworkLayerReachabilityInformation left,
+      final NetworkLayerReachabilityInformation right)
+  {
+    final int length = prefixLength(left, headerOctets);
+
+    return (length == prefixLength(right, headerOctets)) && matchesUpTo(labelOctets, headerOctets, left, right, length);
+  }
+
+  private static boolean isPrefixOf(final int labelOctets, final int headerOctets, final NetworkLayerReachabilityInformation left,
+      final NetworkLayerReachabilityInformation right)
+  {
+    final int length = prefixLength(left, headerOctets);
+
+    return (length < prefixLength(right, headerOctets)) && matchesUpTo(labelOctets, headerOctets, left, right, length);
+  }
+
+  private static int prefixLength(final NetworkLayerReachabilityInformation nlri, final int headerOctets)
+  {
+    return Math.max(0, nlri.getPrefixLength() - (8 * headerOctets));
+  }
+
+  /**
+   * @return <code>true</code> if the route distinguishers and the leading <code>length</code> prefix bits of both NLRIs are equal
+   */
+  private static boolean matchesUpTo(final int labelOctets, final int headerOctets, final NetworkLayerReachabilityInformation left,
+      final NetworkLayerReachabilityInformation right, final int length)
+  {
+    final byte[] leftOctets = left.getPrefix();
+    final byte[] rightOctets = right.getPrefix();
+
+    if ((headerOctets > labelOctets) && (RoutingTree.word(leftOctets, labelOctets, 0) != RoutingTree.word(rightOctets, labelOctets, 0)))
+    {
+      return false;
+    }
+
+    for (int i = 0; (64 * i) < length; i++)
+    {
+      if (((RoutingTree.word(leftOctets, headerOctets, i) ^ RoutingTree.word(rightOctets, headerOctets, i)) & RoutingTree.mask(length - (64 * i))) != 0)
+      {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+}
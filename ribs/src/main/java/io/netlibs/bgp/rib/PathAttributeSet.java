@@ -0,0 +1,320 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.PathAttributeSet.java
+ */
+package io.netlibs.bgp.rib;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.builder.CompareToBuilder;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Iterators;
+
+import io.netlibs.bgp.protocol.ASType;
+import io.netlibs.bgp.protocol.PathSegment;
+import io.netlibs.bgp.protocol.PathSegmentType;
+import io.netlibs.bgp.protocol.attributes.ASPathAttribute;
+import io.netlibs.bgp.protocol.attributes.PathAttribute;
+
+/**
+ * Immutable, sorted bundle of path attributes shared by all routes carrying the same attributes.
+ *
+ * Instances are only handed out by {@link #intern(Collection)}, which hash-conses them in a weak intern table. Routes learned from the
+ * same UPDATE (or from different UPDATEs with the same attributes) therefore point at the same bundle and equality checks between them
+ * degenerate to a reference comparison. A bundle is evicted from the intern table as soon as no route references it anymore.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+public final class PathAttributeSet extends AbstractSet<PathAttribute> implements Comparable<PathAttributeSet>
+{
+
+  private static final Interner<PathAttributeSet> internTable = Interners.newWeakInterner();
+  private static final AtomicLong idSource = new AtomicLong();
+
+  /**
+   * the bundle without any path attributes
+   */
+  public static final PathAttributeSet EMPTY = intern(null);
+
+  private final PathAttribute[] attributes;
+  private final int hash;
+  private final long id;
+
+  private PathAttributeSet(final PathAttribute[] attributes)
+  {
+    int hash = 0;
+
+    for (final PathAttribute attribute : attributes)
+    {
+      hash += attribute.hashCode();
+    }
+
+    this.attributes = attributes;
+    this.hash = hash;
+    this.id = idSource.incrementAndGet();
+  }
+
+  /**
+   * Obtain the shared bundle holding the given path attributes.
+   *
+   * @param pathAttributes
+   *          the path attributes, may be <code>null</code>
+   * @return the canonical bundle
+   */
+
+  public static PathAttributeSet intern(final Collection<PathAttribute> pathAttributes)
+  {
+    if (pathAttributes instanceof PathAttributeSet)
+    {
+      // every bundle reachable from outside has been returned by the intern table and is thus canonical
+      return (PathAttributeSet) pathAttributes;
+    }
+
+    final TreeSet<PathAttribute> sorted = new TreeSet<PathAttribute>();
+
+    if (pathAttributes != null)
+    {
+      sorted.addAll(pathAttributes);
+    }
+
+    return internTable.intern(new PathAttributeSet(sorted.toArray(new PathAttribute[sorted.size()])));
+  }
+
+  /**
+   * @return the identifier of this bundle. It is unique among all bundles alive in this VM
+   */
+  public long getId()
+  {
+    return this.id;
+  }
+
+  /**
+   * The AS path of the bundle. A path learned from a 2-octet AS speaker carries both AS_PATH and AS4_PATH, the AS path is then
+   * reconstructed as described in RFC 6793, section 4.2.3: the leading ASes of the AS_PATH which are not covered by the AS4_PATH, followed
+   * by the AS4_PATH. An AS4_PATH holding more ASes than the AS_PATH is ignored.
+   *
+   * @return the AS path or <code>null</code> if the bundle carries none
+   */
+  public ASPathAttribute getASPath()
+  {
+    ASPathAttribute asPath = null;
+    ASPathAttribute as4Path = null;
+
+    for (final PathAttribute attribute : this.attributes)
+    {
+      if (attribute instanceof ASPathAttribute)
+      {
+        if (((ASPathAttribute) attribute).isFourByteASNumber())
+        {
+          as4Path = (ASPathAttribute) attribute;
+        }
+        else
+        {
+          asPath = (ASPathAttribute) attribute;
+        }
+      }
+    }
+
+    if ((asPath == null) || (as4Path == null))
+    {
+      // a single AS path with 4-octet AS numbers has been learned from a 4-octet AS speaker and is complete
+      return (asPath != null) ? asPath : as4Path;
+    }
+
+    return mergeASPaths(asPath, as4Path);
+  }
+
+  private static ASPathAttribute mergeASPaths(final ASPathAttribute asPath, final ASPathAttribute as4Path)
+  {
+    final List<PathSegment> as4Segments = new ArrayList<PathSegment>();
+
+    for (final PathSegment segment : as4Path.getPathSegments())
+    {
+      // confederation segments are not allowed in an AS4_PATH and are discarded
+      if ((segment.getPathSegmentType() == PathSegmentType.AS_SEQUENCE) || (segment.getPathSegmentType() == PathSegmentType.AS_SET))
+      {
+        as4Segments.add(segment);
+      }
+    }
+
+    int leading = pathLength(asPath.getPathSegments()) - pathLength(as4Segments);
+
+    if (leading < 0)
+    {
+      return asPath;
+    }
+
+    final List<PathSegment> segments = new ArrayList<PathSegment>();
+
+    for (final PathSegment segment : asPath.getPathSegments())
+    {
+      if (leading == 0)
+      {
+        break;
+      }
+
+      if ((segment.getPathSegmentType() == PathSegmentType.AS_SEQUENCE) && (segment.getAses().size() > leading))
+      {
+        segments.add(copySegment(segment, segment.getAses().subList(0, leading)));
+        leading = 0;
+      }
+      else
+      {
+        segments.add(copySegment(segment, segment.getAses()));
+        leading -= pathLength(Arrays.asList(segment));
+      }
+    }
+
+    for (final PathSegment segment : as4Segments)
+    {
+      final PathSegment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+
+      // the sequence split between both attributes is joined again, as long as it fits into one segment
+      if ((last != null) && (last.getPathSegmentType() == PathSegmentType.AS_SEQUENCE)
+          && (segment.getPathSegmentType() == PathSegmentType.AS_SEQUENCE) && ((last.getAses().size() + segment.getAses().size()) <= 255))
+      {
+        last.getAses().addAll(segment.getAses());
+      }
+      else
+      {
+        segments.add(copySegment(segment, segment.getAses()));
+      }
+    }
+
+    return new ASPathAttribute(ASType.AS_NUMBER_4OCTETS, segments);
+  }
+
+  private static PathSegment copySegment(final PathSegment segment, final List<Integer> ases)
+  {
+    final PathSegment copy = new PathSegment(ASType.AS_NUMBER_4OCTETS);
+
+    copy.setPathSegmentType(segment.getPathSegmentType());
+    copy.setAses(new LinkedList<Integer>(ases));
+
+    return copy;
+  }
+
+  /**
+   * @return the number of ASes in the segments, an AS_SET counting as one and confederation segments as none
+   */
+  private static int pathLength(final List<PathSegment> segments)
+  {
+    int length = 0;
+
+    for (final PathSegment segment : segments)
+    {
+      if (segment.getPathSegmentType() == PathSegmentType.AS_SEQUENCE)
+      {
+        length += segment.getAses().size();
+      }
+      else if (segment.getPathSegmentType() == PathSegmentType.AS_SET)
+      {
+        length++;
+      }
+    }
+
+    return length;
+  }
+
+  @Override
+  public Iterator<PathAttribute> iterator()
+  {
+    return Iterators.forArray(this.attributes);
+  }
+
+  @Override
+  public int size()
+  {
+    return this.attributes.length;
+  }
+
+  @Override
+  public boolean contains(final Object o)
+  {
+    if (!(o instanceof PathAttribute))
+    {
+      return false;
+    }
+
+    return Arrays.binarySearch(this.attributes, o) >= 0;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.util.AbstractSet#hashCode()
+   */
+  @Override
+  public int hashCode()
+  {
+    return this.hash;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.util.AbstractSet#equals(java.lang.Object)
+   */
+  @Override
+  public boolean equals(final Object obj)
+  {
+    if (this == obj)
+    {
+      return true;
+    }
+
+    if (obj instanceof PathAttributeSet)
+    {
+      final PathAttributeSet o = (PathAttributeSet) obj;
+
+      return (this.hash == o.hash) && Arrays.equals(this.attributes, o.attributes);
+    }
+
+    return super.equals(obj);
+  }
+
+  @Override
+  public int compareTo(final PathAttributeSet o)
+  {
+    if (this == o)
+    {
+      return 0;
+    }
+
+    final CompareToBuilder builder = (new CompareToBuilder())
+        .append(this.attributes.length, o.attributes.length);
+
+    for (int i = 0; (i < this.attributes.length) && (builder.toComparison() == 0); i++)
+    {
+      builder.append(this.attributes[i], o.attributes[i]);
+    }
+
+    return builder.toComparison();
+  }
+
+}
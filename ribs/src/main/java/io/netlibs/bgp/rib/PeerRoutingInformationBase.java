@@ -17,12 +17,11 @@
  */
 package io.netlibs.bgp.rib;
 
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import io.netlibs.bgp.protocol.AddressFamilyKey;
 import io.netlibs.bgp.protocol.RIBSide;
@@ -46,7 +45,7 @@ public class PeerRoutingInformationBase
   // private @Inject Event<RoutingInformationBaseCreated> created;
   // private @Inject Event<RoutingInformationBaseDestroyed> destroyed;
 
-  private final List<RoutingEventListener> listeners = Collections.synchronizedList(new LinkedList<RoutingEventListener>());
+  private final List<RoutingEventListener> listeners = new CopyOnWriteArrayList<RoutingEventListener>();
 
   public PeerRoutingInformationBase()
   {
@@ -123,6 +122,32 @@ public class PeerRoutingInformationBase
     return rib;
   }
 
+  /**
+   * Apply a batch of changes to the RIBs of one side. The changes of each address family are applied to its RIB as one change.
+   *
+   * @param side
+   *          the side of the RIBs to change
+   * @param batch
+   *          the changes to apply
+   * @throws IllegalArgumentException
+   *           if the batch changes an address family without an allocated RIB
+   */
+  public void apply(final RIBSide side, final RibBatch batch)
+  {
+    for (final AddressFamilyKey afk : batch.getAddressFamilies())
+    {
+      if (this.routingBase(side, afk) == null)
+      {
+        throw new IllegalArgumentException("no " + side + " RIB for address family " + afk + " allocated for peer " + this.peerName);
+      }
+    }
+
+    for (final AddressFamilyKey afk : batch.getAddressFamilies())
+    {
+      this.routingBase(side, afk).apply(batch);
+    }
+  }
+
   public void visitRoutingBases(final RIBSide side, final RoutingInformationBaseVisitor visitor, final Set<AddressFamilyKey> wanted)
   {
     switch (side)
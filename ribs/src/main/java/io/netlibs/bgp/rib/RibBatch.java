@@ -0,0 +1,213 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.RibBatch.java
+ */
+package io.netlibs.bgp.rib;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.NextHop;
+import io.netlibs.bgp.protocol.attributes.PathAttribute;
+
+/**
+ * Collects the withdrawals and announcements of one UPDATE packet, possibly spanning several address families, so they can be applied to
+ * the routing information bases as one change.
+ *
+ * For each address family all withdrawals are applied before the announcements, so a NLRI both withdrawn and announced by the same
+ * UPDATE ends up announced. The changes of one address family are applied to its RIB under a single lock acquisition and become visible
+ * to readers at once.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+public class RibBatch
+{
+
+  /**
+   * NLRIs announced with a common set of path attributes and next hop
+   */
+  static final class Announcement
+  {
+    private final Collection<NetworkLayerReachabilityInformation> nlris;
+    private final PathAttributeSet pathAttributes;
+    private final NextHop nextHop;
+
+    private Announcement(final Collection<NetworkLayerReachabilityInformation> nlris, final PathAttributeSet pathAttributes,
+        final NextHop nextHop)
+    {
+      this.nlris = nlris;
+      this.pathAttributes = pathAttributes;
+      this.nextHop = nextHop;
+    }
+
+    Collection<NetworkLayerReachabilityInformation> getNlris()
+    {
+      return this.nlris;
+    }
+
+    PathAttributeSet getPathAttributes()
+    {
+      return this.pathAttributes;
+    }
+
+    NextHop getNextHop()
+    {
+      return this.nextHop;
+    }
+  }
+
+  /**
+   * the changes of one address family
+   */
+  static final class Changes
+  {
+    private final List<NetworkLayerReachabilityInformation> withdrawals = new LinkedList<NetworkLayerReachabilityInformation>();
+    private final List<Announcement> announcements = new LinkedList<Announcement>();
+
+    List<NetworkLayerReachabilityInformation> getWithdrawals()
+    {
+      return this.withdrawals;
+    }
+
+    List<Announcement> getAnnouncements()
+    {
+      return this.announcements;
+    }
+  }
+
+  private final Map<AddressFamilyKey, Changes> changes = new LinkedHashMap<AddressFamilyKey, Changes>();
+
+  /**
+   * Withdraw NLRIs of an address family
+   *
+   * @param afk
+   *          the address family of the NLRIs
+   * @param nlris
+   *          the NLRIs to withdraw
+   * @return this batch
+   */
+  public RibBatch withdraw(final AddressFamilyKey afk, final Collection<NetworkLayerReachabilityInformation> nlris)
+  {
+    if (!nlris.isEmpty())
+    {
+      this.changes(afk).withdrawals.addAll(nlris);
+    }
+
+    return this;
+  }
+
+  /**
+   * Announce NLRIs of an address family sharing a collection of path attributes and a next hop
+   *
+   * @param afk
+   *          the address family of the NLRIs
+   * @param nlris
+   *          the NLRIs to announce
+   * @param pathAttributes
+   *          the path attributes of the routes
+   * @param nextHop
+   *          the next hop of the routes
+   * @return this batch
+   */
+  public RibBatch announce(final AddressFamilyKey afk, final Collection<NetworkLayerReachabilityInformation> nlris,
+      final Collection<PathAttribute> pathAttributes, final NextHop nextHop)
+  {
+    if (!nlris.isEmpty())
+    {
+      // intern the path attributes once, all routes of the announcement share the same bundle
+      this.changes(afk).announcements.add(new Announcement(nlris, PathAttributeSet.intern(pathAttributes), nextHop));
+    }
+
+    return this;
+  }
+
+  /**
+   * Withdraw the NLRI of a route
+   *
+   * @param route
+   *          the route to withdraw
+   * @return this batch
+   */
+  public RibBatch withdraw(final Route route)
+  {
+    this.changes(route.getAddressFamilyKey()).withdrawals.add(route.getNlri());
+
+    return this;
+  }
+
+  /**
+   * Announce a route with its path attributes and next hop
+   *
+   * @param route
+   *          the route to announce
+   * @return this batch
+   */
+  public RibBatch announce(final Route route)
+  {
+    // the path attributes of a route are interned already
+    this.changes(route.getAddressFamilyKey()).announcements.add(new Announcement(Collections.singletonList(route.getNlri()),
+        route.getPathAttributes(), route.getNextHop()));
+
+    return this;
+  }
+
+  /**
+   * @return <code>true</code> if the batch does not contain any change
+   */
+  public boolean isEmpty()
+  {
+    return this.changes.isEmpty();
+  }
+
+  /**
+   * @return the address families changed by this batch
+   */
+  public Set<AddressFamilyKey> getAddressFamilies()
+  {
+    return this.changes.keySet();
+  }
+
+  /**
+   * @return the changes of the address family or <code>null</code> if the batch does not change the address family
+   */
+  Changes getChanges(final AddressFamilyKey afk)
+  {
+    return this.changes.get(afk);
+  }
+
+  private Changes changes(final AddressFamilyKey afk)
+  {
+    Changes result = this.changes.get(afk);
+
+    if (result == null)
+    {
+      result = new Changes();
+      this.changes.put(afk, result);
+    }
+
+    return result;
+  }
+
+}
@@ -0,0 +1,169 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.RouteChange.java
+ */
+package io.netlibs.bgp.rib;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+import io.netlibs.bgp.protocol.RIBSide;
+import lombok.ToString;
+
+/**
+ * One entry of the change list a RoutingInformationBase instance hands to its listeners after applying a batch of changes.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+@ToString
+public class RouteChange
+{
+
+  public enum Type
+  {
+    ADDED,
+    WITHDRAWN
+  }
+
+  private final String peerName;
+  private final RIBSide side;
+  private final Type type;
+  private final Route route;
+
+  RouteChange(final String peerName, final RIBSide side, final Type type, final Route route)
+  {
+    this.peerName = peerName;
+    this.side = side;
+    this.type = type;
+    this.route = route;
+  }
+
+  /**
+   * @return a change reporting an added route
+   */
+  public static RouteChange added(final String peerName, final RIBSide side, final Route route)
+  {
+    return new RouteChange(peerName, side, Type.ADDED, route);
+  }
+
+  /**
+   * @return a change reporting a withdrawn route
+   */
+  public static RouteChange withdrawn(final String peerName, final RIBSide side, final Route route)
+  {
+    return new RouteChange(peerName, side, Type.WITHDRAWN, route);
+  }
+
+  /**
+   * @return the peerName
+   */
+  public String getPeerName()
+  {
+    return this.peerName;
+  }
+
+  /**
+   * @return the side
+   */
+  public RIBSide getSide()
+  {
+    return this.side;
+  }
+
+  /**
+   * @return the type
+   */
+  public Type getType()
+  {
+    return this.type;
+  }
+
+  /**
+   * @return <code>true</code> if the route has been added to the RIB, <code>false</code> if it has been withdrawn
+   */
+  public boolean isAdded()
+  {
+    return this.type == Type.ADDED;
+  }
+
+  /**
+   * @return the route
+   */
+  public Route getRoute()
+  {
+    return this.route;
+  }
+
+  /**
+   * @return the single route event equivalent to this change
+   */
+  RouteAdded toRouteAdded()
+  {
+    return new RouteAdded(this.peerName, this.side, this.route);
+  }
+
+  /**
+   * @return the single route event equivalent to this change
+   */
+  RouteWithdrawn toRouteWithdrawn()
+  {
+    return new RouteWithdrawn(this.peerName, this.side, this.route);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.lang.Object#hashCode()
+   */
+  @Override
+  public int hashCode()
+  {
+    return (new HashCodeBuilder())
+        .append(this.getType())
+        .append(this.getRoute())
+        .append(this.getPeerName())
+        .append(this.getSide())
+        .toHashCode();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.lang.Object#equals(java.lang.Object)
+   */
+  @Override
+  public boolean equals(final Object obj)
+  {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (this.getClass() != obj.getClass())
+      return false;
+
+    final RouteChange other = (RouteChange) obj;
+
+    return (new EqualsBuilder())
+        .append(this.getType(), other.getType())
+        .append(this.getRoute(), other.getRoute())
+        .append(this.getPeerName(), other.getPeerName())
+        .append(this.getSide(), other.getSide())
+        .isEquals();
+  }
+
+}
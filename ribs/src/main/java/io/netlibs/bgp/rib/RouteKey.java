@@ -0,0 +1,134 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.RouteKey.java
+ */
+package io.netlibs.bgp.rib;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.RIBSide;
+import lombok.ToString;
+
+/**
+ * Identifies the route of a prefix in one RIB: the peer, the side and the address family of the RIB plus the prefix.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+@ToString
+public final class RouteKey
+{
+
+  private final String peerName;
+  private final RIBSide side;
+  private final AddressFamilyKey addressFamilyKey;
+  private final NetworkLayerReachabilityInformation nlri;
+  private final int hash;
+
+  public RouteKey(final String peerName, final RIBSide side, final AddressFamilyKey addressFamilyKey,
+      final NetworkLayerReachabilityInformation nlri)
+  {
+    this.peerName = peerName;
+    this.side = side;
+    this.addressFamilyKey = addressFamilyKey;
+    this.nlri = nlri;
+    this.hash = (new HashCodeBuilder())
+        .append(nlri)
+        .append(addressFamilyKey)
+        .append(side)
+        .append(peerName)
+        .toHashCode();
+  }
+
+  /**
+   * @return the key of the route reported by a change
+   */
+  public static RouteKey of(final RouteChange change)
+  {
+    return new RouteKey(change.getPeerName(), change.getSide(), change.getRoute().getAddressFamilyKey(), change.getRoute().getNlri());
+  }
+
+  /**
+   * @return the peerName
+   */
+  public String getPeerName()
+  {
+    return this.peerName;
+  }
+
+  /**
+   * @return the side
+   */
+  public RIBSide getSide()
+  {
+    return this.side;
+  }
+
+  /**
+   * @return the addressFamilyKey
+   */
+  public AddressFamilyKey getAddressFamilyKey()
+  {
+    return this.addressFamilyKey;
+  }
+
+  /**
+   * @return the nlri
+   */
+  public NetworkLayerReachabilityInformation getNlri()
+  {
+    return this.nlri;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.lang.Object#hashCode()
+   */
+  @Override
+  public int hashCode()
+  {
+    return this.hash;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.lang.Object#equals(java.lang.Object)
+   */
+  @Override
+  public boolean equals(final Object obj)
+  {
+    if (this == obj)
+      return true;
+    if (!(obj instanceof RouteKey))
+      return false;
+
+    final RouteKey other = (RouteKey) obj;
+
+    return (this.hash == other.hash) && (new EqualsBuilder())
+        .append(this.nlri, other.nlri)
+        .append(this.addressFamilyKey, other.addressFamilyKey)
+        .append(this.side, other.side)
+        .append(this.peerName, other.peerName)
+        .isEquals();
+  }
+
+}
@@ -17,7 +17,15 @@
  */
 package io.netlibs.bgp.rib;
 
+import java.util.List;
+
 /**
+ * Listener notified about changes to a routing information base.
+ * 
+ * A RIB reports the changes of one mutation batch through a single call to {@link #routesChanged(List)}. The default implementation
+ * adapts the batch to one {@link #routeAdded(RouteAdded)} or {@link #routeWithdrawn(RouteWithdrawn)} call per route, so listeners only
+ * interested in single routes keep working unchanged. Listeners which can process a batch more efficiently override it.
+ * 
  * @author Rainer Bieniek (Rainer.Bieniek@web.de)
  *
  */
@@ -36,4 +44,18 @@ public interface RoutingEventListener {
 	 * @param event
 	 */
 	public void routeWithdrawn(RouteWithdrawn event);
+
+	/**
+	 * the routes of one mutation batch were changed. The withdrawals of the batch are listed before the additions.
+	 * 
+	 * @param changes
+	 */
+	public default void routesChanged(List<RouteChange> changes) {
+		for(RouteChange change : changes) {
+			if(change.isAdded())
+				routeAdded(change.toRouteAdded());
+			else
+				routeWithdrawn(change.toRouteWithdrawn());
+		}
+	}
 }
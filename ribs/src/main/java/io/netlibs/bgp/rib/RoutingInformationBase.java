@@ -17,12 +17,16 @@
  */
 package io.netlibs.bgp.rib;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
 
+import io.netlibs.bgp.protocol.AddressFamily;
 import io.netlibs.bgp.protocol.AddressFamilyKey;
 import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
 import io.netlibs.bgp.protocol.NextHop;
@@ -31,6 +35,11 @@ import io.netlibs.bgp.protocol.attributes.PathAttribute;
 import lombok.extern.slf4j.Slf4j;
 
 /**
+ * The routes of one address family received from or sent to a peer.
+ *
+ * The routes of a VPN address family are partitioned by route distinguisher, each RD has a routing tree of its own. Routes of one RD can be
+ * counted and snapshotted without touching the routes of other RDs.
+ *
  * @author Rainer Bieniek (Rainer.Bieniek@web.de)
  *
  */
@@ -43,10 +52,13 @@ public class RoutingInformationBase
   private RIBSide side;
   private AddressFamilyKey addressFamilyKey;
   private final RoutingTree routingTree = new RoutingTree();
+  // the per-RD routing trees of a VPN address family, null for other address families
+  private VpnRoutingTree vpnRoutingTree;
   // private @Inject Event<RouteAdded> routeAddedEvent;
   // private @Inject Event<RouteWithdrawn> routeWithdrawnEvent;
   private Collection<RoutingEventListener> listeners;
-  private final List<RoutingEventListener> perRibListeners = Collections.synchronizedList(new LinkedList<RoutingEventListener>());
+  // listeners are registered rarely but notified for every batch, so they are kept in copy-on-write lists iterated without locking
+  private final List<RoutingEventListener> perRibListeners = new CopyOnWriteArrayList<RoutingEventListener>();
   private final UUID ribID = UUID.randomUUID();
 
   RoutingInformationBase()
@@ -102,10 +114,16 @@ public class RoutingInformationBase
   void setAddressFamilyKey(final AddressFamilyKey addressFamilyKey)
   {
     this.addressFamilyKey = addressFamilyKey;
+    this.vpnRoutingTree = (NlriView.headerOctets(addressFamilyKey) > NlriView.labelOctets(addressFamilyKey)) ? new VpnRoutingTree() : null;
   }
 
   void destroyRIB()
   {
+    if (this.vpnRoutingTree != null)
+    {
+      this.vpnRoutingTree.destroy();
+    }
+
     this.routingTree.destroy();
   }
 
@@ -118,32 +136,7 @@ public class RoutingInformationBase
 
   public void addRoutes(final Collection<NetworkLayerReachabilityInformation> nlris, final Collection<PathAttribute> pathAttributes, final NextHop nextHop)
   {
-
-    for (final NetworkLayerReachabilityInformation nlri : nlris)
-    {
-
-      final Route route = new Route(this.getRibID(), this.getAddressFamilyKey(), nlri, pathAttributes, nextHop);
-
-      if (this.routingTree.addRoute(route))
-      {
-        final RouteAdded event = new RouteAdded(this.getPeerName(), this.getSide(), route);
-
-        // System.err.println(event);
-        // this.routeAddedEvent.fire(event);
-
-        if (this.listeners != null)
-        {
-          for (final RoutingEventListener listener : this.listeners)
-          {
-            listener.routeAdded(event);
-          }
-        }
-        for (final RoutingEventListener listener : this.perRibListeners)
-        {
-          listener.routeAdded(event);
-        }
-      }
-    }
+    this.apply(new RibBatch().announce(this.getAddressFamilyKey(), nlris, pathAttributes, nextHop));
   }
 
   /**
@@ -154,41 +147,81 @@ public class RoutingInformationBase
    */
   public void withdrawRoutes(final Collection<NetworkLayerReachabilityInformation> nlris)
   {
+    this.apply(new RibBatch().withdraw(this.getAddressFamilyKey(), nlris));
+  }
 
-    for (final NetworkLayerReachabilityInformation nlri : nlris)
+  /**
+   * Apply the changes of a batch for the address family of this RIB. The withdrawals are applied before the announcements, all changes are
+   * applied under one lock acquisition and become visible at once. The listeners are notified after the changes have been applied.
+   *
+   * @param batch
+   *          the batch to apply
+   */
+
+  public void apply(final RibBatch batch)
+  {
+    final RibBatch.Changes changes = batch.getChanges(this.getAddressFamilyKey());
+
+    if (changes == null)
     {
+      return;
+    }
 
+    final List<Route> withdrawals = new ArrayList<Route>(changes.getWithdrawals().size());
+    final List<Route> additions = new ArrayList<Route>();
+
+    for (final NetworkLayerReachabilityInformation nlri : changes.getWithdrawals())
+    {
       final Route route = new Route(this.getRibID(), this.getAddressFamilyKey(), nlri, null, null);
 
       log.debug("Withdrawing {}", route);
 
-      if (this.routingTree.withdrawRoute(route))
+      withdrawals.add(route);
+    }
+
+    for (final RibBatch.Announcement announcement : changes.getAnnouncements())
+    {
+      for (final NetworkLayerReachabilityInformation nlri : announcement.getNlris())
       {
+        additions.add(new Route(this.getRibID(), this.getAddressFamilyKey(), nlri, announcement.getPathAttributes(), announcement.getNextHop()));
+      }
+    }
 
-        final RouteWithdrawn event = new RouteWithdrawn(this.getPeerName(), this.getSide(), route);
+    final List<Route> withdrawn = (this.vpnRoutingTree != null) ? this.vpnRoutingTree.applyBatch(withdrawals, additions)
+        : this.routingTree.applyBatch(withdrawals, additions);
 
-        // this.routeWithdrawnEvent.fire(event);
+    if (withdrawn.size() < withdrawals.size())
+    {
+      // the withdrawn routes are a subsequence of the requested withdrawals
+      final Iterator<Route> found = withdrawn.iterator();
+      Route next = found.hasNext() ? found.next() : null;
 
-        if (this.listeners != null)
+      for (final Route route : withdrawals)
+      {
+        if (route == next)
         {
-          for (final RoutingEventListener listener : this.listeners)
-          {
-            listener.routeWithdrawn(event);
-          }
+          next = found.hasNext() ? found.next() : null;
         }
-
-        for (final RoutingEventListener listener : this.perRibListeners)
+        else
         {
-          listener.routeWithdrawn(event);
+          log.warn("error: received withdrawn for unknown NLRI: {}", route);
         }
-
-      }
-      else
-      {
-        log.warn("error: received withdrawn for unknown NLRI: {}", route);
       }
+    }
+
+    final List<RouteChange> routeChanges = new ArrayList<RouteChange>(withdrawn.size() + additions.size());
+
+    for (final Route route : withdrawn)
+    {
+      routeChanges.add(RouteChange.withdrawn(this.getPeerName(), this.getSide(), route));
+    }
 
+    for (final Route route : additions)
+    {
+      routeChanges.add(RouteChange.added(this.getPeerName(), this.getSide(), route));
     }
+
+    this.fireRoutesChanged(routeChanges);
   }
 
   /**
@@ -201,18 +234,145 @@ public class RoutingInformationBase
 
   public LookupResult lookupRoute(final NetworkLayerReachabilityInformation nlri)
   {
-    return this.routingTree.lookupRoute(nlri);
+    if (this.vpnRoutingTree != null)
+    {
+      return this.vpnRoutingTree.lookupRoute(this.getAddressFamilyKey(), nlri);
+    }
+
+    return this.routingTree.lookupRoute(this.getAddressFamilyKey(), nlri);
+  }
+
+  /**
+   * Lookup a route of an IPv4 unicast or multicast RIB by a prefix key. The lookup walks the routing tree without converting the prefix.
+   *
+   * @param prefix
+   *          prefix to look up
+   * @return the result or <code>null</code> if no result can be found.
+   */
+
+  public LookupResult lookupRoute(final IPv4PrefixKey prefix)
+  {
+    this.checkPrefixFamily(AddressFamily.IPv4);
+
+    return RoutingTree.lookupRoute(this.routingTree.getRootNode(), prefix.toTreeKey());
+  }
+
+  /**
+   * Lookup a route of an IPv6 unicast or multicast RIB by a prefix key. The lookup walks the routing tree without converting the prefix.
+   *
+   * @param prefix
+   *          prefix to look up
+   * @return the result or <code>null</code> if no result can be found.
+   */
+
+  public LookupResult lookupRoute(final IPv6PrefixKey prefix)
+  {
+    this.checkPrefixFamily(AddressFamily.IPv6);
+
+    return RoutingTree.lookupRoute(this.routingTree.getRootNode(), prefix.toTreeKey());
+  }
+
+  private void checkPrefixFamily(final AddressFamily afi)
+  {
+    if ((this.getAddressFamilyKey().getAddressFamily() != afi) || (RoutingTree.keyOffset(this.getAddressFamilyKey()) != 0))
+    {
+      throw new IllegalArgumentException("cannot look up " + afi + " prefix in RIB of address family " + this.getAddressFamilyKey());
+    }
   }
 
   /**
-   * Visit all nodes in the routing tree
+   * Visit all nodes in the routing tree. The visit works on a snapshot of the RIB taken when the visit starts.
    *
    * @param visitor
    */
 
   public void visitRoutingNodes(final RoutingInformationBaseVisitor visitor)
   {
-    this.routingTree.visitTree(route -> visitor.visitRouteNode(RoutingInformationBase.this.getPeerName(), RoutingInformationBase.this.getSide(), route));
+    this.snapshot().visitRoutingNodes(visitor);
+  }
+
+  /**
+   * Take an immutable point-in-time view of the RIB. Taking the snapshot is cheap and the snapshot is not affected by later changes.
+   *
+   * @return the snapshot
+   */
+
+  public RoutingInformationBaseSnapshot snapshot()
+  {
+    if (this.vpnRoutingTree != null)
+    {
+      return new RoutingInformationBaseSnapshot(this, this.vpnRoutingTree.getPartitions());
+    }
+
+    return new RoutingInformationBaseSnapshot(this, this.routingTree.getRootNode());
+  }
+
+  /**
+   * Take an immutable point-in-time view of the routes of one route distinguisher of a VPN RIB. Only the routing tree of the RD is touched.
+   *
+   * @param routeDistinguisher
+   *          the route distinguisher as 64 bit value, type and value as encoded in the NLRI
+   * @return the snapshot, empty if the RD holds no routes
+   */
+
+  public RoutingInformationBaseSnapshot snapshot(final long routeDistinguisher)
+  {
+    return new RoutingInformationBaseSnapshot(this, this.vpnRoutingTree().getPartition(routeDistinguisher));
+  }
+
+  /**
+   * @return the route distinguishers holding routes in a VPN RIB, in ascending order. Empty for RIBs of other address families
+   */
+
+  public List<Long> getRouteDistinguishers()
+  {
+    return (this.vpnRoutingTree != null) ? this.vpnRoutingTree.getRouteDistinguishers() : Collections.<Long> emptyList();
+  }
+
+  /**
+   * Count the routes of one route distinguisher of a VPN RIB. The count is kept up to date by the routing tree of the RD.
+   *
+   * @param routeDistinguisher
+   *          the route distinguisher as 64 bit value, type and value as encoded in the NLRI
+   * @return the number of routes
+   */
+
+  public int countRoutes(final long routeDistinguisher)
+  {
+    return this.snapshot(routeDistinguisher).size();
+  }
+
+  private VpnRoutingTree vpnRoutingTree()
+  {
+    if (this.vpnRoutingTree == null)
+    {
+      throw new IllegalStateException("RIB of address family " + this.getAddressFamilyKey() + " is not partitioned by route distinguisher");
+    }
+
+    return this.vpnRoutingTree;
+  }
+
+  /**
+   * Stream the routes of the RIB in tree order. The stream works on a snapshot of the RIB taken when this method is called.
+   *
+   * @return a sequential stream of the routes
+   */
+
+  public Stream<Route> stream()
+  {
+    return this.snapshot().stream();
+  }
+
+  /**
+   * Stream the routes of the RIB in parallel. The stream works on a snapshot of the RIB taken when this method is called and is split along
+   * the subtrees of the routing tree.
+   *
+   * @return a parallel stream of the routes
+   */
+
+  public Stream<Route> parallelStream()
+  {
+    return this.snapshot().parallelStream();
   }
 
   /**
@@ -264,26 +424,9 @@ public class RoutingInformationBase
       route = new Route(this.getRibID(), route.getAddressFamilyKey(), route.getNlri(), route.getPathAttributes(), route.getNextHop());
     }
 
-    if (this.routingTree.addRoute(route))
+    if ((this.vpnRoutingTree != null) ? this.vpnRoutingTree.addRoute(route) : this.routingTree.addRoute(route))
     {
-
-      final RouteAdded event = new RouteAdded(this.getPeerName(), this.getSide(), route);
-
-      // this.routeAddedEvent.fire(event);
-
-      if (this.listeners != null)
-      {
-        for (final RoutingEventListener listener : this.listeners)
-        {
-          listener.routeAdded(event);
-        }
-      }
-
-      for (final RoutingEventListener listener : this.perRibListeners)
-      {
-        listener.routeAdded(event);
-      }
-
+      this.fireRoutesChanged(Collections.singletonList(RouteChange.added(this.getPeerName(), this.getSide(), route)));
     }
   }
 
@@ -299,28 +442,34 @@ public class RoutingInformationBase
       route = new Route(this.getRibID(), route.getAddressFamilyKey(), route.getNlri(), route.getPathAttributes(), route.getNextHop());
     }
 
-    if (this.routingTree.withdrawRoute(route))
+    if ((this.vpnRoutingTree != null) ? this.vpnRoutingTree.withdrawRoute(route) : this.routingTree.withdrawRoute(route))
     {
+      this.fireRoutesChanged(Collections.singletonList(RouteChange.withdrawn(this.getPeerName(), this.getSide(), route)));
+    }
 
-      final RouteWithdrawn event = new RouteWithdrawn(this.getPeerName(), this.getSide(), route);
+  }
 
-      // this.routeWithdrawnEvent.fire(event);
+  private void fireRoutesChanged(final List<RouteChange> changes)
+  {
+    if (changes.isEmpty())
+    {
+      return;
+    }
 
-      if (this.listeners != null)
-      {
-        for (final RoutingEventListener listener : this.listeners)
-        {
-          listener.routeWithdrawn(event);
-        }
-      }
+    final List<RouteChange> immutableChanges = Collections.unmodifiableList(changes);
 
-      for (final RoutingEventListener listener : this.perRibListeners)
+    if (this.listeners != null)
+    {
+      for (final RoutingEventListener listener : this.listeners)
       {
-        listener.routeWithdrawn(event);
+        listener.routesChanged(immutableChanges);
       }
-
     }
 
+    for (final RoutingEventListener listener : this.perRibListeners)
+    {
+      listener.routesChanged(immutableChanges);
+    }
   }
 
 }
@@ -0,0 +1,232 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.RoutingInformationBaseSnapshot.java
+ */
+package io.netlibs.bgp.rib;
+
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.RIBSide;
+
+/**
+ * Immutable point-in-time view of a routing information base.
+ *
+ * Taking a snapshot costs O(1): the snapshot holds on to the version of the routing tree which was current when it was taken, and
+ * structural sharing keeps later changes to the RIB from touching it. A snapshot therefore can be iterated, streamed and looked up for as
+ * long as needed without blocking route processing, and it never exposes a partially applied change.
+ *
+ * A snapshot of a VPN RIB holds the versions of the per-RD routing trees, in ascending RD order. Its routes are iterated in the same order as
+ * an unpartitioned tree would, lookups only descend into the tree of the RD of the prefix.
+ *
+ * Streams split the routes along the subtrees of the routing tree. Since every node of the tree knows the number of routes below it, the
+ * splits are exact and balanced, so a parallel stream spreads an analysis of a large RIB evenly over the fork/join pool.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+public class RoutingInformationBaseSnapshot implements Iterable<Route>
+{
+
+  private final String peerName;
+  private final RIBSide side;
+  private final AddressFamilyKey addressFamilyKey;
+  private final UUID ribID;
+  // the route distinguishers of the root nodes, null if the routes are not partitioned by RD
+  private final long[] routeDistinguishers;
+  private final RoutingTree.RoutingTreeNode[] rootNodes;
+  private final int size;
+
+  RoutingInformationBaseSnapshot(final RoutingInformationBase rib, final RoutingTree.RoutingTreeNode rootNode)
+  {
+    this(rib, null, new RoutingTree.RoutingTreeNode[] { rootNode });
+  }
+
+  RoutingInformationBaseSnapshot(final RoutingInformationBase rib, final VpnRoutingTree.Partitions partitions)
+  {
+    this(rib, partitions.getRouteDistinguishers(), partitions.getRootNodes());
+  }
+
+  private RoutingInformationBaseSnapshot(final RoutingInformationBase rib, final long[] routeDistinguishers,
+      final RoutingTree.RoutingTreeNode[] rootNodes)
+  {
+    int size = 0;
+
+    for (final RoutingTree.RoutingTreeNode rootNode : rootNodes)
+    {
+      size += rootNode.getCount();
+    }
+
+    this.peerName = rib.getPeerName();
+    this.side = rib.getSide();
+    this.addressFamilyKey = rib.getAddressFamilyKey();
+    this.ribID = rib.getRibID();
+    this.routeDistinguishers = routeDistinguishers;
+    this.rootNodes = rootNodes;
+    this.size = size;
+  }
+
+  /**
+   * @return the peerName
+   */
+  public String getPeerName()
+  {
+    return this.peerName;
+  }
+
+  /**
+   * @return the side
+   */
+  public RIBSide getSide()
+  {
+    return this.side;
+  }
+
+  /**
+   * @return the addressFamilyKey
+   */
+  public AddressFamilyKey getAddressFamilyKey()
+  {
+    return this.addressFamilyKey;
+  }
+
+  /**
+   * @return the ID of the RIB the snapshot has been taken from
+   */
+  public UUID getRibID()
+  {
+    return this.ribID;
+  }
+
+  /**
+   * @return <code>true</code> if the RIB held no routes when the snapshot was taken
+   */
+  public boolean isEmpty()
+  {
+    return (this.size == 0);
+  }
+
+  /**
+   * @return the number of routes the RIB held when the snapshot was taken
+   */
+  public int size()
+  {
+    return this.size;
+  }
+
+  /**
+   * Lookup a route by a NLRI prefix. The lookup process may result in a specific, less specific route or no route at all
+   *
+   * @param nlri
+   *          prefix to look up
+   * @return the result or <code>null</code> if no result can be found.
+   */
+  public LookupResult lookupRoute(final NetworkLayerReachabilityInformation nlri)
+  {
+    if (this.routeDistinguishers == null)
+    {
+      return RoutingTree.lookupRoute(this.rootNodes[0], this.addressFamilyKey, nlri, false);
+    }
+
+    final long routeDistinguisher = NlriView.of(this.addressFamilyKey, nlri).getRouteDistinguisher();
+    int low = 0;
+    int high = this.routeDistinguishers.length - 1;
+
+    while (low <= high)
+    {
+      final int middle = (low + high) >>> 1;
+      final int order = Long.compareUnsigned(this.routeDistinguishers[middle], routeDistinguisher);
+
+      if (order == 0)
+      {
+        return RoutingTree.lookupRoute(this.rootNodes[middle], this.addressFamilyKey, nlri, true);
+      }
+      else if (order < 0)
+      {
+        low = middle + 1;
+      }
+      else
+      {
+        high = middle - 1;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * @return the route distinguishers holding routes when the snapshot was taken, in ascending order. Empty if the RIB is not a VPN RIB
+   */
+  public long[] getRouteDistinguishers()
+  {
+    return (this.routeDistinguishers != null) ? this.routeDistinguishers.clone() : new long[0];
+  }
+
+  /**
+   * Visit all routes of the snapshot
+   *
+   * @param visitor
+   */
+  public void visitRoutingNodes(final RoutingInformationBaseVisitor visitor)
+  {
+    for (final RoutingTree.RoutingTreeNode rootNode : this.rootNodes)
+    {
+      RoutingTree.visitTree(rootNode, route -> visitor.visitRouteNode(this.peerName, this.side, route));
+    }
+  }
+
+  /**
+   * iterate the routes in tree order: less specific prefixes before more specific ones, siblings in ascending prefix order
+   */
+  @Override
+  public Iterator<Route> iterator()
+  {
+    return new RoutingTree.RouteIterator(this.rootNodes);
+  }
+
+  /**
+   * split the routes along the subtrees of the trie, into parts of about the same number of routes
+   */
+  @Override
+  public Spliterator<Route> spliterator()
+  {
+    return new RoutingTree.RouteSpliterator(this.rootNodes);
+  }
+
+  /**
+   * @return a sequential stream of the routes in tree order
+   */
+  public Stream<Route> stream()
+  {
+    return StreamSupport.stream(this.spliterator(), false);
+  }
+
+  /**
+   * @return a parallel stream of the routes. The stream is ordered, operations which do not depend on the order should call
+   *         {@link Stream#unordered()}
+   */
+  public Stream<Route> parallelStream()
+  {
+    return StreamSupport.stream(this.spliterator(), true);
+  }
+
+}
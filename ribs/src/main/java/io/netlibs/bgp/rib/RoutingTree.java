@@ -17,14 +17,37 @@
  */
 package io.netlibs.bgp.rib;
 
-import java.util.NavigableSet;
-import java.util.TreeSet;
-
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import io.netlibs.bgp.protocol.AddressFamilyKey;
 import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
 
 /**
- * This class builds and manages a tree of (NLRI, Path attributes) tuples. The tree is build top-down whereas the parent node always
- * contains more coarse-grained routing information than the child nodes.
+ * This class builds and manages a tree of (NLRI, Path attributes) tuples. The tree is a path-compressed binary (patricia) trie keyed on the
+ * prefix bits of the NLRI, so a parent node always contains more coarse-grained routing information than its child nodes.
+ *
+ * Adding, withdrawing and looking up a route costs O(prefix length), independent of the number of routes held in the tree.
+ * The keys are held in 64 bit words inside the nodes, so matching a node key costs a few masked word operations instead of a loop over
+ * the prefix bits.
+ *
+ * Published nodes are immutable. A change copies the nodes on the path from the root to the changed node and publishes the new root with a
+ * single volatile write, all other nodes are shared with the previous version of the tree. Writers are serialized on the tree, lookups and
+ * visits never take a lock: they work on the version of the tree published when they started and are not affected by concurrent changes.
+ *
+ * A batch of changes is applied as one edit: nodes copied by the edit are owned by it and modified in place by later changes of the same
+ * edit, so the upper levels of the tree are copied once per batch instead of once per route. The result is published once at the end.
+ *
+ * For labelled address families the leading MPLS label is not part of the key, so routes which only differ in their label are treated as
+ * the same prefix. For VPN address families the route distinguisher is the leading part of the key, therefore routes of different RDs never
+ * share a branch below the RD. A partitioned tree holds the routes of a single RD only, its keys start after the route distinguisher.
  *
  * @author Rainer Bieniek (Rainer.Bieniek@web.de)
  *
@@ -34,299 +57,880 @@ class RoutingTree
 {
 
   /**
-   * Internal node of the routing tree. The discriminating fact is the NLRI attached to the node. Therefore the ordering of the tree nodes
-   * is based solely on NLRI ordering.
+   * Internal node of the routing tree. A node is either a route node carrying a (NLRI, Path attributes) tuple or a glue node without a
+   * route which only exists to split the tree where two or more prefixes diverge.
+   *
+   * The key of a node are the first <code>length</code> bits of the trie key of the NLRI which created the node, held in 64 bit words.
    *
    * @author Rainer Bieniek (Rainer.Bieniek@web.de)
    *
    */
 
-  class RoutingTreeNode implements Comparable<RoutingTreeNode>
+  static final class RoutingTreeNode
   {
-    private final Route route;
-    private final NavigableSet<RoutingTreeNode> childNodes = new TreeSet<RoutingTree.RoutingTreeNode>();
-
-    public RoutingTreeNode(final Route route)
+    private final long high;
+    private final long low;
+    // the key words beyond the first 128 bits, only present if the key of the NLRI which created the node is longer
+    private final long[] tail;
+    private final int length;
+    // the edit which created the node. Only that edit may modify the node, and only until the edit has been published
+    private final Edit owner;
+    private Route route;
+    private RoutingTreeNode left;
+    private RoutingTreeNode right;
+    // the number of routes in the subtree starting at this node
+    private int count;
+
+    private RoutingTreeNode(final long high, final long low, final long[] tail, final int length, final Route route,
+        final RoutingTreeNode left, final RoutingTreeNode right, final Edit owner)
     {
+      this.high = high;
+      this.low = low;
+      this.tail = tail;
+      this.length = length;
       this.route = route;
+      this.left = left;
+      this.right = right;
+      this.owner = owner;
+      this.recount();
     }
 
-    @Override
-    public int compareTo(final RoutingTreeNode o)
+    RoutingTreeNode(final Key key, final int length, final Route route, final RoutingTreeNode left, final RoutingTreeNode right,
+        final Edit owner)
     {
-      if (this.route.getNlri() == null)
-      {
-        if (o.getRoute().getNlri() == null)
-        {
-          return 0;
-        }
-        return o.getRoute().getNlri().compareTo(null);
-      }
-      return this.route.getNlri().compareTo(o.getRoute().getNlri());
+      this(key.high, key.low, key.tail, length, route, left, right, owner);
     }
 
-    @Override
-    public int hashCode()
+    RoutingTreeNode(final Key key, final int length, final Route route, final Edit owner)
     {
-      return this.route.getNlri().hashCode();
+      this(key, length, route, null, null, owner);
     }
 
-    @Override
-    public boolean equals(final Object o)
+    /**
+     * @return the route or <code>null</code> if this is a glue node
+     */
+    Route getRoute()
     {
-      if (!(o instanceof RoutingTreeNode))
-      {
-        return false;
-      }
+      return this.route;
+    }
 
-      return this.route.getNlri().equals(((RoutingTreeNode) o).getRoute().getNlri());
+    /**
+     * @return the child node on the zero branch
+     */
+    RoutingTreeNode getLeft()
+    {
+      return this.left;
     }
 
     /**
-     * @return the childNodes
+     * @return the child node on the one branch
      */
-    NavigableSet<RoutingTreeNode> getChildNodes()
+    RoutingTreeNode getRight()
     {
-      return this.childNodes;
+      return this.right;
     }
 
     /**
-     * @return the route
+     * @return the number of routes carried by this node and its descendants
      */
-    public Route getRoute()
+    int getCount()
     {
-      return this.route;
+      return this.count;
+    }
+
+    private void recount()
+    {
+      this.count = ((this.route != null) ? 1 : 0)
+          + ((this.left != null) ? this.left.count : 0)
+          + ((this.right != null) ? this.right.count : 0);
+    }
+
+    int bit(final int index)
+    {
+      return RoutingTree.bit(this.high, this.low, this.tail, index);
+    }
+
+    RoutingTreeNode child(final int bit)
+    {
+      return (bit == 0) ? this.left : this.right;
+    }
+
+    /**
+     * @return this node carrying the given route if it is owned by the edit, a copy owned by the edit otherwise
+     */
+    RoutingTreeNode withRoute(final Route route, final Edit edit)
+    {
+      if (this.owner == edit)
+      {
+        this.route = route;
+        this.recount();
+        return this;
+      }
+
+      return new RoutingTreeNode(this.high, this.low, this.tail, this.length, route, this.left, this.right, edit);
+    }
+
+    /**
+     * @return this node with the child on the given branch replaced if it is owned by the edit, a copy owned by the edit otherwise
+     */
+    RoutingTreeNode withChild(final int bit, final RoutingTreeNode child, final Edit edit)
+    {
+      final RoutingTreeNode node = (this.owner == edit) ? this
+          : new RoutingTreeNode(this.high, this.low, this.tail, this.length, this.route, this.left, this.right, edit);
+
+      if (bit == 0)
+      {
+        node.left = child;
+      }
+      else
+      {
+        node.right = child;
+      }
+
+      node.recount();
+
+      return node;
     }
   }
 
-  // the root of all nodes managed by this routing tree. This is the only node w/o a (NLRI prefix, Path attributes) tuple attached to it
-  private final RoutingTreeNode rootNode = new RoutingTreeNode(null);
+  /**
+   * A set of changes applied to the tree and published as one new version.
+   */
+  static final class Edit
+  {
+    // set if the last withdrawal of the edit found its route
+    private boolean withdrawn;
+  }
+
+  // the root of all nodes managed by this routing tree. It has a zero length key and carries a route only if a default route is present
+  private static final RoutingTreeNode EMPTY_ROOT = new RoutingTreeNode(0, 0, null, 0, null, null, null, null);
+
+  // the current version of the tree. Only written while holding the lock on the tree
+  private volatile RoutingTreeNode rootNode = EMPTY_ROOT;
+
+  // set if the tree holds the routes of a single route distinguisher, the keys then skip the route distinguisher
+  private final boolean partitioned;
+
+  RoutingTree()
+  {
+    this(false);
+  }
+
+  RoutingTree(final boolean partitioned)
+  {
+    this.partitioned = partitioned;
+  }
 
   /**
    * Destroy the routing tree and delete all information held within.
    */
-  void destroy()
+  synchronized void destroy()
   {
-    this.rootNode.getChildNodes().clear();
+    this.rootNode = EMPTY_ROOT;
   }
 
   /**
-   * Add a (NLRI, Path attributes) tuple to the tree
+   * Add a (NLRI, Path attributes) tuple to the tree. The rules for this process are as follows:
+   * <ol>
+   * <li>Descend the tree as long as the node key is a prefix of the NLRI key</li>
+   * <li>If a node key equals the NLRI key, the route of the node is replaced</li>
+   * <li>If there is no child on the next bit of the NLRI key, the new node is attached as child</li>
+   * <li>If a child node key and the NLRI key diverge, the new node either becomes the parent of the child node or both become children of a
+   * new glue node holding the common prefix</li>
+   * </ol>
    *
-   * @param nlri
-   *          the NLRI prefix to be added
-   * @param pathAttributes
-   *          the path attributes belonging to this prefix
+   * @param route
+   *          the route to be added
    * @return <code>true<code> if the node was added, <code>false</code> if the node was not added
    */
   synchronized boolean addRoute(final Route route)
   {
-    return this.addRoute(this.rootNode, new RoutingTreeNode(route));
+    this.rootNode = add(this.rootNode, this.key(route), route, new Edit());
+
+    return true;
   }
 
   /**
-   * Add a new node to a parent routing tree node. The rules for this process are as follows:
-   * <ol>
-   * <li>If a child node NLRI prefix is less specific than the NLRI prefix of the new node, recursively descend with the child node as the
-   * new parent node</li>
-   * <li>If the new node NLRI prefix is less specific than one or more child node NLRI prefixes, add the new node and reparent the child
-   * nodes to the new node</li>
-   * <li>If a child node NLRI prefix equals the new node NLRI prefix, then the path attributes are replaced</li>
-   * <li>If neither of the conditions above holds true then simply add the new node to the parent.</li>
-   * </ol>
+   * Withdraw the (NLRI, Path attributes) tuple from the tree. If the route node still has two children, it is kept as glue node. Otherwise
+   * it is removed and a remaining single child is pulled up to the parent. A glue node left with a single child is collapsed the same way.
    *
-   * @param parent
-   * @param newNode
-   * @return
+   * @param route
+   *          the route carrying the NLRI prefix to withdraw
+   * @return <code>true</code> if the node was removed, <code>false</code> otherwise
    */
-  private boolean addRoute(final RoutingTreeNode parent, final RoutingTreeNode newNode)
+
+  synchronized boolean withdrawRoute(final Route route)
   {
-    boolean added = false;
-    boolean handled = false;
-    final NavigableSet<RoutingTreeNode> reparentedNodes = new TreeSet<RoutingTree.RoutingTreeNode>();
+    final Edit edit = new Edit();
+    final RoutingTreeNode newRoot = withdraw(this.rootNode, this.key(route), edit);
 
-    for (final RoutingTreeNode child : parent.getChildNodes())
+    if (!edit.withdrawn)
     {
-      if (child.getRoute().getNlri().equals(newNode.getRoute().getNlri()))
-      {
-        // we have an exact match on the NLRI preifxes --> just replace the path attributes but signal as addition
-        child.getRoute().getPathAttributes().clear();
-        child.getRoute().getPathAttributes().addAll(newNode.getRoute().getPathAttributes());
+      return false;
+    }
 
-        handled = true;
-        added = true;
-        break;
+    this.rootNode = newRoot;
+
+    return true;
+  }
+
+  /**
+   * Apply a batch of withdrawals and additions as one change. All withdrawals are applied before the additions, the new version of the
+   * tree is published after the last change. Readers either see none or all of the changes.
+   *
+   * @param withdrawals
+   *          the routes carrying the NLRI prefixes to withdraw
+   * @param additions
+   *          the routes to add
+   * @return the withdrawals which removed a route from the tree
+   */
+
+  synchronized List<Route> applyBatch(final Collection<Route> withdrawals, final Collection<Route> additions)
+  {
+    final Edit edit = new Edit();
+    final List<Route> withdrawn = new ArrayList<Route>(withdrawals.size());
+    RoutingTreeNode root = this.rootNode;
+
+    for (final Route route : withdrawals)
+    {
+      edit.withdrawn = false;
+      root = withdraw(root, this.key(route), edit);
+
+      if (edit.withdrawn)
+      {
+        withdrawn.add(route);
       }
-      else if (NlriComparator.isPrefixOf(child.getRoute(), newNode.getRoute()))
+    }
+
+    for (final Route route : additions)
+    {
+      root = add(root, this.key(route), route, edit);
+    }
+
+    this.rootNode = root;
+
+    return withdrawn;
+  }
+
+  /**
+   * recursively descend into the tree
+   *
+   * @param visitor
+   */
+  void visitTree(final RoutingTreeVisitor visitor)
+  {
+    visitTree(this.rootNode, visitor);
+  }
+
+  /**
+   * @return the root node of the current version of the tree. The version stays unchanged, no matter what is done to the tree afterwards
+   */
+  RoutingTreeNode getRootNode()
+  {
+    return this.rootNode;
+  }
+
+  /**
+   * Lookup the most specific route covering the given NLRI prefix.
+   *
+   * @param afk
+   *          the address family of the NLRI
+   * @param nlri
+   *          the NLRI prefix to look up
+   * @return the exact or less specific match or <code>null</code> if no route covers the prefix
+   */
+
+  LookupResult lookupRoute(final AddressFamilyKey afk, final NetworkLayerReachabilityInformation nlri)
+  {
+    return lookupRoute(this.rootNode, new Key(nlri, keyOffset(afk, this.partitioned)));
+  }
+
+  /**
+   * Lookup the most specific route covering the given NLRI prefix in the version of the tree starting at the given root node.
+   */
+
+  static LookupResult lookupRoute(final RoutingTreeNode rootNode, final AddressFamilyKey afk, final NetworkLayerReachabilityInformation nlri,
+      final boolean partitioned)
+  {
+    return lookupRoute(rootNode, new Key(nlri, keyOffset(afk, partitioned)));
+  }
+
+  /**
+   * Lookup the most specific route covering the given trie key in the version of the tree starting at the given root node.
+   */
+
+  static LookupResult lookupRoute(final RoutingTreeNode rootNode, final Key key)
+  {
+    RoutingTreeNode node = rootNode;
+    Route match = node.route;
+
+    while (node.length < key.length)
+    {
+      node = node.child(key.bit(node.length));
+
+      if ((node == null) || (node.length > key.length) || (commonPrefixLength(node, key, node.length) < node.length))
       {
-        // a child node has more coarse-grained routing info attached --> make this child node parent of the new node
-        added = this.addRoute(child, newNode);
-        handled = true;
         break;
       }
-      else if (NlriComparator.isPrefixOf(newNode.getRoute(), child.getRoute()))
+
+      if (node.route != null)
       {
-        // the new node has more coarse-grained routing info attached --> the child must be reparented to the new node.
-        reparentedNodes.add(child);
+        match = node.route;
       }
     }
 
-    if (!handled)
+    return (match != null) ? new LookupResult(match) : null;
+  }
+
+  /**
+   * copy the path from the given node down to the position of the key and attach the route there.
+   *
+   * @return the copy of the node
+   */
+  private static RoutingTreeNode add(final RoutingTreeNode node, final Key key, final Route route, final Edit edit)
+  {
+    final int length = key.length;
+
+    if (node.length == length)
     {
-      parent.getChildNodes().add(newNode);
-      added = true;
+      // we have an exact match on the NLRI prefixes --> replace the route but signal as addition
+      return node.withRoute(route, edit);
+    }
 
-      // we have nodes that need to be reparented to the new node
-      if (reparentedNodes.size() > 0)
-      {
-        newNode.getChildNodes().addAll(reparentedNodes);
-        parent.getChildNodes().removeAll(reparentedNodes);
-      }
+    final int bit = key.bit(node.length);
+    final RoutingTreeNode child = node.child(bit);
+
+    if (child == null)
+    {
+      return node.withChild(bit, new RoutingTreeNode(key, length, route, edit), edit);
     }
 
-    return added;
+    final int common = commonPrefixLength(child, key, Math.min(child.length, length));
+
+    if (common == child.length)
+    {
+      // the child node has more coarse-grained routing info attached --> descend
+      return node.withChild(bit, add(child, key, route, edit), edit);
+    }
+
+    if (common == length)
+    {
+      // the new node has more coarse-grained routing info attached --> the child is reparented to the new node
+      return node.withChild(bit, new RoutingTreeNode(key, length, route, edit).withChild(child.bit(length), child, edit), edit);
+    }
+
+    // the prefixes diverge --> introduce a glue node carrying the common prefix
+    final RoutingTreeNode newNode = new RoutingTreeNode(key, length, route, edit);
+    final RoutingTreeNode glue = (child.bit(common) == 0)
+        ? new RoutingTreeNode(key, common, null, child, newNode, edit)
+        : new RoutingTreeNode(key, common, null, newNode, child, edit);
+
+    return node.withChild(bit, glue, edit);
   }
 
   /**
-   * Withdraw the (NLRI, Path attributes) tuple from the tree.
+   * copy the path from the given node down to the route node of the key, leaving the route node out. The withdrawn flag of the edit is set
+   * if the route has been found.
    *
-   * @param nlri
-   *          the NLRI prefix to withdraw
-   * @return <code>true</code> if the node was removed, <code>false</code> otherwise
+   * @return the copy of the node, <code>null</code> if the node itself has been removed or the node itself if the key has not been found
    */
-
-  synchronized boolean withdrawRoute(final Route route)
+  private static RoutingTreeNode withdraw(final RoutingTreeNode node, final Key key, final Edit edit)
   {
-    return this.withdrawRoute(this.rootNode, route);
+    final int length = key.length;
+
+    if (node.length == length)
+    {
+      if (node.route == null)
+      {
+        return node;
+      }
+
+      edit.withdrawn = true;
+
+      if ((node.length == 0) || ((node.left != null) && (node.right != null)))
+      {
+        // the root node or a node with two children stays in place as glue node
+        return node.withRoute(null, edit);
+      }
+
+      return (node.left != null) ? node.left : node.right;
+    }
+
+    final int bit = key.bit(node.length);
+    final RoutingTreeNode child = node.child(bit);
+
+    if ((child == null) || (child.length > length) || (commonPrefixLength(child, key, child.length) < child.length))
+    {
+      return node;
+    }
+
+    final RoutingTreeNode newChild = withdraw(child, key, edit);
+
+    if (!edit.withdrawn)
+    {
+      return node;
+    }
+
+    if ((newChild == null) && (node.route == null) && (node.length > 0))
+    {
+      // the glue node is left with a single child --> collapse it as well
+      return node.child(bit ^ 1);
+    }
+
+    return node.withChild(bit, newChild, edit);
   }
 
   /**
-   * recursively descend into the tree
+   * recursively descend into the tree. Parent nodes are visited before their children, the children in ascending prefix order.
    *
    * @param visitor
    */
-  synchronized void visitTree(final RoutingTreeVisitor visitor)
+  static void visitTree(final RoutingTreeNode parent, final RoutingTreeVisitor visitor)
   {
-    this.visitTree(this.rootNode, visitor);
+    if (parent.route != null)
+    {
+      visitor.visitRouteTreeNode(parent.route);
+    }
+
+    if (parent.left != null)
+    {
+      visitTree(parent.left, visitor);
+    }
+
+    if (parent.right != null)
+    {
+      visitTree(parent.right, visitor);
+    }
   }
 
-  public NlriComparator comparator(final int type)
+  /**
+   * Iterates the routes below a node in the same order as the tree is visited: parent nodes before their children, the children in
+   * ascending prefix order.
+   *
+   * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+   *
+   */
+
+  static final class RouteIterator implements Iterator<Route>
   {
-    return null;
+    // nodes still to be descended into, the next one on top
+    private final Deque<RoutingTreeNode> pending = new ArrayDeque<RoutingTreeNode>();
+    private Route next;
+
+    RouteIterator(final RoutingTreeNode node)
+    {
+      this.pending.push(node);
+      this.advance();
+    }
+
+    /**
+     * iterate the routes of several trees one after the other
+     */
+    RouteIterator(final RoutingTreeNode[] nodes)
+    {
+      for (int i = nodes.length - 1; i >= 0; i--)
+      {
+        this.pending.push(nodes[i]);
+      }
+
+      this.advance();
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      return (this.next != null);
+    }
+
+    @Override
+    public Route next()
+    {
+      final Route route = this.next;
+
+      if (route == null)
+      {
+        throw new NoSuchElementException();
+      }
+
+      this.advance();
+
+      return route;
+    }
+
+    private void advance()
+    {
+      this.next = null;
+
+      while ((this.next == null) && !this.pending.isEmpty())
+      {
+        final RoutingTreeNode node = this.pending.pop();
+
+        if (node.right != null)
+        {
+          this.pending.push(node.right);
+        }
+
+        if (node.left != null)
+        {
+          this.pending.push(node.left);
+        }
+
+        this.next = node.route;
+      }
+    }
   }
 
   /**
-   * Withdraw the (NLRI prefix, Path attributes) tuple from the tree. The rules for this pürocess are as follows:
-   * <ol>
-   * <li>If the NLRI prefix of a child node matches the to be remove NLRI prefix, the child node is removed and all child nodes of the child
-   * node are added to the parent node.</li>
-   * <li>If a child node NLRI is a less specific prefix of the to be removed NLRI prefix, recursively descend into the tree rooted by the
-   * child node</li>
-   * </ol>
+   * Splittable traversal of the routes below a node, in the same order as the {@link RouteIterator}.
+   *
+   * The remaining routes are held as a stack of subtrees, the next one on top. A split hands the subtrees on top holding the first half of
+   * the remaining routes to the new spliterator, descending into the subtree which straddles the middle. Every node knows the number of
+   * routes in its subtree, so both parts are exactly sized and equally large no matter how unbalanced the trie is.
+   *
+   * @author Rainer Bieniek (Rainer.Bieniek@web.de)
    *
-   * @param parent
-   * @param nlri
-   * @return
    */
 
-  private boolean withdrawRoute(final RoutingTreeNode parent, final Route route)
+  static final class RouteSpliterator implements Spliterator<Route>
   {
+    private final Deque<RoutingTreeNode> pending;
+    private long size;
+
+    RouteSpliterator(final RoutingTreeNode node)
+    {
+      this(new RoutingTreeNode[] { node });
+    }
+
+    /**
+     * traverse the routes of several trees one after the other
+     */
+    RouteSpliterator(final RoutingTreeNode[] nodes)
+    {
+      this.pending = new ArrayDeque<RoutingTreeNode>();
 
-    boolean withdrawn = false;
-    RoutingTreeNode candidate = null;
+      for (int i = nodes.length - 1; i >= 0; i--)
+      {
+        if (nodes[i].count > 0)
+        {
+          this.pending.push(nodes[i]);
+          this.size += nodes[i].count;
+        }
+      }
+    }
 
-    for (final RoutingTreeNode child : parent.getChildNodes())
+    private RouteSpliterator(final Deque<RoutingTreeNode> pending, final long size)
     {
-      if (NlriComparator.equals(child.getRoute(), route))
+      this.pending = pending;
+      this.size = size;
+    }
+
+    @Override
+    public boolean tryAdvance(final Consumer<? super Route> action)
+    {
+      while (!this.pending.isEmpty())
       {
-        candidate = child;
-        break;
+        final RoutingTreeNode node = this.pending.pop();
+
+        this.pushChildren(node);
+
+        if (node.route != null)
+        {
+          this.size--;
+          action.accept(node.route);
+
+          return true;
+        }
       }
-      else if (NlriComparator.isPrefixOf(child.getRoute(), route))
+
+      return false;
+    }
+
+    @Override
+    public void forEachRemaining(final Consumer<? super Route> action)
+    {
+      while (!this.pending.isEmpty())
       {
-        withdrawn = this.withdrawRoute(child, route);
-        break;
+        visitTree(this.pending.pop(), action::accept);
       }
 
+      this.size = 0;
     }
 
-    if (candidate != null)
+    @Override
+    public Spliterator<Route> trySplit()
     {
-      parent.getChildNodes().addAll(candidate.getChildNodes());
-      parent.getChildNodes().remove(candidate);
-      withdrawn = true;
+      final long half = this.size / 2;
+
+      if (half == 0)
+      {
+        return null;
+      }
+
+      final Deque<RoutingTreeNode> prefix = new ArrayDeque<RoutingTreeNode>();
+      long taken = 0;
+
+      while (taken < half)
+      {
+        final RoutingTreeNode node = this.pending.pop();
+
+        if ((taken + node.count) > half)
+        {
+          // the subtree does not fit into the first half. It holds at least two routes, thus has children to descend into
+          this.expand(node);
+        }
+        else
+        {
+          prefix.addLast(node);
+          taken += node.count;
+        }
+      }
+
+      this.size -= taken;
+
+      return new RouteSpliterator(prefix, taken);
     }
 
-    return withdrawn;
+    @Override
+    public long estimateSize()
+    {
+      return this.size;
+    }
+
+    @Override
+    public int characteristics()
+    {
+      return Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.IMMUTABLE | Spliterator.SIZED
+          | Spliterator.SUBSIZED;
+    }
+
+    private void pushChildren(final RoutingTreeNode node)
+    {
+      if (node.right != null)
+      {
+        this.pending.push(node.right);
+      }
+
+      if (node.left != null)
+      {
+        this.pending.push(node.left);
+      }
+    }
+
+    /**
+     * replace a subtree on top of the stack by its children, preceded by a leaf holding the route of its root
+     */
+    private void expand(final RoutingTreeNode node)
+    {
+      this.pushChildren(node);
+
+      if (node.route != null)
+      {
+        this.pending.push(new RoutingTreeNode(node.high, node.low, node.tail, node.length, node.route, null, null, null));
+      }
+    }
   }
 
   /**
-   * @return the rootNode
+   * calculate the bit offset of the trie key inside the NLRI prefix octets of the given address family. The leading MPLS label of labelled
+   * and VPN address families is skipped.
+   *
+   * @param afk
+   * @return the number of leading bits not being part of the key
    */
-  RoutingTreeNode getRootNode()
+
+  static int keyOffset(final AddressFamilyKey afk)
   {
-    return this.rootNode;
+    return 8 * NlriView.labelOctets(afk);
   }
 
   /**
-   *
-   * @param nlri
-   * @return
+   * calculate the bit offset of the trie key of a tree. The keys of a partitioned tree skip the route distinguisher as well.
    */
 
-  LookupResult lookupRoute(final NetworkLayerReachabilityInformation nlri)
+  static int keyOffset(final AddressFamilyKey afk, final boolean partitioned)
   {
-    return this.lookupRoute(this.rootNode, nlri);
+    return partitioned ? (8 * NlriView.headerOctets(afk)) : keyOffset(afk);
   }
 
   /**
-   *
+   * @return the trie key of the route in this tree
    */
+  private Key key(final Route route)
+  {
+    return new Key(route.getNlri(), keyOffset(route.getAddressFamilyKey(), this.partitioned));
+  }
 
-  private LookupResult lookupRoute(final RoutingTreeNode parent, final NetworkLayerReachabilityInformation nlri)
+  static int bit(final long high, final long low, final long[] tail, final int index)
   {
+    final long word = (index < 64) ? high : (index < 128) ? low : tail[(index - 128) >>> 6];
 
-    LookupResult result = null;
+    return (int) (word >>> (63 - (index & 63))) & 1;
+  }
 
-    for (final RoutingTreeNode child : parent.getChildNodes())
+  /**
+   * @return a word with the given number of leading bits set, 0 to 64
+   */
+  static long mask(final int bits)
+  {
+    return (bits <= 0) ? 0 : (bits >= 64) ? -1L : (-1L << (64 - bits));
+  }
+
+  /**
+   * read the 64 bit word with the given index of a key starting at an octet offset into the prefix octets. Octets beyond the end of the
+   * prefix are read as zero.
+   */
+
+  static long word(final byte[] prefix, final int octetOffset, final int index)
+  {
+    final int start = octetOffset + (8 * index);
+    long word = 0;
+
+    for (int i = start; i < (start + 8); i++)
     {
+      word = (word << 8) | ((i < prefix.length) ? (prefix[i] & 0xff) : 0);
+    }
 
-      if (NlriComparator.equals(child.getRoute(), nlri))
-      {
-        result = new LookupResult(child.getRoute());
-        break;
-      }
-      else if (NlriComparator.isPrefixOf(child.getRoute(), nlri))
-      {
+    return word;
+  }
+
+  /**
+   * compare two NLRIs of an address family in the order the tree iterates its routes: the keys are compared bit by bit, a key which is a
+   * prefix of the other one comes first.
+   */
+
+  static int compareKeys(final AddressFamilyKey afk, final NetworkLayerReachabilityInformation left,
+      final NetworkLayerReachabilityInformation right)
+  {
+    return new Key(afk, left).compareTo(new Key(afk, right));
+  }
+
+  /**
+   * count the number of leading bits of the node key and the given key which are equal, looking at no more than <code>max</code> bits.
+   */
 
-        // child node NLRI is less specific match --> descend into child node
-        result = this.lookupRoute(child, nlri);
+  private static int commonPrefixLength(final RoutingTreeNode node, final Key key, final int max)
+  {
+    long diff = node.high ^ key.high;
 
-        // child node lookup did not yield result --> build result from less specific child node NLRI
-        if (result == null)
+    if ((diff == 0) && (max > 64))
+    {
+      diff = node.low ^ key.low;
+
+      if ((diff == 0) && (max > 128))
+      {
+        // both keys are longer than 128 bits, thus both carry the tail words up to max
+        for (int i = 0, base = 128; base < max; i++, base += 64)
         {
-          result = new LookupResult(child.getRoute());
+          diff = node.tail[i] ^ key.tail[i];
+
+          if (diff != 0)
+          {
+            return Math.min(max, base + Long.numberOfLeadingZeros(diff));
+          }
         }
 
+        return max;
       }
 
+      return Math.min(max, 64 + Long.numberOfLeadingZeros(diff));
     }
 
-    return result;
+    return Math.min(max, Long.numberOfLeadingZeros(diff));
   }
 
   /**
-   * recursively descend into the tree
+   * The trie key of a NLRI: the prefix bits following the key offset of the address family, held in 64 bit words. The bits following the
+   * key length are zero, so keys are ordered and compared by a few word operations.
+   *
+   * IPv4 and IPv6 unicast prefixes, labelled prefixes and VPN-IPv4 prefixes fit into the two leading words, only VPN-IPv6 prefixes need a
+   * tail word.
+   *
+   * @author Rainer Bieniek (Rainer.Bieniek@web.de)
    *
-   * @param visitor
    */
-  synchronized void visitTree(final RoutingTreeNode parent, final RoutingTreeVisitor visitor)
+
+  static final class Key implements Comparable<Key>
   {
-    for (final RoutingTreeNode child : parent.getChildNodes())
+    private static final long[] NO_TAIL = new long[0];
+
+    private final long high;
+    private final long low;
+    private final long[] tail;
+    private final int length;
+
+    Key(final long high, final long low, final int length)
+    {
+      this.high = high & mask(length);
+      this.low = low & mask(length - 64);
+      this.tail = null;
+      this.length = length;
+    }
+
+    Key(final AddressFamilyKey afk, final NetworkLayerReachabilityInformation nlri)
+    {
+      this(nlri, keyOffset(afk));
+    }
+
+    /**
+     * @param nlri
+     * @param keyOffset
+     *          the octet aligned bit offset of the key inside the NLRI prefix octets
+     */
+    Key(final NetworkLayerReachabilityInformation nlri, final int keyOffset)
+    {
+      final byte[] prefix = nlri.getPrefix();
+      final int offset = keyOffset >>> 3;
+
+      this.length = Math.max(0, nlri.getPrefixLength() - keyOffset);
+      this.high = word(prefix, offset, 0) & mask(this.length);
+      this.low = (this.length > 64) ? (word(prefix, offset, 1) & mask(this.length - 64)) : 0;
+
+      if (this.length > 128)
+      {
+        this.tail = new long[(this.length - 65) >>> 6];
+
+        for (int i = 0; i < this.tail.length; i++)
+        {
+          this.tail[i] = word(prefix, offset, i + 2) & mask(this.length - 128 - (64 * i));
+        }
+      }
+      else
+      {
+        this.tail = null;
+      }
+    }
+
+    int bit(final int index)
+    {
+      return RoutingTree.bit(this.high, this.low, this.tail, index);
+    }
+
+    /**
+     * keys are ordered by their bits, a key which is a prefix of the other one comes first
+     */
+    @Override
+    public int compareTo(final Key other)
     {
-      visitor.visitRouteTreeNode(child.getRoute());
+      int result = Long.compareUnsigned(this.high, other.high);
+
+      if (result == 0)
+      {
+        result = Long.compareUnsigned(this.low, other.low);
+      }
+
+      if (result == 0)
+      {
+        final long[] thisTail = (this.tail != null) ? this.tail : NO_TAIL;
+        final long[] otherTail = (other.tail != null) ? other.tail : NO_TAIL;
+
+        for (int i = 0; (result == 0) && (i < Math.min(thisTail.length, otherTail.length)); i++)
+        {
+          result = Long.compareUnsigned(thisTail[i], otherTail[i]);
+        }
+      }
 
-      this.visitTree(child, visitor);
+      return (result != 0) ? result : Integer.compare(this.length, other.length);
     }
   }
+
 }
@@ -18,10 +18,6 @@
 package io.netlibs.bgp.rib;
 
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.Set;
-import java.util.TreeSet;
 
 import org.apache.commons.lang3.builder.CompareToBuilder;
 import org.apache.commons.lang3.builder.EqualsBuilder;
@@ -42,25 +38,18 @@ import lombok.ToString;
 public class TopologicalTreeSortingKey implements Comparable<TopologicalTreeSortingKey>
 {
   private AddressFamilyKey addressFamilyKey;
-  private Set<PathAttribute> pathAttributes = new TreeSet<PathAttribute>();
+  private PathAttributeSet pathAttributes;
 
   public TopologicalTreeSortingKey(AddressFamily afi, SubsequentAddressFamily safi, Collection<PathAttribute> attributes)
   {
     this.addressFamilyKey = new AddressFamilyKey(afi, safi);
-    if (attributes != null)
-      pathAttributes.addAll(attributes);
-
-    pathAttributes = Collections.unmodifiableSet(pathAttributes);
+    this.pathAttributes = PathAttributeSet.intern(attributes);
   }
 
   public TopologicalTreeSortingKey(AddressFamilyKey addressFamilyKey, Collection<PathAttribute> attributes)
   {
     this.addressFamilyKey = addressFamilyKey;
-
-    if (attributes != null)
-      pathAttributes.addAll(attributes);
-
-    pathAttributes = Collections.unmodifiableSet(pathAttributes);
+    this.pathAttributes = PathAttributeSet.intern(attributes);
   }
 
   /**
@@ -74,7 +63,7 @@ public class TopologicalTreeSortingKey implements Comparable<TopologicalTreeSort
   /**
    * @return the pathAttributes
    */
-  public Set<PathAttribute> getPathAttributes()
+  public PathAttributeSet getPathAttributes()
   {
     return pathAttributes;
   }
@@ -84,16 +73,7 @@ public class TopologicalTreeSortingKey implements Comparable<TopologicalTreeSort
   {
     CompareToBuilder builder = (new CompareToBuilder())
         .append(getAddressFamilyKey(), o.getAddressFamilyKey())
-        .append(getPathAttributes().size(), o.getPathAttributes().size());
-
-    if (builder.toComparison() == 0)
-    {
-      Iterator<PathAttribute> lit = getPathAttributes().iterator();
-      Iterator<PathAttribute> rit = o.getPathAttributes().iterator();
-
-      while (lit.hasNext())
-        builder.append(lit.next(), rit.next());
-    }
+        .append(getPathAttributes(), o.getPathAttributes());
 
     return builder.toComparison();
   }
@@ -107,10 +87,8 @@ public class TopologicalTreeSortingKey implements Comparable<TopologicalTreeSort
   public int hashCode()
   {
     HashCodeBuilder builder = (new HashCodeBuilder())
-        .append(getAddressFamilyKey());
-
-    for (PathAttribute attr : getPathAttributes())
-      builder.append(attr);
+        .append(getAddressFamilyKey())
+        .append(getPathAttributes());
 
     return builder.toHashCode();
   }
@@ -130,16 +108,7 @@ public class TopologicalTreeSortingKey implements Comparable<TopologicalTreeSort
 
     EqualsBuilder builder = (new EqualsBuilder())
         .append(getAddressFamilyKey(), o.getAddressFamilyKey())
-        .append(getPathAttributes().size(), o.getPathAttributes().size());
-
-    if (builder.isEquals())
-    {
-      Iterator<PathAttribute> lit = getPathAttributes().iterator();
-      Iterator<PathAttribute> rit = o.getPathAttributes().iterator();
-
-      while (lit.hasNext())
-        builder.append(lit.next(), rit.next());
-    }
+        .append(getPathAttributes(), o.getPathAttributes());
 
     return builder.isEquals();
   }
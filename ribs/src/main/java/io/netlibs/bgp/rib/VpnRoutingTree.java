@@ -0,0 +1,279 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.VpnRoutingTree.java
+ */
+package io.netlibs.bgp.rib;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.StampedLock;
+
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+
+/**
+ * The routes of a VPN address family, partitioned by route distinguisher. Every RD has a routing tree of its own, keyed on the prefix
+ * following the RD, so looking up or walking the routes of one VRF only touches the routes of that RD. Partitions are created with the first
+ * route of a RD and dropped with its last route.
+ *
+ * Each partition publishes its part of a batch with a single volatile write. Writers hold the write lock of the table while they apply a
+ * batch, so a view of all partitions collected under an optimistic read which stays valid never exposes a partially applied batch. Views of
+ * a single partition need no lock at all.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+class VpnRoutingTree
+{
+
+  /**
+   * The root nodes of the partitions at one point in time, in ascending route distinguisher order.
+   */
+  static final class Partitions
+  {
+    private final long[] routeDistinguishers;
+    private final RoutingTree.RoutingTreeNode[] rootNodes;
+
+    Partitions(final long[] routeDistinguishers, final RoutingTree.RoutingTreeNode[] rootNodes)
+    {
+      this.routeDistinguishers = routeDistinguishers;
+      this.rootNodes = rootNodes;
+    }
+
+    long[] getRouteDistinguishers()
+    {
+      return this.routeDistinguishers;
+    }
+
+    RoutingTree.RoutingTreeNode[] getRootNodes()
+    {
+      return this.rootNodes;
+    }
+  }
+
+  // ordered like the RDs in the keys of an unpartitioned tree, so the routes are walked in tree order
+  private final ConcurrentSkipListMap<Long, RoutingTree> partitions = new ConcurrentSkipListMap<Long, RoutingTree>(Long::compareUnsigned);
+  private final StampedLock lock = new StampedLock();
+
+  /**
+   * Destroy all partitions.
+   */
+  void destroy()
+  {
+    final long stamp = this.lock.writeLock();
+
+    try
+    {
+      this.partitions.clear();
+    }
+    finally
+    {
+      this.lock.unlockWrite(stamp);
+    }
+  }
+
+  boolean addRoute(final Route route)
+  {
+    this.applyBatch(Collections.<Route> emptyList(), Collections.singletonList(route));
+
+    return true;
+  }
+
+  boolean withdrawRoute(final Route route)
+  {
+    return !this.applyBatch(Collections.singletonList(route), Collections.<Route> emptyList()).isEmpty();
+  }
+
+  /**
+   * Apply a batch of withdrawals and additions. The changes are applied per RD, all withdrawals of a RD before its additions.
+   *
+   * @param withdrawals
+   *          the routes carrying the NLRI prefixes to withdraw
+   * @param additions
+   *          the routes to add
+   * @return the withdrawals which removed a route, in the order they were requested
+   */
+
+  List<Route> applyBatch(final Collection<Route> withdrawals, final Collection<Route> additions)
+  {
+    final Map<Long, List<Route>> withdrawalsByRd = groupByRouteDistinguisher(withdrawals);
+    final Map<Long, List<Route>> additionsByRd = groupByRouteDistinguisher(additions);
+    final Set<Route> withdrawn = Collections.newSetFromMap(new IdentityHashMap<Route, Boolean>());
+    final long stamp = this.lock.writeLock();
+
+    try
+    {
+      for (final Map.Entry<Long, List<Route>> entry : withdrawalsByRd.entrySet())
+      {
+        final RoutingTree partition = this.partitions.get(entry.getKey());
+        final List<Route> added = additionsByRd.remove(entry.getKey());
+
+        if (partition != null)
+        {
+          withdrawn.addAll(partition.applyBatch(entry.getValue(), (added != null) ? added : Collections.<Route> emptyList()));
+
+          if (partition.getRootNode().getCount() == 0)
+          {
+            this.partitions.remove(entry.getKey());
+          }
+        }
+        else if (added != null)
+        {
+          this.partition(entry.getKey()).applyBatch(Collections.<Route> emptyList(), added);
+        }
+      }
+
+      for (final Map.Entry<Long, List<Route>> entry : additionsByRd.entrySet())
+      {
+        this.partition(entry.getKey()).applyBatch(Collections.<Route> emptyList(), entry.getValue());
+      }
+    }
+    finally
+    {
+      this.lock.unlockWrite(stamp);
+    }
+
+    final List<Route> result = new ArrayList<Route>(withdrawn.size());
+
+    for (final Route route : withdrawals)
+    {
+      if (withdrawn.contains(route))
+      {
+        result.add(route);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Lookup the most specific route covering the given NLRI prefix in the partition of its RD.
+   */
+
+  LookupResult lookupRoute(final AddressFamilyKey afk, final NetworkLayerReachabilityInformation nlri)
+  {
+    final RoutingTree partition = this.partitions.get(NlriView.of(afk, nlri).getRouteDistinguisher());
+
+    return (partition != null) ? partition.lookupRoute(afk, nlri) : null;
+  }
+
+  /**
+   * @return the route distinguishers holding routes, in ascending order
+   */
+  List<Long> getRouteDistinguishers()
+  {
+    return new ArrayList<Long>(this.partitions.keySet());
+  }
+
+  /**
+   * @return the current version of all partitions. No batch is partially visible in it
+   */
+  Partitions getPartitions()
+  {
+    long stamp = this.lock.tryOptimisticRead();
+    Partitions result = this.collect();
+
+    if (!this.lock.validate(stamp))
+    {
+      // a batch has been applied while collecting, collect again keeping writers out
+      stamp = this.lock.readLock();
+
+      try
+      {
+        result = this.collect();
+      }
+      finally
+      {
+        this.lock.unlockRead(stamp);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @return the current version of the partition of a RD, an empty version if the RD holds no routes
+   */
+  Partitions getPartition(final long routeDistinguisher)
+  {
+    final RoutingTree partition = this.partitions.get(routeDistinguisher);
+
+    if (partition == null)
+    {
+      return new Partitions(new long[0], new RoutingTree.RoutingTreeNode[0]);
+    }
+
+    return new Partitions(new long[] { routeDistinguisher }, new RoutingTree.RoutingTreeNode[] { partition.getRootNode() });
+  }
+
+  private Partitions collect()
+  {
+    final List<Map.Entry<Long, RoutingTree>> entries = new ArrayList<Map.Entry<Long, RoutingTree>>(this.partitions.entrySet());
+    final long[] routeDistinguishers = new long[entries.size()];
+    final RoutingTree.RoutingTreeNode[] rootNodes = new RoutingTree.RoutingTreeNode[entries.size()];
+
+    for (int i = 0; i < rootNodes.length; i++)
+    {
+      routeDistinguishers[i] = entries.get(i).getKey();
+      rootNodes[i] = entries.get(i).getValue().getRootNode();
+    }
+
+    return new Partitions(routeDistinguishers, rootNodes);
+  }
+
+  private RoutingTree partition(final Long routeDistinguisher)
+  {
+    RoutingTree partition = this.partitions.get(routeDistinguisher);
+
+    if (partition == null)
+    {
+      partition = new RoutingTree(true);
+      this.partitions.put(routeDistinguisher, partition);
+    }
+
+    return partition;
+  }
+
+  private static Map<Long, List<Route>> groupByRouteDistinguisher(final Collection<Route> routes)
+  {
+    final Map<Long, List<Route>> groups = new LinkedHashMap<Long, List<Route>>();
+
+    for (final Route route : routes)
+    {
+      final Long routeDistinguisher = NlriView.of(route.getAddressFamilyKey(), route.getNlri()).getRouteDistinguisher();
+      List<Route> group = groups.get(routeDistinguisher);
+
+      if (group == null)
+      {
+        group = new ArrayList<Route>();
+        groups.put(routeDistinguisher, group);
+      }
+
+      group.add(route);
+    }
+
+    return groups;
+  }
+
+}
@@ -0,0 +1,716 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.decision.DecisionProcess.java
+ */
+package io.netlibs.bgp.rib.decision;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.NextHop;
+import io.netlibs.bgp.protocol.RIBSide;
+import io.netlibs.bgp.rib.BatchRoutingEventListener;
+import io.netlibs.bgp.rib.PeerRoutingInformationBase;
+import io.netlibs.bgp.rib.PeerRoutingInformationBaseManager;
+import io.netlibs.bgp.rib.RibBatch;
+import io.netlibs.bgp.rib.Route;
+import io.netlibs.bgp.rib.RouteChange;
+import io.netlibs.bgp.rib.RoutingInformationBase;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Incremental BGP decision process (RFC 4271, section 9.1.2) across the Adj-RIB-In of all registered peers.
+ *
+ * The decision process keeps the candidate paths of each prefix learned from the remote RIBs of the registered peers. A change reported by
+ * a remote RIB only re-runs the selection for the prefix it affects, comparing the decision keys extracted when the paths were learned.
+ * Changes of the best path are published to the Loc-RIB, the local RIBs of a dedicated peer routing information base, so listeners
+ * registered there see best path changes only.
+ *
+ * The best path is selected by, in order: highest LOCAL_PREF, shortest AS_PATH, lowest ORIGIN, lowest MULTI_EXIT_DISC among paths from
+ * the same neighbor AS, external over internal peers, lowest BGP identifier and finally lowest peer name. The IGP cost to the next hop is
+ * not considered.
+ *
+ * Along with the best path the decision process maintains the equal-cost multipath group of each prefix: the next hops of all paths
+ * equal to the best path up to the MULTI_EXIT_DISC and of the same peer type. Groups are interned, so prefixes sharing the next hop set
+ * share the group, and their changes are reported to {@link MultipathListener}s once per batch.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+@Slf4j
+public class DecisionProcess implements BatchRoutingEventListener
+{
+
+  /**
+   * the name of the peer routing information base holding the Loc-RIB
+   */
+  public static final String LOC_RIB_PEER_NAME = "Loc-RIB";
+
+  private static final class Peer
+  {
+    private final PeerRoutingInformationBase prib;
+    private final boolean external;
+    private final long bgpIdentifier;
+
+    private Peer(final PeerRoutingInformationBase prib, final boolean external, final long bgpIdentifier)
+    {
+      this.prib = prib;
+      this.external = external;
+      this.bgpIdentifier = bgpIdentifier;
+    }
+  }
+
+  private static final class Candidate
+  {
+    private final Route route;
+    private final PathDecisionKey key;
+
+    private Candidate(final Route route, final PathDecisionKey key)
+    {
+      this.route = route;
+      this.key = key;
+    }
+  }
+
+  /**
+   * the candidate paths of one prefix, at most one per peer
+   */
+  private static final class Candidates
+  {
+    private final List<Candidate> paths = new ArrayList<Candidate>(2);
+    private Candidate best;
+    private MultipathGroup group = MultipathGroup.EMPTY;
+
+    private void put(final Candidate candidate)
+    {
+      for (int i = 0; i < this.paths.size(); i++)
+      {
+        if (this.paths.get(i).key.getPeerName().equals(candidate.key.getPeerName()))
+        {
+          this.paths.set(i, candidate);
+          return;
+        }
+      }
+
+      this.paths.add(candidate);
+    }
+
+    private void remove(final String peerName)
+    {
+      for (int i = 0; i < this.paths.size(); i++)
+      {
+        if (this.paths.get(i).key.getPeerName().equals(peerName))
+        {
+          this.paths.remove(i);
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * the changes resulting from one batch
+   */
+  private static final class Changes
+  {
+    // the new best path per prefix, null marks a prefix without any path left
+    private final Map<AddressFamilyKey, Map<NetworkLayerReachabilityInformation, Candidate>> bestPaths = new LinkedHashMap<AddressFamilyKey, Map<NetworkLayerReachabilityInformation, Candidate>>();
+    // the group a prefix referenced before the batch and the group it references now
+    private final Map<AddressFamilyKey, Map<NetworkLayerReachabilityInformation, MultipathGroup[]>> groups = new LinkedHashMap<AddressFamilyKey, Map<NetworkLayerReachabilityInformation, MultipathGroup[]>>();
+  }
+
+  private final PeerRoutingInformationBase locRib;
+  // registered peers, candidate paths and the Loc-RIB are guarded by the lock on peers
+  private final Map<String, Peer> peers = new HashMap<String, Peer>();
+  private final Map<AddressFamilyKey, Map<NetworkLayerReachabilityInformation, Candidates>> candidates = new HashMap<AddressFamilyKey, Map<NetworkLayerReachabilityInformation, Candidates>>();
+  // the number of prefixes referencing each multipath group
+  private final Map<MultipathGroup, Integer> groupUsage = new HashMap<MultipathGroup, Integer>();
+  private final List<MultipathListener> multipathListeners = new CopyOnWriteArrayList<MultipathListener>();
+  private volatile long selections;
+
+  /**
+   * Create a decision process publishing to the Loc-RIB held by the peer routing information base manager
+   *
+   * @param pribm
+   *          the manager holding the peer routing information bases
+   */
+  public DecisionProcess(final PeerRoutingInformationBaseManager pribm)
+  {
+    this.locRib = pribm.peerRoutingInformationBase(LOC_RIB_PEER_NAME);
+  }
+
+  /**
+   * @return the peer routing information base holding the Loc-RIB. Its local RIBs contain the best path of each prefix
+   */
+  public PeerRoutingInformationBase getLocRib()
+  {
+    return this.locRib;
+  }
+
+  /**
+   * @param listener
+   *          the listener to notify about multipath group changes
+   */
+  public void addMultipathListener(final MultipathListener listener)
+  {
+    this.multipathListeners.add(listener);
+  }
+
+  /**
+   * @param listener
+   *          the listener to remove
+   */
+  public void removeMultipathListener(final MultipathListener listener)
+  {
+    this.multipathListeners.remove(listener);
+  }
+
+  /**
+   * @return the multipath group of a prefix, {@link MultipathGroup#EMPTY} if the prefix is unreachable
+   */
+  public MultipathGroup getMultipathGroup(final AddressFamilyKey afk, final NetworkLayerReachabilityInformation nlri)
+  {
+    synchronized (this.peers)
+    {
+      final Map<NetworkLayerReachabilityInformation, Candidates> table = this.candidates.get(afk);
+      final Candidates prefix = (table != null) ? table.get(nlri) : null;
+
+      return (prefix != null) ? prefix.group : MultipathGroup.EMPTY;
+    }
+  }
+
+  /**
+   * @return the number of distinct multipath groups referenced by prefixes
+   */
+  public int getMultipathGroupCount()
+  {
+    synchronized (this.peers)
+    {
+      return this.groupUsage.size();
+    }
+  }
+
+  /**
+   * @return the number of best path selections run so far
+   */
+  public long getSelections()
+  {
+    return this.selections;
+  }
+
+  /**
+   * Take the paths learned from a peer into account. The routes already held by the remote RIBs of the peer are loaded right away.
+   *
+   * @param prib
+   *          the routing information bases of the peer
+   * @param external
+   *          <code>true</code> if the peer is in a different AS
+   * @param bgpIdentifier
+   *          the BGP identifier of the peer
+   */
+  public void addPeer(final PeerRoutingInformationBase prib, final boolean external, final long bgpIdentifier)
+  {
+    synchronized (this.peers)
+    {
+      if (this.peers.containsKey(prib.getPeerName()))
+      {
+        throw new IllegalArgumentException("peer already registered: " + prib.getPeerName());
+      }
+
+      this.peers.put(prib.getPeerName(), new Peer(prib, external, bgpIdentifier));
+      prib.addRoutingListener(this);
+
+      // routes changed from now on are reported to the listener, which waits for the lock. Loading a route twice does no harm
+      final List<RouteChange> existing = new ArrayList<RouteChange>();
+
+      prib.visitRoutingBases(RIBSide.Remote, (peerName, side, route) -> existing.add(RouteChange.added(peerName, side, route)));
+
+      this.process(existing);
+    }
+  }
+
+  /**
+   * Stop taking the paths learned from a peer into account. The paths are removed from the selection.
+   *
+   * @param peerName
+   *          the name of the peer
+   */
+  public void removePeer(final String peerName)
+  {
+    synchronized (this.peers)
+    {
+      final Peer peer = this.peers.remove(peerName);
+
+      if (peer == null)
+      {
+        return;
+      }
+
+      peer.prib.removeRoutingListener(this);
+
+      final Changes changed = new Changes();
+
+      for (final Entry<AddressFamilyKey, Map<NetworkLayerReachabilityInformation, Candidates>> table : this.candidates.entrySet())
+      {
+        final Iterator<Entry<NetworkLayerReachabilityInformation, Candidates>> it = table.getValue().entrySet().iterator();
+
+        while (it.hasNext())
+        {
+          final Entry<NetworkLayerReachabilityInformation, Candidates> entry = it.next();
+
+          entry.getValue().remove(peerName);
+          this.select(table.getKey(), entry.getKey(), entry.getValue(), changed);
+
+          if (entry.getValue().paths.isEmpty())
+          {
+            it.remove();
+          }
+        }
+      }
+
+      this.publish(changed);
+    }
+  }
+
+  /**
+   * update the candidates of the changed prefixes and publish the best path changes of the batch to the Loc-RIB as one batch
+   */
+  @Override
+  public void routesChanged(final List<RouteChange> changes)
+  {
+    synchronized (this.peers)
+    {
+      this.process(changes);
+    }
+  }
+
+  private void process(final List<RouteChange> changes)
+  {
+    final Changes changed = new Changes();
+
+    for (final RouteChange change : changes)
+    {
+      final Peer peer = this.peers.get(change.getPeerName());
+
+      if (peer == null || change.getSide() != RIBSide.Remote)
+      {
+        continue;
+      }
+
+      final Route route = change.getRoute();
+      Map<NetworkLayerReachabilityInformation, Candidates> table = this.candidates.get(route.getAddressFamilyKey());
+
+      if (table == null)
+      {
+        table = new HashMap<NetworkLayerReachabilityInformation, Candidates>();
+        this.candidates.put(route.getAddressFamilyKey(), table);
+      }
+
+      Candidates prefix = table.get(route.getNlri());
+
+      if (change.isAdded())
+      {
+        if (prefix == null)
+        {
+          prefix = new Candidates();
+          table.put(route.getNlri(), prefix);
+        }
+
+        prefix.put(new Candidate(route, PathDecisionKey.of(route, change.getPeerName(), peer.external, peer.bgpIdentifier)));
+      }
+      else if (prefix != null)
+      {
+        prefix.remove(change.getPeerName());
+      }
+      else
+      {
+        continue;
+      }
+
+      this.select(route.getAddressFamilyKey(), route.getNlri(), prefix, changed);
+
+      if (prefix.paths.isEmpty())
+      {
+        table.remove(route.getNlri());
+      }
+    }
+
+    this.publish(changed);
+  }
+
+  /**
+   * re-run the selection for one prefix and record the new best path if it differs from the published one
+   */
+  private void select(final AddressFamilyKey afk, final NetworkLayerReachabilityInformation nlri, final Candidates prefix,
+      final Changes changed)
+  {
+    final Candidate previous = prefix.best;
+    final Candidate best = selectBest(prefix.paths);
+
+    this.selections++;
+    prefix.best = best;
+
+    this.selectMultipath(afk, nlri, prefix, changed);
+
+    if (previous == null && best == null)
+    {
+      return;
+    }
+
+    if (previous != null && best != null && previous.route.getPathAttributes() == best.route.getPathAttributes()
+        && Objects.equals(previous.route.getNextHop(), best.route.getNextHop()))
+    {
+      // the Loc-RIB would not change
+      return;
+    }
+
+    Map<NetworkLayerReachabilityInformation, Candidate> afChanges = changed.bestPaths.get(afk);
+
+    if (afChanges == null)
+    {
+      afChanges = new LinkedHashMap<NetworkLayerReachabilityInformation, Candidate>();
+      changed.bestPaths.put(afk, afChanges);
+    }
+
+    // null marks a prefix without any path left
+    afChanges.put(nlri, best);
+  }
+
+  /**
+   * apply the best path changes to the Loc-RIB. Runs under the lock, so the Loc-RIB sees the changes in the order they were selected
+   */
+  private void publish(final Changes changed)
+  {
+    for (final Entry<AddressFamilyKey, Map<NetworkLayerReachabilityInformation, Candidate>> afChanges : changed.bestPaths.entrySet())
+    {
+      final AddressFamilyKey afk = afChanges.getKey();
+      final List<NetworkLayerReachabilityInformation> withdrawals = new ArrayList<NetworkLayerReachabilityInformation>();
+      final RibBatch batch = new RibBatch();
+
+      for (final Entry<NetworkLayerReachabilityInformation, Candidate> entry : afChanges.getValue().entrySet())
+      {
+        if (entry.getValue() == null)
+        {
+          withdrawals.add(entry.getKey());
+        }
+        else
+        {
+          batch.announce(entry.getValue().route);
+        }
+      }
+
+      batch.withdraw(afk, withdrawals);
+
+      if (this.locRib.routingBase(RIBSide.Local, afk) == null)
+      {
+        this.locRib.allocateRoutingInformationBase(RIBSide.Local, afk);
+      }
+
+      final RoutingInformationBase rib = this.locRib.routingBase(RIBSide.Local, afk);
+
+      log.debug("publishing {} best path changes for {}", afChanges.getValue().size(), afk);
+
+      rib.apply(batch);
+    }
+
+    this.publishMultipath(changed);
+  }
+
+  /**
+   * update the multipath group of a prefix and record the change
+   */
+  private void selectMultipath(final AddressFamilyKey afk, final NetworkLayerReachabilityInformation nlri, final Candidates prefix,
+      final Changes changed)
+  {
+    final MultipathGroup previous = prefix.group;
+    final MultipathGroup group = selectMultipath(prefix.paths, prefix.best);
+
+    if (group == previous)
+    {
+      return;
+    }
+
+    prefix.group = group;
+    this.releaseGroup(previous);
+    this.referenceGroup(group);
+
+    Map<NetworkLayerReachabilityInformation, MultipathGroup[]> afGroups = changed.groups.get(afk);
+
+    if (afGroups == null)
+    {
+      afGroups = new LinkedHashMap<NetworkLayerReachabilityInformation, MultipathGroup[]>();
+      changed.groups.put(afk, afGroups);
+    }
+
+    final MultipathGroup[] transition = afGroups.get(nlri);
+
+    if (transition == null)
+    {
+      afGroups.put(nlri, new MultipathGroup[] { previous, group });
+    }
+    else
+    {
+      // changed more than once in the batch, only the net change counts
+      transition[1] = group;
+    }
+  }
+
+  private void referenceGroup(final MultipathGroup group)
+  {
+    if (group != MultipathGroup.EMPTY)
+    {
+      this.groupUsage.merge(group, 1, Integer::sum);
+    }
+  }
+
+  private void releaseGroup(final MultipathGroup group)
+  {
+    if (group != MultipathGroup.EMPTY)
+    {
+      this.groupUsage.computeIfPresent(group, (g, usage) -> (usage > 1) ? (usage - 1) : null);
+    }
+  }
+
+  /**
+   * report the multipath group changes of a batch. A group left by all its prefixes for the same group is reported as replaced, all other
+   * changes are reported per prefix
+   */
+  private void publishMultipath(final Changes changed)
+  {
+    if (this.multipathListeners.isEmpty() || changed.groups.isEmpty())
+    {
+      return;
+    }
+
+    // the single group all prefixes moved to from a group, null if they moved to different groups
+    final Map<MultipathGroup, MultipathGroup> targets = new HashMap<MultipathGroup, MultipathGroup>();
+
+    for (final Map<NetworkLayerReachabilityInformation, MultipathGroup[]> afGroups : changed.groups.values())
+    {
+      for (final MultipathGroup[] transition : afGroups.values())
+      {
+        if (transition[0] == transition[1] || transition[0] == MultipathGroup.EMPTY)
+        {
+          continue;
+        }
+
+        if (!targets.containsKey(transition[0]))
+        {
+          targets.put(transition[0], transition[1]);
+        }
+        else if (targets.get(transition[0]) != transition[1])
+        {
+          targets.put(transition[0], null);
+        }
+      }
+    }
+
+    final Map<MultipathGroup, MultipathGroup> replacedGroups = new LinkedHashMap<MultipathGroup, MultipathGroup>();
+
+    for (final Entry<MultipathGroup, MultipathGroup> target : targets.entrySet())
+    {
+      // a group still referenced has not been left by all its prefixes
+      if (target.getValue() != null && !this.groupUsage.containsKey(target.getKey()))
+      {
+        replacedGroups.put(target.getKey(), target.getValue());
+      }
+    }
+
+    final Map<AddressFamilyKey, Map<NetworkLayerReachabilityInformation, MultipathGroup>> prefixChanges = new LinkedHashMap<AddressFamilyKey, Map<NetworkLayerReachabilityInformation, MultipathGroup>>();
+
+    for (final Entry<AddressFamilyKey, Map<NetworkLayerReachabilityInformation, MultipathGroup[]>> afGroups : changed.groups.entrySet())
+    {
+      final Map<NetworkLayerReachabilityInformation, MultipathGroup> afChanges = new LinkedHashMap<NetworkLayerReachabilityInformation, MultipathGroup>();
+
+      for (final Entry<NetworkLayerReachabilityInformation, MultipathGroup[]> entry : afGroups.getValue().entrySet())
+      {
+        final MultipathGroup[] transition = entry.getValue();
+
+        if (transition[0] != transition[1] && !replacedGroups.containsKey(transition[0]))
+        {
+          afChanges.put(entry.getKey(), transition[1]);
+        }
+      }
+
+      if (!afChanges.isEmpty())
+      {
+        prefixChanges.put(afGroups.getKey(), afChanges);
+      }
+    }
+
+    final MultipathUpdate update = new MultipathUpdate(replacedGroups, prefixChanges);
+
+    if (!update.isEmpty())
+    {
+      for (final MultipathListener listener : this.multipathListeners)
+      {
+        listener.multipathChanged(update);
+      }
+    }
+  }
+
+  /**
+   * collect the next hops of the paths equal to the best path in LOCAL_PREF, AS_PATH length, ORIGIN, MULTI_EXIT_DISC and peer type
+   *
+   * @return the multipath group, {@link MultipathGroup#EMPTY} if there is no best path
+   */
+  static MultipathGroup selectMultipath(final List<Candidate> paths, final Candidate best)
+  {
+    if (best == null)
+    {
+      return MultipathGroup.EMPTY;
+    }
+
+    final List<NextHop> nextHops = new ArrayList<NextHop>(paths.size());
+
+    for (final Candidate candidate : paths)
+    {
+      final PathDecisionKey key = candidate.key;
+
+      if (candidate == best || (key.getLocalPreference() == best.key.getLocalPreference()
+          && key.getAsPathLength() == best.key.getAsPathLength()
+          && key.getOrigin() == best.key.getOrigin()
+          && key.getMultiExitDisc() == best.key.getMultiExitDisc()
+          && key.isExternal() == best.key.isExternal()))
+      {
+        nextHops.add(candidate.route.getNextHop());
+      }
+    }
+
+    return MultipathGroup.intern(nextHops);
+  }
+
+  /**
+   * select the best of the candidate paths of a prefix
+   *
+   * @return the best path or <code>null</code> if there is no candidate
+   */
+  static Candidate selectBest(final List<Candidate> paths)
+  {
+    final int count = paths.size();
+
+    if (count <= 1)
+    {
+      return (count == 1) ? paths.get(0) : null;
+    }
+
+    final boolean[] eliminated = new boolean[count];
+    long localPreference = Long.MIN_VALUE;
+    int asPathLength = Integer.MAX_VALUE;
+    int origin = Integer.MAX_VALUE;
+
+    // a) highest degree of preference
+    for (final Candidate candidate : paths)
+    {
+      localPreference = Math.max(localPreference, candidate.key.getLocalPreference());
+    }
+
+    // b) shortest AS_PATH among the remaining paths
+    for (int i = 0; i < count; i++)
+    {
+      eliminated[i] = paths.get(i).key.getLocalPreference() != localPreference;
+
+      if (!eliminated[i])
+      {
+        asPathLength = Math.min(asPathLength, paths.get(i).key.getAsPathLength());
+      }
+    }
+
+    // c) lowest ORIGIN among the remaining paths
+    for (int i = 0; i < count; i++)
+    {
+      eliminated[i] |= paths.get(i).key.getAsPathLength() != asPathLength;
+
+      if (!eliminated[i])
+      {
+        origin = Math.min(origin, paths.get(i).key.getOrigin());
+      }
+    }
+
+    for (int i = 0; i < count; i++)
+    {
+      eliminated[i] |= paths.get(i).key.getOrigin() != origin;
+    }
+
+    // d) lowest MULTI_EXIT_DISC, compared among paths from the same neighbor AS only
+    for (int i = 0; i < count; i++)
+    {
+      if (eliminated[i])
+      {
+        continue;
+      }
+
+      final PathDecisionKey key = paths.get(i).key;
+
+      for (int j = 0; j < count; j++)
+      {
+        final PathDecisionKey other = paths.get(j).key;
+
+        if (!eliminated[j] && other.getNeighborAS() == key.getNeighborAS() && other.getMultiExitDisc() < key.getMultiExitDisc())
+        {
+          eliminated[i] = true;
+          break;
+        }
+      }
+    }
+
+    // e) external over internal peers
+    boolean external = false;
+
+    for (int i = 0; i < count; i++)
+    {
+      external |= !eliminated[i] && paths.get(i).key.isExternal();
+    }
+
+    // f) lowest BGP identifier, then lowest peer name
+    Candidate best = null;
+
+    for (int i = 0; i < count; i++)
+    {
+      final Candidate candidate = paths.get(i);
+
+      if (eliminated[i] || (external && !candidate.key.isExternal()))
+      {
+        continue;
+      }
+
+      if (best == null || isPreferredTieBreak(candidate.key, best.key))
+      {
+        best = candidate;
+      }
+    }
+
+    return best;
+  }
+
+  private static boolean isPreferredTieBreak(final PathDecisionKey key, final PathDecisionKey other)
+  {
+    final int identifiers = Long.compareUnsigned(key.getBgpIdentifier(), other.getBgpIdentifier());
+
+    return (identifiers != 0) ? (identifiers < 0) : (key.getPeerName().compareTo(other.getPeerName()) < 0);
+  }
+
+}
@@ -0,0 +1,195 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.decision.MultipathGroup.java
+ */
+package io.netlibs.bgp.rib.decision;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Iterators;
+
+import io.netlibs.bgp.protocol.NextHop;
+import io.netlibs.bgp.rib.NextHopTable;
+
+/**
+ * Immutable, sorted set of the next hops of the equal-cost paths of a prefix.
+ *
+ * Instances are only handed out by {@link #intern(Collection)}, which hash-conses them in a weak intern table. All prefixes reachable over
+ * the same set of next hops therefore reference the same group, which lets a forwarding plane program the group once and point the
+ * prefixes at it. A group is evicted from the intern table as soon as no prefix references it anymore.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+public final class MultipathGroup extends AbstractSet<NextHop>
+{
+
+  private static final Interner<MultipathGroup> internTable = Interners.newWeakInterner();
+  private static final AtomicLong idSource = new AtomicLong();
+
+  /**
+   * the group of an unreachable prefix
+   */
+  public static final MultipathGroup EMPTY = intern(null);
+
+  private final NextHop[] nextHops;
+  private final int hash;
+  private final long id;
+
+  private MultipathGroup(final NextHop[] nextHops)
+  {
+    int hash = 0;
+
+    for (final NextHop nextHop : nextHops)
+    {
+      hash += nextHop.hashCode();
+    }
+
+    this.nextHops = nextHops;
+    this.hash = hash;
+    this.id = idSource.incrementAndGet();
+  }
+
+  /**
+   * Obtain the shared group holding the given next hops.
+   *
+   * @param nextHops
+   *          the next hops, may be <code>null</code>. <code>null</code> elements are ignored
+   * @return the canonical group
+   */
+
+  public static MultipathGroup intern(final Collection<NextHop> nextHops)
+  {
+    if (nextHops instanceof MultipathGroup)
+    {
+      return (MultipathGroup) nextHops;
+    }
+
+    final TreeSet<NextHop> sorted = new TreeSet<NextHop>();
+
+    if (nextHops != null)
+    {
+      for (final NextHop nextHop : nextHops)
+      {
+        if (nextHop != null)
+        {
+          sorted.add(nextHop);
+        }
+      }
+    }
+
+    return internTable.intern(new MultipathGroup(sorted.toArray(new NextHop[sorted.size()])));
+  }
+
+  /**
+   * @return the identifier of this group. It is unique among all groups alive in this VM
+   */
+  public long getId()
+  {
+    return this.id;
+  }
+
+  /**
+   * resolve the group through a next hop table. A forwarding plane uses this to fail over all prefixes of the group at once when a next
+   * hop goes down, before the decision process got to the individual prefixes.
+   *
+   * @param table
+   *          the table holding the reachability of the next hops
+   * @return the next hops of the group which are currently reachable
+   */
+  public List<NextHop> getReachableNextHops(final NextHopTable table)
+  {
+    final List<NextHop> reachable = new ArrayList<NextHop>(this.nextHops.length);
+
+    for (final NextHop nextHop : this.nextHops)
+    {
+      if (table.isReachable(nextHop))
+      {
+        reachable.add(nextHop);
+      }
+    }
+
+    return reachable;
+  }
+
+  @Override
+  public Iterator<NextHop> iterator()
+  {
+    return Iterators.forArray(this.nextHops);
+  }
+
+  @Override
+  public int size()
+  {
+    return this.nextHops.length;
+  }
+
+  @Override
+  public boolean contains(final Object o)
+  {
+    if (!(o instanceof NextHop))
+    {
+      return false;
+    }
+
+    return Arrays.binarySearch(this.nextHops, (NextHop) o) >= 0;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.util.AbstractSet#hashCode()
+   */
+  @Override
+  public int hashCode()
+  {
+    return this.hash;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.util.AbstractSet#equals(java.lang.Object)
+   */
+  @Override
+  public boolean equals(final Object obj)
+  {
+    if (this == obj)
+    {
+      return true;
+    }
+
+    if (obj instanceof MultipathGroup)
+    {
+      final MultipathGroup o = (MultipathGroup) obj;
+
+      return (this.hash == o.hash) && Arrays.equals(this.nextHops, o.nextHops);
+    }
+
+    return super.equals(obj);
+  }
+
+}
@@ -0,0 +1,37 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.decision.MultipathListener.java
+ */
+package io.netlibs.bgp.rib.decision;
+
+/**
+ * Listener notified about changes of the equal-cost multipath groups selected by the decision process
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+public interface MultipathListener
+{
+
+  /**
+   * the multipath groups of prefixes changed. Called once per batch of changes processed by the decision process.
+   *
+   * @param update
+   *          the changes
+   */
+  public void multipathChanged(MultipathUpdate update);
+
+}
@@ -0,0 +1,76 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.decision.MultipathUpdate.java
+ */
+package io.netlibs.bgp.rib.decision;
+
+import java.util.Collections;
+import java.util.Map;
+
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import lombok.ToString;
+
+/**
+ * The multipath group changes resulting from one batch of changes processed by the decision process.
+ *
+ * When all prefixes referencing a group moved to the same new group, for example because a peer sharing the next hop set went away, the
+ * change is reported once as a replaced group instead of once per prefix. A forwarding plane then only has to reprogram the group. All
+ * other changes are reported per prefix. A prefix without any path left is reported with the {@link MultipathGroup#EMPTY} group.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+@ToString
+public final class MultipathUpdate
+{
+
+  private final Map<MultipathGroup, MultipathGroup> replacedGroups;
+  private final Map<AddressFamilyKey, Map<NetworkLayerReachabilityInformation, MultipathGroup>> prefixChanges;
+
+  MultipathUpdate(final Map<MultipathGroup, MultipathGroup> replacedGroups,
+      final Map<AddressFamilyKey, Map<NetworkLayerReachabilityInformation, MultipathGroup>> prefixChanges)
+  {
+    this.replacedGroups = Collections.unmodifiableMap(replacedGroups);
+    this.prefixChanges = Collections.unmodifiableMap(prefixChanges);
+  }
+
+  /**
+   * @return the groups no longer referenced by any prefix, mapped to the group all their prefixes reference now
+   */
+  public Map<MultipathGroup, MultipathGroup> getReplacedGroups()
+  {
+    return this.replacedGroups;
+  }
+
+  /**
+   * @return the new group of each prefix not covered by a replaced group, per address family
+   */
+  public Map<AddressFamilyKey, Map<NetworkLayerReachabilityInformation, MultipathGroup>> getPrefixChanges()
+  {
+    return this.prefixChanges;
+  }
+
+  /**
+   * @return <code>true</code> if no group changed
+   */
+  public boolean isEmpty()
+  {
+    return this.replacedGroups.isEmpty() && this.prefixChanges.isEmpty();
+  }
+
+}
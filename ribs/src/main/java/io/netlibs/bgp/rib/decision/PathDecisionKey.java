@@ -0,0 +1,205 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.decision.PathDecisionKey.java
+ */
+package io.netlibs.bgp.rib.decision;
+
+import io.netlibs.bgp.protocol.PathSegment;
+import io.netlibs.bgp.protocol.PathSegmentType;
+import io.netlibs.bgp.protocol.attributes.ASPathAttribute;
+import io.netlibs.bgp.protocol.attributes.LocalPrefPathAttribute;
+import io.netlibs.bgp.protocol.attributes.MultiExitDiscPathAttribute;
+import io.netlibs.bgp.protocol.attributes.OriginPathAttribute;
+import io.netlibs.bgp.protocol.attributes.PathAttribute;
+import io.netlibs.bgp.rib.Route;
+import lombok.ToString;
+
+/**
+ * The values the decision process (RFC 4271, section 9.1) ranks a path by, extracted once when the path is learned so that a best path
+ * selection never has to look at the path attributes again.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+@ToString
+public final class PathDecisionKey
+{
+
+  /**
+   * the degree of preference assumed for a path without LOCAL_PREF attribute
+   */
+  public static final long DEFAULT_LOCAL_PREFERENCE = 100;
+
+  private final long localPreference;
+  private final int asPathLength;
+  private final int origin;
+  private final long multiExitDisc;
+  private final int neighborAS;
+  private final boolean external;
+  private final long bgpIdentifier;
+  private final String peerName;
+
+  private PathDecisionKey(final long localPreference, final int asPathLength, final int origin, final long multiExitDisc,
+      final int neighborAS, final boolean external, final long bgpIdentifier, final String peerName)
+  {
+    this.localPreference = localPreference;
+    this.asPathLength = asPathLength;
+    this.origin = origin;
+    this.multiExitDisc = multiExitDisc;
+    this.neighborAS = neighborAS;
+    this.external = external;
+    this.bgpIdentifier = bgpIdentifier;
+    this.peerName = peerName;
+  }
+
+  /**
+   * extract the decision key of a path
+   *
+   * @param route
+   *          the path
+   * @param peerName
+   *          the peer the path has been learned from
+   * @param external
+   *          <code>true</code> if the path has been learned from an external peer
+   * @param bgpIdentifier
+   *          the BGP identifier of the peer
+   * @return the decision key
+   */
+  public static PathDecisionKey of(final Route route, final String peerName, final boolean external, final long bgpIdentifier)
+  {
+    long localPreference = DEFAULT_LOCAL_PREFERENCE;
+    int asPathLength = 0;
+    int origin = 0;
+    long multiExitDisc = 0;
+    int neighborAS = 0;
+
+    for (final PathAttribute attribute : route.getPathAttributes())
+    {
+      if (attribute instanceof LocalPrefPathAttribute)
+      {
+        localPreference = ((LocalPrefPathAttribute) attribute).getLocalPreference() & 0xffffffffL;
+      }
+      else if (attribute instanceof OriginPathAttribute)
+      {
+        origin = ((OriginPathAttribute) attribute).getOrigin().ordinal();
+      }
+      else if (attribute instanceof MultiExitDiscPathAttribute)
+      {
+        multiExitDisc = ((MultiExitDiscPathAttribute) attribute).getDiscriminator() & 0xffffffffL;
+      }
+    }
+
+    // AS_PATH and AS4_PATH of a path from a 2-octet AS speaker describe the same path, only the merged one is ranked
+    final ASPathAttribute asPath = route.getPathAttributes().getASPath();
+
+    if (asPath != null)
+    {
+      boolean first = true;
+
+      for (final PathSegment segment : asPath.getPathSegments())
+      {
+        if (segment.getPathSegmentType() == PathSegmentType.AS_SEQUENCE)
+        {
+          asPathLength += segment.getAses().size();
+
+          if (first && !segment.getAses().isEmpty())
+          {
+            neighborAS = segment.getAses().get(0);
+          }
+        }
+        else if (segment.getPathSegmentType() == PathSegmentType.AS_SET)
+        {
+          // an AS_SET counts as one AS no matter how many ASes it contains
+          asPathLength++;
+        }
+
+        // confederation segments neither count towards the length nor name the neighbor AS
+        if (segment.getPathSegmentType() == PathSegmentType.AS_SEQUENCE || segment.getPathSegmentType() == PathSegmentType.AS_SET)
+        {
+          first = false;
+        }
+      }
+    }
+
+    return new PathDecisionKey(localPreference, asPathLength, origin, multiExitDisc, neighborAS, external, bgpIdentifier, peerName);
+  }
+
+  /**
+   * @return the degree of preference, higher is better
+   */
+  public long getLocalPreference()
+  {
+    return this.localPreference;
+  }
+
+  /**
+   * @return the number of ASes in the AS_PATH, lower is better
+   */
+  public int getAsPathLength()
+  {
+    return this.asPathLength;
+  }
+
+  /**
+   * @return the ordinal of the ORIGIN, lower is better
+   */
+  public int getOrigin()
+  {
+    return this.origin;
+  }
+
+  /**
+   * @return the MULTI_EXIT_DISC, lower is better among paths from the same neighbor AS
+   */
+  public long getMultiExitDisc()
+  {
+    return this.multiExitDisc;
+  }
+
+  /**
+   * @return the leftmost AS of the AS_PATH or 0 if the path originates in the local AS
+   */
+  public int getNeighborAS()
+  {
+    return this.neighborAS;
+  }
+
+  /**
+   * @return <code>true</code> if the path has been learned from an external peer
+   */
+  public boolean isExternal()
+  {
+    return this.external;
+  }
+
+  /**
+   * @return the BGP identifier of the peer, lower is better
+   */
+  public long getBgpIdentifier()
+  {
+    return this.bgpIdentifier;
+  }
+
+  /**
+   * @return the name of the peer, the final tie breaker
+   */
+  public String getPeerName()
+  {
+    return this.peerName;
+  }
+
+}
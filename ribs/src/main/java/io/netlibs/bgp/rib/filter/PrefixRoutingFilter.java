@@ -8,7 +8,7 @@ import java.util.TreeSet;
 
 import io.netlibs.bgp.config.nodes.PrefixRoutingFilterConfiguration;
 import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
-import io.netlibs.bgp.rib.NlriComparator;
+import io.netlibs.bgp.rib.NlriView;
 import io.netlibs.bgp.rib.Route;
 
 /**
@@ -36,12 +36,13 @@ public class PrefixRoutingFilter implements RoutingFilter
   {
 
     boolean match = false;
+    // label, RD and prefix of the route are compared in place against each filter prefix
+    final NlriView view = NlriView.of(route.getAddressFamilyKey(), route.getNlri());
 
     for (final NetworkLayerReachabilityInformation filterPrefix : this.filterPrefixes)
     {
 
-      if (NlriComparator.isPrefixOf(route.getAddressFamilyKey(), filterPrefix, route.getNlri())
-          || NlriComparator.equals(route.getAddressFamilyKey(), filterPrefix, route.getNlri()))
+      if (view.isCoveredBy(filterPrefix))
       {
         match = true;
         break;
@@ -0,0 +1,543 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.mrt.MrtDumpReader.java
+ */
+package io.netlibs.bgp.rib.mrt;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import io.netlibs.bgp.netty.codec.UpdatePacketDecoder;
+import io.netlibs.bgp.protocol.AddressFamily;
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.BGPv4Constants;
+import io.netlibs.bgp.protocol.BinaryNextHop;
+import io.netlibs.bgp.protocol.InetAddressNextHop;
+import io.netlibs.bgp.protocol.NLRICodec;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.NextHop;
+import io.netlibs.bgp.protocol.RIBSide;
+import io.netlibs.bgp.protocol.SubsequentAddressFamily;
+import io.netlibs.bgp.protocol.attributes.ASPathAttribute;
+import io.netlibs.bgp.protocol.attributes.PathAttribute;
+import io.netlibs.bgp.rib.PathAttributeSet;
+import io.netlibs.bgp.rib.PeerRoutingInformationBase;
+import io.netlibs.bgp.rib.PeerRoutingInformationBaseManager;
+import io.netlibs.bgp.rib.RibBatch;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Loads an MRT TABLE_DUMP_V2 file (RFC 6396) into the RIBs of a {@link PeerRoutingInformationBaseManager}, e.g. to run benchmarks against
+ * real-world tables as published by route collectors.
+ *
+ * The file is mapped into memory and decoded in place, without building an UPDATE packet per route. The path attributes of a RIB entry are
+ * decoded and interned once for every distinct encoding seen recently, most routes of a table share their path attributes with many
+ * others. Each peer of the peer index table gets its own peer RIB, named by its address unless told otherwise, and the routes are applied
+ * in {@link RibBatch}es of a bounded number of routes, grouped by their shared path attributes and next hop. Missing RIBs are allocated.
+ *
+ * Records of other MRT types and subtypes, as well as entries of unknown address families, are skipped. A reader is not thread-safe.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+@Slf4j
+public class MrtDumpReader
+{
+
+  private static final int DEFAULT_BATCH_SIZE = 8192;
+  private static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+  private static final int ATTRIBUTE_CACHE_SIZE = 1 << 16;
+
+  /**
+   * the path attributes and next hops decoded from the attributes of a RIB entry
+   */
+  private static final class EntryAttributes
+  {
+    private final PathAttributeSet pathAttributes;
+    private final NextHop nextHopAttribute;
+    private final NextHop multiProtocolNextHop;
+
+    private EntryAttributes(final PathAttributeSet pathAttributes, final NextHop nextHopAttribute, final NextHop multiProtocolNextHop)
+    {
+      this.pathAttributes = pathAttributes;
+      this.nextHopAttribute = nextHopAttribute;
+      this.multiProtocolNextHop = multiProtocolNextHop;
+    }
+
+    private NextHop nextHop(final AddressFamilyKey afk)
+    {
+      if (MrtFormat.usesNextHopAttribute(afk))
+      {
+        return (this.nextHopAttribute != null) ? this.nextHopAttribute : this.multiProtocolNextHop;
+      }
+
+      return (this.multiProtocolNextHop != null) ? this.multiProtocolNextHop : this.nextHopAttribute;
+    }
+  }
+
+  /**
+   * the routes of a peer waiting to be applied
+   */
+  private static final class PeerState
+  {
+    private final PeerRoutingInformationBase prib;
+    private RibBatch batch = new RibBatch();
+
+    // the routes sharing their address family and attributes with the previous route
+    private AddressFamilyKey afk;
+    private EntryAttributes attributes;
+    private List<NetworkLayerReachabilityInformation> nlris;
+
+    private PeerState(final PeerRoutingInformationBase prib)
+    {
+      this.prib = prib;
+    }
+
+    private void add(final AddressFamilyKey afk, final EntryAttributes attributes, final NetworkLayerReachabilityInformation nlri)
+    {
+      if ((this.attributes != attributes) || !afk.equals(this.afk))
+      {
+        this.endRun();
+
+        this.afk = afk;
+        this.attributes = attributes;
+        this.nlris = new ArrayList<NetworkLayerReachabilityInformation>();
+      }
+
+      this.nlris.add(nlri);
+    }
+
+    private void endRun()
+    {
+      if (this.nlris != null)
+      {
+        this.batch.announce(this.afk, this.nlris, this.attributes.pathAttributes, this.attributes.nextHop(this.afk));
+        this.nlris = null;
+        this.attributes = null;
+      }
+    }
+
+    private void apply(final RIBSide side)
+    {
+      this.endRun();
+
+      if (!this.batch.isEmpty())
+      {
+        for (final AddressFamilyKey family : this.batch.getAddressFamilies())
+        {
+          this.prib.allocateRoutingInformationBase(side, family);
+        }
+
+        this.prib.apply(side, this.batch);
+        this.batch = new RibBatch();
+      }
+    }
+  }
+
+  private final Path file;
+  private final int batchSize;
+  private final int windowSize;
+  private final UpdatePacketDecoder decoder = new UpdatePacketDecoder();
+
+  // keyed by the encoded attributes. Lookups pass a slice of the mapped file, only entries added hold a copy
+  private final Map<ByteBuf, EntryAttributes> attributeCache = new LinkedHashMap<ByteBuf, EntryAttributes>(1024, 0.75f, true) {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<ByteBuf, EntryAttributes> eldest)
+    {
+      return (this.size() > ATTRIBUTE_CACHE_SIZE);
+    }
+
+  };
+
+  private List<MrtPeer> peers = Collections.emptyList();
+
+  // state of a running load
+  private FileChannel channel;
+  private long windowBase;
+  private ByteBuf window;
+  private final List<PeerState> peerStates = new ArrayList<PeerState>();
+  private int pending;
+  private long routes;
+  private long skipped;
+
+  /**
+   * @param file
+   *          the MRT file to read
+   */
+  public MrtDumpReader(final Path file)
+  {
+    this(file, DEFAULT_BATCH_SIZE);
+  }
+
+  /**
+   * @param file
+   *          the MRT file to read
+   * @param batchSize
+   *          the number of routes collected before they are applied to the RIBs
+   */
+  public MrtDumpReader(final Path file, final int batchSize)
+  {
+    this(file, batchSize, DEFAULT_WINDOW_SIZE);
+  }
+
+  MrtDumpReader(final Path file, final int batchSize, final int windowSize)
+  {
+    this.file = file;
+    this.batchSize = batchSize;
+    this.windowSize = windowSize;
+  }
+
+  /**
+   * Load the routes of the dump into peer RIBs named by the address of the peers
+   *
+   * @param pribm
+   *          the manager of the peer RIBs to load the routes into
+   * @param side
+   *          the side of the RIBs
+   * @return the number of routes loaded
+   * @throws IOException
+   *           if the file cannot be read or is malformed
+   */
+  public long load(final PeerRoutingInformationBaseManager pribm, final RIBSide side) throws IOException
+  {
+    return this.load(pribm, side, peer -> peer.getAddress().getHostAddress());
+  }
+
+  /**
+   * Load the routes of the dump into peer RIBs
+   *
+   * @param pribm
+   *          the manager of the peer RIBs to load the routes into
+   * @param side
+   *          the side of the RIBs
+   * @param peerNames
+   *          maps a peer of the peer index table to the name of its peer RIB
+   * @return the number of routes loaded
+   * @throws IOException
+   *           if the file cannot be read or is malformed
+   */
+  public long load(final PeerRoutingInformationBaseManager pribm, final RIBSide side, final Function<MrtPeer, String> peerNames)
+      throws IOException
+  {
+    this.peers = Collections.emptyList();
+    this.peerStates.clear();
+    this.pending = 0;
+    this.routes = 0;
+    this.skipped = 0;
+
+    try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ))
+    {
+      final long size = channel.size();
+      long position = 0;
+
+      this.channel = channel;
+      this.window = null;
+
+      while (position < size)
+      {
+        if ((size - position) < MrtFormat.HEADER_SIZE)
+        {
+          throw new IOException("truncated MRT record header at offset " + position + " of " + this.file);
+        }
+
+        this.map(position, MrtFormat.HEADER_SIZE);
+
+        final int offset = (int) (position - this.windowBase);
+        final int type = this.window.getUnsignedShort(offset + 4);
+        final int subtype = this.window.getUnsignedShort(offset + 6);
+        final long length = this.window.getUnsignedInt(offset + 8);
+
+        if ((position + MrtFormat.HEADER_SIZE + length) > size)
+        {
+          throw new IOException("truncated MRT record at offset " + position + " of " + this.file);
+        }
+
+        this.map(position, MrtFormat.HEADER_SIZE + length);
+
+        final ByteBuf message = this.window.slice((int) (position - this.windowBase) + MrtFormat.HEADER_SIZE, (int) length);
+
+        try
+        {
+          if (type != MrtFormat.TYPE_TABLE_DUMP_V2)
+          {
+            this.skipped++;
+          }
+          else if (subtype == MrtFormat.SUBTYPE_PEER_INDEX_TABLE)
+          {
+            this.readPeerIndexTable(message, pribm, side, peerNames);
+          }
+          else if ((subtype >= MrtFormat.SUBTYPE_RIB_IPV4_UNICAST) && (subtype <= MrtFormat.SUBTYPE_RIB_GENERIC))
+          {
+            this.readRib(message, subtype, side);
+          }
+          else
+          {
+            this.skipped++;
+          }
+        }
+        catch (final RuntimeException e)
+        {
+          throw new IOException("malformed MRT record at offset " + position + " of " + this.file, e);
+        }
+
+        position += MrtFormat.HEADER_SIZE + length;
+      }
+
+      this.applyPending(side);
+    }
+    finally
+    {
+      this.channel = null;
+      this.window = null;
+      this.peerStates.clear();
+      this.attributeCache.clear();
+    }
+
+    if (this.skipped > 0)
+    {
+      log.debug("skipped {} records of {}", this.skipped, this.file);
+    }
+
+    return this.routes;
+  }
+
+  /**
+   * @return the peers listed in the peer index table of the dump loaded last
+   */
+  public List<MrtPeer> getPeers()
+  {
+    return this.peers;
+  }
+
+  /**
+   * make sure the given range of the file is mapped. A new window is mapped starting at the range if it is not
+   */
+  private void map(final long position, final long length) throws IOException
+  {
+    if ((this.window != null) && (position >= this.windowBase)
+        && ((position + length) <= (this.windowBase + this.window.capacity())))
+    {
+      return;
+    }
+
+    final long mapped = Math.min(this.windowSize, this.channel.size() - position);
+
+    if (length > mapped)
+    {
+      throw new IOException("MRT record at offset " + position + " of " + this.file + " exceeds the mapping window");
+    }
+
+    this.windowBase = position;
+    this.window = Unpooled.wrappedBuffer(this.channel.map(FileChannel.MapMode.READ_ONLY, position, mapped));
+  }
+
+  private void readPeerIndexTable(final ByteBuf message, final PeerRoutingInformationBaseManager pribm, final RIBSide side,
+      final Function<MrtPeer, String> peerNames) throws IOException
+  {
+    final List<MrtPeer> peers = new ArrayList<MrtPeer>();
+
+    message.skipBytes(4); // collector BGP identifier
+    message.skipBytes(message.readUnsignedShort()); // view name
+
+    for (int count = message.readUnsignedShort(); count > 0; count--)
+    {
+      final int type = message.readUnsignedByte();
+      final byte[] bgpIdentifier = new byte[4];
+      final byte[] address = new byte[((type & MrtFormat.PEER_TYPE_IPV6) != 0) ? 16 : 4];
+
+      message.readBytes(bgpIdentifier);
+      message.readBytes(address);
+
+      final int asNumber = ((type & MrtFormat.PEER_TYPE_AS4) != 0) ? message.readInt() : message.readUnsignedShort();
+      final MrtPeer peer = new MrtPeer((Inet4Address) InetAddress.getByAddress(bgpIdentifier), InetAddress.getByAddress(address), asNumber);
+
+      peers.add(peer);
+    }
+
+    // routes of a previous table refer to its peer indices
+    this.applyPending(side);
+    this.peerStates.clear();
+
+    for (final MrtPeer peer : peers)
+    {
+      this.peerStates.add(new PeerState(pribm.peerRoutingInformationBase(peerNames.apply(peer))));
+    }
+
+    this.peers = Collections.unmodifiableList(peers);
+  }
+
+  private void readRib(final ByteBuf message, final int subtype, final RIBSide side) throws IOException
+  {
+    final AddressFamilyKey afk;
+    final NetworkLayerReachabilityInformation nlri;
+
+    message.skipBytes(4); // sequence number
+
+    if (subtype == MrtFormat.SUBTYPE_RIB_GENERIC)
+    {
+      final int afi = message.readUnsignedShort();
+      final int safi = message.readUnsignedByte();
+
+      try
+      {
+        afk = new AddressFamilyKey(AddressFamily.fromCode(afi), SubsequentAddressFamily.fromCode(safi));
+      }
+      catch (final IllegalArgumentException e)
+      {
+        this.skipped++;
+
+        return;
+      }
+
+      nlri = NLRICodec.decodeNLRI(message);
+    }
+    else
+    {
+      final int prefixLength = message.readUnsignedByte();
+      final byte[] prefix = new byte[NetworkLayerReachabilityInformation.calculateOctetsForPrefixLength(prefixLength)];
+
+      message.readBytes(prefix);
+
+      afk = MrtFormat.ribAddressFamily(subtype);
+      nlri = new NetworkLayerReachabilityInformation(prefixLength, prefix);
+    }
+
+    for (int count = message.readUnsignedShort(); count > 0; count--)
+    {
+      final int peerIndex = message.readUnsignedShort();
+
+      message.skipBytes(4); // originated time
+
+      final ByteBuf encoded = message.readSlice(message.readUnsignedShort());
+
+      if (peerIndex >= this.peerStates.size())
+      {
+        throw new IOException("RIB entry refers to unknown peer index " + peerIndex);
+      }
+
+      this.peerStates.get(peerIndex).add(afk, this.attributes(encoded), nlri);
+      this.routes++;
+
+      if (++this.pending >= this.batchSize)
+      {
+        this.applyPending(side);
+      }
+    }
+  }
+
+  private void applyPending(final RIBSide side)
+  {
+    for (final PeerState peer : this.peerStates)
+    {
+      peer.apply(side);
+    }
+
+    this.pending = 0;
+  }
+
+  private EntryAttributes attributes(final ByteBuf encoded) throws IOException
+  {
+    EntryAttributes attributes = this.attributeCache.get(encoded);
+
+    if (attributes == null)
+    {
+      attributes = this.decodeAttributes(encoded.duplicate());
+      this.attributeCache.put(Unpooled.copiedBuffer(encoded), attributes);
+    }
+
+    return attributes;
+  }
+
+  /**
+   * decode the path attributes of a RIB entry. AS_PATH and the next hops are encoded differently in MRT, the other attributes are decoded
+   * as in an UPDATE packet
+   */
+  private EntryAttributes decodeAttributes(final ByteBuf encoded) throws IOException
+  {
+    final List<PathAttribute> pathAttributes = new ArrayList<PathAttribute>();
+    NextHop nextHopAttribute = null;
+    NextHop multiProtocolNextHop = null;
+
+    while (encoded.isReadable())
+    {
+      final int start = encoded.readerIndex();
+      final int flagsType = encoded.readUnsignedShort();
+      final int typeCode = flagsType & BGPv4Constants.BGP_PATH_ATTRIBUTE_TYPE_MASK;
+      final int valueLength = ((flagsType & BGPv4Constants.BGP_PATH_ATTRIBUTE_EXTENDED_LENGTH_BIT) != 0) ? encoded.readUnsignedShort()
+          : encoded.readUnsignedByte();
+      final ByteBuf value = encoded.readSlice(valueLength);
+
+      switch (typeCode)
+      {
+        case BGPv4Constants.BGP_PATH_ATTRIBUTE_TYPE_AS_PATH:
+        {
+          final ASPathAttribute asPath = MrtFormat.readASPath(value);
+
+          asPath.setPartial((flagsType & BGPv4Constants.BGP_PATH_ATTRIBUTE_PARTIAL_BIT) != 0);
+          pathAttributes.add(asPath);
+        }
+          break;
+        case BGPv4Constants.BGP_PATH_ATTRIBUTE_TYPE_AS4_PATH:
+          // AS_PATH carries 4-octet AS numbers already
+          break;
+        case BGPv4Constants.BGP_PATH_ATTRIBUTE_TYPE_NEXT_HOP:
+        {
+          final byte[] address = new byte[valueLength];
+
+          value.readBytes(address);
+          nextHopAttribute = new InetAddressNextHop<Inet4Address>((Inet4Address) InetAddress.getByAddress(address));
+        }
+          break;
+        case BGPv4Constants.BGP_PATH_ATTRIBUTE_TYPE_MP_REACH_NLRI:
+        {
+          // some dumps carry the complete attribute rather than the abbreviated one, skip AFI and SAFI then
+          if (value.getUnsignedByte(value.readerIndex()) != (valueLength - 1))
+          {
+            value.skipBytes(3);
+          }
+
+          final byte[] address = new byte[value.readUnsignedByte()];
+
+          value.readBytes(address);
+          multiProtocolNextHop = new BinaryNextHop(address);
+        }
+          break;
+        default:
+          pathAttributes.addAll(this.decoder.decodePathAttributes(encoded.slice(start, encoded.readerIndex() - start)));
+          break;
+      }
+    }
+
+    return new EntryAttributes(PathAttributeSet.intern(pathAttributes), nextHopAttribute, multiProtocolNextHop);
+  }
+
+}
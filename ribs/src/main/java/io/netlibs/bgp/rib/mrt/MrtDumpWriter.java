@@ -0,0 +1,458 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.mrt.MrtDumpWriter.java
+ */
+package io.netlibs.bgp.rib.mrt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import io.netlibs.bgp.netty.protocol.update.PathAttributeCodec;
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.BGPv4Constants;
+import io.netlibs.bgp.protocol.BinaryNextHop;
+import io.netlibs.bgp.protocol.InetAddressNextHop;
+import io.netlibs.bgp.protocol.NLRICodec;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.NextHop;
+import io.netlibs.bgp.protocol.attributes.ASPathAttribute;
+import io.netlibs.bgp.protocol.attributes.MultiProtocolReachableNLRI;
+import io.netlibs.bgp.protocol.attributes.MultiProtocolUnreachableNLRI;
+import io.netlibs.bgp.protocol.attributes.NextHopPathAttribute;
+import io.netlibs.bgp.protocol.attributes.PathAttribute;
+import io.netlibs.bgp.rib.NlriComparator;
+import io.netlibs.bgp.rib.PathAttributeSet;
+import io.netlibs.bgp.rib.Route;
+import io.netlibs.bgp.rib.RoutingInformationBase;
+import io.netlibs.bgp.rib.RoutingInformationBaseSnapshot;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Writes the content of RIBs into an MRT TABLE_DUMP_V2 file (RFC 6396), as produced by route collectors, for offline analysis with the
+ * usual MRT tools.
+ *
+ * The dump is encoded straight from snapshots of the RIBs: the routes of all RIBs of an address family are merged by prefix, each prefix
+ * becomes one RIB record holding the routes of every peer announcing it. Records are encoded into a buffer of fixed size which is written
+ * to the file whenever it fills up, so the memory needed does not depend on the size of the RIBs. The encoded path attributes of the most
+ * recently used path attribute sets are cached, most routes share their path attributes with many others.
+ *
+ * Since RIBs do not record when a route has been received, the originated time of all routes is the time the dump has been started.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+public class MrtDumpWriter implements Closeable
+{
+
+  private static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+  private static final int ATTRIBUTE_CACHE_SIZE = 1 << 16;
+
+  /**
+   * a RIB being merged into the dump, positioned on its next route
+   */
+  private static final class Cursor
+  {
+    private final Iterator<Route> routes;
+    private final int peerIndex;
+    private Route route;
+
+    private Cursor(final Iterator<Route> routes, final int peerIndex)
+    {
+      this.routes = routes;
+      this.peerIndex = peerIndex;
+    }
+
+    private boolean advance()
+    {
+      this.route = (this.routes.hasNext() ? this.routes.next() : null);
+
+      return (this.route != null);
+    }
+  }
+
+  private final FileChannel channel;
+  private final Inet4Address collectorId;
+  private final String viewName;
+  private final int bufferSize;
+  private final ByteBuf buffer;
+
+  // the encoded attributes of the sets used recently, shared by all RIB entries using them. The snapshots hold the sets strongly while
+  // the dump runs, so the least recently used ones are evicted
+  private final Map<PathAttributeSet, byte[]> encodedAttributes = new LinkedHashMap<PathAttributeSet, byte[]>(1024, 0.75f, true) {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<PathAttributeSet, byte[]> eldest)
+    {
+      return (this.size() > ATTRIBUTE_CACHE_SIZE);
+    }
+
+  };
+  private final List<Cursor> entries = new ArrayList<Cursor>();
+
+  private int timestamp;
+  private int sequence;
+  private boolean dumped;
+
+  /**
+   * Create a dump file, replacing an existing one
+   *
+   * @param file
+   *          the file to write
+   * @param collectorId
+   *          the BGP identifier of the dumping router
+   * @param viewName
+   *          the name of the dumped view, may be empty
+   * @throws IOException
+   *           if the file cannot be created
+   */
+  public MrtDumpWriter(final Path file, final Inet4Address collectorId, final String viewName) throws IOException
+  {
+    this(file, collectorId, viewName, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Create a dump file, replacing an existing one
+   *
+   * @param file
+   *          the file to write
+   * @param collectorId
+   *          the BGP identifier of the dumping router
+   * @param viewName
+   *          the name of the dumped view, may be empty
+   * @param bufferSize
+   *          the number of octets collected before they are written to the file
+   * @throws IOException
+   *           if the file cannot be created
+   */
+  public MrtDumpWriter(final Path file, final Inet4Address collectorId, final String viewName, final int bufferSize) throws IOException
+  {
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    this.collectorId = collectorId;
+    this.viewName = (viewName != null) ? viewName : "";
+    this.bufferSize = bufferSize;
+    this.buffer = Unpooled.directBuffer(bufferSize);
+  }
+
+  /**
+   * Dump RIBs. The peer index table lists the peers in the order they are first mapped to. A dump file holds one dump only.
+   *
+   * @param ribs
+   *          the RIBs to dump, each mapped to the peer to report its routes for. RIBs of different address families may map to the same
+   *          peer
+   * @return the number of routes written
+   * @throws IOException
+   *           if the file cannot be written
+   */
+  public long dump(final Map<RoutingInformationBase, MrtPeer> ribs) throws IOException
+  {
+    if (this.dumped)
+    {
+      throw new IllegalStateException("the file holds a dump already");
+    }
+
+    this.dumped = true;
+    this.timestamp = (int) (System.currentTimeMillis() / 1000L);
+
+    final Map<MrtPeer, Integer> peers = new LinkedHashMap<MrtPeer, Integer>();
+    final Map<AddressFamilyKey, List<Cursor>> families = new TreeMap<AddressFamilyKey, List<Cursor>>();
+
+    for (final Map.Entry<RoutingInformationBase, MrtPeer> entry : ribs.entrySet())
+    {
+      final Integer peerIndex = peers.computeIfAbsent(entry.getValue(), peer -> peers.size());
+      final RoutingInformationBaseSnapshot snapshot = entry.getKey().snapshot();
+
+      families.computeIfAbsent(snapshot.getAddressFamilyKey(), afk -> new ArrayList<Cursor>())
+          .add(new Cursor(snapshot.iterator(), peerIndex));
+    }
+
+    if (peers.size() > 0xffff)
+    {
+      throw new IllegalArgumentException("cannot dump more than 65535 peers");
+    }
+
+    this.writePeerIndexTable(peers.keySet());
+
+    long routes = 0;
+
+    for (final Map.Entry<AddressFamilyKey, List<Cursor>> family : families.entrySet())
+    {
+      routes += this.writeAddressFamily(family.getKey(), family.getValue());
+    }
+
+    this.flush();
+
+    return routes;
+  }
+
+  /**
+   * @return the number of octets written to the file so far
+   * @throws IOException
+   *           if the size cannot be determined
+   */
+  public long getSize() throws IOException
+  {
+    return this.channel.position();
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    try
+    {
+      this.flush();
+    }
+    finally
+    {
+      this.buffer.release();
+      this.channel.close();
+    }
+  }
+
+  private void writePeerIndexTable(final Iterable<MrtPeer> peers) throws IOException
+  {
+    final int start = this.beginRecord(MrtFormat.SUBTYPE_PEER_INDEX_TABLE);
+    final byte[] name = this.viewName.getBytes(StandardCharsets.UTF_8);
+    final int countIndex;
+    int count = 0;
+
+    this.buffer.writeBytes(this.collectorId.getAddress());
+    this.buffer.writeShort(name.length);
+    this.buffer.writeBytes(name);
+
+    countIndex = this.buffer.writerIndex();
+    this.buffer.writeShort(0);
+
+    for (final MrtPeer peer : peers)
+    {
+      final boolean ipv6 = (peer.getAddress() instanceof Inet6Address);
+
+      this.buffer.writeByte(MrtFormat.PEER_TYPE_AS4 | (ipv6 ? MrtFormat.PEER_TYPE_IPV6 : 0));
+      this.buffer.writeBytes(peer.getBgpIdentifier().getAddress());
+      this.buffer.writeBytes(peer.getAddress().getAddress());
+      this.buffer.writeInt(peer.getAsNumber());
+      count++;
+    }
+
+    this.buffer.setShort(countIndex, count);
+    this.endRecord(start);
+  }
+
+  /**
+   * merge the RIBs of an address family by prefix and write a RIB record per prefix
+   */
+  private long writeAddressFamily(final AddressFamilyKey afk, final List<Cursor> cursors) throws IOException
+  {
+    final int subtype = MrtFormat.ribSubtype(afk);
+    final Comparator<NetworkLayerReachabilityInformation> order = NlriComparator.treeOrder(afk);
+    final PriorityQueue<Cursor> pending = new PriorityQueue<Cursor>(Math.max(1, cursors.size()), (left, right) -> {
+      final int result = order.compare(left.route.getNlri(), right.route.getNlri());
+
+      return (result != 0) ? result : Integer.compare(left.peerIndex, right.peerIndex);
+    });
+    long routes = 0;
+
+    for (final Cursor cursor : cursors)
+    {
+      if (cursor.advance())
+      {
+        pending.add(cursor);
+      }
+    }
+
+    while (!pending.isEmpty())
+    {
+      final NetworkLayerReachabilityInformation nlri = pending.peek().route.getNlri();
+
+      // RIBs of labelled address families may hold the same key with different labels, those go into separate records
+      while (!pending.isEmpty() && nlri.equals(pending.peek().route.getNlri()))
+      {
+        this.entries.add(pending.poll());
+      }
+
+      this.writeRibRecord(afk, subtype, nlri);
+      routes += this.entries.size();
+
+      for (final Cursor cursor : this.entries)
+      {
+        if (cursor.advance())
+        {
+          pending.add(cursor);
+        }
+      }
+
+      this.entries.clear();
+    }
+
+    return routes;
+  }
+
+  private void writeRibRecord(final AddressFamilyKey afk, final int subtype, final NetworkLayerReachabilityInformation nlri)
+      throws IOException
+  {
+    final int start = this.beginRecord(subtype);
+
+    this.buffer.writeInt(this.sequence++);
+
+    if (subtype == MrtFormat.SUBTYPE_RIB_GENERIC)
+    {
+      this.buffer.writeShort(afk.getAddressFamily().toCode());
+      this.buffer.writeByte(afk.getSubsequentAddressFamily().toCode());
+      NLRICodec.encodeNLRI(nlri, this.buffer);
+    }
+    else
+    {
+      this.buffer.writeByte(nlri.getPrefixLength());
+      this.buffer.writeBytes(nlri.getPrefix(), 0, NetworkLayerReachabilityInformation.calculateOctetsForPrefixLength(nlri.getPrefixLength()));
+    }
+
+    this.buffer.writeShort(this.entries.size());
+
+    for (final Cursor cursor : this.entries)
+    {
+      final int lengthIndex;
+
+      this.buffer.writeShort(cursor.peerIndex);
+      this.buffer.writeInt(this.timestamp);
+
+      lengthIndex = this.buffer.writerIndex();
+      this.buffer.writeShort(0);
+
+      this.buffer.writeBytes(this.encodedAttributes.computeIfAbsent(cursor.route.getPathAttributes(), this::encodeAttributes));
+      this.writeNextHop(afk, cursor.route.getNextHop());
+
+      this.buffer.setShort(lengthIndex, this.buffer.writerIndex() - lengthIndex - 2);
+    }
+
+    this.endRecord(start);
+  }
+
+  /**
+   * encode the path attributes of a set, leaving out the next hop which is written per route
+   */
+  private byte[] encodeAttributes(final PathAttributeSet pathAttributes)
+  {
+    final ByteBuf encoded = Unpooled.buffer();
+
+    for (final PathAttribute attr : pathAttributes)
+    {
+      // AS_PATH and AS4_PATH are replaced by the merged AS path below
+      if (!(attr instanceof ASPathAttribute) && !(attr instanceof NextHopPathAttribute) && !(attr instanceof MultiProtocolReachableNLRI)
+          && !(attr instanceof MultiProtocolUnreachableNLRI))
+      {
+        PathAttributeCodec.encodePathAttribute(attr, encoded);
+      }
+    }
+
+    final ASPathAttribute asPath = pathAttributes.getASPath();
+
+    if (asPath != null)
+    {
+      // TABLE_DUMP_V2 always carries 4-octet AS numbers, so the AS path is written as one AS_PATH
+      MrtFormat.writeASPath(encoded, asPath);
+    }
+
+    final byte[] result = new byte[encoded.readableBytes()];
+
+    encoded.readBytes(result);
+
+    return result;
+  }
+
+  private void writeNextHop(final AddressFamilyKey afk, final NextHop nextHop)
+  {
+    if (nextHop == null)
+    {
+      return;
+    }
+
+    final byte[] address;
+
+    if (nextHop instanceof InetAddressNextHop)
+    {
+      address = ((InetAddressNextHop<?>) nextHop).getAddress().getAddress();
+    }
+    else
+    {
+      address = ((BinaryNextHop) nextHop).getAddress();
+    }
+
+    if (MrtFormat.usesNextHopAttribute(afk) && (address.length == 4))
+    {
+      MrtFormat.writeAttributeHeader(this.buffer, BGPv4Constants.BGP_PATH_ATTRIBUTE_TRANSITIVE_BIT,
+          BGPv4Constants.BGP_PATH_ATTRIBUTE_TYPE_NEXT_HOP, address.length);
+      this.buffer.writeBytes(address);
+    }
+    else
+    {
+      // the abbreviated MP_REACH_NLRI of RFC 6396, section 4.3.4
+      MrtFormat.writeAttributeHeader(this.buffer, BGPv4Constants.BGP_PATH_ATTRIBUTE_OPTIONAL_BIT,
+          BGPv4Constants.BGP_PATH_ATTRIBUTE_TYPE_MP_REACH_NLRI, address.length + 1);
+      this.buffer.writeByte(address.length);
+      this.buffer.writeBytes(address);
+    }
+  }
+
+  private int beginRecord(final int subtype)
+  {
+    final int start = this.buffer.writerIndex();
+
+    this.buffer.writeInt(this.timestamp);
+    this.buffer.writeShort(MrtFormat.TYPE_TABLE_DUMP_V2);
+    this.buffer.writeShort(subtype);
+    this.buffer.writeInt(0);
+
+    return start;
+  }
+
+  private void endRecord(final int start) throws IOException
+  {
+    this.buffer.setInt(start + 8, this.buffer.writerIndex() - start - MrtFormat.HEADER_SIZE);
+
+    if (this.buffer.readableBytes() >= this.bufferSize)
+    {
+      this.flush();
+    }
+  }
+
+  private void flush() throws IOException
+  {
+    while (this.buffer.isReadable())
+    {
+      this.buffer.readBytes(this.channel, this.buffer.readableBytes());
+    }
+
+    this.buffer.clear();
+  }
+
+}
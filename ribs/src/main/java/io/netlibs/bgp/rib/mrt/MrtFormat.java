@@ -0,0 +1,201 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.mrt.MrtFormat.java
+ */
+package io.netlibs.bgp.rib.mrt;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netlibs.bgp.netty.protocol.update.PathSegmentTypeCodec;
+import io.netlibs.bgp.protocol.ASType;
+import io.netlibs.bgp.protocol.AddressFamily;
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.BGPv4Constants;
+import io.netlibs.bgp.protocol.PathSegment;
+import io.netlibs.bgp.protocol.SubsequentAddressFamily;
+import io.netlibs.bgp.protocol.attributes.ASPathAttribute;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Layout of an MRT TABLE_DUMP_V2 file (RFC 6396).
+ *
+ * Every record starts with the common MRT header: int time stamp (seconds), short type, short subtype, int length of the message. A
+ * TABLE_DUMP_V2 dump starts with a PEER_INDEX_TABLE record listing the peers, followed by one RIB record per prefix and address family
+ * which holds the routes of all peers for that prefix. All numbers are big endian.
+ *
+ * <pre>
+ * PEER_INDEX_TABLE  int collector BGP id, short view name length, view name, short peer count, peer entries
+ * peer entry        byte type (0x01 IPv6 address, 0x02 4-octet AS), int BGP id, address (4 or 16 octets), AS (2 or 4 octets)
+ * RIB_IPVx_yyy      int sequence, byte prefix length, prefix, short entry count, RIB entries
+ * RIB_GENERIC       int sequence, short afi, byte safi, NLRI as encoded in an UPDATE packet, short entry count, RIB entries
+ * RIB entry         short peer index, int originated time, short attribute length, path attributes
+ * </pre>
+ *
+ * The path attributes differ from those of an UPDATE packet: AS_PATH always carries 4-octet AS numbers, and MP_REACH_NLRI is abbreviated
+ * to the length and the address of the next hop.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+final class MrtFormat
+{
+
+  static final int HEADER_SIZE = 12;
+
+  static final int TYPE_TABLE_DUMP_V2 = 13;
+
+  static final int SUBTYPE_PEER_INDEX_TABLE = 1;
+  static final int SUBTYPE_RIB_IPV4_UNICAST = 2;
+  static final int SUBTYPE_RIB_IPV4_MULTICAST = 3;
+  static final int SUBTYPE_RIB_IPV6_UNICAST = 4;
+  static final int SUBTYPE_RIB_IPV6_MULTICAST = 5;
+  static final int SUBTYPE_RIB_GENERIC = 6;
+
+  static final int PEER_TYPE_IPV6 = 0x01;
+  static final int PEER_TYPE_AS4 = 0x02;
+
+  static final AddressFamilyKey IPV4_MULTICAST_FORWARDING = new AddressFamilyKey(AddressFamily.IPv4,
+      SubsequentAddressFamily.NLRI_MULTICAST_FORWARDING);
+  static final AddressFamilyKey IPV6_MULTICAST_FORWARDING = new AddressFamilyKey(AddressFamily.IPv6,
+      SubsequentAddressFamily.NLRI_MULTICAST_FORWARDING);
+
+  private MrtFormat()
+  {
+  }
+
+  /**
+   * @return the subtype of the RIB records of an address family, {@link #SUBTYPE_RIB_GENERIC} if there is no specific one
+   */
+  static int ribSubtype(final AddressFamilyKey afk)
+  {
+    if (afk.equals(AddressFamilyKey.IPV4_UNICAST_FORWARDING))
+    {
+      return SUBTYPE_RIB_IPV4_UNICAST;
+    }
+    else if (afk.equals(IPV4_MULTICAST_FORWARDING))
+    {
+      return SUBTYPE_RIB_IPV4_MULTICAST;
+    }
+    else if (afk.equals(AddressFamilyKey.IPV6_UNICAST_FORWARDING))
+    {
+      return SUBTYPE_RIB_IPV6_UNICAST;
+    }
+    else if (afk.equals(IPV6_MULTICAST_FORWARDING))
+    {
+      return SUBTYPE_RIB_IPV6_MULTICAST;
+    }
+
+    return SUBTYPE_RIB_GENERIC;
+  }
+
+  /**
+   * @return the address family of an address family specific RIB subtype
+   */
+  static AddressFamilyKey ribAddressFamily(final int subtype)
+  {
+    switch (subtype)
+    {
+      case SUBTYPE_RIB_IPV4_UNICAST:
+        return AddressFamilyKey.IPV4_UNICAST_FORWARDING;
+      case SUBTYPE_RIB_IPV4_MULTICAST:
+        return IPV4_MULTICAST_FORWARDING;
+      case SUBTYPE_RIB_IPV6_UNICAST:
+        return AddressFamilyKey.IPV6_UNICAST_FORWARDING;
+      case SUBTYPE_RIB_IPV6_MULTICAST:
+        return IPV6_MULTICAST_FORWARDING;
+      default:
+        throw new IllegalArgumentException("not an address family specific RIB subtype: " + subtype);
+    }
+  }
+
+  /**
+   * @return <code>true</code> if routes of the address family carry their next hop in a NEXT_HOP attribute rather than in MP_REACH_NLRI
+   */
+  static boolean usesNextHopAttribute(final AddressFamilyKey afk)
+  {
+    return afk.equals(AddressFamilyKey.IPV4_UNICAST_FORWARDING) || afk.equals(IPV4_MULTICAST_FORWARDING);
+  }
+
+  /**
+   * write the header of a path attribute. The value has to follow
+   */
+  static void writeAttributeHeader(final ByteBuf buffer, final int flags, final int typeCode, final int valueLength)
+  {
+    if (valueLength > 255)
+    {
+      buffer.writeShort(flags | BGPv4Constants.BGP_PATH_ATTRIBUTE_EXTENDED_LENGTH_BIT | typeCode);
+      buffer.writeShort(valueLength);
+    }
+    else
+    {
+      buffer.writeShort((flags & ~BGPv4Constants.BGP_PATH_ATTRIBUTE_EXTENDED_LENGTH_BIT) | typeCode);
+      buffer.writeByte(valueLength);
+    }
+  }
+
+  /**
+   * write an AS path as AS_PATH attribute with 4-octet AS numbers, whatever the AS number size of the attribute is
+   */
+  static void writeASPath(final ByteBuf buffer, final ASPathAttribute attr)
+  {
+    int valueLength = 0;
+
+    for (final PathSegment segment : attr.getPathSegments())
+    {
+      valueLength += 2 + (4 * segment.getAses().size());
+    }
+
+    writeAttributeHeader(buffer, BGPv4Constants.BGP_PATH_ATTRIBUTE_TRANSITIVE_BIT
+        | (attr.isPartial() ? BGPv4Constants.BGP_PATH_ATTRIBUTE_PARTIAL_BIT : 0), BGPv4Constants.BGP_PATH_ATTRIBUTE_TYPE_AS_PATH, valueLength);
+
+    for (final PathSegment segment : attr.getPathSegments())
+    {
+      buffer.writeByte(PathSegmentTypeCodec.toCode(segment.getPathSegmentType()));
+      buffer.writeByte(segment.getAses().size());
+
+      for (final int as : segment.getAses())
+      {
+        buffer.writeInt(as);
+      }
+    }
+  }
+
+  /**
+   * read the value of an AS_PATH attribute with 4-octet AS numbers
+   */
+  static ASPathAttribute readASPath(final ByteBuf value)
+  {
+    final List<PathSegment> segments = new ArrayList<PathSegment>();
+
+    while (value.isReadable())
+    {
+      final int type = value.readUnsignedByte();
+      final int[] ases = new int[value.readUnsignedByte()];
+
+      for (int i = 0; i < ases.length; i++)
+      {
+        ases[i] = value.readInt();
+      }
+
+      segments.add(new PathSegment(ASType.AS_NUMBER_4OCTETS, PathSegmentTypeCodec.fromCode(type), ases));
+    }
+
+    return new ASPathAttribute(ASType.AS_NUMBER_4OCTETS, segments);
+  }
+
+}
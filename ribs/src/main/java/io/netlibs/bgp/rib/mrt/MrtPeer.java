@@ -0,0 +1,119 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.mrt.MrtPeer.java
+ */
+package io.netlibs.bgp.rib.mrt;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+import lombok.ToString;
+
+/**
+ * A peer as listed in the PEER_INDEX_TABLE of an MRT dump: its BGP identifier, its address and its AS number.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+@ToString
+public class MrtPeer
+{
+
+  private final Inet4Address bgpIdentifier;
+  private final InetAddress address;
+  private final int asNumber;
+
+  /**
+   * @param bgpIdentifier
+   *          the BGP identifier of the peer
+   * @param address
+   *          the address of the peer
+   * @param asNumber
+   *          the AS number of the peer, 4-octet AS numbers are passed as unsigned int
+   */
+  public MrtPeer(final Inet4Address bgpIdentifier, final InetAddress address, final int asNumber)
+  {
+    this.bgpIdentifier = bgpIdentifier;
+    this.address = address;
+    this.asNumber = asNumber;
+  }
+
+  /**
+   * @return the BGP identifier of the peer
+   */
+  public Inet4Address getBgpIdentifier()
+  {
+    return this.bgpIdentifier;
+  }
+
+  /**
+   * @return the address of the peer
+   */
+  public InetAddress getAddress()
+  {
+    return this.address;
+  }
+
+  /**
+   * @return the AS number of the peer
+   */
+  public int getAsNumber()
+  {
+    return this.asNumber;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.lang.Object#hashCode()
+   */
+  @Override
+  public int hashCode()
+  {
+    return (new HashCodeBuilder())
+        .append(this.bgpIdentifier)
+        .append(this.address)
+        .append(this.asNumber)
+        .toHashCode();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.lang.Object#equals(java.lang.Object)
+   */
+  @Override
+  public boolean equals(final Object obj)
+  {
+    if (!(obj instanceof MrtPeer))
+    {
+      return false;
+    }
+
+    final MrtPeer other = (MrtPeer) obj;
+
+    return (new EqualsBuilder())
+        .append(this.bgpIdentifier, other.bgpIdentifier)
+        .append(this.address, other.address)
+        .append(this.asNumber, other.asNumber)
+        .isEquals();
+  }
+
+}
@@ -10,7 +10,10 @@ import java.util.Set;
 import io.netlibs.bgp.config.nodes.PathAttributeConfiguration;
 import io.netlibs.bgp.config.nodes.PrefixRoutingFilterConfiguration;
 import io.netlibs.bgp.config.nodes.RoutingFilterConfiguration;
+import io.netlibs.bgp.rib.RibBatch;
+import io.netlibs.bgp.rib.Route;
 import io.netlibs.bgp.rib.RouteAdded;
+import io.netlibs.bgp.rib.RouteChange;
 import io.netlibs.bgp.rib.RouteWithdrawn;
 import io.netlibs.bgp.rib.RoutingEventListener;
 import io.netlibs.bgp.rib.RoutingInformationBase;
@@ -42,17 +45,7 @@ public class RouteTransportListener implements RoutingEventListener
   @Override
   public void routeAdded(RouteAdded event)
   {
-    boolean match = false;
-
-    for (RoutingFilter filter : filters)
-    {
-      match |= filter.matchFilter(event.getRoute());
-
-      if (match)
-        break;
-    }
-
-    if (!match)
+    if (!matchFilters(event.getRoute()))
       target.addRoute(injector.injectMissingPathAttribute(event.getRoute()));
   }
 
@@ -63,19 +56,47 @@ public class RouteTransportListener implements RoutingEventListener
    */
   @Override
   public void routeWithdrawn(RouteWithdrawn event)
+  {
+    if (!matchFilters(event.getRoute()))
+      target.withdrawRoute(event.getRoute());
+  }
+
+  /**
+   * transport the unfiltered changes of a batch to the target RIB as one batch
+   */
+  @Override
+  public void routesChanged(List<RouteChange> changes)
+  {
+    RibBatch batch = new RibBatch();
+
+    for (RouteChange change : changes)
+    {
+      if (matchFilters(change.getRoute()))
+        continue;
+
+      if (change.isAdded())
+        batch.announce(injector.injectMissingPathAttribute(change.getRoute()));
+      else
+        batch.withdraw(change.getRoute());
+    }
+
+    if (!batch.isEmpty())
+      target.apply(batch);
+  }
+
+  private boolean matchFilters(Route route)
   {
     boolean match = false;
 
     for (RoutingFilter filter : filters)
     {
-      match |= filter.matchFilter(event.getRoute());
+      match |= filter.matchFilter(route);
 
       if (match)
         break;
     }
 
-    if (!match)
-      target.withdrawRoute(event.getRoute());
+    return match;
   }
 
   /**
@@ -0,0 +1,247 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.snapshot.RestoredRoutes.java
+ */
+package io.netlibs.bgp.rib.snapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+
+/**
+ * The routes of a RIB replayed from a snapshot file.
+ *
+ * The routes are kept in an open addressing hash table from the NLRI to the group of routes sharing its attribute set and next hop, so
+ * replaying a route allocates neither a map entry nor a boxed id. Groups are created once per attribute set and next hop, the NLRIs are
+ * collected into their groups in a single pass when the replay is complete.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+final class RestoredRoutes
+{
+
+  /**
+   * the routes of a RIB sharing an attribute set and a next hop
+   */
+  static final class Group
+  {
+    private final int attributeSetId;
+    private final int nextHopId;
+    // the group of the same attribute set with the next different next hop
+    private final Group next;
+    private final List<NetworkLayerReachabilityInformation> nlris = new ArrayList<NetworkLayerReachabilityInformation>();
+
+    private Group(final int attributeSetId, final int nextHopId, final Group next)
+    {
+      this.attributeSetId = attributeSetId;
+      this.nextHopId = nextHopId;
+      this.next = next;
+    }
+
+    int getAttributeSetId()
+    {
+      return this.attributeSetId;
+    }
+
+    /**
+     * @return the next hop id, {@link RibSnapshotFormat#NO_NEXT_HOP} if the routes have none
+     */
+    int getNextHopId()
+    {
+      return this.nextHopId;
+    }
+
+    List<NetworkLayerReachabilityInformation> getNlris()
+    {
+      return this.nlris;
+    }
+  }
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final RibKey key;
+  // groups by attribute set id, chained by next hop
+  private final List<Group> groupsByAttributeSet = new ArrayList<Group>();
+  // a slot with a NLRI but no group is a withdrawn route
+  private NetworkLayerReachabilityInformation[] nlris = new NetworkLayerReachabilityInformation[INITIAL_CAPACITY];
+  private Group[] groups = new Group[INITIAL_CAPACITY];
+  private int size;
+  private int used;
+
+  RestoredRoutes(final RibKey key)
+  {
+    this.key = key;
+  }
+
+  RibKey getKey()
+  {
+    return this.key;
+  }
+
+  /**
+   * @return the number of routes
+   */
+  int size()
+  {
+    return this.size;
+  }
+
+  boolean isEmpty()
+  {
+    return this.size == 0;
+  }
+
+  /**
+   * add or replace the route of a NLRI
+   */
+  void put(final NetworkLayerReachabilityInformation nlri, final int attributeSetId, final int nextHopId)
+  {
+    final Group group = this.group(attributeSetId, nextHopId);
+    int slot = this.slot(nlri);
+
+    if (this.nlris[slot] == null)
+    {
+      if ((2 * (this.used + 1)) > this.nlris.length)
+      {
+        this.rehash();
+        slot = this.slot(nlri);
+      }
+
+      this.nlris[slot] = nlri;
+      this.used++;
+    }
+
+    if (this.groups[slot] == null)
+    {
+      this.size++;
+    }
+
+    this.groups[slot] = group;
+  }
+
+  /**
+   * withdraw the route of a NLRI
+   */
+  void remove(final NetworkLayerReachabilityInformation nlri)
+  {
+    final int slot = this.slot(nlri);
+
+    if ((this.nlris[slot] != null) && (this.groups[slot] != null))
+    {
+      this.groups[slot] = null;
+      this.size--;
+    }
+  }
+
+  /**
+   * collect the NLRIs into their groups. Call once, after the replay is complete
+   *
+   * @return the groups holding routes
+   */
+  List<Group> group()
+  {
+    final List<Group> result = new ArrayList<Group>();
+
+    for (int i = 0; i < this.groups.length; i++)
+    {
+      final Group group = this.groups[i];
+
+      if (group != null)
+      {
+        if (group.nlris.isEmpty())
+        {
+          result.add(group);
+        }
+
+        group.nlris.add(this.nlris[i]);
+      }
+    }
+
+    return result;
+  }
+
+  private Group group(final int attributeSetId, final int nextHopId)
+  {
+    while (this.groupsByAttributeSet.size() <= attributeSetId)
+    {
+      this.groupsByAttributeSet.add(null);
+    }
+
+    final Group first = this.groupsByAttributeSet.get(attributeSetId);
+
+    for (Group group = first; group != null; group = group.next)
+    {
+      if (group.nextHopId == nextHopId)
+      {
+        return group;
+      }
+    }
+
+    final Group group = new Group(attributeSetId, nextHopId, first);
+
+    this.groupsByAttributeSet.set(attributeSetId, group);
+
+    return group;
+  }
+
+  /**
+   * @return the slot holding the NLRI or the empty slot ending its probe sequence
+   */
+  private int slot(final NetworkLayerReachabilityInformation nlri)
+  {
+    final int mask = this.nlris.length - 1;
+    int hash = nlri.hashCode();
+
+    hash ^= (hash >>> 16);
+
+    for (int slot = hash & mask;; slot = (slot + 1) & mask)
+    {
+      if ((this.nlris[slot] == null) || this.nlris[slot].equals(nlri))
+      {
+        return slot;
+      }
+    }
+  }
+
+  /**
+   * rebuild the table without the withdrawn routes, growing it if more than a quarter of it is in use
+   */
+  private void rehash()
+  {
+    final NetworkLayerReachabilityInformation[] oldNlris = this.nlris;
+    final Group[] oldGroups = this.groups;
+    final int capacity = ((4 * this.size) > oldNlris.length) ? (2 * oldNlris.length) : oldNlris.length;
+
+    this.nlris = new NetworkLayerReachabilityInformation[capacity];
+    this.groups = new Group[capacity];
+    this.used = this.size;
+
+    for (int i = 0; i < oldNlris.length; i++)
+    {
+      if (oldGroups[i] != null)
+      {
+        final int slot = this.slot(oldNlris[i]);
+
+        this.nlris[slot] = oldNlris[i];
+        this.groups[slot] = oldGroups[i];
+      }
+    }
+  }
+
+}
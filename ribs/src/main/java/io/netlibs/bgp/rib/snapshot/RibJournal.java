@@ -0,0 +1,633 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.snapshot.RibJournal.java
+ */
+package io.netlibs.bgp.rib.snapshot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+import io.netlibs.bgp.netty.protocol.update.PathAttributeCodec;
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.NextHop;
+import io.netlibs.bgp.protocol.RIBSide;
+import io.netlibs.bgp.protocol.attributes.PathAttribute;
+import io.netlibs.bgp.rib.BatchRoutingEventListener;
+import io.netlibs.bgp.rib.PathAttributeSet;
+import io.netlibs.bgp.rib.Route;
+import io.netlibs.bgp.rib.RouteChange;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Append-only journal of the changes applied to RIBs.
+ *
+ * Registered as a routing event listener, the journal records the change list of every applied batch as one entry with a consecutive
+ * sequence number. Recording only encodes the entry into memory, it never waits for the disk. The entries are written sequentially
+ * through a {@link FileChannel} on the given executor, all entries recorded while the previous write was in flight go out in one write
+ * and, if forcing is enabled, one force: a group commit. {@link #sync()} writes the pending entries on the calling thread, for callers
+ * which need the entries on disk before they go on.
+ *
+ * The journal is split into segments of a configurable size, named after the sequence number of their first entry. Every segment defines
+ * the RIBs, attribute sets and next hops it uses, so segments older than the last snapshot can simply be deleted. A checkpoint thus is:
+ * {@link #roll()} to start a new segment, write the snapshot, then {@link #deleteSegmentsBefore(long)} with the sequence number returned by
+ * roll. To restore, load the snapshot and replay the journal with a {@link RibJournalReader}. Entries recorded between the roll and the
+ * snapshot are in both; replaying them again is harmless.
+ *
+ * A journal opened on an existing directory continues after the last complete entry in a new segment, it never appends to a segment
+ * which might end with a torn entry. Trailing segments without any complete entry are deleted on open, the new segment takes their name.
+ * If writing fails, the error is logged and the journal stops recording.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+@Slf4j
+public class RibJournal implements BatchRoutingEventListener, Closeable
+{
+
+  private static final long DEFAULT_SEGMENT_SIZE = 64L << 20;
+
+  /**
+   * a segment file and the RIBs, attribute sets and next hops defined in it
+   */
+  private static final class Segment
+  {
+    private final Path path;
+    private final Map<RibKey, Integer> ribs = new HashMap<RibKey, Integer>();
+    private final Map<PathAttributeSet, Integer> attributeSets = new HashMap<PathAttributeSet, Integer>();
+    private final Map<NextHop, Integer> nextHops = new HashMap<NextHop, Integer>();
+    private long size;
+    private FileChannel channel;
+
+    private Segment(final Path path)
+    {
+      this.path = path;
+    }
+  }
+
+  /**
+   * encoded entries waiting to be written to a segment
+   */
+  private static final class PendingWrite
+  {
+    private final Segment segment;
+    private final ByteBuf data = Unpooled.buffer();
+
+    private PendingWrite(final Segment segment)
+    {
+      this.segment = segment;
+    }
+  }
+
+  private final Path directory;
+  private final Executor executor;
+  private final long segmentSize;
+  private final boolean forceOnCommit;
+  private final CRC32 crc = new CRC32();
+
+  // guarded by this
+  private Segment segment;
+  private List<PendingWrite> pending = new ArrayList<PendingWrite>();
+  private long sequence;
+  private boolean flushScheduled;
+  private boolean active = true;
+
+  // guarded by ioLock, which is taken before this
+  private final Object ioLock = new Object();
+  private Segment writtenSegment;
+  private volatile long committedSequence;
+  private volatile long commits;
+
+  /**
+   * Open a journal with 64 MB segments, forced to disk on every commit
+   *
+   * @param directory
+   *          the directory holding the segments, created if needed
+   * @param executor
+   *          the executor writing the entries
+   * @throws IOException
+   *           if the directory cannot be created or read
+   */
+  public RibJournal(final Path directory, final Executor executor) throws IOException
+  {
+    this(directory, executor, DEFAULT_SEGMENT_SIZE, true);
+  }
+
+  /**
+   * Open a journal
+   *
+   * @param directory
+   *          the directory holding the segments, created if needed
+   * @param executor
+   *          the executor writing the entries
+   * @param segmentSize
+   *          the size after which a new segment is started
+   * @param forceOnCommit
+   *          force the segment to the storage device after every write. Without it, entries survive a crash of the process but not of
+   *          the host
+   * @throws IOException
+   *           if the directory cannot be created or read
+   */
+  public RibJournal(final Path directory, final Executor executor, final long segmentSize, final boolean forceOnCommit) throws IOException
+  {
+    this.directory = Files.createDirectories(directory);
+    this.executor = executor;
+    this.segmentSize = segmentSize;
+    this.forceOnCommit = forceOnCommit;
+    this.sequence = this.recover(new RibJournalReader(this.directory));
+    this.committedSequence = this.sequence;
+  }
+
+  /**
+   * record the changes of a batch as one entry
+   */
+  @Override
+  public void routesChanged(final List<RouteChange> changes)
+  {
+    synchronized (this)
+    {
+      if (!this.active || changes.isEmpty())
+      {
+        return;
+      }
+
+      try
+      {
+        this.append(changes);
+      }
+      catch (final RuntimeException ex)
+      {
+        log.error("cannot record RIB changes in journal " + this.directory + ", no further changes are recorded", ex);
+
+        this.active = false;
+
+        return;
+      }
+
+      if (this.flushScheduled)
+      {
+        return;
+      }
+
+      this.flushScheduled = true;
+    }
+
+    this.executor.execute(() -> {
+      try
+      {
+        this.sync();
+      }
+      catch (final IOException ex)
+      {
+        log.error("cannot write journal " + this.directory + ", no further changes are recorded", ex);
+      }
+    });
+  }
+
+  /**
+   * Write all entries recorded so far. Entries recorded by other threads meanwhile are written along, concurrent callers share the write.
+   *
+   * @return the sequence number of the last entry written
+   * @throws IOException
+   *           if the entries cannot be written
+   */
+  public long sync() throws IOException
+  {
+    synchronized (this.ioLock)
+    {
+      final List<PendingWrite> writes;
+      final long last;
+
+      synchronized (this)
+      {
+        writes = this.pending;
+        last = this.sequence;
+
+        this.pending = new ArrayList<PendingWrite>();
+        this.flushScheduled = false;
+      }
+
+      if (writes.isEmpty())
+      {
+        return this.committedSequence;
+      }
+
+      try
+      {
+        for (final PendingWrite write : writes)
+        {
+          if (write.segment != this.writtenSegment)
+          {
+            this.closeWrittenSegment();
+
+            write.segment.channel = FileChannel.open(write.segment.path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            this.writtenSegment = write.segment;
+          }
+
+          final ByteBuffer data = write.data.nioBuffer();
+
+          while (data.hasRemaining())
+          {
+            write.segment.channel.write(data);
+          }
+        }
+
+        if (this.forceOnCommit)
+        {
+          this.writtenSegment.channel.force(false);
+        }
+      }
+      catch (final IOException ex)
+      {
+        synchronized (this)
+        {
+          this.active = false;
+        }
+
+        throw ex;
+      }
+
+      this.committedSequence = last;
+      this.commits++;
+
+      return last;
+    }
+  }
+
+  /**
+   * Close the current segment, the next entry starts a new one. Used to take a checkpoint.
+   *
+   * @return the sequence number of the first entry of the new segment
+   * @throws IOException
+   *           if the pending entries cannot be written
+   */
+  public long roll() throws IOException
+  {
+    final long next;
+
+    synchronized (this)
+    {
+      this.segment = null;
+
+      next = this.sequence + 1;
+    }
+
+    // the segment file is closed once the new segment is written
+    this.sync();
+
+    return next;
+  }
+
+  /**
+   * Delete the segments holding only entries before a sequence number
+   *
+   * @param sequence
+   *          the first sequence number to keep
+   * @return the number of segments deleted
+   * @throws IOException
+   *           if a segment cannot be deleted
+   */
+  public int deleteSegmentsBefore(final long sequence) throws IOException
+  {
+    synchronized (this.ioLock)
+    {
+      final List<Long> firstSequences = new RibJournalReader(this.directory).getSegmentSequences();
+      final Path current;
+      int deleted = 0;
+
+      synchronized (this)
+      {
+        current = (this.segment != null) ? this.segment.path : null;
+      }
+
+      for (int i = 0; i < firstSequences.size(); i++)
+      {
+        final Path path = this.directory.resolve(RibSnapshotFormat.segmentName(firstSequences.get(i)));
+        // a segment ends right before its successor starts, the last one with the last entry written
+        final boolean complete = ((i + 1) < firstSequences.size())
+            ? (firstSequences.get(i + 1) <= sequence)
+            : (!path.equals(current) && (this.committedSequence < sequence));
+
+        if (complete)
+        {
+          Files.delete(path);
+          deleted++;
+        }
+      }
+
+      return deleted;
+    }
+  }
+
+  /**
+   * @return the sequence number of the last entry recorded
+   */
+  public synchronized long getSequence()
+  {
+    return this.sequence;
+  }
+
+  /**
+   * @return the sequence number of the last entry written to the segment files
+   */
+  public long getCommittedSequence()
+  {
+    return this.committedSequence;
+  }
+
+  /**
+   * @return the number of writes, each committing all entries pending at that time
+   */
+  public long getCommits()
+  {
+    return this.commits;
+  }
+
+  /**
+   * @return <code>false</code> if the journal has been closed or failed and does not record changes anymore
+   */
+  public synchronized boolean isActive()
+  {
+    return this.active;
+  }
+
+  /**
+   * Write the pending entries and close the journal. Changes reported afterwards are ignored.
+   */
+  @Override
+  public void close() throws IOException
+  {
+    synchronized (this.ioLock)
+    {
+      synchronized (this)
+      {
+        this.active = false;
+      }
+
+      this.sync();
+      this.closeWrittenSegment();
+    }
+  }
+
+  /**
+   * delete the segments written after the last complete entry. They hold a torn first entry at most, and the next segment would be
+   * named like the first of them
+   *
+   * @return the sequence number of the last complete entry
+   */
+  private long recover(final RibJournalReader reader) throws IOException
+  {
+    final long last = reader.getLastSequence();
+
+    for (final long firstSequence : reader.getSegmentSequences())
+    {
+      if (firstSequence > last)
+      {
+        final Path path = this.directory.resolve(RibSnapshotFormat.segmentName(firstSequence));
+
+        log.warn("deleting RIB journal segment {} holding no complete entry", path);
+
+        Files.delete(path);
+      }
+    }
+
+    return last;
+  }
+
+  /**
+   * must be called with the lock on ioLock held
+   */
+  private void closeWrittenSegment() throws IOException
+  {
+    if (this.writtenSegment != null)
+    {
+      this.writtenSegment.channel.force(true);
+      this.writtenSegment.channel.close();
+      this.writtenSegment = null;
+    }
+  }
+
+  /**
+   * encode an entry into the pending writes. Must be called with the lock on this held
+   */
+  private void append(final List<RouteChange> changes)
+  {
+    final long entrySequence = this.sequence + 1;
+
+    if ((this.segment == null) || (this.segment.size >= this.segmentSize))
+    {
+      this.segment = new Segment(this.directory.resolve(RibSnapshotFormat.segmentName(entrySequence)));
+
+      final ByteBuf header = this.pendingData();
+
+      header.writeInt(RibSnapshotFormat.JOURNAL_MAGIC);
+      header.writeShort(RibSnapshotFormat.VERSION);
+      header.writeShort(0);
+      header.writeLong(entrySequence);
+
+      this.segment.size = RibSnapshotFormat.JOURNAL_HEADER_SIZE;
+    }
+
+    final ByteBuf data = this.pendingData();
+    final int start = data.writerIndex();
+
+    try
+    {
+      this.encodeEntry(data, entrySequence, changes);
+    }
+    catch (final RuntimeException ex)
+    {
+      // drop the partial entry, it must not reach the segment
+      data.writerIndex(start);
+
+      throw ex;
+    }
+
+    final int bodyLength = data.writerIndex() - start - RibSnapshotFormat.ENTRY_HEADER_SIZE;
+
+    this.crc.reset();
+    this.crc.update(data.array(), data.arrayOffset() + start + RibSnapshotFormat.ENTRY_HEADER_SIZE, bodyLength);
+
+    data.setInt(start, bodyLength);
+    data.setInt(start + 4, (int) this.crc.getValue());
+
+    this.segment.size += RibSnapshotFormat.ENTRY_HEADER_SIZE + bodyLength;
+    this.sequence = entrySequence;
+  }
+
+  private void encodeEntry(final ByteBuf data, final long entrySequence, final List<RouteChange> changes)
+  {
+    data.writeInt(0);
+    data.writeInt(0);
+    data.writeLong(entrySequence);
+    data.writeLong(System.currentTimeMillis());
+
+    RibKey lastRib = null;
+    int lastRibId = 0;
+
+    for (final RouteChange change : changes)
+    {
+      final Route route = change.getRoute();
+
+      if ((lastRib == null) || !lastRib.matches(change.getPeerName(), change.getSide(), route.getAddressFamilyKey()))
+      {
+        lastRib = new RibKey(change.getPeerName(), change.getSide(), route.getAddressFamilyKey());
+        lastRibId = this.ribId(data, lastRib);
+      }
+
+      if (change.isAdded())
+      {
+        final int attributeSetId = this.attributeSetId(data, route.getPathAttributes());
+        final int nextHopId = this.nextHopId(data, route.getNextHop());
+
+        data.writeByte(RibSnapshotFormat.RECORD_ROUTE);
+        data.writeInt(lastRibId);
+        data.writeInt(attributeSetId);
+        data.writeInt(nextHopId);
+        writeNlri(data, route.getNlri());
+      }
+      else
+      {
+        data.writeByte(RibSnapshotFormat.RECORD_WITHDRAW);
+        data.writeInt(lastRibId);
+        writeNlri(data, route.getNlri());
+      }
+    }
+  }
+
+  /**
+   * @return the buffer collecting the pending entries of the current segment
+   */
+  private ByteBuf pendingData()
+  {
+    PendingWrite write = this.pending.isEmpty() ? null : this.pending.get(this.pending.size() - 1);
+
+    if ((write == null) || (write.segment != this.segment))
+    {
+      write = new PendingWrite(this.segment);
+      this.pending.add(write);
+    }
+
+    return write.data;
+  }
+
+  private int ribId(final ByteBuf data, final RibKey key)
+  {
+    Integer id = this.segment.ribs.get(key);
+
+    if (id == null)
+    {
+      final byte[] name = key.getPeerName().getBytes(StandardCharsets.UTF_8);
+      final RIBSide side = key.getSide();
+      final AddressFamilyKey afk = key.getAddressFamilyKey();
+
+      id = this.segment.ribs.size();
+
+      data.writeByte(RibSnapshotFormat.RECORD_RIB);
+      data.writeInt(id);
+      data.writeByte(side.ordinal());
+      data.writeShort(afk.getAddressFamily().toCode());
+      data.writeByte(afk.getSubsequentAddressFamily().toCode());
+      data.writeShort(name.length);
+      data.writeBytes(name);
+
+      this.segment.ribs.put(key, id);
+    }
+
+    return id;
+  }
+
+  private int attributeSetId(final ByteBuf data, final PathAttributeSet pathAttributes)
+  {
+    Integer id = this.segment.attributeSets.get(pathAttributes);
+
+    if (id == null)
+    {
+      id = this.segment.attributeSets.size();
+
+      data.writeByte(RibSnapshotFormat.RECORD_ATTRIBUTES);
+      data.writeInt(id);
+
+      final int lengthIndex = data.writerIndex();
+
+      data.writeInt(0);
+
+      for (final PathAttribute attribute : pathAttributes)
+      {
+        PathAttributeCodec.encodePathAttribute(attribute, data);
+      }
+
+      data.setInt(lengthIndex, data.writerIndex() - lengthIndex - 4);
+
+      this.segment.attributeSets.put(pathAttributes, id);
+    }
+
+    return id;
+  }
+
+  private int nextHopId(final ByteBuf data, final NextHop nextHop)
+  {
+    if (nextHop == null)
+    {
+      return RibSnapshotFormat.NO_NEXT_HOP;
+    }
+
+    Integer id = this.segment.nextHops.get(nextHop);
+
+    if (id == null)
+    {
+      final byte type = RibSnapshotFormat.nextHopType(nextHop);
+      final byte[] address = RibSnapshotFormat.nextHopAddress(nextHop);
+
+      id = this.segment.nextHops.size();
+
+      data.writeByte(RibSnapshotFormat.RECORD_NEXT_HOP);
+      data.writeInt(id);
+      data.writeByte(type);
+      data.writeByte(address.length);
+      data.writeBytes(address);
+
+      this.segment.nextHops.put(nextHop, id);
+    }
+
+    return id;
+  }
+
+  private static void writeNlri(final ByteBuf data, final NetworkLayerReachabilityInformation nlri)
+  {
+    final byte[] prefix = nlri.getPrefix();
+
+    data.writeShort(nlri.getPrefixLength());
+    data.writeShort(prefix.length);
+    data.writeBytes(prefix);
+  }
+
+}
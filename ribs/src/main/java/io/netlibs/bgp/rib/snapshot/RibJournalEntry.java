@@ -0,0 +1,72 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.snapshot.RibJournalEntry.java
+ */
+package io.netlibs.bgp.rib.snapshot;
+
+import java.util.Collections;
+import java.util.List;
+
+import io.netlibs.bgp.rib.RouteChange;
+import lombok.ToString;
+
+/**
+ * One entry of a RIB journal: the change list a RIB reported for one applied batch.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+@ToString
+public class RibJournalEntry
+{
+
+  private final long sequence;
+  private final long timestamp;
+  private final List<RouteChange> changes;
+
+  RibJournalEntry(final long sequence, final long timestamp, final List<RouteChange> changes)
+  {
+    this.sequence = sequence;
+    this.timestamp = timestamp;
+    this.changes = Collections.unmodifiableList(changes);
+  }
+
+  /**
+   * @return the sequence number of the entry, consecutive over all segments of the journal
+   */
+  public long getSequence()
+  {
+    return this.sequence;
+  }
+
+  /**
+   * @return the time the entry was recorded, in milliseconds since the epoch
+   */
+  public long getTimestamp()
+  {
+    return this.timestamp;
+  }
+
+  /**
+   * @return the changes in the order the RIB reported them
+   */
+  public List<RouteChange> getChanges()
+  {
+    return this.changes;
+  }
+
+}
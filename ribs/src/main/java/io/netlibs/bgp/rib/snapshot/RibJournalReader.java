@@ -0,0 +1,457 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.snapshot.RibJournalReader.java
+ */
+package io.netlibs.bgp.rib.snapshot;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.NextHop;
+import io.netlibs.bgp.rib.PathAttributeSet;
+import io.netlibs.bgp.rib.PeerRoutingInformationBase;
+import io.netlibs.bgp.rib.PeerRoutingInformationBaseManager;
+import io.netlibs.bgp.rib.RibBatch;
+import io.netlibs.bgp.rib.Route;
+import io.netlibs.bgp.rib.RouteChange;
+import io.netlibs.bgp.rib.RoutingInformationBase;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Reads the segments of a {@link RibJournal}.
+ *
+ * The entries are either handed out one by one, for auditing or to drive a benchmark with recorded production changes, or replayed into
+ * the RIBs of a peer RIB manager. Replaying bypasses the entry objects: the changes of an entry go straight into one {@link RibBatch} per
+ * RIB, consecutive routes sharing attributes and next hop into one announcement, so every entry costs one batch update of each RIB it
+ * touches.
+ *
+ * A segment is read up to its first entry failing the length or checksum test, which only happens to the last entry written before a
+ * crash. Reading then continues with the next segment.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+@Slf4j
+public class RibJournalReader
+{
+
+  /**
+   * receives the decoded content of the entries
+   */
+  private interface EntryHandler
+  {
+    void beginEntry(long sequence, long timestamp);
+
+    void routeAdded(RibKey rib, NetworkLayerReachabilityInformation nlri, PathAttributeSet pathAttributes, NextHop nextHop);
+
+    void routeWithdrawn(RibKey rib, NetworkLayerReachabilityInformation nlri);
+
+    void endEntry();
+  }
+
+  private final Path directory;
+
+  public RibJournalReader(final Path directory)
+  {
+    this.directory = directory;
+  }
+
+  /**
+   * @return the sequence numbers of the first entries of the segments, in ascending order
+   * @throws IOException
+   *           if the directory cannot be read
+   */
+  public List<Long> getSegmentSequences() throws IOException
+  {
+    final List<Long> sequences = new ArrayList<Long>();
+
+    if (!Files.isDirectory(this.directory))
+    {
+      return sequences;
+    }
+
+    try (DirectoryStream<Path> segments = Files.newDirectoryStream(this.directory,
+        RibSnapshotFormat.SEGMENT_PREFIX + "*" + RibSnapshotFormat.SEGMENT_SUFFIX))
+    {
+      for (final Path segment : segments)
+      {
+        final String name = segment.getFileName().toString();
+
+        try
+        {
+          sequences.add(Long.parseLong(name.substring(RibSnapshotFormat.SEGMENT_PREFIX.length(),
+              name.length() - RibSnapshotFormat.SEGMENT_SUFFIX.length())));
+        }
+        catch (final NumberFormatException ex)
+        {
+          log.warn("ignoring {} in RIB journal {}", name, this.directory);
+        }
+      }
+    }
+
+    Collections.sort(sequences);
+
+    return sequences;
+  }
+
+  /**
+   * @return the sequence number of the last complete entry of the journal or 0 if the journal is empty
+   * @throws IOException
+   *           if a segment cannot be read
+   */
+  public long getLastSequence() throws IOException
+  {
+    final List<Long> sequences = this.getSegmentSequences();
+
+    for (int i = sequences.size() - 1; i >= 0; i--)
+    {
+      final long last = this.readSegment(sequences.get(i), Long.MAX_VALUE, null);
+
+      if (last >= sequences.get(i))
+      {
+        return last;
+      }
+    }
+
+    return 0;
+  }
+
+  /**
+   * Hand out the entries of the journal in sequence order
+   *
+   * @param fromSequence
+   *          the sequence number of the first entry to hand out
+   * @param consumer
+   *          the consumer of the entries
+   * @return the sequence number of the last entry read
+   * @throws IOException
+   *           if a segment cannot be read
+   */
+  public long read(final long fromSequence, final Consumer<RibJournalEntry> consumer) throws IOException
+  {
+    return this.read(fromSequence, new EntryHandler() {
+
+      private long sequence;
+      private long timestamp;
+      private List<RouteChange> changes;
+
+      @Override
+      public void beginEntry(final long sequence, final long timestamp)
+      {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.changes = new ArrayList<RouteChange>();
+      }
+
+      @Override
+      public void routeAdded(final RibKey rib, final NetworkLayerReachabilityInformation nlri, final PathAttributeSet pathAttributes,
+          final NextHop nextHop)
+      {
+        this.changes.add(RouteChange.added(rib.getPeerName(), rib.getSide(), new Route(rib.getAddressFamilyKey(), nlri, pathAttributes,
+            nextHop)));
+      }
+
+      @Override
+      public void routeWithdrawn(final RibKey rib, final NetworkLayerReachabilityInformation nlri)
+      {
+        this.changes.add(RouteChange.withdrawn(rib.getPeerName(), rib.getSide(), new Route(rib.getAddressFamilyKey(), nlri, null, null)));
+      }
+
+      @Override
+      public void endEntry()
+      {
+        consumer.accept(new RibJournalEntry(this.sequence, this.timestamp, this.changes));
+      }
+    });
+  }
+
+  /**
+   * Apply the entries of the journal to the RIBs of a peer RIB manager. Missing peer RIBs and RIBs are allocated.
+   *
+   * @param pribm
+   *          the peer RIB manager
+   * @param fromSequence
+   *          the sequence number of the first entry to apply
+   * @return the sequence number of the last entry read
+   * @throws IOException
+   *           if a segment cannot be read
+   */
+  public long replay(final PeerRoutingInformationBaseManager pribm, final long fromSequence) throws IOException
+  {
+    return this.read(fromSequence, new EntryHandler() {
+
+      private final Map<RibKey, RibBatch> batches = new LinkedHashMap<RibKey, RibBatch>();
+      // the announcement being collected, extended as long as the routes share RIB, attributes and next hop
+      private RibKey rib;
+      private PathAttributeSet pathAttributes;
+      private NextHop nextHop;
+      private List<NetworkLayerReachabilityInformation> nlris;
+
+      @Override
+      public void beginEntry(final long sequence, final long timestamp)
+      {
+      }
+
+      @Override
+      public void routeAdded(final RibKey rib, final NetworkLayerReachabilityInformation nlri, final PathAttributeSet pathAttributes,
+          final NextHop nextHop)
+      {
+        if ((this.nlris == null) || (rib != this.rib) || (pathAttributes != this.pathAttributes) || (nextHop != this.nextHop))
+        {
+          this.announce();
+
+          this.rib = rib;
+          this.pathAttributes = pathAttributes;
+          this.nextHop = nextHop;
+          this.nlris = new ArrayList<NetworkLayerReachabilityInformation>();
+        }
+
+        this.nlris.add(nlri);
+      }
+
+      @Override
+      public void routeWithdrawn(final RibKey rib, final NetworkLayerReachabilityInformation nlri)
+      {
+        this.batch(rib).withdraw(rib.getAddressFamilyKey(), Collections.singletonList(nlri));
+      }
+
+      @Override
+      public void endEntry()
+      {
+        this.announce();
+
+        for (final Map.Entry<RibKey, RibBatch> batch : this.batches.entrySet())
+        {
+          final RibKey key = batch.getKey();
+          final PeerRoutingInformationBase prib = pribm.peerRoutingInformationBase(key.getPeerName());
+
+          prib.allocateRoutingInformationBase(key.getSide(), key.getAddressFamilyKey());
+          prib.routingBase(key.getSide(), key.getAddressFamilyKey()).apply(batch.getValue());
+        }
+
+        this.batches.clear();
+      }
+
+      private void announce()
+      {
+        if (this.nlris != null)
+        {
+          this.batch(this.rib).announce(this.rib.getAddressFamilyKey(), this.nlris, this.pathAttributes, this.nextHop);
+          this.nlris = null;
+        }
+      }
+
+      private RibBatch batch(final RibKey rib)
+      {
+        RibBatch batch = this.batches.get(rib);
+
+        if (batch == null)
+        {
+          batch = new RibBatch();
+          this.batches.put(rib, batch);
+        }
+
+        return batch;
+      }
+    });
+  }
+
+  private long read(final long fromSequence, final EntryHandler handler) throws IOException
+  {
+    final List<Long> sequences = this.getSegmentSequences();
+    long last = fromSequence - 1;
+
+    for (int i = 0; i < sequences.size(); i++)
+    {
+      // skip the segments ending before the first entry wanted
+      if (((i + 1) < sequences.size()) && (sequences.get(i + 1) <= fromSequence))
+      {
+        continue;
+      }
+
+      last = Math.max(last, this.readSegment(sequences.get(i), fromSequence, handler));
+    }
+
+    return last;
+  }
+
+  /**
+   * read the entries of a segment. Without a handler, only the framing of the entries is checked
+   *
+   * @return the sequence number of the last complete entry of the segment
+   */
+  private long readSegment(final long firstSequence, final long fromSequence, final EntryHandler handler) throws IOException
+  {
+    final Path path = this.directory.resolve(RibSnapshotFormat.segmentName(firstSequence));
+    final ByteBuffer buffer;
+
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+    {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    if ((buffer.remaining() < RibSnapshotFormat.JOURNAL_HEADER_SIZE) || (buffer.getInt() != RibSnapshotFormat.JOURNAL_MAGIC))
+    {
+      log.warn("{} is not a RIB journal segment, skipping it", path);
+
+      return firstSequence - 1;
+    }
+
+    final short version = buffer.getShort();
+
+    if (version != RibSnapshotFormat.VERSION)
+    {
+      throw new IOException("unsupported version " + version + " of RIB journal segment " + path);
+    }
+
+    buffer.getShort();
+    buffer.getLong();
+
+    final List<RibKey> ribs = new ArrayList<RibKey>();
+    final List<PathAttributeSet> attributeSets = new ArrayList<PathAttributeSet>();
+    final List<NextHop> nextHops = new ArrayList<NextHop>();
+    final CRC32 crc = new CRC32();
+    long last = firstSequence - 1;
+
+    while (buffer.remaining() >= RibSnapshotFormat.ENTRY_HEADER_SIZE)
+    {
+      final int length = buffer.getInt();
+      final int checksum = buffer.getInt();
+
+      if ((length < 16) || (length > buffer.remaining()))
+      {
+        log.warn("RIB journal segment {} ends with a truncated entry after sequence {}", path, last);
+
+        break;
+      }
+
+      final ByteBuffer body = buffer.slice();
+
+      body.limit(length);
+      buffer.position(buffer.position() + length);
+
+      crc.reset();
+      crc.update(body.duplicate());
+
+      if ((int) crc.getValue() != checksum)
+      {
+        log.warn("RIB journal segment {} ends with a corrupt entry after sequence {}", path, last);
+
+        break;
+      }
+
+      last = body.getLong();
+
+      if (handler != null)
+      {
+        try
+        {
+          this.readEntry(body, last, fromSequence, handler, ribs, attributeSets, nextHops);
+        }
+        catch (final BufferUnderflowException | IndexOutOfBoundsException ex)
+        {
+          throw new IOException("entry " + last + " of RIB journal segment " + path + " is malformed", ex);
+        }
+      }
+    }
+
+    return last;
+  }
+
+  private void readEntry(final ByteBuffer body, final long sequence, final long fromSequence, final EntryHandler handler,
+      final List<RibKey> ribs, final List<PathAttributeSet> attributeSets, final List<NextHop> nextHops) throws IOException
+  {
+    // the definitions of entries before the first one wanted are still needed by the entries following them
+    final boolean wanted = (sequence >= fromSequence);
+
+    if (wanted)
+    {
+      handler.beginEntry(sequence, body.getLong());
+    }
+    else
+    {
+      body.getLong();
+    }
+
+    while (body.hasRemaining())
+    {
+      final byte type = body.get();
+
+      switch (type)
+      {
+        case RibSnapshotFormat.RECORD_RIB:
+          body.getInt();
+          ribs.add(RibSnapshotFormat.readRibKey(body));
+          break;
+        case RibSnapshotFormat.RECORD_ATTRIBUTES:
+          body.getInt();
+          attributeSets.add(RibSnapshotFormat.readAttributeSet(body));
+          break;
+        case RibSnapshotFormat.RECORD_NEXT_HOP:
+          body.getInt();
+          nextHops.add(RibSnapshotFormat.readNextHop(body));
+          break;
+        case RibSnapshotFormat.RECORD_ROUTE:
+        {
+          final RibKey rib = ribs.get(body.getInt());
+          final PathAttributeSet pathAttributes = attributeSets.get(body.getInt());
+          final int nextHopId = body.getInt();
+          final NetworkLayerReachabilityInformation nlri = RibSnapshotFormat.readNlri(body);
+
+          if (wanted)
+          {
+            handler.routeAdded(rib, nlri, pathAttributes, (nextHopId == RibSnapshotFormat.NO_NEXT_HOP) ? null : nextHops.get(nextHopId));
+          }
+        }
+          break;
+        case RibSnapshotFormat.RECORD_WITHDRAW:
+        {
+          final RibKey rib = ribs.get(body.getInt());
+          final NetworkLayerReachabilityInformation nlri = RibSnapshotFormat.readNlri(body);
+
+          if (wanted)
+          {
+            handler.routeWithdrawn(rib, nlri);
+          }
+        }
+          break;
+        default:
+          throw new IOException("unknown record type " + type + " in RIB journal entry " + sequence);
+      }
+    }
+
+    if (wanted)
+    {
+      handler.endEntry();
+    }
+  }
+
+}
@@ -0,0 +1,109 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.snapshot.RibKey.java
+ */
+package io.netlibs.bgp.rib.snapshot;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.RIBSide;
+import lombok.ToString;
+
+/**
+ * Identifies a RIB in a snapshot file: the peer, the side and the address family.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+@ToString
+final class RibKey
+{
+
+  private final String peerName;
+  private final RIBSide side;
+  private final AddressFamilyKey addressFamilyKey;
+
+  RibKey(final String peerName, final RIBSide side, final AddressFamilyKey addressFamilyKey)
+  {
+    this.peerName = peerName;
+    this.side = side;
+    this.addressFamilyKey = addressFamilyKey;
+  }
+
+  String getPeerName()
+  {
+    return this.peerName;
+  }
+
+  RIBSide getSide()
+  {
+    return this.side;
+  }
+
+  AddressFamilyKey getAddressFamilyKey()
+  {
+    return this.addressFamilyKey;
+  }
+
+  /**
+   * @return <code>true</code> if this key identifies the given RIB. Saves building a key for every change of a batch
+   */
+  boolean matches(final String peerName, final RIBSide side, final AddressFamilyKey addressFamilyKey)
+  {
+    return (this.side == side) && this.peerName.equals(peerName) && this.addressFamilyKey.equals(addressFamilyKey);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.lang.Object#hashCode()
+   */
+  @Override
+  public int hashCode()
+  {
+    return (new HashCodeBuilder())
+        .append(this.peerName)
+        .append(this.side)
+        .append(this.addressFamilyKey)
+        .toHashCode();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.lang.Object#equals(java.lang.Object)
+   */
+  @Override
+  public boolean equals(final Object obj)
+  {
+    if (!(obj instanceof RibKey))
+    {
+      return false;
+    }
+
+    final RibKey o = (RibKey) obj;
+
+    return (new EqualsBuilder())
+        .append(this.peerName, o.peerName)
+        .append(this.side, o.side)
+        .append(this.addressFamilyKey, o.addressFamilyKey)
+        .isEquals();
+  }
+
+}
@@ -0,0 +1,188 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.snapshot.RibSnapshotFormat.java
+ */
+package io.netlibs.bgp.rib.snapshot;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import io.netlibs.bgp.netty.codec.UpdatePacketDecoder;
+import io.netlibs.bgp.protocol.AddressFamily;
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.BinaryNextHop;
+import io.netlibs.bgp.protocol.InetAddressNextHop;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.NextHop;
+import io.netlibs.bgp.protocol.RIBSide;
+import io.netlibs.bgp.protocol.SubsequentAddressFamily;
+import io.netlibs.bgp.rib.PathAttributeSet;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Layout of a RIB snapshot file.
+ *
+ * The file starts with a header (magic, version) followed by a sequence of records. Each record starts with a type octet; a type of
+ * {@link #RECORD_END} (the zero fill of the unused part of the file) ends the sequence. All numbers are big endian.
+ *
+ * <pre>
+ * RIB         int id, byte side, short afi, byte safi, short name length, name (UTF-8)
+ * ATTRIBUTES  int id, int length, path attributes as encoded in an UPDATE packet
+ * NEXT_HOP    int id, byte type, byte length, address
+ * ROUTE       int rib id, int attributes id, int next hop id (-1 for none), short prefix length, short octets, prefix
+ * WITHDRAW    int rib id, short prefix length, short octets, prefix
+ * </pre>
+ *
+ * RIBs, attribute sets and next hops are written once, when a route first refers to them, and referenced by their id afterwards. The type
+ * octet of a record is written after its body, so a record torn by a crash is never seen as complete.
+ *
+ * A journal segment uses the same records. It starts with a header (magic, version, sequence number of its first entry) followed by the
+ * entries, each framed by its body length and the CRC-32 of its body. The body holds the sequence number, the time stamp and the records
+ * of the changes. The ids are scoped to the segment, so every segment can be read without its predecessors.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+final class RibSnapshotFormat
+{
+
+  static final int MAGIC = 0x42475053; // "BGPS"
+  static final short VERSION = 1;
+  static final int HEADER_SIZE = 8;
+
+  static final int JOURNAL_MAGIC = 0x4247504a; // "BGPJ"
+  static final int JOURNAL_HEADER_SIZE = 16;
+  static final int ENTRY_HEADER_SIZE = 8;
+  static final String SEGMENT_PREFIX = "rib-journal-";
+  static final String SEGMENT_SUFFIX = ".log";
+
+  static final byte RECORD_END = 0;
+  static final byte RECORD_RIB = 1;
+  static final byte RECORD_ATTRIBUTES = 2;
+  static final byte RECORD_NEXT_HOP = 3;
+  static final byte RECORD_ROUTE = 4;
+  static final byte RECORD_WITHDRAW = 5;
+
+  static final byte NEXT_HOP_INET_ADDRESS = 0;
+  static final byte NEXT_HOP_BINARY = 1;
+
+  static final int NO_NEXT_HOP = -1;
+
+  private static final UpdatePacketDecoder decoder = new UpdatePacketDecoder();
+
+  private RibSnapshotFormat()
+  {
+  }
+
+  /**
+   * @return the file name of the journal segment starting with the given sequence number. The names sort in sequence order
+   */
+  static String segmentName(final long firstSequence)
+  {
+    return String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX);
+  }
+
+  /**
+   * @return the type of a next hop as stored in a NEXT_HOP record
+   */
+  static byte nextHopType(final NextHop nextHop)
+  {
+    switch (nextHop.getType())
+    {
+      case InetAddress:
+        return NEXT_HOP_INET_ADDRESS;
+      case Binary:
+        return NEXT_HOP_BINARY;
+      default:
+        throw new IllegalArgumentException("cannot handle next hop of type " + nextHop.getType());
+    }
+  }
+
+  /**
+   * @return the address of a next hop as stored in a NEXT_HOP record
+   */
+  static byte[] nextHopAddress(final NextHop nextHop)
+  {
+    if (nextHop instanceof InetAddressNextHop)
+    {
+      return ((InetAddressNextHop<?>) nextHop).getAddress().getAddress();
+    }
+
+    return ((BinaryNextHop) nextHop).getAddress();
+  }
+
+  static RibKey readRibKey(final ByteBuffer buffer)
+  {
+    final RIBSide side = RIBSide.values()[buffer.get()];
+    final AddressFamily afi = AddressFamily.fromCode(buffer.getShort() & 0xffff);
+    final SubsequentAddressFamily safi = SubsequentAddressFamily.fromCode(buffer.get() & 0xff);
+    final byte[] name = new byte[buffer.getShort() & 0xffff];
+
+    buffer.get(name);
+
+    return new RibKey(new String(name, StandardCharsets.UTF_8), side, new AddressFamilyKey(afi, safi));
+  }
+
+  static PathAttributeSet readAttributeSet(final ByteBuffer buffer)
+  {
+    final int length = buffer.getInt();
+    final ByteBuffer value = buffer.slice();
+
+    value.limit(length);
+    buffer.position(buffer.position() + length);
+
+    return PathAttributeSet.intern(decoder.decodePathAttributes(Unpooled.wrappedBuffer(value)));
+  }
+
+  static NextHop readNextHop(final ByteBuffer buffer) throws IOException
+  {
+    final byte type = buffer.get();
+    final byte[] address = new byte[buffer.get() & 0xff];
+
+    buffer.get(address);
+
+    switch (type)
+    {
+      case NEXT_HOP_INET_ADDRESS:
+        return new InetAddressNextHop<InetAddress>(InetAddress.getByAddress(address));
+      case NEXT_HOP_BINARY:
+        return new BinaryNextHop(address);
+      default:
+        throw new IOException("unknown next hop type " + type);
+    }
+  }
+
+  static NetworkLayerReachabilityInformation readNlri(final ByteBuffer buffer)
+  {
+    final int prefixLength = buffer.getShort() & 0xffff;
+    final byte[] prefix = new byte[buffer.getShort() & 0xffff];
+
+    buffer.get(prefix);
+
+    if ((prefixLength == 0) || (prefix.length == NetworkLayerReachabilityInformation.calculateOctetsForPrefixLength(prefixLength)))
+    {
+      return new NetworkLayerReachabilityInformation(prefixLength, prefix);
+    }
+
+    // NLRIs created from raw octets carry the octet count as their prefix length
+    return new NetworkLayerReachabilityInformation(prefix);
+  }
+
+}
+
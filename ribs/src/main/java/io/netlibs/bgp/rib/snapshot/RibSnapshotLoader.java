@@ -0,0 +1,337 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.snapshot.RibSnapshotLoader.java
+ */
+package io.netlibs.bgp.rib.snapshot;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.NextHop;
+import io.netlibs.bgp.rib.BatchRoutingEventListener;
+import io.netlibs.bgp.rib.PathAttributeSet;
+import io.netlibs.bgp.rib.PeerRoutingInformationBase;
+import io.netlibs.bgp.rib.PeerRoutingInformationBaseManager;
+import io.netlibs.bgp.rib.RibBatch;
+import io.netlibs.bgp.rib.RouteChange;
+import io.netlibs.bgp.rib.RoutingInformationBase;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Restores the RIBs recorded by a {@link RibSnapshotWriter} when the speaker starts.
+ *
+ * The file is mapped read-only and replayed into the final set of routes per RIB first. Each attribute set and next hop is decoded and
+ * interned once, no matter how many routes use it. The routes of a RIB are then applied as one {@link RibBatch}, grouped by their shared
+ * attributes and next hop, so a RIB is filled by a single bulk update of its routing tree and its listeners see one change list.
+ *
+ * The restored routes are stale until the peer confirms them. Registered with the restored RIBs, the loader clears the mark of every route
+ * the peer announces or withdraws again. Once the peer has sent its table, {@link #sweep(String)} withdraws the routes the peer did not
+ * announce again.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+@Slf4j
+public class RibSnapshotLoader implements BatchRoutingEventListener
+{
+
+  private final PeerRoutingInformationBaseManager pribm;
+  private final Map<RibKey, Set<NetworkLayerReachabilityInformation>> staleRoutes = new HashMap<RibKey, Set<NetworkLayerReachabilityInformation>>();
+
+  public RibSnapshotLoader(final PeerRoutingInformationBaseManager pribm)
+  {
+    this.pribm = pribm;
+  }
+
+  /**
+   * Restore the routes of a snapshot file into the peer RIBs. Missing peer RIBs and RIBs are allocated.
+   *
+   * @param file
+   *          the snapshot file
+   * @return the number of routes restored
+   * @throws IOException
+   *           if the file cannot be read or is not a RIB snapshot
+   */
+  public synchronized int load(final Path file) throws IOException
+  {
+    final List<RestoredRoutes> ribs = new ArrayList<RestoredRoutes>();
+    final List<PathAttributeSet> attributeSets = new ArrayList<PathAttributeSet>();
+    final List<NextHop> nextHops = new ArrayList<NextHop>();
+
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+    {
+      read(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), ribs, attributeSets, nextHops);
+    }
+
+    int restored = 0;
+
+    for (final RestoredRoutes routes : ribs)
+    {
+      if (!routes.isEmpty())
+      {
+        this.restore(routes, attributeSets, nextHops);
+
+        restored += routes.size();
+      }
+    }
+
+    log.info("restored {} routes of {} RIBs from {}", restored, ribs.size(), file);
+
+    return restored;
+  }
+
+  /**
+   * Withdraw the restored routes of a peer which the peer has not announced again since they were loaded.
+   *
+   * @param peerName
+   *          the peer
+   * @return the number of routes withdrawn
+   */
+  public synchronized int sweep(final String peerName)
+  {
+    int withdrawn = 0;
+    final Iterator<Map.Entry<RibKey, Set<NetworkLayerReachabilityInformation>>> it = this.staleRoutes.entrySet().iterator();
+
+    while (it.hasNext())
+    {
+      final Map.Entry<RibKey, Set<NetworkLayerReachabilityInformation>> entry = it.next();
+      final RibKey key = entry.getKey();
+
+      if (key.getPeerName().equals(peerName))
+      {
+        final RoutingInformationBase rib = this.routingBase(key, false);
+
+        it.remove();
+
+        if (rib != null)
+        {
+          rib.removePerRibListener(this);
+
+          if (!entry.getValue().isEmpty())
+          {
+            rib.withdrawRoutes(new ArrayList<NetworkLayerReachabilityInformation>(entry.getValue()));
+
+            withdrawn += entry.getValue().size();
+          }
+        }
+      }
+    }
+
+    return withdrawn;
+  }
+
+  /**
+   * @return the number of restored routes not confirmed by their peer yet
+   */
+  public synchronized int getStaleRouteCount()
+  {
+    int count = 0;
+
+    for (final Set<NetworkLayerReachabilityInformation> routes : this.staleRoutes.values())
+    {
+      count += routes.size();
+    }
+
+    return count;
+  }
+
+  /**
+   * a route changed by the peer is not stale anymore
+   */
+  @Override
+  public synchronized void routesChanged(final List<RouteChange> changes)
+  {
+    Set<NetworkLayerReachabilityInformation> stale = null;
+    RibKey lastRib = null;
+
+    for (final RouteChange change : changes)
+    {
+      if ((lastRib == null) || !lastRib.matches(change.getPeerName(), change.getSide(), change.getRoute().getAddressFamilyKey()))
+      {
+        lastRib = new RibKey(change.getPeerName(), change.getSide(), change.getRoute().getAddressFamilyKey());
+        stale = this.staleRoutes.get(lastRib);
+      }
+
+      if (stale != null)
+      {
+        stale.remove(change.getRoute().getNlri());
+      }
+    }
+  }
+
+  /**
+   * replay the records of a snapshot file into the routes per RIB
+   *
+   * @param file
+   *          the file, for the error messages
+   * @param buffer
+   *          the content of the file, positioned at its start
+   * @param ribs
+   *          receives the routes of each RIB, indexed by the RIB id
+   * @param attributeSets
+   *          receives the attribute sets, indexed by their id
+   * @param nextHops
+   *          receives the next hops, indexed by their id
+   * @throws IOException
+   *           if the file is not a RIB snapshot or is corrupt
+   */
+  static void read(final Path file, final ByteBuffer buffer, final List<RestoredRoutes> ribs, final List<PathAttributeSet> attributeSets,
+      final List<NextHop> nextHops) throws IOException
+  {
+    if ((buffer.remaining() < RibSnapshotFormat.HEADER_SIZE) || (buffer.getInt() != RibSnapshotFormat.MAGIC))
+    {
+      throw new IOException(file + " is not a RIB snapshot");
+    }
+
+    final short version = buffer.getShort();
+
+    if (version != RibSnapshotFormat.VERSION)
+    {
+      throw new IOException("unsupported version " + version + " of RIB snapshot " + file);
+    }
+
+    buffer.getShort();
+
+    try
+    {
+      while (buffer.hasRemaining())
+      {
+        final byte type = buffer.get();
+
+        switch (type)
+        {
+          case RibSnapshotFormat.RECORD_END:
+            return;
+          case RibSnapshotFormat.RECORD_RIB:
+            expectId(file, buffer.getInt(), ribs.size());
+            ribs.add(new RestoredRoutes(RibSnapshotFormat.readRibKey(buffer)));
+            break;
+          case RibSnapshotFormat.RECORD_ATTRIBUTES:
+            expectId(file, buffer.getInt(), attributeSets.size());
+            attributeSets.add(RibSnapshotFormat.readAttributeSet(buffer));
+            break;
+          case RibSnapshotFormat.RECORD_NEXT_HOP:
+            expectId(file, buffer.getInt(), nextHops.size());
+            nextHops.add(RibSnapshotFormat.readNextHop(buffer));
+            break;
+          case RibSnapshotFormat.RECORD_ROUTE:
+          {
+            final RestoredRoutes rib = ribs.get(buffer.getInt());
+            final int attributeSetId = buffer.getInt();
+            final int nextHopId = buffer.getInt();
+
+            if ((attributeSetId < 0) || (attributeSetId >= attributeSets.size()) || (nextHopId >= nextHops.size()))
+            {
+              throw new IOException("RIB snapshot " + file + " references an unknown record at offset " + buffer.position());
+            }
+
+            rib.put(RibSnapshotFormat.readNlri(buffer), attributeSetId, nextHopId);
+          }
+            break;
+          case RibSnapshotFormat.RECORD_WITHDRAW:
+            ribs.get(buffer.getInt()).remove(RibSnapshotFormat.readNlri(buffer));
+            break;
+          default:
+            throw new IOException("unknown record type " + type + " at offset " + (buffer.position() - 1) + " of RIB snapshot " + file);
+        }
+      }
+    }
+    catch (final BufferUnderflowException ex)
+    {
+      log.warn("RIB snapshot {} ends with a truncated record, ignoring it", file);
+    }
+    catch (final IndexOutOfBoundsException ex)
+    {
+      throw new IOException("RIB snapshot " + file + " references an unknown record", ex);
+    }
+  }
+
+  /**
+   * apply the routes of a RIB as one batch and mark them stale
+   */
+  private void restore(final RestoredRoutes routes, final List<PathAttributeSet> attributeSets, final List<NextHop> nextHops)
+  {
+    final List<RestoredRoutes.Group> groups = routes.group();
+    final AddressFamilyKey afk = routes.getKey().getAddressFamilyKey();
+    final RibBatch batch = new RibBatch();
+
+    for (final RestoredRoutes.Group group : groups)
+    {
+      batch.announce(afk, group.getNlris(), attributeSets.get(group.getAttributeSetId()),
+          (group.getNextHopId() == RibSnapshotFormat.NO_NEXT_HOP) ? null : nextHops.get(group.getNextHopId()));
+    }
+
+    final RoutingInformationBase rib = this.routingBase(routes.getKey(), true);
+
+    rib.apply(batch);
+
+    Set<NetworkLayerReachabilityInformation> stale = this.staleRoutes.get(routes.getKey());
+
+    if (stale == null)
+    {
+      stale = new HashSet<NetworkLayerReachabilityInformation>();
+      this.staleRoutes.put(routes.getKey(), stale);
+
+      // registered after applying the batch, the restored routes themselves do not count as confirmed
+      rib.addPerRibListener(this);
+    }
+
+    for (final RestoredRoutes.Group group : groups)
+    {
+      stale.addAll(group.getNlris());
+    }
+  }
+
+  private RoutingInformationBase routingBase(final RibKey key, final boolean allocate)
+  {
+    if (!allocate && !this.pribm.isPeerRoutingInformationBaseAvailable(key.getPeerName()))
+    {
+      return null;
+    }
+
+    final PeerRoutingInformationBase prib = this.pribm.peerRoutingInformationBase(key.getPeerName());
+
+    if (allocate)
+    {
+      prib.allocateRoutingInformationBase(key.getSide(), key.getAddressFamilyKey());
+    }
+
+    return prib.routingBase(key.getSide(), key.getAddressFamilyKey());
+  }
+
+  private static void expectId(final Path file, final int id, final int expected) throws IOException
+  {
+    if (id != expected)
+    {
+      throw new IOException("RIB snapshot " + file + " is corrupt, expected record " + expected + " but got " + id);
+    }
+  }
+
+}
@@ -0,0 +1,546 @@
+/**
+ *  Copyright 2012 Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * File: org.bgp4j.rib.snapshot.RibSnapshotWriter.java
+ */
+package io.netlibs.bgp.rib.snapshot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.MapMaker;
+
+import io.netlibs.bgp.netty.protocol.update.PathAttributeCodec;
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.NextHop;
+import io.netlibs.bgp.protocol.RIBSide;
+import io.netlibs.bgp.protocol.attributes.PathAttribute;
+import io.netlibs.bgp.rib.BatchRoutingEventListener;
+import io.netlibs.bgp.rib.PathAttributeSet;
+import io.netlibs.bgp.rib.Route;
+import io.netlibs.bgp.rib.RouteChange;
+import io.netlibs.bgp.rib.RoutingInformationBaseSnapshot;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Writes the content of RIBs into a memory-mapped snapshot file, to be restored by the {@link RibSnapshotLoader} after a restart.
+ *
+ * The writer first takes the current content of the RIBs through {@link #writeSnapshot(RoutingInformationBaseSnapshot)}. Registered as a
+ * routing event listener with the same RIBs, it then appends every change to the file, so the file follows the RIBs without ever being
+ * rewritten. Register the listener before writing the snapshot: a change seen twice is harmless, a change lost is not.
+ *
+ * Each path attribute set and next hop is encoded once and referenced by its id from the routes using it, which keeps the file compact
+ * since most routes share their attributes with many others. The file is mapped into memory and grown by remapping, appending a route
+ * costs a few absolute memory stores. The mapping is forced to disk by {@link #force()}, otherwise the operating system writes it back at
+ * its own pace, which survives a crash of the process but not of the host.
+ *
+ * Withdrawn and replaced routes stay in the file until it passes the compaction threshold. The writer then replays the file and rewrites
+ * the routes still held into a new file, which atomically replaces the old one, so the file stays well below the mappable size of 2 GB.
+ * The threshold grows with the routes held, the file is compacted again once it has doubled. Closing the writer truncates the file to the
+ * records written.
+ *
+ * If writing fails, the error is logged and the writer stops recording changes rather than failing the RIB update it is called from.
+ *
+ * @author Rainer Bieniek (Rainer.Bieniek@web.de)
+ *
+ */
+
+@Slf4j
+public class RibSnapshotWriter implements BatchRoutingEventListener, Closeable
+{
+
+  private static final int DEFAULT_CAPACITY = 1 << 20;
+  private static final long DEFAULT_COMPACTION_THRESHOLD = 256L << 20;
+
+  private final Path file;
+  private final int initialCapacity;
+  private final long compactionThreshold;
+  private FileChannel channel;
+  private MappedByteBuffer buffer;
+  private boolean active = true;
+  private long compactAt;
+  private int compactions;
+
+  private final Map<RibKey, Integer> ribs = new HashMap<RibKey, Integer>();
+  // attribute sets are interned, so identity is equality. Weak keys let sets no route uses anymore go
+  private final Map<PathAttributeSet, Integer> attributeSets = new MapMaker().weakKeys().makeMap();
+  private final Map<NextHop, Integer> nextHops = new HashMap<NextHop, Integer>();
+  private int nextAttributeSetId;
+  private final ByteBuf scratch = Unpooled.buffer();
+
+  // the changes of a batch come from the same RIB
+  private RibKey lastRib;
+  private int lastRibId;
+
+  /**
+   * Create a snapshot file, replacing an existing one
+   *
+   * @param file
+   *          the file to write
+   * @throws IOException
+   *           if the file cannot be created or mapped
+   */
+  public RibSnapshotWriter(final Path file) throws IOException
+  {
+    this(file, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Create a snapshot file, replacing an existing one
+   *
+   * @param file
+   *          the file to write
+   * @param initialCapacity
+   *          the number of octets to map initially, the mapping doubles whenever it is exhausted
+   * @throws IOException
+   *           if the file cannot be created or mapped
+   */
+  public RibSnapshotWriter(final Path file, final int initialCapacity) throws IOException
+  {
+    this(file, initialCapacity, DEFAULT_COMPACTION_THRESHOLD);
+  }
+
+  /**
+   * Create a snapshot file, replacing an existing one
+   *
+   * @param file
+   *          the file to write
+   * @param initialCapacity
+   *          the number of octets to map initially, the mapping doubles whenever it is exhausted
+   * @param compactionThreshold
+   *          the number of octets written after which the file is compacted
+   * @throws IOException
+   *           if the file cannot be created or mapped
+   */
+  public RibSnapshotWriter(final Path file, final int initialCapacity, final long compactionThreshold) throws IOException
+  {
+    if ((compactionThreshold <= 0) || (compactionThreshold > (Integer.MAX_VALUE / 2)))
+    {
+      throw new IllegalArgumentException("illegal compaction threshold: " + compactionThreshold);
+    }
+
+    this.file = file;
+    this.initialCapacity = Math.max(initialCapacity, RibSnapshotFormat.HEADER_SIZE);
+    this.compactionThreshold = compactionThreshold;
+    this.compactAt = compactionThreshold;
+    this.open(file);
+  }
+
+  /**
+   * Write all routes of a RIB snapshot
+   *
+   * @param snapshot
+   *          the snapshot to write
+   * @throws IOException
+   *           if the routes cannot be written or the writer is not active anymore
+   */
+  public synchronized void writeSnapshot(final RoutingInformationBaseSnapshot snapshot) throws IOException
+  {
+    if (!this.active)
+    {
+      throw new IOException("snapshot writer for " + this.file + " is not active");
+    }
+
+    try
+    {
+      final int ribId = this.ribId(snapshot.getPeerName(), snapshot.getSide(), snapshot.getAddressFamilyKey());
+
+      for (final Route route : snapshot)
+      {
+        this.writeRoute(ribId, route.getPathAttributes(), route.getNextHop(), route.getNlri());
+      }
+
+      this.compactIfNeeded();
+    }
+    catch (final IOException | RuntimeException ex)
+    {
+      this.active = false;
+
+      throw ex;
+    }
+  }
+
+  /**
+   * append the changes of a batch to the file
+   */
+  @Override
+  public synchronized void routesChanged(final List<RouteChange> changes)
+  {
+    if (!this.active)
+    {
+      return;
+    }
+
+    try
+    {
+      for (final RouteChange change : changes)
+      {
+        final Route route = change.getRoute();
+        final int ribId = this.ribId(change.getPeerName(), change.getSide(), route.getAddressFamilyKey());
+
+        if (change.isAdded())
+        {
+          this.writeRoute(ribId, route.getPathAttributes(), route.getNextHop(), route.getNlri());
+        }
+        else
+        {
+          this.writeWithdrawal(ribId, route.getNlri());
+        }
+      }
+
+      this.compactIfNeeded();
+    }
+    catch (final IOException | RuntimeException ex)
+    {
+      log.error("cannot write to RIB snapshot " + this.file + ", no further changes are recorded", ex);
+
+      this.active = false;
+    }
+  }
+
+  /**
+   * Write the changes made so far to the storage device
+   */
+  public synchronized void force()
+  {
+    if (this.channel.isOpen())
+    {
+      this.buffer.force();
+    }
+  }
+
+  /**
+   * @return <code>false</code> if the writer has been closed or failed and does not record changes anymore
+   */
+  public synchronized boolean isActive()
+  {
+    return this.active;
+  }
+
+  /**
+   * @return the number of octets written to the file
+   */
+  public synchronized int getSize()
+  {
+    return this.buffer.position();
+  }
+
+  /**
+   * @return the number of times the file has been compacted
+   */
+  public synchronized int getCompactions()
+  {
+    return this.compactions;
+  }
+
+  /**
+   * Force the changes to the storage device, truncate the file to the records written and close it. Changes reported afterwards are
+   * ignored.
+   */
+  @Override
+  public synchronized void close() throws IOException
+  {
+    if (this.channel.isOpen())
+    {
+      this.active = false;
+      this.buffer.force();
+
+      try
+      {
+        // the mapping is not touched anymore, the zero fill behind the records can go
+        this.channel.truncate(this.buffer.position());
+      }
+      finally
+      {
+        this.channel.close();
+      }
+    }
+  }
+
+  /**
+   * create a file holding the header only and map it
+   */
+  private void open(final Path path) throws IOException
+  {
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+    this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, this.initialCapacity);
+
+    this.buffer.putInt(RibSnapshotFormat.MAGIC);
+    this.buffer.putShort(RibSnapshotFormat.VERSION);
+    this.buffer.putShort((short) 0);
+  }
+
+  private void compactIfNeeded() throws IOException
+  {
+    if (this.buffer.position() >= this.compactAt)
+    {
+      this.compact();
+    }
+  }
+
+  /**
+   * rewrite the routes held into a new file replacing the current one. Until the new file is complete and forced to the storage device,
+   * the current one stays in place.
+   */
+  private void compact() throws IOException
+  {
+    final int size = this.buffer.position();
+    final ByteBuffer content = this.buffer.duplicate();
+    final List<RestoredRoutes> ribs = new ArrayList<RestoredRoutes>();
+    final List<PathAttributeSet> attributeSets = new ArrayList<PathAttributeSet>();
+    final List<NextHop> nextHops = new ArrayList<NextHop>();
+
+    content.position(0);
+    content.limit(size);
+    RibSnapshotLoader.read(this.file, content, ribs, attributeSets, nextHops);
+
+    final Path compacted = this.file.resolveSibling(this.file.getFileName() + ".compact");
+    final FileChannel previous = this.channel;
+
+    try
+    {
+      this.open(compacted);
+
+      // the ids are scoped to the file
+      this.ribs.clear();
+      this.attributeSets.clear();
+      this.nextHops.clear();
+      this.nextAttributeSetId = 0;
+      this.lastRib = null;
+
+      for (final RestoredRoutes routes : ribs)
+      {
+        if (!routes.isEmpty())
+        {
+          final RibKey key = routes.getKey();
+          final int ribId = this.ribId(key.getPeerName(), key.getSide(), key.getAddressFamilyKey());
+
+          for (final RestoredRoutes.Group group : routes.group())
+          {
+            final PathAttributeSet pathAttributes = attributeSets.get(group.getAttributeSetId());
+            final NextHop nextHop = (group.getNextHopId() == RibSnapshotFormat.NO_NEXT_HOP) ? null : nextHops.get(group.getNextHopId());
+
+            for (final NetworkLayerReachabilityInformation nlri : group.getNlris())
+            {
+              this.writeRoute(ribId, pathAttributes, nextHop, nlri);
+            }
+          }
+        }
+      }
+
+      this.buffer.force();
+      Files.move(compacted, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (final IOException | RuntimeException ex)
+    {
+      // the current file is still in place
+      this.channel.close();
+      Files.deleteIfExists(compacted);
+
+      throw ex;
+    }
+    finally
+    {
+      previous.close();
+    }
+
+    this.compactions++;
+    this.compactAt = Math.max(this.compactionThreshold, 2L * this.buffer.position());
+
+    log.info("compacted RIB snapshot {} from {} to {} octets", this.file, size, this.buffer.position());
+  }
+
+  private void writeRoute(final int ribId, final PathAttributeSet pathAttributes, final NextHop nextHop,
+      final NetworkLayerReachabilityInformation nlri) throws IOException
+  {
+    final int attributeSetId = this.attributeSetId(pathAttributes);
+    final int nextHopId = this.nextHopId(nextHop);
+    final byte[] prefix = nlri.getPrefix();
+    final int start = this.beginRecord(16 + prefix.length);
+
+    this.buffer.putInt(ribId);
+    this.buffer.putInt(attributeSetId);
+    this.buffer.putInt(nextHopId);
+    this.buffer.putShort((short) nlri.getPrefixLength());
+    this.buffer.putShort((short) prefix.length);
+    this.buffer.put(prefix);
+
+    this.commitRecord(start, RibSnapshotFormat.RECORD_ROUTE);
+  }
+
+  private void writeWithdrawal(final int ribId, final NetworkLayerReachabilityInformation nlri) throws IOException
+  {
+    final byte[] prefix = nlri.getPrefix();
+    final int start = this.beginRecord(8 + prefix.length);
+
+    this.buffer.putInt(ribId);
+    this.buffer.putShort((short) nlri.getPrefixLength());
+    this.buffer.putShort((short) prefix.length);
+    this.buffer.put(prefix);
+
+    this.commitRecord(start, RibSnapshotFormat.RECORD_WITHDRAW);
+  }
+
+  private int ribId(final String peerName, final RIBSide side, final AddressFamilyKey afk) throws IOException
+  {
+    if ((this.lastRib != null) && this.lastRib.matches(peerName, side, afk))
+    {
+      return this.lastRibId;
+    }
+
+    final RibKey key = new RibKey(peerName, side, afk);
+    Integer id = this.ribs.get(key);
+
+    if (id == null)
+    {
+      final byte[] name = peerName.getBytes(StandardCharsets.UTF_8);
+      final int start = this.beginRecord(10 + name.length);
+
+      id = this.ribs.size();
+
+      this.buffer.putInt(id);
+      this.buffer.put((byte) side.ordinal());
+      this.buffer.putShort((short) afk.getAddressFamily().toCode());
+      this.buffer.put((byte) afk.getSubsequentAddressFamily().toCode());
+      this.buffer.putShort((short) name.length);
+      this.buffer.put(name);
+
+      this.commitRecord(start, RibSnapshotFormat.RECORD_RIB);
+      this.ribs.put(key, id);
+    }
+
+    this.lastRib = key;
+    this.lastRibId = id;
+
+    return id;
+  }
+
+  private int attributeSetId(final PathAttributeSet pathAttributes) throws IOException
+  {
+    Integer id = this.attributeSets.get(pathAttributes);
+
+    if (id == null)
+    {
+      this.scratch.clear();
+
+      for (final PathAttribute attribute : pathAttributes)
+      {
+        PathAttributeCodec.encodePathAttribute(attribute, this.scratch);
+      }
+
+      final int length = this.scratch.readableBytes();
+      final int start = this.beginRecord(8 + length);
+
+      id = this.nextAttributeSetId++;
+
+      this.buffer.putInt(id);
+      this.buffer.putInt(length);
+      this.buffer.put(this.scratch.array(), this.scratch.arrayOffset() + this.scratch.readerIndex(), length);
+
+      this.commitRecord(start, RibSnapshotFormat.RECORD_ATTRIBUTES);
+      this.attributeSets.put(pathAttributes, id);
+    }
+
+    return id;
+  }
+
+  private int nextHopId(final NextHop nextHop) throws IOException
+  {
+    if (nextHop == null)
+    {
+      return RibSnapshotFormat.NO_NEXT_HOP;
+    }
+
+    Integer id = this.nextHops.get(nextHop);
+
+    if (id == null)
+    {
+      final byte type = RibSnapshotFormat.nextHopType(nextHop);
+      final byte[] address = RibSnapshotFormat.nextHopAddress(nextHop);
+
+      final int start = this.beginRecord(6 + address.length);
+
+      id = this.nextHops.size();
+
+      this.buffer.putInt(id);
+      this.buffer.put(type);
+      this.buffer.put((byte) address.length);
+      this.buffer.put(address);
+
+      this.commitRecord(start, RibSnapshotFormat.RECORD_NEXT_HOP);
+      this.nextHops.put(nextHop, id);
+    }
+
+    return id;
+  }
+
+  /**
+   * make room for a record with a body of the given length and position the buffer at the start of the body
+   *
+   * @return the position of the record type octet
+   */
+  private int beginRecord(final int bodyLength) throws IOException
+  {
+    final int start = this.buffer.position();
+    final long needed = (long) start + 1 + bodyLength;
+
+    if (needed > this.buffer.capacity())
+    {
+      long capacity = this.buffer.capacity();
+
+      while (capacity < needed)
+      {
+        capacity *= 2;
+      }
+
+      if (capacity > Integer.MAX_VALUE)
+      {
+        throw new IOException("RIB snapshot " + this.file + " exceeds the mappable size");
+      }
+
+      // the file is extended by the mapping, the extension reads as zero and thus as the end of the records
+      this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    this.buffer.position(start + 1);
+
+    return start;
+  }
+
+  /**
+   * publish a record by writing its type octet once the body is complete
+   */
+  private void commitRecord(final int start, final byte type)
+  {
+    this.buffer.put(start, type);
+  }
+
+}
@@ -0,0 +1,233 @@
+package io.netlibs.bgp.netty.fsm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+
+public class FireEventTimeManagerTest
+{
+
+  /**
+   * a timer which only expires its timeouts when told to
+   */
+  private static class ManualTimer implements Timer
+  {
+    private final List<ManualTimeout> pending = new ArrayList<ManualTimeout>();
+
+    @Override
+    public Timeout newTimeout(final TimerTask task, final long delay, final TimeUnit unit)
+    {
+      final ManualTimeout timeout = new ManualTimeout(this, task, unit.toMillis(delay));
+
+      this.pending.add(timeout);
+
+      return timeout;
+    }
+
+    @Override
+    public Set<Timeout> stop()
+    {
+      return Collections.emptySet();
+    }
+
+    /**
+     * @return the delays of the timeouts neither expired nor cancelled, in milliseconds
+     */
+    List<Long> getDelays()
+    {
+      final List<Long> delays = new ArrayList<Long>();
+
+      for (final ManualTimeout timeout : this.pending)
+      {
+        if (!timeout.isCancelled())
+        {
+          delays.add(timeout.delayMillis);
+        }
+      }
+
+      return delays;
+    }
+
+    /**
+     * expire all pending timeouts, including the cancelled ones as a timer racing the cancellation would
+     */
+    void expireAll() throws Exception
+    {
+      final List<ManualTimeout> expiring = new ArrayList<ManualTimeout>(this.pending);
+
+      this.pending.clear();
+
+      for (final ManualTimeout timeout : expiring)
+      {
+        timeout.expired = true;
+        timeout.task.run(timeout);
+      }
+    }
+  }
+
+  private static class ManualTimeout implements Timeout
+  {
+    private final Timer timer;
+    private final TimerTask task;
+    private final long delayMillis;
+    private boolean expired;
+    private boolean cancelled;
+
+    ManualTimeout(final Timer timer, final TimerTask task, final long delayMillis)
+    {
+      this.timer = timer;
+      this.task = task;
+      this.delayMillis = delayMillis;
+    }
+
+    @Override
+    public Timer timer()
+    {
+      return this.timer;
+    }
+
+    @Override
+    public TimerTask task()
+    {
+      return this.task;
+    }
+
+    @Override
+    public boolean isExpired()
+    {
+      return this.expired;
+    }
+
+    @Override
+    public boolean isCancelled()
+    {
+      return this.cancelled;
+    }
+
+    @Override
+    public boolean cancel()
+    {
+      this.cancelled = true;
+
+      return true;
+    }
+  }
+
+  private final ManualTimer timer = new ManualTimer();
+  private final List<FSMEventType> events = new ArrayList<FSMEventType>();
+  private final InternalFSM fsm = new InternalFSM(this.timer) {
+
+    @Override
+    void handleEvent(final FSMEvent event)
+    {
+      FireEventTimeManagerTest.this.events.add(event.getType());
+    }
+  };
+
+  @Test
+  public void testScheduleAndFire() throws Exception
+  {
+    final FireEventTimeManager manager = new FireEventTimeManager(this.timer);
+
+    manager.createJobDetail(FSMEvent.holdTimerExpires(), this.fsm);
+    manager.scheduleJob(90);
+
+    assertTrue(manager.isJobScheduled());
+    assertEquals(Collections.singletonList(90000L), this.timer.getDelays());
+
+    this.timer.expireAll();
+
+    assertEquals(Collections.singletonList(FSMEventType.HoldTimer_Expires), this.events);
+    assertFalse(manager.isJobScheduled());
+    assertNull(manager.getFiredWhen());
+  }
+
+  @Test
+  public void testCancel() throws Exception
+  {
+    final FireEventTimeManager manager = new FireEventTimeManager(this.timer);
+
+    manager.createJobDetail(FSMEvent.keepaliveTimerExpires(), this.fsm);
+    manager.scheduleJob(30);
+    manager.cancelJob();
+
+    assertFalse(manager.isJobScheduled());
+    assertTrue(this.timer.getDelays().isEmpty());
+
+    // an expiry which raced the cancellation is dropped
+    this.timer.expireAll();
+
+    assertTrue(this.events.isEmpty());
+  }
+
+  @Test
+  public void testReschedule() throws Exception
+  {
+    final FireEventTimeManager manager = new FireEventTimeManager(this.timer);
+
+    manager.createJobDetail(FSMEvent.connectRetryTimerExpires(), this.fsm);
+    manager.scheduleJob(120);
+    manager.scheduleJob(5);
+
+    assertEquals(Collections.singletonList(5000L), this.timer.getDelays());
+
+    // only the replacing expiry fires
+    this.timer.expireAll();
+
+    assertEquals(Collections.singletonList(FSMEventType.ConnectRetryTimer_Expires), this.events);
+  }
+
+  @Test
+  public void testRepeatedJob() throws Exception
+  {
+    final FireRepeatedEventTimeManager manager = new FireRepeatedEventTimeManager(this.timer);
+
+    manager.createJobDetail(FSMEvent.automaticStart(), this.fsm);
+    manager.startRepeatedJob(10);
+
+    assertTrue(manager.isJobScheduled());
+    assertEquals(1, this.timer.getDelays().size());
+
+    this.timer.expireAll();
+    this.timer.expireAll();
+
+    assertEquals(2, this.events.size());
+    assertEquals(FSMEventType.AutomaticStart, this.events.get(0));
+    assertTrue(manager.isJobScheduled());
+
+    // restarting replaces the pending expiry
+    manager.startRepeatedJob(20);
+
+    assertEquals(1, this.timer.getDelays().size());
+
+    manager.cancelJob();
+    this.timer.expireAll();
+
+    assertEquals(2, this.events.size());
+    assertFalse(manager.isJobScheduled());
+    assertNull(manager.getNextFireWhen());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRepeatedJobRejectsZeroInterval()
+  {
+    final FireRepeatedEventTimeManager manager = new FireRepeatedEventTimeManager(this.timer);
+
+    manager.createJobDetail(FSMEvent.automaticStart(), this.fsm);
+    manager.startRepeatedJob(0);
+  }
+
+}
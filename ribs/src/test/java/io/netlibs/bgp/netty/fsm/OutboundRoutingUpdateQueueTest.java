@@ -0,0 +1,209 @@
+package io.netlibs.bgp.netty.fsm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.netlibs.bgp.netty.protocol.update.UpdatePacket;
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.InetAddressNextHop;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.Origin;
+import io.netlibs.bgp.protocol.RIBSide;
+import io.netlibs.bgp.protocol.attributes.MultiExitDiscPathAttribute;
+import io.netlibs.bgp.protocol.attributes.OriginPathAttribute;
+import io.netlibs.bgp.protocol.attributes.PathAttribute;
+import io.netlibs.bgp.rib.PeerRoutingInformationBase;
+import io.netlibs.bgp.rib.PeerRoutingInformationBaseManager;
+import io.netlibs.bgp.rib.RoutingInformationBase;
+import io.netty.channel.DefaultEventLoop;
+import io.netty.channel.EventLoop;
+
+public class OutboundRoutingUpdateQueueTest
+{
+
+  private static final AddressFamilyKey AFK = AddressFamilyKey.IPV4_UNICAST_FORWARDING;
+
+  private final List<NetworkLayerReachabilityInformation> prefix = Collections
+      .singletonList(new NetworkLayerReachabilityInformation(24, new byte[] { 10, 0, 0 }));
+  private final List<PathAttribute> attributes = Arrays.<PathAttribute> asList(new OriginPathAttribute(Origin.IGP));
+  private final List<PathAttribute> otherAttributes = Arrays.<PathAttribute> asList(new OriginPathAttribute(Origin.IGP),
+      new MultiExitDiscPathAttribute(10));
+
+  private final BlockingQueue<List<UpdatePacket>> sent = new LinkedBlockingQueue<List<UpdatePacket>>();
+
+  private InetAddressNextHop<Inet4Address> nextHop;
+  private RoutingInformationBase rib;
+  private OutboundRoutingUpdateQueue queue;
+  private EventLoop eventLoop;
+
+  @Before
+  public void setUp() throws Exception
+  {
+    final PeerRoutingInformationBase peerRib = new PeerRoutingInformationBaseManager().peerRoutingInformationBase("peer");
+
+    peerRib.allocateRoutingInformationBase(RIBSide.Local, AFK);
+
+    this.nextHop = new InetAddressNextHop<Inet4Address>((Inet4Address) InetAddress.getByAddress(new byte[] { (byte) 192, 0, 2, 1 }));
+    this.rib = peerRib.routingBase(RIBSide.Local, AFK);
+    this.eventLoop = new DefaultEventLoop();
+    this.queue = new OutboundRoutingUpdateQueue();
+    this.queue.setPeerName("peer");
+    this.queue.setUpdateMask(Collections.singleton(AFK));
+    this.queue.setCallback(new OutboundRoutingUpdateCallback() {
+
+      @Override
+      public void sendUpdates(final List<UpdatePacket> updates)
+      {
+        OutboundRoutingUpdateQueueTest.this.sent.add(updates);
+      }
+
+    });
+    this.queue.startSendingUpdates(this.eventLoop, 0);
+    this.rib.addPerRibListener(this.queue);
+  }
+
+  @After
+  public void tearDown()
+  {
+    this.queue.shutdown();
+    this.eventLoop.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+  }
+
+  /**
+   * keep the event loop busy until the returned latch is released, so the changes queued meanwhile end up in one flush
+   */
+  private CountDownLatch blockEventLoop() throws InterruptedException
+  {
+    final CountDownLatch running = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    this.eventLoop.execute(new Runnable() {
+
+      @Override
+      public void run()
+      {
+        running.countDown();
+
+        try
+        {
+          release.await();
+        }
+        catch (final InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+        }
+      }
+
+    });
+    running.await();
+
+    return release;
+  }
+
+  private List<UpdatePacket> flushQueued(final CountDownLatch release) throws InterruptedException
+  {
+    release.countDown();
+
+    final List<UpdatePacket> updates = this.sent.poll(5, TimeUnit.SECONDS);
+
+    assertNotNull(updates);
+
+    return updates;
+  }
+
+  @Test
+  public void testFlapCollapsesToAnnouncement() throws Exception
+  {
+    final CountDownLatch release = this.blockEventLoop();
+
+    this.rib.addRoutes(this.prefix, this.attributes, this.nextHop);
+    this.rib.withdrawRoutes(this.prefix);
+    this.rib.addRoutes(this.prefix, this.attributes, this.nextHop);
+
+    final List<UpdatePacket> updates = this.flushQueued(release);
+
+    assertEquals(1, updates.size());
+    assertEquals(this.prefix, updates.get(0).getNlris());
+    assertTrue(updates.get(0).getWithdrawnRoutes().isEmpty());
+    assertEquals(0, this.queue.getPendingQueueDepth());
+  }
+
+  @Test
+  public void testWithdrawCancelsAnnouncement() throws Exception
+  {
+    final CountDownLatch release = this.blockEventLoop();
+
+    this.rib.addRoutes(this.prefix, this.attributes, this.nextHop);
+    this.rib.withdrawRoutes(this.prefix);
+
+    final List<UpdatePacket> updates = this.flushQueued(release);
+
+    assertEquals(1, updates.size());
+    assertTrue(updates.get(0).getNlris().isEmpty());
+    assertEquals(this.prefix, updates.get(0).getWithdrawnRoutes());
+  }
+
+  @Test
+  public void testLastAnnouncementWins() throws Exception
+  {
+    final CountDownLatch release = this.blockEventLoop();
+
+    this.rib.addRoutes(this.prefix, this.attributes, this.nextHop);
+    this.rib.addRoutes(this.prefix, this.otherAttributes, this.nextHop);
+
+    final List<UpdatePacket> updates = this.flushQueued(release);
+
+    assertEquals(1, updates.size());
+    assertEquals(this.prefix, updates.get(0).getNlris());
+    assertTrue(updates.get(0).getPathAttributes().contains(new MultiExitDiscPathAttribute(10)));
+  }
+
+  @Test
+  public void testChangesBatchedWithinAdvertisementInterval() throws Exception
+  {
+    final List<NetworkLayerReachabilityInformation> otherPrefix = Collections
+        .singletonList(new NetworkLayerReachabilityInformation(24, new byte[] { 10, 0, 1 }));
+
+    this.queue.startSendingUpdates(this.eventLoop, 500);
+
+    // the first change after an idle period is sent right away
+    this.rib.addRoutes(this.prefix, this.attributes, this.nextHop);
+
+    final List<UpdatePacket> first = this.sent.poll(250, TimeUnit.MILLISECONDS);
+
+    assertNotNull(first);
+    assertEquals(this.prefix, first.get(0).getNlris());
+
+    // changes within the interval are held back and sent together
+    this.rib.withdrawRoutes(this.prefix);
+    this.rib.addRoutes(otherPrefix, this.attributes, this.nextHop);
+
+    assertEquals(2, this.queue.getPendingQueueDepth());
+    assertNull(this.sent.poll(100, TimeUnit.MILLISECONDS));
+
+    final List<UpdatePacket> second = this.sent.poll(5, TimeUnit.SECONDS);
+
+    assertNotNull(second);
+    assertEquals(2, second.size());
+    assertEquals(this.prefix, second.get(0).getWithdrawnRoutes());
+    assertEquals(otherPrefix, second.get(1).getNlris());
+    assertEquals(0, this.queue.getPendingQueueDepth());
+  }
+
+}
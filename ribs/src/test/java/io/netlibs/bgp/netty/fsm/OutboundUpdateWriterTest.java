@@ -0,0 +1,141 @@
+package io.netlibs.bgp.netty.fsm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import io.netlibs.bgp.netty.protocol.update.UpdatePacket;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+public class OutboundUpdateWriterTest
+{
+
+  // the outbound buffer accounts 8 bytes for each message it cannot size, so the channel turns unwritable after five packets
+  private static final int LOW_WATER_MARK = 16;
+  private static final int HIGH_WATER_MARK = 32;
+
+  /**
+   * counts the flushes and optionally holds them back, as a peer not reading from the socket would
+   */
+  private static class FlushGate extends ChannelOutboundHandlerAdapter
+  {
+    private final List<ChannelHandlerContext> held = new ArrayList<ChannelHandlerContext>();
+    private boolean closed;
+    private int flushes;
+
+    @Override
+    public void flush(final ChannelHandlerContext ctx) throws Exception
+    {
+      this.flushes++;
+
+      if (this.closed)
+      {
+        this.held.add(ctx);
+      }
+      else
+      {
+        ctx.flush();
+      }
+    }
+
+    void open()
+    {
+      this.closed = false;
+
+      for (final ChannelHandlerContext ctx : this.held)
+      {
+        ctx.flush();
+      }
+
+      this.held.clear();
+    }
+  }
+
+  private final OutboundUpdateWriter writer = new OutboundUpdateWriter();
+  private final FlushGate gate = new FlushGate();
+  private EmbeddedChannel channel;
+
+  @Before
+  public void setUp()
+  {
+    this.channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter() {
+
+      @Override
+      public void channelWritabilityChanged(final ChannelHandlerContext ctx) throws Exception
+      {
+        OutboundUpdateWriterTest.this.writer.channelWritabilityChanged(ctx.channel());
+        ctx.fireChannelWritabilityChanged();
+      }
+
+    }, this.gate);
+
+    OutboundUpdateWriter.configureWaterMarks(this.channel.config(), LOW_WATER_MARK, HIGH_WATER_MARK);
+  }
+
+  private static List<UpdatePacket> packets(final int count)
+  {
+    final List<UpdatePacket> packets = new ArrayList<UpdatePacket>(count);
+
+    for (int i = 0; i < count; i++)
+    {
+      packets.add(new UpdatePacket());
+    }
+
+    return packets;
+  }
+
+  private List<Object> written()
+  {
+    final List<Object> written = new ArrayList<Object>();
+    Object message;
+
+    while ((message = this.channel.readOutbound()) != null)
+    {
+      written.add(message);
+    }
+
+    return written;
+  }
+
+  @Test
+  public void testBatchesWritesPerFlush()
+  {
+    final List<UpdatePacket> packets = packets(100);
+
+    this.writer.write(this.channel, packets);
+
+    assertEquals(packets, this.written());
+    assertEquals(0, this.writer.getBacklogSize());
+    // one flush per crossing of the high water mark instead of one per packet
+    assertEquals(25, this.gate.flushes);
+  }
+
+  @Test
+  public void testHoldsBackWhileUnwritable()
+  {
+    final List<UpdatePacket> packets = packets(20);
+
+    this.gate.closed = true;
+    this.writer.write(this.channel, packets);
+
+    assertFalse(this.channel.isWritable());
+    assertEquals(16, this.writer.getBacklogSize());
+    assertEquals(1, this.gate.flushes);
+
+    this.gate.open();
+
+    assertTrue(this.channel.isWritable());
+    assertEquals(packets, this.written());
+    assertEquals(0, this.writer.getBacklogSize());
+  }
+
+}
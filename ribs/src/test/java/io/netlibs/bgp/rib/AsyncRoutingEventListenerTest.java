@@ -0,0 +1,251 @@
+package io.netlibs.bgp.rib;
+
+import static io.netlibs.bgp.rib.NlriFixtures.nlri;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.RIBSide;
+import io.netlibs.bgp.protocol.attributes.PathAttribute;
+
+public class AsyncRoutingEventListenerTest
+{
+
+  /**
+   * records the delivered changes, the first delivery waits until the test releases it
+   */
+  private static class SlowListener implements RoutingEventListener
+  {
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch released = new CountDownLatch(1);
+    private final List<RouteChange> changes = Collections.synchronizedList(new ArrayList<RouteChange>());
+
+    @Override
+    public void routeAdded(final RouteAdded event)
+    {
+    }
+
+    @Override
+    public void routeWithdrawn(final RouteWithdrawn event)
+    {
+    }
+
+    @Override
+    public void routesChanged(final List<RouteChange> changes)
+    {
+      this.started.countDown();
+
+      try
+      {
+        this.released.await();
+      }
+      catch (final InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+
+      this.changes.addAll(changes);
+    }
+  }
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private final List<PathAttribute> attributes = Collections.emptyList();
+
+  @After
+  public void tearDown()
+  {
+    this.executor.shutdownNow();
+  }
+
+  private RouteChange change(final RouteChange.Type type, final int octet)
+  {
+    final NetworkLayerReachabilityInformation nlri = new NetworkLayerReachabilityInformation(24, new byte[] { 10, 0, (byte) octet });
+
+    return new RouteChange("peer", RIBSide.Remote, type,
+        new Route(AddressFamilyKey.IPV4_UNICAST_FORWARDING, nlri, this.attributes, null));
+  }
+
+  private void awaitDelivery() throws Exception
+  {
+    // the delivery task runs until the buffer is empty, a task queued behind it completes once everything has been delivered
+    this.executor.submit(() -> {
+    }).get(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testBlockDeliversEverythingInOrder() throws Exception
+  {
+    final SlowListener slow = new SlowListener();
+    final AsyncRoutingEventListener listener = new AsyncRoutingEventListener(slow, this.executor, 4);
+    final List<RouteChange> expected = new ArrayList<RouteChange>();
+
+    for (int i = 0; i < 20; i++)
+    {
+      expected.add(this.change(RouteChange.Type.ADDED, i));
+    }
+
+    listener.routesChanged(expected.subList(0, 1));
+    assertTrue(slow.started.await(5, TimeUnit.SECONDS));
+
+    final Thread producer = new Thread(() -> listener.routesChanged(expected.subList(1, 20)));
+
+    producer.start();
+
+    // the producer fills the buffer and waits for the delegate
+    for (int i = 0; i < 500 && listener.getQueueDepth() < 4; i++)
+    {
+      Thread.sleep(10);
+    }
+
+    assertEquals(4, listener.getQueueDepth());
+    assertTrue(producer.isAlive());
+
+    slow.released.countDown();
+    producer.join(5000);
+    this.awaitDelivery();
+
+    assertEquals(expected, slow.changes);
+    assertEquals(20, listener.getDeliveredChanges());
+    assertEquals(4, listener.getMaxQueueDepth());
+  }
+
+  @Test
+  public void testCoalesceKeepsLatestChangePerPrefix() throws Exception
+  {
+    final SlowListener slow = new SlowListener();
+    final AsyncRoutingEventListener listener = new AsyncRoutingEventListener(slow, this.executor, 4,
+        AsyncRoutingEventListener.OverflowPolicy.COALESCE, null);
+
+    listener.routesChanged(Collections.singletonList(this.change(RouteChange.Type.ADDED, 100)));
+    assertTrue(slow.started.await(5, TimeUnit.SECONDS));
+
+    // flap ten prefixes a few times while the delegate is stuck
+    for (int round = 0; round < 5; round++)
+    {
+      for (int i = 0; i < 10; i++)
+      {
+        listener.routesChanged(Collections.singletonList(this.change((round % 2 == 0) ? RouteChange.Type.ADDED
+            : RouteChange.Type.WITHDRAWN, i)));
+      }
+    }
+
+    assertEquals(4 + 10, listener.getQueueDepth());
+
+    slow.released.countDown();
+    this.awaitDelivery();
+
+    final Map<NetworkLayerReachabilityInformation, RouteChange.Type> state = new LinkedHashMap<NetworkLayerReachabilityInformation, RouteChange.Type>();
+
+    for (final RouteChange change : slow.changes)
+    {
+      state.put(change.getRoute().getNlri(), change.getType());
+    }
+
+    assertEquals(11, state.size());
+
+    for (final RouteChange.Type type : state.values())
+    {
+      assertEquals(RouteChange.Type.ADDED, type);
+    }
+
+    assertEquals(1 + 4 + 10, slow.changes.size());
+    assertEquals(50 - 4 - 10, listener.getCoalescedChanges());
+  }
+
+  @Test
+  public void testDropAndResync() throws Exception
+  {
+    final SlowListener slow = new SlowListener();
+    final AtomicInteger resyncs = new AtomicInteger();
+    final AsyncRoutingEventListener listener = new AsyncRoutingEventListener(slow, this.executor, 4,
+        AsyncRoutingEventListener.OverflowPolicy.DROP_AND_RESYNC, l -> resyncs.incrementAndGet());
+
+    listener.routesChanged(Collections.singletonList(this.change(RouteChange.Type.ADDED, 100)));
+    assertTrue(slow.started.await(5, TimeUnit.SECONDS));
+
+    for (int i = 0; i < 10; i++)
+    {
+      listener.routesChanged(Collections.singletonList(this.change(RouteChange.Type.ADDED, i)));
+    }
+
+    assertEquals(0, listener.getQueueDepth());
+    assertEquals(10, listener.getDroppedChanges());
+
+    slow.released.countDown();
+    this.awaitDelivery();
+
+    // the resynchronizer reported no route, so the route delivered before is withdrawn
+    assertEquals(1, resyncs.get());
+    assertEquals(Arrays.asList(this.change(RouteChange.Type.ADDED, 100), this.change(RouteChange.Type.WITHDRAWN, 100)), slow.changes);
+    assertEquals(1, listener.getResynchronizations());
+  }
+
+  @Test
+  public void testReplayingResyncWithdrawsVanishedRoutes() throws Exception
+  {
+    final SlowListener slow = new SlowListener();
+    final RoutingInformationBase rib = new RoutingInformationBase();
+    final List<NetworkLayerReachabilityInformation> prefixes = new ArrayList<NetworkLayerReachabilityInformation>();
+
+    rib.setPeerName("peer");
+    rib.setSide(RIBSide.Remote);
+    rib.setAddressFamilyKey(AddressFamilyKey.IPV4_UNICAST_FORWARDING);
+
+    final AsyncRoutingEventListener listener = new AsyncRoutingEventListener(slow, this.executor, 4,
+        AsyncRoutingEventListener.OverflowPolicy.DROP_AND_RESYNC, AsyncRoutingEventListener.replaying(rib));
+
+    rib.addPerRibListener(listener);
+
+    // the delegate gets the first route, then falls behind while it is withdrawn
+    rib.addRoutes(Arrays.asList(nlri(24, 10, 0, 100)), this.attributes, null);
+    assertTrue(slow.started.await(5, TimeUnit.SECONDS));
+
+    for (int i = 0; i < 10; i++)
+    {
+      prefixes.add(nlri(24, 10, 0, i));
+    }
+
+    rib.addRoutes(prefixes, this.attributes, null);
+    rib.withdrawRoutes(Arrays.asList(nlri(24, 10, 0, 100)));
+
+    assertEquals(11, listener.getDroppedChanges());
+
+    slow.released.countDown();
+    this.awaitDelivery();
+
+    final Map<NetworkLayerReachabilityInformation, RouteChange.Type> state = new LinkedHashMap<NetworkLayerReachabilityInformation, RouteChange.Type>();
+
+    for (final RouteChange change : slow.changes)
+    {
+      state.put(change.getRoute().getNlri(), change.getType());
+    }
+
+    assertEquals(1, listener.getResynchronizations());
+    assertEquals(11, state.size());
+
+    // the delegate holds exactly the routes of the RIB
+    assertEquals(RouteChange.Type.WITHDRAWN, state.get(nlri(24, 10, 0, 100)));
+
+    for (final NetworkLayerReachabilityInformation prefix : prefixes)
+    {
+      assertEquals(RouteChange.Type.ADDED, state.get(prefix));
+    }
+  }
+
+}
@@ -0,0 +1,91 @@
+package io.netlibs.bgp.rib;
+
+import static io.netlibs.bgp.rib.RouteFixtures.nextHop;
+import static io.netlibs.bgp.rib.RouteFixtures.prefixes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.RIBSide;
+import io.netlibs.bgp.protocol.attributes.PathAttribute;
+import io.netlibs.bgp.rib.decision.MultipathGroup;
+
+public class NextHopTableTest
+{
+
+  private final List<PathAttribute> attributes = Collections.emptyList();
+  private final NextHopTable table = new NextHopTable();
+  private RoutingInformationBase rib;
+
+  @Before
+  public void setUp()
+  {
+    this.rib = new RoutingInformationBase();
+    this.rib.setPeerName("peer");
+    this.rib.setSide(RIBSide.Remote);
+    this.rib.setAddressFamilyKey(AddressFamilyKey.IPV4_UNICAST_FORWARDING);
+    this.rib.addPerRibListener(this.table);
+  }
+
+  @Test
+  public void testReverseIndexFollowsRoutes() throws Exception
+  {
+    final List<NetworkLayerReachabilityInformation> prefixes = prefixes(0, 1000);
+
+    this.rib.addRoutes(prefixes, this.attributes, nextHop(1));
+
+    assertEquals(1000, this.table.lookup(nextHop(1)).getDependentCount());
+    assertTrue(this.table.getDependents(nextHop(1)).contains(new RouteKey("peer", RIBSide.Remote,
+        AddressFamilyKey.IPV4_UNICAST_FORWARDING, prefixes.get(17))));
+
+    // a route replaced with a different next hop moves to the other entry
+    this.rib.addRoutes(prefixes.subList(0, 10), this.attributes, nextHop(2));
+
+    assertEquals(990, this.table.lookup(nextHop(1)).getDependentCount());
+    assertEquals(10, this.table.lookup(nextHop(2)).getDependentCount());
+
+    // entries nobody uses are dropped
+    this.rib.withdrawRoutes(prefixes.subList(0, 10));
+
+    assertNull(this.table.lookup(nextHop(2)));
+    assertEquals(1, this.table.size());
+  }
+
+  @Test
+  public void testReachabilityChangeReportedOnce() throws Exception
+  {
+    final List<NextHopEntry> changes = new ArrayList<NextHopEntry>();
+
+    this.table.addListener(changes::add);
+    this.rib.addRoutes(prefixes(0, 1000), this.attributes, nextHop(1));
+
+    final NextHopEntry entry = this.table.lookup(nextHop(1));
+    final MultipathGroup group = MultipathGroup.intern(Arrays.asList(nextHop(1), nextHop(2)));
+
+    this.table.setReachable(nextHop(1), false);
+    this.table.setReachable(nextHop(1), false);
+
+    assertEquals(Collections.singletonList(entry), changes);
+    assertFalse(entry.isReachable());
+    assertEquals(Arrays.asList(nextHop(2)), group.getReachableNextHops(this.table));
+
+    this.table.setReachable(nextHop(1), true);
+
+    assertEquals(2, changes.size());
+    assertSame(entry, this.table.lookup(nextHop(1)));
+    assertEquals(Arrays.asList(nextHop(1), nextHop(2)), group.getReachableNextHops(this.table));
+  }
+
+}
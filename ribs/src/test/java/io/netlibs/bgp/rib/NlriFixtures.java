@@ -0,0 +1,41 @@
+package io.netlibs.bgp.rib;
+
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+
+/**
+ * NLRIs for the tests of this package
+ */
+final class NlriFixtures
+{
+
+  private NlriFixtures()
+  {
+  }
+
+  static NetworkLayerReachabilityInformation nlri(final int prefixLength, final int... octets)
+  {
+    final byte[] prefix = new byte[octets.length];
+
+    for (int i = 0; i < octets.length; i++)
+    {
+      prefix[i] = (byte) octets[i];
+    }
+
+    return new NetworkLayerReachabilityInformation(prefixLength, prefix);
+  }
+
+  // label 16, RD type 0 65000:<rd>, IPv4 prefix
+  static NetworkLayerReachabilityInformation vpn(final int rd, final int prefixLength, final int... octets)
+  {
+    final int[] encoded = new int[11 + octets.length];
+
+    encoded[1] = 0x01;
+    encoded[5] = 0xfd;
+    encoded[6] = 0xe8;
+    encoded[10] = rd;
+    System.arraycopy(octets, 0, encoded, 11, octets.length);
+
+    return nlri(88 + prefixLength, encoded);
+  }
+
+}
@@ -0,0 +1,73 @@
+package io.netlibs.bgp.rib;
+
+import static io.netlibs.bgp.rib.NlriFixtures.nlri;
+import static io.netlibs.bgp.rib.NlriFixtures.vpn;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import io.netlibs.bgp.config.nodes.impl.PrefixRoutingFilterConfigurationImpl;
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.rib.filter.PrefixRoutingFilter;
+
+public class NlriViewTest
+{
+
+  @Test
+  public void testLabelledUnicast()
+  {
+    final AddressFamilyKey afk = AddressFamilyKey.IPV4_UNICAST_MPLS_FORWARDING;
+    final NetworkLayerReachabilityInformation covering = nlri(33, 0x00, 0x01, 0x01, 10, 0x80);
+    final NetworkLayerReachabilityInformation covered = nlri(48, 0x00, 0x02, 0x01, 10, 0xc0, 1);
+    final NlriView view = NlriView.of(afk, covered);
+
+    assertEquals(32, view.getLabel());
+    assertEquals(24, view.getPrefixLength());
+    assertFalse(view.hasRouteDistinguisher());
+
+    // 10.128/9 covers 10.192.1/24, whatever the labels are
+    assertTrue(NlriComparator.isPrefixOf(afk, covering, covered));
+    assertFalse(NlriComparator.isPrefixOf(afk, covered, covering));
+    assertFalse(NlriComparator.isPrefixOf(afk, nlri(33, 0x00, 0x01, 0x01, 10, 0x00), covered));
+    assertTrue(NlriComparator.equals(afk, covered, nlri(48, 0x00, 0x03, 0x01, 10, 0xc0, 1)));
+    assertFalse(NlriComparator.equals(afk, covered, nlri(48, 0x00, 0x03, 0x01, 10, 0xc0, 2)));
+  }
+
+  @Test
+  public void testVpn()
+  {
+    final AddressFamilyKey afk = AddressFamilyKey.IPV4_MPLS_VPN_FORWARDING;
+    final NlriView view = NlriView.of(afk, vpn(1, 24, 10, 1, 2));
+
+    assertEquals(16, view.getLabel());
+    assertEquals(0x0000fde800000001L, view.getRouteDistinguisher());
+    assertEquals(24, view.getPrefixLength());
+
+    assertTrue(view.isPrefixOf(vpn(1, 32, 10, 1, 2, 3)));
+    assertTrue(view.matches(vpn(1, 24, 10, 1, 2)));
+    assertFalse(view.isPrefixOf(vpn(2, 32, 10, 1, 2, 3)));
+    assertFalse(view.matches(vpn(2, 24, 10, 1, 2)));
+    assertTrue(NlriComparator.isPrefixOf(afk, vpn(1, 0), vpn(1, 8, 10)));
+    assertFalse(NlriComparator.equals(afk, vpn(1, 0), vpn(2, 0)));
+  }
+
+  @Test
+  public void testPrefixRoutingFilter()
+  {
+    final AddressFamilyKey afk = AddressFamilyKey.IPV4_MPLS_VPN_FORWARDING;
+    final PrefixRoutingFilter filter = new PrefixRoutingFilter();
+
+    filter.configure(new PrefixRoutingFilterConfigurationImpl("vpn", Arrays.asList(vpn(1, 16, 10, 1))));
+
+    assertTrue(filter.matchFilter(new Route(afk, vpn(1, 16, 10, 1), null, null)));
+    assertTrue(filter.matchFilter(new Route(afk, vpn(1, 24, 10, 1, 7), null, null)));
+    assertFalse(filter.matchFilter(new Route(afk, vpn(2, 24, 10, 1, 7), null, null)));
+    assertFalse(filter.matchFilter(new Route(afk, vpn(1, 8, 10), null, null)));
+  }
+
+}
@@ -0,0 +1,65 @@
+package io.netlibs.bgp.rib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import io.netlibs.bgp.protocol.Origin;
+import io.netlibs.bgp.protocol.attributes.LocalPrefPathAttribute;
+import io.netlibs.bgp.protocol.attributes.MultiExitDiscPathAttribute;
+import io.netlibs.bgp.protocol.attributes.OriginPathAttribute;
+import io.netlibs.bgp.protocol.attributes.PathAttribute;
+
+public class PathAttributeSetTest
+{
+
+  @Test
+  public void testInternSharesBundle()
+  {
+    final List<PathAttribute> first = Arrays.asList(new LocalPrefPathAttribute(100), new OriginPathAttribute(Origin.IGP));
+    final List<PathAttribute> second = Arrays.asList(new OriginPathAttribute(Origin.IGP), new LocalPrefPathAttribute(100));
+
+    final PathAttributeSet left = PathAttributeSet.intern(first);
+    final PathAttributeSet right = PathAttributeSet.intern(second);
+
+    assertSame(left, right);
+    assertSame(left, PathAttributeSet.intern(left));
+    assertEquals(2, left.size());
+    assertTrue(left.contains(new LocalPrefPathAttribute(100)));
+    assertFalse(left.contains(new LocalPrefPathAttribute(200)));
+    assertEquals(new HashSet<PathAttribute>(first), left);
+    assertEquals(new HashSet<PathAttribute>(first).hashCode(), left.hashCode());
+  }
+
+  @Test
+  public void testDistinctBundles()
+  {
+    final PathAttributeSet left = PathAttributeSet.intern(Arrays.asList(new MultiExitDiscPathAttribute(10)));
+    final PathAttributeSet right = PathAttributeSet.intern(Arrays.asList(new MultiExitDiscPathAttribute(20)));
+
+    assertFalse(left.equals(right));
+    assertTrue(left.getId() != right.getId());
+    assertTrue(left.compareTo(right) != 0);
+    assertSame(PathAttributeSet.EMPTY, PathAttributeSet.intern(null));
+  }
+
+  @Test
+  public void testRoutesShareBundle()
+  {
+    final List<PathAttribute> attributes = Arrays.asList(new LocalPrefPathAttribute(100));
+
+    final Route left = new Route(null, null, attributes, null);
+    final Route right = new Route(null, null, attributes, null);
+
+    assertSame(left.getPathAttributes(), right.getPathAttributes());
+    assertEquals(left, right);
+  }
+
+}
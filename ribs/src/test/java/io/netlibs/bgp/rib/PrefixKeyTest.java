@@ -0,0 +1,178 @@
+package io.netlibs.bgp.rib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.RIBSide;
+
+public class PrefixKeyTest
+{
+
+  private static NetworkLayerReachabilityInformation random(final Random random, final int addressLength)
+  {
+    final int prefixLength = random.nextInt(addressLength + 1);
+    final byte[] prefix = new byte[NetworkLayerReachabilityInformation.calculateOctetsForPrefixLength(prefixLength)];
+
+    random.nextBytes(prefix);
+
+    // keep the prefixes close to each other, so many of them cover others
+    if (prefix.length > 0)
+    {
+      prefix[0] &= 0x81;
+    }
+
+    return new NetworkLayerReachabilityInformation(prefixLength, (prefixLength == 0) ? null : prefix);
+  }
+
+  @Test
+  public void testIPv4Key()
+  {
+    final IPv4PrefixKey key = IPv4PrefixKey.of(new NetworkLayerReachabilityInformation(20, new byte[] { 10, 1, (byte) 0xf0 }));
+
+    assertEquals("10.1.240.0/20", key.toString());
+    assertEquals(0x0a01f000, key.getAddress());
+    assertEquals(key, IPv4PrefixKey.of(0x0a01ffff, 20));
+    assertEquals(new NetworkLayerReachabilityInformation(20, new byte[] { 10, 1, (byte) 0xf0 }), key.toNetworkLayerReachabilityInformation());
+    assertTrue(IPv4PrefixKey.of(0, 0).isPrefixOf(key));
+    assertFalse(key.isPrefixOf(key));
+  }
+
+  @Test
+  public void testIPv6Key()
+  {
+    final IPv6PrefixKey key = IPv6PrefixKey.of(new NetworkLayerReachabilityInformation(72, new byte[] { 0x20, 0x01, 0x0d, (byte) 0xb8, 0, 0,
+        0, 0, (byte) 0x80 }));
+
+    assertEquals("2001:db8:0:0:8000:0:0:0/72", key.toString());
+    assertEquals(key, IPv6PrefixKey.of(0x20010db800000000L, 0x80ffffffffffffffL, 72));
+    assertTrue(IPv6PrefixKey.of(0x20010db800000000L, 0, 32).isPrefixOf(key));
+    assertFalse(IPv6PrefixKey.of(0x20010db800000000L, 0x4000000000000000L, 66).isPrefixOf(key));
+  }
+
+  @Test
+  public void testKeysMatchNlriSemantics()
+  {
+    final Random random = new Random(23);
+
+    for (final int addressLength : new int[] { 32, 128 })
+    {
+      final AddressFamilyKey afk = (addressLength == 32) ? AddressFamilyKey.IPV4_UNICAST_FORWARDING : AddressFamilyKey.IPV6_UNICAST_FORWARDING;
+
+      for (int i = 0; i < 5000; i++)
+      {
+        final NetworkLayerReachabilityInformation left = random(random, addressLength);
+        final NetworkLayerReachabilityInformation right = random(random, addressLength);
+        final int order = Integer.signum(RoutingTree.compareKeys(afk, left, right));
+
+        if (addressLength == 32)
+        {
+          final IPv4PrefixKey l = IPv4PrefixKey.of(left);
+          final IPv4PrefixKey r = IPv4PrefixKey.of(right);
+
+          assertEquals(left.isPrefixOf(right), l.isPrefixOf(r));
+          assertEquals(left.equals(right), l.equals(r));
+          assertEquals(order, Integer.signum(l.compareTo(r)));
+          assertEquals(left, l.toNetworkLayerReachabilityInformation());
+        }
+        else
+        {
+          final IPv6PrefixKey l = IPv6PrefixKey.of(left);
+          final IPv6PrefixKey r = IPv6PrefixKey.of(right);
+
+          assertEquals(left.isPrefixOf(right), l.isPrefixOf(r));
+          assertEquals(left.equals(right), l.equals(r));
+          assertEquals(order, Integer.signum(l.compareTo(r)));
+          assertEquals(left, l.toNetworkLayerReachabilityInformation());
+        }
+
+        assertEquals(left.isPrefixOf(right), NlriComparator.isPrefixOf(afk, left, right));
+        assertEquals(left.equals(right), NlriComparator.equals(afk, left, right));
+      }
+    }
+  }
+
+  @Test
+  public void testComparisonIgnoresHostBits()
+  {
+    final NetworkLayerReachabilityInformation clean = new NetworkLayerReachabilityInformation(23, new byte[] { 10, 0, 2 });
+    final NetworkLayerReachabilityInformation dirty = new NetworkLayerReachabilityInformation(23, new byte[] { 10, 0, 2 });
+
+    // a host bit set behind the back of the NLRI, which masks them when the prefix is set
+    dirty.getPrefix()[2] |= 1;
+
+    assertFalse(clean.equals(dirty));
+    assertTrue(NlriComparator.equals(AddressFamilyKey.IPV4_UNICAST_FORWARDING, clean, dirty));
+    assertTrue(NlriComparator.isPrefixOf(AddressFamilyKey.IPV4_UNICAST_FORWARDING, dirty,
+        new NetworkLayerReachabilityInformation(24, new byte[] { 10, 0, 2 })));
+  }
+
+  @Test
+  public void testTreeOrder()
+  {
+    final Random random = new Random(17);
+    final RoutingInformationBase rib = new RoutingInformationBase();
+    final List<IPv4PrefixKey> keys = new ArrayList<IPv4PrefixKey>();
+
+    rib.setPeerName("test");
+    rib.setSide(RIBSide.Remote);
+    rib.setAddressFamilyKey(AddressFamilyKey.IPV4_UNICAST_FORWARDING);
+
+    for (int i = 0; i < 1000; i++)
+    {
+      final NetworkLayerReachabilityInformation nlri = random(random, 32);
+
+      if (!keys.contains(IPv4PrefixKey.of(nlri)))
+      {
+        keys.add(IPv4PrefixKey.of(nlri));
+        rib.addRoutes(Collections.singletonList(nlri), Collections.emptyList(), null);
+      }
+    }
+
+    Collections.sort(keys);
+
+    final List<IPv4PrefixKey> walked = new ArrayList<IPv4PrefixKey>();
+
+    rib.stream().forEach(route -> walked.add(IPv4PrefixKey.of(route.getNlri())));
+
+    assertEquals(keys, walked);
+  }
+
+  @Test
+  public void testLookup()
+  {
+    final RoutingInformationBase rib = new RoutingInformationBase();
+
+    rib.setPeerName("test");
+    rib.setSide(RIBSide.Remote);
+    rib.setAddressFamilyKey(AddressFamilyKey.IPV6_UNICAST_FORWARDING);
+    rib.addRoutes(Arrays.asList(new NetworkLayerReachabilityInformation(32, new byte[] { 0x20, 0x01, 0x0d, (byte) 0xb8 }),
+        new NetworkLayerReachabilityInformation(127, new byte[] { 0x20, 0x01, 0x0d, (byte) 0xb8, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 2 })),
+        Collections.emptyList(), null);
+
+    assertEquals(127, rib.lookupRoute(IPv6PrefixKey.of(0x20010db800000000L, 3, 128)).getRoute().getNlri().getPrefixLength());
+    assertEquals(32, rib.lookupRoute(IPv6PrefixKey.of(0x20010db800000000L, 4, 128)).getRoute().getNlri().getPrefixLength());
+    assertNull(rib.lookupRoute(IPv6PrefixKey.of(0x20010db900000000L, 0, 64)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testLookupOtherFamily()
+  {
+    final RoutingInformationBase rib = new RoutingInformationBase();
+
+    rib.setAddressFamilyKey(AddressFamilyKey.IPV6_UNICAST_FORWARDING);
+    rib.lookupRoute(IPv4PrefixKey.of(0, 0));
+  }
+
+}
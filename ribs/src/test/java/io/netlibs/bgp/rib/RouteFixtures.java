@@ -0,0 +1,90 @@
+package io.netlibs.bgp.rib;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import io.netlibs.bgp.protocol.ASType;
+import io.netlibs.bgp.protocol.InetAddressNextHop;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.NextHop;
+import io.netlibs.bgp.protocol.Origin;
+import io.netlibs.bgp.protocol.PathSegment;
+import io.netlibs.bgp.protocol.PathSegmentType;
+import io.netlibs.bgp.protocol.attributes.ASPathAttribute;
+import io.netlibs.bgp.protocol.attributes.LocalPrefPathAttribute;
+import io.netlibs.bgp.protocol.attributes.OriginPathAttribute;
+import io.netlibs.bgp.protocol.attributes.PathAttribute;
+
+/**
+ * Routes for the tests of the RIB packages
+ */
+public final class RouteFixtures
+{
+
+  private RouteFixtures()
+  {
+  }
+
+  /**
+   * @return the next hop 192.0.2.<code>last</code>
+   */
+  public static NextHop nextHop(final int last)
+  {
+    try
+    {
+      return new InetAddressNextHop<Inet4Address>((Inet4Address) InetAddress.getByAddress(new byte[] { (byte) 192, 0, 2, (byte) last }));
+    }
+    catch (final UnknownHostException e)
+    {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  /**
+   * @return the prefixes 10.<code>i >> 8</code>.<code>i</code>/24 for <code>from</code> &lt;= i &lt; <code>to</code>
+   */
+  public static List<NetworkLayerReachabilityInformation> prefixes(final int from, final int to)
+  {
+    final List<NetworkLayerReachabilityInformation> prefixes = new ArrayList<NetworkLayerReachabilityInformation>();
+
+    for (int i = from; i < to; i++)
+    {
+      prefixes.add(new NetworkLayerReachabilityInformation(24, new byte[] { 10, (byte) (i >> 8), (byte) i }));
+    }
+
+    return prefixes;
+  }
+
+  /**
+   * @return origin IGP, the local preference and, if any AS is given, an AS path of a single 2-octet AS sequence
+   */
+  public static List<PathAttribute> attributes(final int localPref, final int... asPath)
+  {
+    final List<PathAttribute> attributes = new ArrayList<PathAttribute>();
+
+    attributes.add(new OriginPathAttribute(Origin.IGP));
+    attributes.add(new LocalPrefPathAttribute(localPref));
+
+    if (asPath.length > 0)
+    {
+      attributes.add(new ASPathAttribute(ASType.AS_NUMBER_2OCTETS, new PathSegment[] {
+          new PathSegment(ASType.AS_NUMBER_2OCTETS, PathSegmentType.AS_SEQUENCE, asPath) }));
+    }
+
+    return attributes;
+  }
+
+  /**
+   * @return the routes of a RIB in tree order, one line per route
+   */
+  public static List<String> content(final RoutingInformationBase rib)
+  {
+    return rib.snapshot().stream().map(route -> route.getNlri() + " " + route.getPathAttributes() + " " + route.getNextHop())
+        .collect(Collectors.toList());
+  }
+
+}
@@ -0,0 +1,137 @@
+package io.netlibs.bgp.rib;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.RIBSide;
+import io.netlibs.bgp.protocol.attributes.PathAttribute;
+
+public class RoutingEventListenerTest
+{
+
+  private final List<PathAttribute> attributes = Collections.emptyList();
+  private RoutingInformationBase rib;
+
+  private static NetworkLayerReachabilityInformation v4(final int prefixLength, final int... octets)
+  {
+    final byte[] prefix = new byte[octets.length];
+
+    for (int i = 0; i < octets.length; i++)
+    {
+      prefix[i] = (byte) octets[i];
+    }
+
+    return new NetworkLayerReachabilityInformation(prefixLength, prefix);
+  }
+
+  @Before
+  public void setUp()
+  {
+    this.rib = new RoutingInformationBase();
+    this.rib.setPeerName("peer");
+    this.rib.setSide(RIBSide.Remote);
+    this.rib.setAddressFamilyKey(AddressFamilyKey.IPV4_UNICAST_FORWARDING);
+    this.rib.addRoutes(Arrays.asList(v4(24, 10, 0, 1)), this.attributes, null);
+  }
+
+  @Test
+  public void testBatchDeliveredOnce()
+  {
+    final List<List<RouteChange>> batches = new LinkedList<List<RouteChange>>();
+
+    this.rib.addPerRibListener(new RoutingEventListener() {
+
+      @Override
+      public void routeAdded(final RouteAdded event)
+      {
+        throw new AssertionError("unexpected single route callback");
+      }
+
+      @Override
+      public void routeWithdrawn(final RouteWithdrawn event)
+      {
+        throw new AssertionError("unexpected single route callback");
+      }
+
+      @Override
+      public void routesChanged(final List<RouteChange> changes)
+      {
+        batches.add(changes);
+      }
+
+    });
+
+    this.rib.apply(new RibBatch()
+        .announce(AddressFamilyKey.IPV4_UNICAST_FORWARDING, Arrays.asList(v4(24, 10, 0, 2), v4(24, 10, 0, 3)), this.attributes, null)
+        .withdraw(AddressFamilyKey.IPV4_UNICAST_FORWARDING, Arrays.asList(v4(24, 10, 0, 1), v4(24, 10, 0, 9))));
+
+    assertEquals(1, batches.size());
+
+    final List<RouteChange> changes = batches.get(0);
+
+    // the unknown withdrawal is not reported, withdrawals precede the additions
+    assertEquals(3, changes.size());
+    assertEquals(RouteChange.Type.WITHDRAWN, changes.get(0).getType());
+    assertEquals(v4(24, 10, 0, 1), changes.get(0).getRoute().getNlri());
+    assertEquals(RouteChange.Type.ADDED, changes.get(1).getType());
+    assertEquals(v4(24, 10, 0, 2), changes.get(1).getRoute().getNlri());
+    assertEquals(v4(24, 10, 0, 3), changes.get(2).getRoute().getNlri());
+    assertEquals("peer", changes.get(2).getPeerName());
+    assertEquals(RIBSide.Remote, changes.get(2).getSide());
+  }
+
+  @Test
+  public void testSingleRouteListenerAdapted()
+  {
+    final List<Object> events = new LinkedList<Object>();
+
+    this.rib.addPerRibListener(new RoutingEventListener() {
+
+      @Override
+      public void routeAdded(final RouteAdded event)
+      {
+        events.add(event);
+      }
+
+      @Override
+      public void routeWithdrawn(final RouteWithdrawn event)
+      {
+        events.add(event);
+      }
+
+    });
+
+    this.rib.apply(new RibBatch()
+        .withdraw(AddressFamilyKey.IPV4_UNICAST_FORWARDING, Arrays.asList(v4(24, 10, 0, 1)))
+        .announce(AddressFamilyKey.IPV4_UNICAST_FORWARDING, Arrays.asList(v4(24, 10, 0, 2)), this.attributes, null));
+
+    assertEquals(2, events.size());
+    assertEquals(v4(24, 10, 0, 1), ((RouteWithdrawn) events.get(0)).getRoute().getNlri());
+    assertEquals(v4(24, 10, 0, 2), ((RouteAdded) events.get(1)).getRoute().getNlri());
+    assertEquals("peer", ((RouteAdded) events.get(1)).getPeerName());
+  }
+
+  @Test
+  public void testBatchListenerAdaptsSingleRoutes()
+  {
+    final List<List<RouteChange>> batches = new LinkedList<List<RouteChange>>();
+    final BatchRoutingEventListener listener = batches::add;
+    final Route route = new Route(AddressFamilyKey.IPV4_UNICAST_FORWARDING, v4(24, 10, 0, 3), this.attributes, null);
+
+    listener.routeAdded(RouteChange.added("peer", RIBSide.Remote, route).toRouteAdded());
+    listener.routeWithdrawn(RouteChange.withdrawn("peer", RIBSide.Remote, route).toRouteWithdrawn());
+
+    assertEquals(Arrays.asList(Arrays.asList(RouteChange.added("peer", RIBSide.Remote, route)),
+        Arrays.asList(RouteChange.withdrawn("peer", RIBSide.Remote, route))), batches);
+  }
+
+}
@@ -0,0 +1,139 @@
+package io.netlibs.bgp.rib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.RIBSide;
+import io.netlibs.bgp.protocol.attributes.PathAttribute;
+
+public class RoutingInformationBaseSnapshotTest
+{
+
+  private final List<PathAttribute> attributes = Collections.emptyList();
+  private RoutingInformationBase rib;
+
+  private static NetworkLayerReachabilityInformation v4(final int prefixLength, final int... octets)
+  {
+    final byte[] prefix = new byte[octets.length];
+
+    for (int i = 0; i < octets.length; i++)
+    {
+      prefix[i] = (byte) octets[i];
+    }
+
+    return new NetworkLayerReachabilityInformation(prefixLength, prefix);
+  }
+
+  @Before
+  public void setUp()
+  {
+    this.rib = new RoutingInformationBase();
+    this.rib.setPeerName("peer");
+    this.rib.setSide(RIBSide.Remote);
+    this.rib.setAddressFamilyKey(AddressFamilyKey.IPV4_UNICAST_FORWARDING);
+  }
+
+  @Test
+  public void testSnapshotIsolatedFromLaterChanges()
+  {
+    this.rib.addRoutes(Arrays.asList(v4(24, 10, 0, 1), v4(16, 10, 0), v4(24, 10, 0, 0)), this.attributes, null);
+
+    final RoutingInformationBaseSnapshot snapshot = this.rib.snapshot();
+
+    this.rib.withdrawRoutes(Arrays.asList(v4(16, 10, 0), v4(24, 10, 0, 0)));
+    this.rib.addRoutes(Arrays.asList(v4(8, 11)), this.attributes, null);
+
+    final List<NetworkLayerReachabilityInformation> expected = Arrays.asList(v4(16, 10, 0), v4(24, 10, 0, 0), v4(24, 10, 0, 1));
+    final List<NetworkLayerReachabilityInformation> iterated = new LinkedList<NetworkLayerReachabilityInformation>();
+
+    for (final Route route : snapshot)
+    {
+      iterated.add(route.getNlri());
+    }
+
+    assertEquals(expected, iterated);
+    assertEquals(expected, snapshot.stream().map(Route::getNlri).collect(Collectors.toList()));
+    assertEquals(v4(16, 10, 0), snapshot.lookupRoute(v4(32, 10, 0, 2, 1)).getRoute().getNlri());
+    assertNull(snapshot.lookupRoute(v4(32, 11, 0, 0, 1)));
+
+    // the RIB itself moved on
+    assertNull(this.rib.lookupRoute(v4(32, 10, 0, 2, 1)));
+    assertEquals(2, this.rib.snapshot().stream().count());
+  }
+
+  @Test
+  public void testParallelStream()
+  {
+    final List<NetworkLayerReachabilityInformation> nlris = new LinkedList<NetworkLayerReachabilityInformation>();
+
+    // a default route, a skewed subtree below 10/8 and a few /8s
+    nlris.add(v4(0));
+
+    for (int i = 0; i < 1000; i++)
+    {
+      nlris.add(v4(24, 10, i >> 8, i & 0xff));
+    }
+
+    for (int i = 20; i < 30; i++)
+    {
+      nlris.add(v4(8, i));
+    }
+
+    this.rib.addRoutes(nlris, this.attributes, null);
+    this.rib.withdrawRoutes(Arrays.asList(v4(24, 10, 0, 7), v4(8, 25)));
+
+    final RoutingInformationBaseSnapshot snapshot = this.rib.snapshot();
+    final List<NetworkLayerReachabilityInformation> sequential = new LinkedList<NetworkLayerReachabilityInformation>();
+
+    snapshot.forEach(route -> sequential.add(route.getNlri()));
+
+    assertEquals(1009, snapshot.size());
+    assertEquals(1009, sequential.size());
+    assertEquals(sequential, this.rib.parallelStream().map(Route::getNlri).collect(Collectors.toList()));
+    assertEquals(999, snapshot.parallelStream().filter(route -> route.getNlri().getPrefixLength() == 24).count());
+
+    // the splits are exact and balanced
+    final Spliterator<Route> first = snapshot.spliterator();
+    final Spliterator<Route> prefix = first.trySplit();
+
+    assertTrue(first.hasCharacteristics(Spliterator.SUBSIZED));
+    assertEquals(1009, prefix.estimateSize() + first.estimateSize());
+    assertTrue(Math.abs(prefix.estimateSize() - first.estimateSize()) <= 1);
+
+    final List<NetworkLayerReachabilityInformation> split = new LinkedList<NetworkLayerReachabilityInformation>();
+
+    prefix.tryAdvance(route -> split.add(route.getNlri()));
+    prefix.forEachRemaining(route -> split.add(route.getNlri()));
+    first.forEachRemaining(route -> split.add(route.getNlri()));
+
+    assertEquals(sequential, split);
+  }
+
+  @Test
+  public void testEmptySnapshot()
+  {
+    final RoutingInformationBaseSnapshot snapshot = this.rib.snapshot();
+
+    this.rib.addRoutes(Arrays.asList(v4(24, 10, 0, 1)), this.attributes, null);
+
+    assertTrue(snapshot.isEmpty());
+    assertEquals(0, snapshot.stream().count());
+    assertEquals(0, snapshot.parallelStream().count());
+    assertEquals("peer", snapshot.getPeerName());
+    assertEquals(this.rib.getRibID(), snapshot.getRibID());
+  }
+
+}
@@ -0,0 +1,255 @@
+package io.netlibs.bgp.rib;
+
+import static io.netlibs.bgp.rib.NlriFixtures.nlri;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+
+public class RoutingTreeTest
+{
+
+  private static Route route(final AddressFamilyKey afk, final NetworkLayerReachabilityInformation nlri)
+  {
+    return new Route(afk, nlri, null, null);
+  }
+
+  private static Route v4(final int prefixLength, final int... octets)
+  {
+    return route(AddressFamilyKey.IPV4_UNICAST_FORWARDING, nlri(prefixLength, octets));
+  }
+
+  private static List<NetworkLayerReachabilityInformation> walk(final RoutingTree tree)
+  {
+    final List<NetworkLayerReachabilityInformation> result = new LinkedList<>();
+    tree.visitTree(route -> result.add(route.getNlri()));
+    return result;
+  }
+
+  @Test
+  public void testLongestPrefixMatch()
+  {
+    final RoutingTree tree = new RoutingTree();
+
+    assertTrue(tree.addRoute(v4(8, 10)));
+    assertTrue(tree.addRoute(v4(16, 10, 1)));
+    assertTrue(tree.addRoute(v4(24, 10, 1, 2)));
+    assertTrue(tree.addRoute(v4(24, 10, 2, 0)));
+
+    final AddressFamilyKey afk = AddressFamilyKey.IPV4_UNICAST_FORWARDING;
+
+    assertEquals(nlri(24, 10, 1, 2), tree.lookupRoute(afk, nlri(32, 10, 1, 2, 3)).getRoute().getNlri());
+    assertEquals(nlri(16, 10, 1), tree.lookupRoute(afk, nlri(24, 10, 1, 3)).getRoute().getNlri());
+    assertEquals(nlri(8, 10), tree.lookupRoute(afk, nlri(16, 10, 3)).getRoute().getNlri());
+    assertEquals(nlri(16, 10, 1), tree.lookupRoute(afk, nlri(16, 10, 1)).getRoute().getNlri());
+    assertNull(tree.lookupRoute(afk, nlri(8, 11)));
+
+    tree.addRoute(v4(0));
+
+    assertEquals(nlri(0), tree.lookupRoute(afk, nlri(8, 11)).getRoute().getNlri());
+  }
+
+  @Test
+  public void testInsertOrderIndependentWalk()
+  {
+    final RoutingTree first = new RoutingTree();
+    final RoutingTree second = new RoutingTree();
+
+    first.addRoute(v4(24, 192, 168, 1));
+    first.addRoute(v4(24, 192, 168, 0));
+    first.addRoute(v4(16, 192, 168));
+    first.addRoute(v4(8, 10));
+
+    second.addRoute(v4(8, 10));
+    second.addRoute(v4(16, 192, 168));
+    second.addRoute(v4(24, 192, 168, 0));
+    second.addRoute(v4(24, 192, 168, 1));
+
+    final List<NetworkLayerReachabilityInformation> expected = new LinkedList<>();
+    expected.add(nlri(8, 10));
+    expected.add(nlri(16, 192, 168));
+    expected.add(nlri(24, 192, 168, 0));
+    expected.add(nlri(24, 192, 168, 1));
+
+    assertEquals(expected, walk(first));
+    assertEquals(expected, walk(second));
+  }
+
+  @Test
+  public void testWithdraw()
+  {
+    final RoutingTree tree = new RoutingTree();
+    final AddressFamilyKey afk = AddressFamilyKey.IPV4_UNICAST_FORWARDING;
+
+    tree.addRoute(v4(16, 172, 16));
+    tree.addRoute(v4(24, 172, 16, 1));
+    tree.addRoute(v4(24, 172, 16, 2));
+
+    assertFalse(tree.withdrawRoute(v4(24, 172, 16, 3)));
+    assertFalse(tree.withdrawRoute(v4(8, 172)));
+
+    assertTrue(tree.withdrawRoute(v4(16, 172, 16)));
+    assertFalse(tree.withdrawRoute(v4(16, 172, 16)));
+    assertNull(tree.lookupRoute(afk, nlri(24, 172, 16, 3)));
+    assertEquals(nlri(24, 172, 16, 2), tree.lookupRoute(afk, nlri(32, 172, 16, 2, 1)).getRoute().getNlri());
+
+    assertTrue(tree.withdrawRoute(v4(24, 172, 16, 1)));
+    assertTrue(tree.withdrawRoute(v4(24, 172, 16, 2)));
+
+    assertTrue(walk(tree).isEmpty());
+    assertNull(tree.getRootNode().getLeft());
+    assertNull(tree.getRootNode().getRight());
+  }
+
+  @Test
+  public void testReplaceRoute()
+  {
+    final RoutingTree tree = new RoutingTree();
+    final Route replacement = v4(24, 10, 0, 0);
+
+    assertTrue(tree.addRoute(v4(24, 10, 0, 0)));
+    assertTrue(tree.addRoute(replacement));
+
+    assertEquals(1, walk(tree).size());
+    assertTrue(replacement == tree.lookupRoute(AddressFamilyKey.IPV4_UNICAST_FORWARDING, nlri(24, 10, 0, 0)).getRoute());
+  }
+
+  @Test
+  public void testLabelledFamilyIgnoresLabel()
+  {
+    final RoutingTree tree = new RoutingTree();
+    final AddressFamilyKey afk = AddressFamilyKey.IPV4_UNICAST_MPLS_FORWARDING;
+
+    tree.addRoute(route(afk, nlri(48, 0x01, 0x00, 0x01, 10, 1, 2)));
+
+    assertEquals(1, walk(tree).size());
+    assertTrue(tree.withdrawRoute(route(afk, nlri(48, 0x80, 0x00, 0x00, 10, 1, 2))));
+    assertTrue(walk(tree).isEmpty());
+  }
+
+  @Test
+  public void testVpnFamilySeparatesRouteDistinguishers()
+  {
+    final RoutingTree tree = new RoutingTree();
+    final AddressFamilyKey afk = AddressFamilyKey.IPV4_MPLS_VPN_FORWARDING;
+
+    // label, RD type 0 65000:1, 10.0.0.0/8
+    tree.addRoute(route(afk, nlri(96, 0, 0, 1, 0, 0, 0xfd, 0xe8, 0, 0, 0, 1, 10)));
+
+    // same prefix in RD 65000:2 must not be covered by the RD 65000:1 route
+    assertNull(tree.lookupRoute(afk, nlri(104, 0, 0, 1, 0, 0, 0xfd, 0xe8, 0, 0, 0, 2, 10, 1)));
+    assertEquals(96, tree.lookupRoute(afk, nlri(104, 0, 0, 1, 0, 0, 0xfd, 0xe8, 0, 0, 0, 1, 10, 1)).getRoute().getNlri().getPrefixLength());
+  }
+
+  @Test
+  public void testVpnIPv6KeysBeyondTwoWords()
+  {
+    final RoutingTree tree = new RoutingTree();
+    final AddressFamilyKey afk = AddressFamilyKey.IPV6_MPLS_VPN_FORWARDING;
+
+    // label, RD type 0 65000:1, 2001:db8::/126 and 2001:db8::4/126: the keys differ in bit 189
+    tree.addRoute(route(afk, nlri(214, 0, 0, 1, 0, 0, 0xfd, 0xe8, 0, 0, 0, 1, 0x20, 0x01, 0x0d, 0xb8, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0)));
+    tree.addRoute(route(afk, nlri(214, 0, 0, 1, 0, 0, 0xfd, 0xe8, 0, 0, 0, 1, 0x20, 0x01, 0x0d, 0xb8, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 4)));
+
+    assertEquals(2, walk(tree).size());
+    assertEquals(nlri(214, 0, 0, 1, 0, 0, 0xfd, 0xe8, 0, 0, 0, 1, 0x20, 0x01, 0x0d, 0xb8, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 4),
+        tree.lookupRoute(afk, nlri(216, 0, 0, 1, 0, 0, 0xfd, 0xe8, 0, 0, 0, 1, 0x20, 0x01, 0x0d, 0xb8, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 5))
+            .getRoute().getNlri());
+    assertNull(tree.lookupRoute(afk, nlri(216, 0, 0, 1, 0, 0, 0xfd, 0xe8, 0, 0, 0, 1, 0x20, 0x01, 0x0d, 0xb8, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 9)));
+    assertTrue(tree.withdrawRoute(route(afk, nlri(214, 0, 0, 1, 0, 0, 0xfd, 0xe8, 0, 0, 0, 1, 0x20, 0x01, 0x0d, 0xb8, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0))));
+    assertEquals(1, walk(tree).size());
+  }
+
+  @Test
+  public void testApplyBatch()
+  {
+    final RoutingTree tree = new RoutingTree();
+
+    tree.addRoute(v4(16, 172, 16));
+    tree.addRoute(v4(24, 172, 16, 1));
+
+    final RoutingTree.RoutingTreeNode before = tree.getRootNode();
+    final Route unknown = v4(24, 172, 16, 9);
+    final Route known = v4(24, 172, 16, 1);
+
+    final List<Route> withdrawn = tree.applyBatch(Arrays.asList(unknown, known),
+        Arrays.asList(v4(24, 172, 16, 1), v4(24, 172, 16, 2), v4(24, 172, 16, 3), v4(8, 10)));
+
+    assertEquals(Collections.singletonList(known), withdrawn);
+
+    final List<NetworkLayerReachabilityInformation> expected = new LinkedList<>();
+    expected.add(nlri(8, 10));
+    expected.add(nlri(16, 172, 16));
+    expected.add(nlri(24, 172, 16, 1));
+    expected.add(nlri(24, 172, 16, 2));
+    expected.add(nlri(24, 172, 16, 3));
+
+    assertEquals(expected, walk(tree));
+
+    // the version published before the batch is left untouched by the in-place edits of the batch
+    final List<NetworkLayerReachabilityInformation> previous = new LinkedList<>();
+    RoutingTree.visitTree(before, route -> previous.add(route.getNlri()));
+
+    assertEquals(Arrays.asList(nlri(16, 172, 16), nlri(24, 172, 16, 1)), previous);
+  }
+
+  @Test
+  public void testVisitDoesNotBlockWriters() throws Exception
+  {
+    final RoutingTree tree = new RoutingTree();
+    final ExecutorService writer = Executors.newSingleThreadExecutor();
+    final List<NetworkLayerReachabilityInformation> visited = new LinkedList<>();
+
+    tree.addRoute(v4(24, 10, 0, 0));
+    tree.addRoute(v4(24, 10, 0, 2));
+
+    try
+    {
+      tree.visitTree(route -> {
+        visited.add(route.getNlri());
+
+        try
+        {
+          // a writer running while the visit is in progress completes without waiting for the visit
+          writer.submit(() -> {
+            tree.addRoute(v4(24, 10, 0, 1));
+            tree.withdrawRoute(v4(24, 10, 0, 2));
+          }).get(5, TimeUnit.SECONDS);
+        }
+        catch (final Exception e)
+        {
+          throw new AssertionError(e);
+        }
+      });
+    }
+    finally
+    {
+      writer.shutdown();
+    }
+
+    // the visit sees the tree as it was when the visit started
+    assertEquals(2, visited.size());
+    assertEquals(nlri(24, 10, 0, 2), visited.get(1));
+
+    final List<NetworkLayerReachabilityInformation> expected = new LinkedList<>();
+    expected.add(nlri(24, 10, 0, 0));
+    expected.add(nlri(24, 10, 0, 1));
+
+    assertEquals(expected, walk(tree));
+  }
+
+}
@@ -0,0 +1,128 @@
+package io.netlibs.bgp.rib;
+
+import static io.netlibs.bgp.rib.NlriFixtures.vpn;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.RIBSide;
+
+public class VpnRoutingTreeTest
+{
+
+  private static final AddressFamilyKey AFK = AddressFamilyKey.IPV4_MPLS_VPN_FORWARDING;
+
+  private static long rd(final int rd)
+  {
+    return 0x0000fde800000000L | rd;
+  }
+
+  private static RoutingInformationBase rib()
+  {
+    final RoutingInformationBase rib = new RoutingInformationBase();
+
+    rib.setPeerName("pe");
+    rib.setSide(RIBSide.Remote);
+    rib.setAddressFamilyKey(AFK);
+
+    return rib;
+  }
+
+  private static List<NetworkLayerReachabilityInformation> nlris(final RoutingInformationBaseSnapshot snapshot)
+  {
+    return snapshot.stream().map(Route::getNlri).collect(Collectors.toList());
+  }
+
+  @Test
+  public void testPartitions()
+  {
+    final RoutingInformationBase rib = rib();
+    final List<NetworkLayerReachabilityInformation> all = new ArrayList<NetworkLayerReachabilityInformation>();
+
+    // the same prefixes in three VRFs, announced in one batch
+    for (final int rd : new int[] { 3, 1, 2 })
+    {
+      all.add(vpn(rd, 8, 10));
+      all.add(vpn(rd, 24, 10, 1, 2));
+      all.add(vpn(rd, 16, 10, 1));
+    }
+
+    all.add(vpn(2, 0));
+    rib.addRoutes(all, Collections.emptyList(), null);
+
+    assertEquals(Arrays.asList(rd(1), rd(2), rd(3)), rib.getRouteDistinguishers());
+    assertEquals(3, rib.countRoutes(rd(1)));
+    assertEquals(4, rib.countRoutes(rd(2)));
+    assertEquals(0, rib.countRoutes(rd(4)));
+    assertEquals(Arrays.asList(vpn(2, 0), vpn(2, 8, 10), vpn(2, 16, 10, 1), vpn(2, 24, 10, 1, 2)), nlris(rib.snapshot(rd(2))));
+
+    // the whole RIB is walked in the order of an unpartitioned tree
+    final RoutingInformationBaseSnapshot snapshot = rib.snapshot();
+    final RoutingTree unpartitioned = new RoutingTree();
+
+    for (final NetworkLayerReachabilityInformation nlri : all)
+    {
+      unpartitioned.addRoute(new Route(AFK, nlri, null, null));
+    }
+
+    final List<NetworkLayerReachabilityInformation> expected = new ArrayList<NetworkLayerReachabilityInformation>();
+
+    unpartitioned.visitTree(route -> expected.add(route.getNlri()));
+
+    assertEquals(10, snapshot.size());
+    assertEquals(expected, nlris(snapshot));
+    assertEquals(expected, snapshot.parallelStream().map(Route::getNlri).collect(Collectors.toList()));
+    assertEquals(3, snapshot.getRouteDistinguishers().length);
+
+    // lookups stay within the RD of the prefix
+    assertEquals(vpn(1, 16, 10, 1), rib.lookupRoute(vpn(1, 24, 10, 1, 3)).getRoute().getNlri());
+    assertEquals(vpn(2, 0), rib.lookupRoute(vpn(2, 8, 11)).getRoute().getNlri());
+    assertNull(rib.lookupRoute(vpn(1, 8, 11)));
+    assertNull(snapshot.lookupRoute(vpn(4, 8, 10)));
+    assertEquals(vpn(3, 24, 10, 1, 2), snapshot.lookupRoute(vpn(3, 32, 10, 1, 2, 1)).getRoute().getNlri());
+  }
+
+  @Test
+  public void testWithdrawDropsPartition()
+  {
+    final RoutingInformationBase rib = rib();
+
+    rib.addRoutes(Arrays.asList(vpn(1, 8, 10), vpn(2, 8, 10)), Collections.emptyList(), null);
+
+    final RoutingInformationBaseSnapshot before = rib.snapshot(rd(1));
+
+    // the unknown prefix is skipped, the batch withdraws RD 1 and adds to RD 3
+    rib.apply(new RibBatch().withdraw(AFK, Arrays.asList(vpn(1, 8, 10), vpn(2, 8, 11))).announce(AFK, Arrays.asList(vpn(3, 8, 10)),
+        Collections.emptyList(), null));
+
+    assertEquals(Arrays.asList(rd(2), rd(3)), rib.getRouteDistinguishers());
+    assertNull(rib.lookupRoute(vpn(1, 8, 10)));
+    assertEquals(1, before.size());
+    assertTrue(rib.snapshot(rd(1)).isEmpty());
+
+    rib.destroyRIB();
+
+    assertTrue(rib.snapshot().isEmpty());
+    assertTrue(rib.getRouteDistinguishers().isEmpty());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testUnpartitionedFamily()
+  {
+    final RoutingInformationBase rib = new RoutingInformationBase();
+
+    rib.setAddressFamilyKey(AddressFamilyKey.IPV4_UNICAST_FORWARDING);
+    rib.countRoutes(0);
+  }
+
+}
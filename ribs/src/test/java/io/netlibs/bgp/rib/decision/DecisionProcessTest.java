@@ -0,0 +1,215 @@
+package io.netlibs.bgp.rib.decision;
+
+import static io.netlibs.bgp.rib.RouteFixtures.nextHop;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import io.netlibs.bgp.protocol.ASType;
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.NextHop;
+import io.netlibs.bgp.protocol.PathSegment;
+import io.netlibs.bgp.protocol.PathSegmentType;
+import io.netlibs.bgp.protocol.RIBSide;
+import io.netlibs.bgp.protocol.attributes.ASPathAttribute;
+import io.netlibs.bgp.protocol.attributes.MultiExitDiscPathAttribute;
+import io.netlibs.bgp.protocol.attributes.PathAttribute;
+import io.netlibs.bgp.rib.LookupResult;
+import io.netlibs.bgp.rib.PeerRoutingInformationBase;
+import io.netlibs.bgp.rib.PeerRoutingInformationBaseManager;
+import io.netlibs.bgp.rib.Route;
+import io.netlibs.bgp.rib.RouteFixtures;
+import io.netlibs.bgp.rib.RoutingInformationBase;
+
+public class DecisionProcessTest
+{
+
+  private static final AddressFamilyKey AFK = AddressFamilyKey.IPV4_UNICAST_FORWARDING;
+  private static final NetworkLayerReachabilityInformation PREFIX = new NetworkLayerReachabilityInformation(24, new byte[] { 10, 0, 1 });
+
+  private PeerRoutingInformationBaseManager pribm;
+  private DecisionProcess decisionProcess;
+
+  @Before
+  public void setUp()
+  {
+    this.pribm = new PeerRoutingInformationBaseManager();
+    this.decisionProcess = new DecisionProcess(this.pribm);
+  }
+
+  private PeerRoutingInformationBase peer(final String name, final boolean external, final long bgpIdentifier)
+  {
+    final PeerRoutingInformationBase prib = this.pribm.peerRoutingInformationBase(name);
+
+    prib.allocateRoutingInformationBase(RIBSide.Remote, AFK);
+    this.decisionProcess.addPeer(prib, external, bgpIdentifier);
+
+    return prib;
+  }
+
+  private static List<PathAttribute> attributes(final int localPref, final int med, final int... asPath)
+  {
+    final List<PathAttribute> attributes = new ArrayList<PathAttribute>(RouteFixtures.attributes(localPref, asPath));
+
+    attributes.add(new MultiExitDiscPathAttribute(med));
+
+    return attributes;
+  }
+
+  private static void announce(final PeerRoutingInformationBase prib, final List<PathAttribute> attributes, final NextHop nextHop)
+  {
+    prib.routingBase(RIBSide.Remote, AFK).addRoutes(Arrays.asList(PREFIX), attributes, nextHop);
+  }
+
+  private static void withdraw(final PeerRoutingInformationBase prib)
+  {
+    prib.routingBase(RIBSide.Remote, AFK).withdrawRoutes(Arrays.asList(PREFIX));
+  }
+
+  private NextHop best()
+  {
+    final RoutingInformationBase locRib = this.decisionProcess.getLocRib().routingBase(RIBSide.Local, AFK);
+    final LookupResult result = (locRib != null) ? locRib.lookupRoute(PREFIX) : null;
+
+    return (result != null) ? result.getRoute().getNextHop() : null;
+  }
+
+  @Test
+  public void testBestPathFollowsChanges() throws Exception
+  {
+    final PeerRoutingInformationBase a = this.peer("a", true, 1);
+    final PeerRoutingInformationBase b = this.peer("b", true, 2);
+
+    announce(a, attributes(100, 0, 65001, 65010), nextHop(1));
+    assertEquals(nextHop(1), this.best());
+
+    // higher local preference beats the shorter path
+    announce(b, attributes(200, 0, 65002, 65003, 65010), nextHop(2));
+    assertEquals(nextHop(2), this.best());
+
+    // the same peer changes its path
+    announce(b, attributes(50, 0, 65002), nextHop(2));
+    assertEquals(nextHop(1), this.best());
+
+    withdraw(a);
+    assertEquals(nextHop(2), this.best());
+
+    withdraw(b);
+    assertNull(this.best());
+  }
+
+  @Test
+  public void testMultiExitDiscComparedWithinNeighborAS() throws Exception
+  {
+    final PeerRoutingInformationBase a = this.peer("a", true, 3);
+    final PeerRoutingInformationBase b = this.peer("b", true, 2);
+    final PeerRoutingInformationBase c = this.peer("c", false, 1);
+
+    // c is internal and has the lowest identifier but the same neighbor AS as a with a lower MED
+    announce(a, attributes(100, 20, 65001), nextHop(1));
+    announce(c, attributes(100, 10, 65001), nextHop(3));
+    assertEquals(nextHop(3), this.best());
+
+    // b has a higher MED than c, but from a different neighbor AS. a is out, external b wins over internal c
+    announce(b, attributes(100, 50, 65002), nextHop(2));
+    assertEquals(nextHop(2), this.best());
+
+    // once the peer is gone its paths are no candidates any more
+    this.decisionProcess.removePeer("b");
+    assertEquals(nextHop(3), this.best());
+  }
+
+  @Test
+  public void testMultipathGroupsSharedAndReplaced() throws Exception
+  {
+    final NetworkLayerReachabilityInformation other = new NetworkLayerReachabilityInformation(24, new byte[] { 10, 0, 2 });
+    final List<MultipathUpdate> updates = new ArrayList<MultipathUpdate>();
+    final PeerRoutingInformationBase a = this.peer("a", true, 1);
+    final PeerRoutingInformationBase b = this.peer("b", true, 2);
+    final PeerRoutingInformationBase c = this.peer("c", true, 3);
+
+    this.decisionProcess.addMultipathListener(updates::add);
+
+    a.routingBase(RIBSide.Remote, AFK).addRoutes(Arrays.asList(PREFIX, other), attributes(100, 0, 65001), nextHop(1));
+    b.routingBase(RIBSide.Remote, AFK).addRoutes(Arrays.asList(PREFIX, other), attributes(100, 0, 65002), nextHop(2));
+    // a longer path is not equal cost
+    c.routingBase(RIBSide.Remote, AFK).addRoutes(Arrays.asList(PREFIX, other), attributes(100, 0, 65003, 65004), nextHop(3));
+
+    final MultipathGroup group = this.decisionProcess.getMultipathGroup(AFK, PREFIX);
+
+    assertEquals(MultipathGroup.intern(Arrays.asList(nextHop(1), nextHop(2))), group);
+    assertSame(group, this.decisionProcess.getMultipathGroup(AFK, other));
+    assertEquals(1, this.decisionProcess.getMultipathGroupCount());
+
+    updates.clear();
+
+    // both prefixes lose the same member in one batch, the group is replaced as a whole
+    b.routingBase(RIBSide.Remote, AFK).withdrawRoutes(Arrays.asList(PREFIX, other));
+
+    final MultipathGroup single = MultipathGroup.intern(Arrays.asList(nextHop(1)));
+
+    assertEquals(1, updates.size());
+    assertEquals(Collections.singletonMap(group, single), updates.get(0).getReplacedGroups());
+    assertTrue(updates.get(0).getPrefixChanges().isEmpty());
+    assertSame(single, this.decisionProcess.getMultipathGroup(AFK, PREFIX));
+
+    updates.clear();
+
+    // only one prefix changes, reported per prefix
+    a.routingBase(RIBSide.Remote, AFK).withdrawRoutes(Arrays.asList(other));
+
+    assertEquals(1, updates.size());
+    assertTrue(updates.get(0).getReplacedGroups().isEmpty());
+    assertEquals(Collections.singletonMap(AFK, Collections.singletonMap(other, MultipathGroup.intern(Arrays.asList(nextHop(3))))),
+        updates.get(0).getPrefixChanges());
+  }
+
+  @Test
+  public void testExistingRoutesLoadedOnRegistration() throws Exception
+  {
+    final PeerRoutingInformationBase a = this.pribm.peerRoutingInformationBase("a");
+
+    a.allocateRoutingInformationBase(RIBSide.Remote, AFK);
+    announce(a, attributes(100, 0, 65001), nextHop(1));
+
+    assertNull(this.best());
+
+    this.decisionProcess.addPeer(a, true, 1);
+
+    assertEquals(nextHop(1), this.best());
+  }
+
+  @Test
+  public void testAS4PathMergedIntoASPath() throws Exception
+  {
+    final PeerRoutingInformationBase a = this.peer("a", true, 2);
+    final PeerRoutingInformationBase b = this.peer("b", true, 1);
+
+    // 65001 4200000001 65010 passed on by a 2-octet AS speaker, the 4-octet AS replaced by AS_TRANS in the AS_PATH
+    final List<PathAttribute> merged = attributes(100, 0, 65001, 23456, 65010);
+
+    merged.add(new ASPathAttribute(ASType.AS_NUMBER_4OCTETS, Arrays.asList(new PathSegment(ASType.AS_NUMBER_4OCTETS,
+        PathSegmentType.AS_SEQUENCE, new int[] { (int) 4200000001L, 65010 }))));
+
+    final PathDecisionKey key = PathDecisionKey.of(new Route(AFK, PREFIX, merged, null), "a", true, 2);
+
+    assertEquals(3, key.getAsPathLength());
+    assertEquals(65001, key.getNeighborAS());
+
+    // the merged path is shorter than the path of b, which has the lower identifier
+    announce(a, merged, nextHop(1));
+    announce(b, attributes(100, 0, 65002, 65003, 65004, 65010), nextHop(2));
+    assertEquals(nextHop(1), this.best());
+  }
+
+}
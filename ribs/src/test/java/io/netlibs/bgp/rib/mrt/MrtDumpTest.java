@@ -0,0 +1,171 @@
+package io.netlibs.bgp.rib.mrt;
+
+import static io.netlibs.bgp.rib.RouteFixtures.content;
+import static io.netlibs.bgp.rib.RouteFixtures.nextHop;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.netlibs.bgp.protocol.ASType;
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.BinaryNextHop;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.Origin;
+import io.netlibs.bgp.protocol.PathSegment;
+import io.netlibs.bgp.protocol.PathSegmentType;
+import io.netlibs.bgp.protocol.RIBSide;
+import io.netlibs.bgp.protocol.attributes.ASPathAttribute;
+import io.netlibs.bgp.protocol.attributes.MultiExitDiscPathAttribute;
+import io.netlibs.bgp.protocol.attributes.OriginPathAttribute;
+import io.netlibs.bgp.protocol.attributes.PathAttribute;
+import io.netlibs.bgp.rib.PeerRoutingInformationBaseManager;
+import io.netlibs.bgp.rib.RouteFixtures;
+import io.netlibs.bgp.rib.RoutingInformationBase;
+
+public class MrtDumpTest
+{
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final PeerRoutingInformationBaseManager source = new PeerRoutingInformationBaseManager();
+
+  private static List<PathAttribute> attributes(final int firstAs, final int med)
+  {
+    return Arrays.asList(new OriginPathAttribute(Origin.IGP), new MultiExitDiscPathAttribute(med),
+        new ASPathAttribute(ASType.AS_NUMBER_4OCTETS, new PathSegment[] {
+            new PathSegment(ASType.AS_NUMBER_4OCTETS, PathSegmentType.AS_SEQUENCE, new int[] { firstAs, (int) 4200000000L }) }));
+  }
+
+  private static List<NetworkLayerReachabilityInformation> prefixes(final int from, final int to)
+  {
+    final List<NetworkLayerReachabilityInformation> prefixes = RouteFixtures.prefixes(from, to);
+
+    // a less specific prefix covering the others
+    prefixes.add(new NetworkLayerReachabilityInformation(8, new byte[] { 10 }));
+
+    return prefixes;
+  }
+
+  private RoutingInformationBase rib(final String peerName, final AddressFamilyKey afk)
+  {
+    this.source.peerRoutingInformationBase(peerName).allocateRoutingInformationBase(RIBSide.Remote, afk);
+
+    return this.source.peerRoutingInformationBase(peerName).routingBase(RIBSide.Remote, afk);
+  }
+
+  private static MrtPeer peer(final int last) throws Exception
+  {
+    final Inet4Address address = (Inet4Address) InetAddress.getByAddress(new byte[] { (byte) 192, 0, 2, (byte) last });
+
+    return new MrtPeer(address, address, 64500 + last);
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception
+  {
+    final RoutingInformationBase a4 = this.rib("a", AddressFamilyKey.IPV4_UNICAST_FORWARDING);
+    final RoutingInformationBase a6 = this.rib("a", AddressFamilyKey.IPV6_UNICAST_FORWARDING);
+    final RoutingInformationBase b4 = this.rib("b", AddressFamilyKey.IPV4_UNICAST_FORWARDING);
+    final byte[] v6NextHop = InetAddress.getByName("2001:db8::1").getAddress();
+
+    a4.addRoutes(prefixes(0, 200), attributes(65001, 10), nextHop(1));
+    a4.addRoutes(prefixes(100, 150), attributes(65001, 20), nextHop(1));
+    b4.addRoutes(prefixes(50, 300), attributes(65002, 10), nextHop(2));
+    a6.addRoutes(Arrays.asList(new NetworkLayerReachabilityInformation(32, new byte[] { 0x20, 0x01, 0x0d, (byte) 0xb8 }),
+        new NetworkLayerReachabilityInformation(48, new byte[] { 0x20, 0x01, 0x0d, (byte) 0xb8, 0, 1 })), attributes(65001, 0),
+        new BinaryNextHop(v6NextHop));
+
+    final Map<RoutingInformationBase, MrtPeer> ribs = new LinkedHashMap<RoutingInformationBase, MrtPeer>();
+    final Map<MrtPeer, String> names = new HashMap<MrtPeer, String>();
+
+    ribs.put(a4, peer(1));
+    ribs.put(a6, peer(1));
+    ribs.put(b4, peer(2));
+    names.put(peer(1), "a");
+    names.put(peer(2), "b");
+
+    final File file = this.folder.newFile("rib.mrt");
+
+    // a small buffer, the dump is written in many chunks
+    try (MrtDumpWriter writer = new MrtDumpWriter(file.toPath(), peer(9).getBgpIdentifier(), "test", 256))
+    {
+      assertEquals(201 + 251 + 2, writer.dump(ribs));
+    }
+
+    // one peer index table, one record per IPv4 prefix of both peers and one per IPv6 prefix
+    assertEquals(1 + 301 + 2, countRecords(Files.readAllBytes(file.toPath())));
+
+    // a small window, the file is mapped in many pieces
+    final PeerRoutingInformationBaseManager target = new PeerRoutingInformationBaseManager();
+    final MrtDumpReader reader = new MrtDumpReader(file.toPath(), 7, 512);
+
+    assertEquals(201 + 251 + 2, reader.load(target, RIBSide.Remote, names::get));
+    assertEquals(Arrays.asList(peer(1), peer(2)), reader.getPeers());
+
+    assertEquals(content(a4), content(target.peerRoutingInformationBase("a").routingBase(RIBSide.Remote, AddressFamilyKey.IPV4_UNICAST_FORWARDING)));
+    assertEquals(content(a6), content(target.peerRoutingInformationBase("a").routingBase(RIBSide.Remote, AddressFamilyKey.IPV6_UNICAST_FORWARDING)));
+    assertEquals(content(b4), content(target.peerRoutingInformationBase("b").routingBase(RIBSide.Remote, AddressFamilyKey.IPV4_UNICAST_FORWARDING)));
+  }
+
+  @Test
+  public void testAS4PathMerged() throws Exception
+  {
+    final RoutingInformationBase a4 = this.rib("a", AddressFamilyKey.IPV4_UNICAST_FORWARDING);
+    final NetworkLayerReachabilityInformation prefix = new NetworkLayerReachabilityInformation(8, new byte[] { 10 });
+
+    // 65001 4200000001 65010 learned from a 2-octet AS speaker
+    a4.addRoutes(Arrays.asList(prefix), Arrays.asList(new OriginPathAttribute(Origin.IGP),
+        new ASPathAttribute(ASType.AS_NUMBER_2OCTETS, new PathSegment[] {
+            new PathSegment(ASType.AS_NUMBER_2OCTETS, PathSegmentType.AS_SEQUENCE, new int[] { 65001, 23456, 65010 }) }),
+        new ASPathAttribute(ASType.AS_NUMBER_4OCTETS, new PathSegment[] {
+            new PathSegment(ASType.AS_NUMBER_4OCTETS, PathSegmentType.AS_SEQUENCE, new int[] { (int) 4200000001L, 65010 }) })),
+        nextHop(1));
+
+    final File file = this.folder.newFile("rib.mrt");
+
+    try (MrtDumpWriter writer = new MrtDumpWriter(file.toPath(), peer(9).getBgpIdentifier(), "test", 256))
+    {
+      writer.dump(Collections.singletonMap(a4, peer(1)));
+    }
+
+    final PeerRoutingInformationBaseManager target = new PeerRoutingInformationBaseManager();
+
+    new MrtDumpReader(file.toPath(), 7, 512).load(target, RIBSide.Remote, peer -> "a");
+
+    assertEquals(new ASPathAttribute(ASType.AS_NUMBER_4OCTETS, new PathSegment[] {
+        new PathSegment(ASType.AS_NUMBER_4OCTETS, PathSegmentType.AS_SEQUENCE, new int[] { 65001, (int) 4200000001L, 65010 }) }),
+        target.peerRoutingInformationBase("a").routingBase(RIBSide.Remote, AddressFamilyKey.IPV4_UNICAST_FORWARDING).lookupRoute(prefix)
+            .getRoute().getPathAttributes().getASPath());
+  }
+
+  private static int countRecords(final byte[] data)
+  {
+    final ByteBuffer buffer = ByteBuffer.wrap(data);
+    int records = 0;
+
+    while (buffer.hasRemaining())
+    {
+      assertEquals(MrtFormat.TYPE_TABLE_DUMP_V2, buffer.getShort(buffer.position() + 4));
+      buffer.position(buffer.position() + MrtFormat.HEADER_SIZE + buffer.getInt(buffer.position() + 8));
+      records++;
+    }
+
+    return records;
+  }
+
+}
@@ -0,0 +1,69 @@
+package io.netlibs.bgp.rib.snapshot;
+
+import static io.netlibs.bgp.rib.RouteFixtures.prefixes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.NetworkLayerReachabilityInformation;
+import io.netlibs.bgp.protocol.RIBSide;
+
+public class RestoredRoutesTest
+{
+
+  @Test
+  public void testChurn()
+  {
+    final RestoredRoutes routes = new RestoredRoutes(new RibKey("a", RIBSide.Remote, AddressFamilyKey.IPV4_UNICAST_FORWARDING));
+    final List<NetworkLayerReachabilityInformation> prefixes = prefixes(0, 2000);
+    final Map<NetworkLayerReachabilityInformation, Integer> expected = new HashMap<NetworkLayerReachabilityInformation, Integer>();
+
+    // flapping routes leave withdrawn slots behind, which are dropped when the table is rebuilt
+    for (int round = 0; round < 10; round++)
+    {
+      for (int i = 0; i < prefixes.size(); i++)
+      {
+        if (((i + round) % 3) == 0)
+        {
+          routes.remove(prefixes.get(i));
+          expected.remove(prefixes.get(i));
+        }
+        else
+        {
+          routes.put(prefixes.get(i), i % 5, (i % 2) - 1);
+          expected.put(prefixes.get(i), i % 5);
+        }
+      }
+    }
+
+    assertEquals(expected.size(), routes.size());
+
+    final Set<NetworkLayerReachabilityInformation> grouped = new HashSet<NetworkLayerReachabilityInformation>();
+    final List<RestoredRoutes.Group> groups = routes.group();
+
+    assertEquals(10, groups.size());
+
+    for (final RestoredRoutes.Group group : groups)
+    {
+      for (final NetworkLayerReachabilityInformation nlri : group.getNlris())
+      {
+        final int i = prefixes.indexOf(nlri);
+
+        assertEquals(i % 5, group.getAttributeSetId());
+        assertEquals((i % 2) - 1, group.getNextHopId());
+        assertTrue(grouped.add(nlri));
+      }
+    }
+
+    assertEquals(expected.keySet(), grouped);
+  }
+
+}
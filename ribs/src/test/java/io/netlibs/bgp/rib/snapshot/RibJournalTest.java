@@ -0,0 +1,170 @@
+package io.netlibs.bgp.rib.snapshot;
+
+import static io.netlibs.bgp.rib.RouteFixtures.attributes;
+import static io.netlibs.bgp.rib.RouteFixtures.content;
+import static io.netlibs.bgp.rib.RouteFixtures.nextHop;
+import static io.netlibs.bgp.rib.RouteFixtures.prefixes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.RIBSide;
+import io.netlibs.bgp.rib.PeerRoutingInformationBaseManager;
+import io.netlibs.bgp.rib.RoutingInformationBase;
+
+public class RibJournalTest
+{
+
+  private static final AddressFamilyKey AFK = AddressFamilyKey.IPV4_UNICAST_FORWARDING;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final PeerRoutingInformationBaseManager source = new PeerRoutingInformationBaseManager();
+  private RoutingInformationBase rib;
+  private Path directory;
+
+  @Before
+  public void setUp() throws Exception
+  {
+    this.source.peerRoutingInformationBase("a").allocateRoutingInformationBase(RIBSide.Remote, AFK);
+    this.rib = this.source.peerRoutingInformationBase("a").routingBase(RIBSide.Remote, AFK);
+    this.directory = this.folder.newFolder("journal").toPath();
+  }
+
+  private void churn(final int rounds) throws Exception
+  {
+    for (int i = 0; i < rounds; i++)
+    {
+      this.rib.addRoutes(prefixes(10 * i, (10 * i) + 50), attributes(100 + i), nextHop(i % 3));
+      this.rib.withdrawRoutes(prefixes(10 * i, (10 * i) + 5));
+    }
+  }
+
+  @Test
+  public void testReplayReproducesRib() throws Exception
+  {
+    // small segments, the journal rolls over several times
+    try (RibJournal journal = new RibJournal(this.directory, Runnable::run, 4096, false))
+    {
+      this.rib.addPerRibListener(journal);
+      this.churn(40);
+
+      assertEquals(80, journal.getSequence());
+      assertEquals(80, journal.getCommittedSequence());
+    }
+
+    final RibJournalReader reader = new RibJournalReader(this.directory);
+    final List<Long> sequences = new ArrayList<Long>();
+
+    assertTrue(reader.getSegmentSequences().size() > 1);
+    assertEquals(80, reader.read(0, entry -> sequences.add(entry.getSequence())));
+    assertEquals(80, sequences.size());
+    assertEquals(Long.valueOf(80), sequences.get(79));
+
+    final PeerRoutingInformationBaseManager target = new PeerRoutingInformationBaseManager();
+
+    reader.replay(target, 0);
+
+    assertEquals(content(this.rib), content(target.peerRoutingInformationBase("a").routingBase(RIBSide.Remote, AFK)));
+  }
+
+  @Test
+  public void testCheckpointAndTornTail() throws Exception
+  {
+    final File snapshot = this.folder.newFile("rib.snapshot");
+    final long checkpoint;
+
+    try (RibJournal journal = new RibJournal(this.directory, Runnable::run, 4096, false))
+    {
+      this.rib.addPerRibListener(journal);
+      this.churn(20);
+
+      checkpoint = journal.roll();
+
+      try (RibSnapshotWriter writer = new RibSnapshotWriter(snapshot.toPath()))
+      {
+        writer.writeSnapshot(this.rib.snapshot());
+      }
+
+      this.rib.addRoutes(prefixes(300, 310), attributes(300), nextHop(7));
+
+      assertTrue(journal.deleteSegmentsBefore(checkpoint) > 0);
+      assertEquals(Arrays.asList(checkpoint), new RibJournalReader(this.directory).getSegmentSequences());
+
+      this.rib.removePerRibListener(journal);
+    }
+
+    // a torn write at the end of the last segment
+    final File segment = this.directory.resolve(RibSnapshotFormat.segmentName(checkpoint)).toFile();
+
+    try (RandomAccessFile file = new RandomAccessFile(segment, "rw"))
+    {
+      file.seek(file.length());
+      file.write(new byte[] { 0, 0, 1, 0, 0, 0 });
+    }
+
+    final PeerRoutingInformationBaseManager target = new PeerRoutingInformationBaseManager();
+
+    new RibSnapshotLoader(target).load(snapshot.toPath());
+    assertEquals(checkpoint, new RibJournalReader(this.directory).replay(target, checkpoint));
+    assertEquals(content(this.rib), content(target.peerRoutingInformationBase("a").routingBase(RIBSide.Remote, AFK)));
+
+    // a reopened journal continues after the last complete entry
+    try (RibJournal journal = new RibJournal(this.directory, Runnable::run))
+    {
+      assertEquals(checkpoint, journal.getSequence());
+    }
+  }
+
+  @Test
+  public void testRestartAfterTornFirstSegment() throws Exception
+  {
+    try (RibJournal journal = new RibJournal(this.directory, Runnable::run, 4096, false))
+    {
+      this.rib.addPerRibListener(journal);
+      this.churn(1);
+      this.rib.removePerRibListener(journal);
+    }
+
+    // the process died while writing the first entry of the only segment
+    final File segment = this.directory.resolve(RibSnapshotFormat.segmentName(1)).toFile();
+
+    try (RandomAccessFile file = new RandomAccessFile(segment, "rw"))
+    {
+      file.setLength(RibSnapshotFormat.JOURNAL_HEADER_SIZE + 6);
+    }
+
+    assertEquals(0, new RibJournalReader(this.directory).getLastSequence());
+
+    try (RibJournal journal = new RibJournal(this.directory, Runnable::run, 4096, false))
+    {
+      assertEquals(0, journal.getSequence());
+
+      this.rib.addPerRibListener(journal);
+      this.churn(3);
+
+      assertTrue(journal.isActive());
+      assertEquals(6, journal.getCommittedSequence());
+    }
+
+    final List<Long> sequences = new ArrayList<Long>();
+
+    assertEquals(Arrays.asList(1L), new RibJournalReader(this.directory).getSegmentSequences());
+    assertEquals(6, new RibJournalReader(this.directory).read(0, entry -> sequences.add(entry.getSequence())));
+    assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L), sequences);
+  }
+
+}
@@ -0,0 +1,151 @@
+package io.netlibs.bgp.rib.snapshot;
+
+import static io.netlibs.bgp.rib.RouteFixtures.attributes;
+import static io.netlibs.bgp.rib.RouteFixtures.content;
+import static io.netlibs.bgp.rib.RouteFixtures.nextHop;
+import static io.netlibs.bgp.rib.RouteFixtures.prefixes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.netlibs.bgp.protocol.AddressFamilyKey;
+import io.netlibs.bgp.protocol.RIBSide;
+import io.netlibs.bgp.rib.PathAttributeSet;
+import io.netlibs.bgp.rib.PeerRoutingInformationBaseManager;
+import io.netlibs.bgp.rib.Route;
+import io.netlibs.bgp.rib.RoutingInformationBase;
+
+public class RibSnapshotTest
+{
+
+  private static final AddressFamilyKey AFK = AddressFamilyKey.IPV4_UNICAST_FORWARDING;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final PeerRoutingInformationBaseManager source = new PeerRoutingInformationBaseManager();
+  private RoutingInformationBase rib;
+  private File file;
+
+  @Before
+  public void setUp() throws Exception
+  {
+    this.source.peerRoutingInformationBase("a").allocateRoutingInformationBase(RIBSide.Remote, AFK);
+    this.rib = this.source.peerRoutingInformationBase("a").routingBase(RIBSide.Remote, AFK);
+    this.file = this.folder.newFile("rib.snapshot");
+  }
+
+  private int writeAndLoad(final PeerRoutingInformationBaseManager target) throws Exception
+  {
+    // a tiny mapping makes the writer remap several times
+    try (RibSnapshotWriter writer = new RibSnapshotWriter(this.file.toPath(), 64))
+    {
+      this.rib.addPerRibListener(writer);
+      writer.writeSnapshot(this.rib.snapshot());
+
+      this.rib.addRoutes(prefixes(500, 1000), attributes(200, 65002), nextHop(2));
+      this.rib.withdrawRoutes(prefixes(0, 100));
+    }
+
+    return new RibSnapshotLoader(target).load(this.file.toPath());
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception
+  {
+    this.rib.addRoutes(prefixes(0, 500), attributes(100, 65001, 65010), nextHop(1));
+
+    final PeerRoutingInformationBaseManager target = new PeerRoutingInformationBaseManager();
+
+    assertEquals(900, this.writeAndLoad(target));
+
+    final RoutingInformationBase restored = target.peerRoutingInformationBase("a").routingBase(RIBSide.Remote, AFK);
+
+    assertEquals(900, restored.snapshot().stream().count());
+    assertNull(restored.lookupRoute(prefixes(50, 51).get(0)));
+
+    for (final Route route : restored.snapshot())
+    {
+      final Route original = this.rib.lookupRoute(route.getNlri()).getRoute();
+
+      // the decoded attributes are interned into the very bundle the original routes share
+      assertSame(original.getPathAttributes(), route.getPathAttributes());
+      assertEquals(original.getNextHop(), route.getNextHop());
+    }
+
+    assertSame(PathAttributeSet.intern(attributes(200, 65002)), restored.lookupRoute(prefixes(700, 701).get(0)).getRoute()
+        .getPathAttributes());
+  }
+
+  @Test
+  public void testStaleRoutesSwept() throws Exception
+  {
+    this.rib.addRoutes(prefixes(0, 500), attributes(100, 65001), nextHop(1));
+
+    final PeerRoutingInformationBaseManager target = new PeerRoutingInformationBaseManager();
+    final RibSnapshotLoader loader = new RibSnapshotLoader(target);
+
+    try (RibSnapshotWriter writer = new RibSnapshotWriter(this.file.toPath()))
+    {
+      writer.writeSnapshot(this.rib.snapshot());
+    }
+
+    assertEquals(500, loader.load(this.file.toPath()));
+    assertEquals(500, loader.getStaleRouteCount());
+
+    // the peer comes back and announces part of its former table again
+    final RoutingInformationBase restored = target.peerRoutingInformationBase("a").routingBase(RIBSide.Remote, AFK);
+
+    restored.addRoutes(prefixes(0, 300), attributes(100, 65001), nextHop(1));
+
+    assertEquals(200, loader.getStaleRouteCount());
+    assertEquals(200, loader.sweep("a"));
+    assertEquals(0, loader.getStaleRouteCount());
+    assertEquals(300, restored.snapshot().stream().count());
+  }
+
+  @Test
+  public void testCompaction() throws Exception
+  {
+    final int compactions;
+    final long written;
+
+    this.rib.addRoutes(prefixes(0, 200), attributes(100, 65001), nextHop(1));
+
+    try (RibSnapshotWriter writer = new RibSnapshotWriter(this.file.toPath(), 64, 16384))
+    {
+      this.rib.addPerRibListener(writer);
+      writer.writeSnapshot(this.rib.snapshot());
+
+      // the same routes flap between two attribute sets and next hops
+      for (int round = 0; round < 50; round++)
+      {
+        this.rib.addRoutes(prefixes(0, 100), attributes(100 + (round % 2), 65001), nextHop(1 + (round % 2)));
+        this.rib.withdrawRoutes(prefixes(100 + round, 101 + round));
+      }
+
+      compactions = writer.getCompactions();
+      written = writer.getSize();
+    }
+
+    assertTrue(compactions > 0);
+    assertTrue(written < 16384);
+
+    // the file is truncated to the records written
+    assertEquals(written, this.file.length());
+
+    final PeerRoutingInformationBaseManager target = new PeerRoutingInformationBaseManager();
+
+    assertEquals(150, new RibSnapshotLoader(target).load(this.file.toPath()));
+    assertEquals(content(this.rib), content(target.peerRoutingInformationBase("a").routingBase(RIBSide.Remote, AFK)));
+  }
+
+}